@@ -47,6 +47,13 @@ dependencies {
     implementation("software.amazon.awssdk:auth")
     implementation("software.amazon.awssdk:regions")
 
+    // ZIP/TAR reading for the admin archive import
+    implementation("org.apache.commons:commons-compress:1.26.2")
+
+    // In-memory full-text index of file names (GET /files/search)
+    implementation("org.apache.lucene:lucene-core:9.11.1")
+    implementation("org.apache.lucene:lucene-analysis-common:9.11.1")
+
     // JWT (Nimbus JOSE + JWT)
     implementation("com.nimbusds:nimbus-jose-jwt:9.40")
 
@@ -72,6 +79,7 @@ flyway {
     password = System.getenv("MYSQL_PASSWORD") ?: "fs_pass_123"
     driver = "com.mysql.cj.jdbc.Driver"
     locations = arrayOf("filesystem:src/main/resources/db/migration")
+    placeholders = mapOf("bucket" to (System.getenv("S3_BUCKET") ?: "file-storage"))
     cleanDisabled = true
 
     configurations = arrayOf("flywayMigration")
@@ -80,3 +88,18 @@ flyway {
 tasks.withType<Test> {
     useJUnitPlatform()
 }
+
+tasks.test {
+    useJUnitPlatform { excludeTags("benchmark") }
+}
+
+// PUT throughput per object key layout (KeyLayoutBenchmarkIT), against LocalStack by default
+tasks.register<Test>("benchmark") {
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform { includeTags("benchmark") }
+    systemProperties(System.getProperties().filterKeys { it.toString().startsWith("benchmark.") }
+        .mapKeys { it.key.toString() })
+    outputs.upToDateWhen { false }
+}
@@ -1,13 +1,34 @@
 package com.crudapp.filestorage;
 
+import com.crudapp.filestorage.config.CacheProps;
+import com.crudapp.filestorage.config.CdnProps;
+import com.crudapp.filestorage.config.DownloadProps;
+import com.crudapp.filestorage.config.EncryptionProps;
+import com.crudapp.filestorage.config.EventPartitionProps;
+import com.crudapp.filestorage.config.ImportProps;
 import com.crudapp.filestorage.config.JwtProps;
+import com.crudapp.filestorage.config.QuotaProps;
+import com.crudapp.filestorage.config.RateLimitProps;
+import com.crudapp.filestorage.config.ReconcilerProps;
 import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.config.SearchProps;
+import com.crudapp.filestorage.config.SpoolProps;
+import com.crudapp.filestorage.config.ThumbnailProps;
+import com.crudapp.filestorage.config.TieringProps;
+import com.crudapp.filestorage.config.UploadProps;
+import com.crudapp.filestorage.config.VersionProps;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@EnableConfigurationProperties({S3Props.class, JwtProps.class})
+@EnableConfigurationProperties({S3Props.class, JwtProps.class, DownloadProps.class, CacheProps.class, SpoolProps.class,
+        ReconcilerProps.class, EventPartitionProps.class, QuotaProps.class,
+        RateLimitProps.class, ImportProps.class, UploadProps.class,
+        ThumbnailProps.class, EncryptionProps.class, VersionProps.class,
+        TieringProps.class, CdnProps.class, SearchProps.class})
 @SpringBootApplication
+@EnableScheduling
 public class FileStorageApplication {
     public static void main(String[] args) {
         SpringApplication.run(FileStorageApplication.class, args);
@@ -0,0 +1,50 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "storage.cache")
+public class CacheProps {
+    private boolean enabled = false;
+    private String dir = System.getProperty("java.io.tmpdir") + "/fs-object-cache";
+    private DataSize maxSize = DataSize.ofGigabytes(10);
+    private DataSize maxObjectSize = DataSize.ofMegabytes(256);
+    private Duration revalidateAfter = Duration.ofMinutes(5);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+    public void setDir(String dir) {
+        this.dir = dir;
+    }
+
+    public DataSize getMaxSize() {
+        return maxSize;
+    }
+    public void setMaxSize(DataSize maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public DataSize getMaxObjectSize() {
+        return maxObjectSize;
+    }
+    public void setMaxObjectSize(DataSize maxObjectSize) {
+        this.maxObjectSize = maxObjectSize;
+    }
+
+    public Duration getRevalidateAfter() {
+        return revalidateAfter;
+    }
+    public void setRevalidateAfter(Duration revalidateAfter) {
+        this.revalidateAfter = revalidateAfter;
+    }
+}
@@ -0,0 +1,54 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "storage.cdn")
+public class CdnProps {
+    private boolean enabled = false;
+    /** CDN origin in front of the buckets; public files are served as {@code <baseUrl>/<bucket>/<key>}. */
+    private String baseUrl;
+    private Duration presignTtl = Duration.ofMinutes(15);
+    /**
+     * Signing time is rounded down to this window, so a page reloaded within it gets the same
+     * URLs and the browser can serve them from its cache.
+     */
+    private Duration presignWindow = Duration.ofMinutes(5);
+    private int presignMaxFiles = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public Duration getPresignTtl() {
+        return presignTtl;
+    }
+    public void setPresignTtl(Duration presignTtl) {
+        this.presignTtl = presignTtl;
+    }
+
+    public Duration getPresignWindow() {
+        return presignWindow;
+    }
+    public void setPresignWindow(Duration presignWindow) {
+        this.presignWindow = presignWindow;
+    }
+
+    public int getPresignMaxFiles() {
+        return presignMaxFiles;
+    }
+    public void setPresignMaxFiles(int presignMaxFiles) {
+        this.presignMaxFiles = presignMaxFiles;
+    }
+}
@@ -0,0 +1,68 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@ConfigurationProperties(prefix = "storage.download")
+public class DownloadProps {
+    private boolean parallel = true;
+    private DataSize parallelThreshold = DataSize.ofMegabytes(64);
+    private int concurrency = 8;
+    private DataSize minPartSize = DataSize.ofMegabytes(8);
+    private DataSize maxPartSize = DataSize.ofMegabytes(64);
+    private DataSize bufferBudget = DataSize.ofMegabytes(512);
+    private int archiveMaxFiles = 1000;
+
+    public boolean isParallel() {
+        return parallel;
+    }
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public DataSize getParallelThreshold() {
+        return parallelThreshold;
+    }
+    public void setParallelThreshold(DataSize parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public DataSize getMinPartSize() {
+        return minPartSize;
+    }
+    public void setMinPartSize(DataSize minPartSize) {
+        this.minPartSize = minPartSize;
+    }
+
+    public DataSize getMaxPartSize() {
+        return maxPartSize;
+    }
+    public void setMaxPartSize(DataSize maxPartSize) {
+        this.maxPartSize = maxPartSize;
+    }
+
+    /**
+     * Bytes all parallel downloads of this instance may hold in memory at once. A download
+     * that does not fit is streamed with a single GetObject instead.
+     */
+    public DataSize getBufferBudget() {
+        return bufferBudget;
+    }
+    public void setBufferBudget(DataSize bufferBudget) {
+        this.bufferBudget = bufferBudget;
+    }
+
+    public int getArchiveMaxFiles() {
+        return archiveMaxFiles;
+    }
+    public void setArchiveMaxFiles(int archiveMaxFiles) {
+        this.archiveMaxFiles = archiveMaxFiles;
+    }
+}
@@ -0,0 +1,41 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@ConfigurationProperties(prefix = "storage.encryption")
+public class EncryptionProps {
+    private boolean enabled = false;
+    private boolean byDefault = false;
+    /** Base64 of a 256-bit AES key that wraps the per-file data keys. */
+    private String masterKey;
+    private DataSize frameSize = DataSize.ofKilobytes(64);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isByDefault() {
+        return byDefault;
+    }
+    public void setByDefault(boolean byDefault) {
+        this.byDefault = byDefault;
+    }
+
+    public String getMasterKey() {
+        return masterKey;
+    }
+    public void setMasterKey(String masterKey) {
+        this.masterKey = masterKey;
+    }
+
+    public DataSize getFrameSize() {
+        return frameSize;
+    }
+    public void setFrameSize(DataSize frameSize) {
+        this.frameSize = frameSize;
+    }
+}
@@ -0,0 +1,48 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "storage.events")
+public class EventPartitionProps {
+    private boolean maintenance = true;
+    private int monthsAhead = 3;
+    // 0 keeps every partition
+    private int retentionMonths = 12;
+    private boolean archive = true;
+    private String archivePrefix = "sys/events-archive/";
+
+    public boolean isMaintenance() {
+        return maintenance;
+    }
+    public void setMaintenance(boolean maintenance) {
+        this.maintenance = maintenance;
+    }
+
+    public int getMonthsAhead() {
+        return monthsAhead;
+    }
+    public void setMonthsAhead(int monthsAhead) {
+        this.monthsAhead = monthsAhead;
+    }
+
+    public int getRetentionMonths() {
+        return retentionMonths;
+    }
+    public void setRetentionMonths(int retentionMonths) {
+        this.retentionMonths = retentionMonths;
+    }
+
+    public boolean isArchive() {
+        return archive;
+    }
+    public void setArchive(boolean archive) {
+        this.archive = archive;
+    }
+
+    public String getArchivePrefix() {
+        return archivePrefix;
+    }
+    public void setArchivePrefix(String archivePrefix) {
+        this.archivePrefix = archivePrefix;
+    }
+}
@@ -0,0 +1,32 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@ConfigurationProperties(prefix = "storage.import")
+public class ImportProps {
+    private int batchSize = 500;
+    private DataSize partSize = DataSize.ofMegabytes(8);
+    private int partConcurrency = 4;
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public DataSize getPartSize() {
+        return partSize;
+    }
+    public void setPartSize(DataSize partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getPartConcurrency() {
+        return partConcurrency;
+    }
+    public void setPartConcurrency(int partConcurrency) {
+        this.partConcurrency = partConcurrency;
+    }
+}
@@ -0,0 +1,37 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "storage.quota")
+public class QuotaProps {
+    // off by default: files stored before size_bytes existed count as 0 bytes
+    private boolean enabled = false;
+    private DataSize defaultLimit = DataSize.ofGigabytes(10);
+    // role name -> limit; a user gets the largest limit among their roles
+    private Map<String, DataSize> roles = new HashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public DataSize getDefaultLimit() {
+        return defaultLimit;
+    }
+    public void setDefaultLimit(DataSize defaultLimit) {
+        this.defaultLimit = defaultLimit;
+    }
+
+    public Map<String, DataSize> getRoles() {
+        return roles;
+    }
+    public void setRoles(Map<String, DataSize> roles) {
+        this.roles = roles;
+    }
+}
@@ -0,0 +1,180 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "storage.ratelimit")
+public class RateLimitProps {
+    private boolean enabled = true;
+    // limits for authenticated users without a role override
+    private Limits user = new Limits(20, 40, 4);
+    // limits per client address for unauthenticated requests (/auth/**)
+    private Limits anonymous = new Limits(5, 10, 0);
+    // role name -> limits; a user gets the most generous limits among their roles
+    private Map<String, Limits> roles = new HashMap<>();
+    // users and client addresses tracked at once; the least recently seen idle ones go first
+    private int maxTenants = 100_000;
+    // a tenant idle this long is forgotten; its bucket has long refilled by then
+    private Duration tenantIdleTimeout = Duration.ofMinutes(10);
+    // how long a user's limits are kept before their roles are looked at again
+    private Duration limitsTtl = Duration.ofMinutes(1);
+    private Adaptive adaptive = new Adaptive();
+
+    public static class Limits {
+        private double requestsPerSecond;
+        private int burst;
+        private int uploadSlots;
+
+        public Limits() {
+        }
+
+        public Limits(double requestsPerSecond, int burst, int uploadSlots) {
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+            this.uploadSlots = uploadSlots;
+        }
+
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+        public void setRequestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+
+        public int getUploadSlots() {
+            return uploadSlots;
+        }
+        public void setUploadSlots(int uploadSlots) {
+            this.uploadSlots = uploadSlots;
+        }
+    }
+
+    /** Node-wide limit on S3-bound requests, adjusted from observed S3 latency. */
+    public static class Adaptive {
+        private boolean enabled = true;
+        private int initialLimit = 64;
+        private int minLimit = 8;
+        private int maxLimit = 512;
+        // shrink the limit when recent latency exceeds the long-term baseline by this factor
+        private double tolerance = 2.0;
+        // latency of calls moving more than this grows with the payload, not with load: not sampled
+        private DataSize sampleMaxBytes = DataSize.ofMegabytes(1);
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        public DataSize getSampleMaxBytes() {
+            return sampleMaxBytes;
+        }
+        public void setSampleMaxBytes(DataSize sampleMaxBytes) {
+            this.sampleMaxBytes = sampleMaxBytes;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Limits getUser() {
+        return user;
+    }
+    public void setUser(Limits user) {
+        this.user = user;
+    }
+
+    public Limits getAnonymous() {
+        return anonymous;
+    }
+    public void setAnonymous(Limits anonymous) {
+        this.anonymous = anonymous;
+    }
+
+    public Map<String, Limits> getRoles() {
+        return roles;
+    }
+    public void setRoles(Map<String, Limits> roles) {
+        this.roles = roles;
+    }
+
+    public int getMaxTenants() {
+        return maxTenants;
+    }
+    public void setMaxTenants(int maxTenants) {
+        this.maxTenants = maxTenants;
+    }
+
+    public Duration getTenantIdleTimeout() {
+        return tenantIdleTimeout;
+    }
+    public void setTenantIdleTimeout(Duration tenantIdleTimeout) {
+        this.tenantIdleTimeout = tenantIdleTimeout;
+    }
+
+    public Duration getLimitsTtl() {
+        return limitsTtl;
+    }
+    public void setLimitsTtl(Duration limitsTtl) {
+        this.limitsTtl = limitsTtl;
+    }
+
+    public Adaptive getAdaptive() {
+        return adaptive;
+    }
+    public void setAdaptive(Adaptive adaptive) {
+        this.adaptive = adaptive;
+    }
+}
@@ -0,0 +1,57 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "storage.reconciler")
+public class ReconcilerProps {
+    private boolean enabled = false;
+    private String prefix = "u";
+    private int batchSize = 500;
+    private int deletesPerSecond = 100;
+    private int maxKeysPerRun = 100_000;
+    private Duration orphanGracePeriod = Duration.ofHours(24);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getDeletesPerSecond() {
+        return deletesPerSecond;
+    }
+    public void setDeletesPerSecond(int deletesPerSecond) {
+        this.deletesPerSecond = deletesPerSecond;
+    }
+
+    public int getMaxKeysPerRun() {
+        return maxKeysPerRun;
+    }
+    public void setMaxKeysPerRun(int maxKeysPerRun) {
+        this.maxKeysPerRun = maxKeysPerRun;
+    }
+
+    public Duration getOrphanGracePeriod() {
+        return orphanGracePeriod;
+    }
+    public void setOrphanGracePeriod(Duration orphanGracePeriod) {
+        this.orphanGracePeriod = orphanGracePeriod;
+    }
+}
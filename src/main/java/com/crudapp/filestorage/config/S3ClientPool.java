@@ -0,0 +1,71 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clients for every bucket the service stores objects in. Buckets on the same endpoint share
+ * one client and one presigner, so a shard costs a connection pool per endpoint, not per
+ * bucket. Unknown buckets (the cold bucket, derived data) resolve to the main endpoint.
+ */
+public class S3ClientPool implements DisposableBean {
+
+    public record Target(String bucket, String endpoint, String publicBaseUrl, int weight, String region,
+                         AwsBasicCredentials credentials, S3AsyncClient client, S3Presigner presigner) {}
+
+    private final Map<String, Target> targets = new LinkedHashMap<>();
+    private final Target main;
+    private final List<AutoCloseable> owned = new ArrayList<>();
+
+    S3ClientPool(Target main) {
+        this.main = main;
+        targets.put(main.bucket(), main);
+    }
+
+    void add(Target target) {
+        if (targets.putIfAbsent(target.bucket(), target) != null) {
+            throw new IllegalStateException("Bucket configured twice: " + target.bucket());
+        }
+    }
+
+    void own(AutoCloseable closeable) {
+        owned.add(closeable);
+    }
+
+    public String mainBucket() {
+        return main.bucket();
+    }
+
+    public S3AsyncClient client(String bucket) {
+        return target(bucket).client();
+    }
+
+    public S3Presigner presigner(String bucket) {
+        return target(bucket).presigner();
+    }
+
+    public boolean sameEndpoint(String a, String b) {
+        return target(a).client() == target(b).client();
+    }
+
+    /** Configured buckets, main bucket first. */
+    public List<Target> targets() {
+        return List.copyOf(targets.values());
+    }
+
+    public Target target(String bucket) {
+        return bucket != null ? targets.getOrDefault(bucket, main) : main;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (AutoCloseable c : owned) c.close();
+    }
+}
@@ -1,9 +1,11 @@
 package com.crudapp.filestorage.config;
 
+import com.crudapp.filestorage.security.AdaptiveConcurrencyLimiter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
@@ -11,6 +13,8 @@ import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
 
 @Configuration
 public class S3Config {
@@ -22,30 +26,84 @@ public class S3Config {
     }
 
     @Bean
-    public S3AsyncClient s3AsyncClient() {
+    public S3AsyncClient s3AsyncClient(AdaptiveConcurrencyLimiter limiter) {
+        return client(props.getEndpoint(), props.getRegion(), props.getAccessKey(), props.getSecretKey(), limiter);
+    }
+
+    @Bean
+    public S3Presigner s3Presigner(S3Props props) {
+        return presigner(props.getEndpoint(), props.getRegion(), props.getAccessKey(), props.getSecretKey());
+    }
+
+    /** The main bucket plus {@code s3.shards}, one client per distinct endpoint. */
+    @Bean
+    public S3ClientPool s3ClientPool(S3AsyncClient s3, S3Presigner presigner, AdaptiveConcurrencyLimiter limiter) {
+        S3ClientPool pool = new S3ClientPool(new S3ClientPool.Target(props.getBucket(), props.getEndpoint(),
+                publicBaseUrl(props.getPublicBaseUrl(), props.getEndpoint()), props.getWeight(), props.getRegion(),
+                AwsBasicCredentials.create(props.getAccessKey(), props.getSecretKey()), s3, presigner));
+        Map<String, S3ClientPool.Target> byEndpoint = new HashMap<>();
+        byEndpoint.put(props.getEndpoint(), pool.targets().get(0));
+        for (S3Props.Shard shard : props.getShards()) {
+            String endpoint = or(shard.getEndpoint(), props.getEndpoint());
+            S3ClientPool.Target shared = byEndpoint.computeIfAbsent(endpoint, e -> {
+                String region = or(shard.getRegion(), props.getRegion());
+                String accessKey = or(shard.getAccessKey(), props.getAccessKey());
+                String secretKey = or(shard.getSecretKey(), props.getSecretKey());
+                S3AsyncClient client = client(e, region, accessKey, secretKey, limiter);
+                S3Presigner p = presigner(e, region, accessKey, secretKey);
+                pool.own(client);
+                pool.own(p);
+                return new S3ClientPool.Target(null, e, null, 0, region,
+                        AwsBasicCredentials.create(accessKey, secretKey), client, p);
+            });
+            String base = shard.getPublicBaseUrl() != null
+                    ? publicBaseUrl(shard.getPublicBaseUrl(), endpoint)
+                    : endpoint.equals(props.getEndpoint())
+                    ? publicBaseUrl(props.getPublicBaseUrl(), endpoint)
+                    : publicBaseUrl(null, endpoint);
+            pool.add(new S3ClientPool.Target(shard.getBucket(), endpoint, base, shard.getWeight(),
+                    shared.region(), shared.credentials(), shared.client(), shared.presigner()));
+        }
+        return pool;
+    }
+
+    private static S3AsyncClient client(String endpoint, String region, String accessKey, String secretKey,
+                                        AdaptiveConcurrencyLimiter limiter) {
         return S3AsyncClient.builder()
-                .endpointOverride(URI.create(props.getEndpoint()))
-                .region(Region.of(props.getRegion()))
+                .endpointOverride(URI.create(endpoint))
+                .region(Region.of(region))
                 .credentialsProvider(
                         StaticCredentialsProvider.create(
-                                AwsBasicCredentials.create(props.getAccessKey(), props.getSecretKey())))
+                                AwsBasicCredentials.create(accessKey, secretKey)))
                 .serviceConfiguration(
                         S3Configuration.builder()
                                 .pathStyleAccessEnabled(true)
+                                // legacy MD5 validation; integrity is covered by CRC32C additional
+                                // checksums and the digests kept on the file rows
                                 .checksumValidationEnabled(false)
                                 .build())
                 .httpClientBuilder(NettyNioAsyncHttpClient.builder())
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .addExecutionInterceptor(new S3LatencyInterceptor(limiter))
+                        .build())
                 .build();
     }
 
-    @Bean
-    public S3Presigner s3Presigner(S3Props props) {
+    private static S3Presigner presigner(String endpoint, String region, String accessKey, String secretKey) {
         return S3Presigner.builder()
-                .region(Region.of(props.getRegion()))
+                .region(Region.of(region))
                 .credentialsProvider(StaticCredentialsProvider.create(
-                        AwsBasicCredentials.create(props.getAccessKey(), props.getSecretKey())))
-                .endpointOverride(URI.create(props.getEndpoint()))
+                        AwsBasicCredentials.create(accessKey, secretKey)))
+                .endpointOverride(URI.create(endpoint))
                 .build();
     }
 
+    private static String publicBaseUrl(String configured, String endpoint) {
+        return (configured != null ? configured : endpoint).replaceAll("/+$", "");
+    }
+
+    private static String or(String value, String fallback) {
+        return value != null ? value : fallback;
+    }
+
 }
@@ -0,0 +1,91 @@
+package com.crudapp.filestorage.config;
+
+import com.crudapp.filestorage.security.AdaptiveConcurrencyLimiter;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.SdkHttpResponse;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reports the latency and body size of every S3 call to the {@link AdaptiveConcurrencyLimiter}.
+ * Only overload is a failure: 5xx, throttling and timeouts. Other error responses (404, the
+ * If-Match 412s) are ordinary samples, and calls that ended on our side - cancelled by a client
+ * disconnect, a body aborted by the quota - are not reported at all.
+ */
+class S3LatencyInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Long> STARTED = new ExecutionAttribute<>("fs.s3.started");
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    S3LatencyInterceptor(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes attributes) {
+        attributes.putAttribute(STARTED, System.nanoTime());
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes attributes) {
+        report(attributes, Math.max(length(context.httpRequest()), length(context.httpResponse())),
+                context.httpResponse().statusCode() >= 500);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes attributes) {
+        long bytes = Math.max(context.httpRequest().map(S3LatencyInterceptor::length).orElse(0L),
+                context.httpResponse().map(S3LatencyInterceptor::length).orElse(0L));
+        Throwable e = context.exception();
+        if (e instanceof SdkServiceException service) {
+            report(attributes, bytes, service.statusCode() >= 500 || service.isThrottlingException());
+        } else if (timedOut(e)) {
+            report(attributes, bytes, true);
+        }
+    }
+
+    private static boolean timedOut(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ApiCallTimeoutException || t instanceof ApiCallAttemptTimeoutException
+                    || t instanceof TimeoutException || t instanceof SocketTimeoutException
+                    // read/write timeouts of the Netty client, without a compile-time dependency on Netty
+                    || t.getClass().getName().startsWith("io.netty.handler.timeout.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void report(ExecutionAttributes attributes, long bytes, boolean failed) {
+        Long started = attributes.getAttribute(STARTED);
+        if (started != null) limiter.onSample(System.nanoTime() - started, bytes, failed);
+    }
+
+    // aws-chunked uploads (additional checksums) carry the payload size in a header of their own
+    private static long length(SdkHttpRequest request) {
+        return request.firstMatchingHeader("x-amz-decoded-content-length")
+                .or(() -> request.firstMatchingHeader("Content-Length"))
+                .map(S3LatencyInterceptor::parse)
+                .orElse(0L);
+    }
+
+    private static long length(SdkHttpResponse response) {
+        return response.firstMatchingHeader("Content-Length").map(S3LatencyInterceptor::parse).orElse(0L);
+    }
+
+    private static long parse(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -2,6 +2,11 @@ package com.crudapp.filestorage.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @ConfigurationProperties(prefix = "s3")
 public class S3Props {
     private String endpoint;
@@ -10,6 +15,74 @@ public class S3Props {
     private String region = "us-east-1";
     private String bucket;
     private String publicBaseUrl;
+    private boolean checksums = true;
+    // share of new objects the main bucket takes among the shards; 0 keeps it read-only
+    private int weight = 1;
+    // further buckets new objects are spread over, each possibly on its own endpoint
+    private List<Shard> shards = new ArrayList<>();
+    // user id -> bucket, for tenants pinned to a bucket instead of hashed onto one
+    private Map<Integer, String> tenants = new HashMap<>();
+
+    /** A bucket on some endpoint. Unset connection settings are taken from the main bucket. */
+    public static class Shard {
+        private String bucket;
+        private String endpoint;
+        private String accessKey;
+        private String secretKey;
+        private String region;
+        private String publicBaseUrl;
+        private int weight = 1;
+
+        public String getBucket() {
+            return bucket;
+        }
+        public void setBucket(String bucket) {
+            this.bucket = bucket;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+        public void setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public String getAccessKey() {
+            return accessKey;
+        }
+        public void setAccessKey(String accessKey) {
+            this.accessKey = accessKey;
+        }
+
+        public String getSecretKey() {
+            return secretKey;
+        }
+        public void setSecretKey(String secretKey) {
+            this.secretKey = secretKey;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+        public void setRegion(String region) {
+            this.region = region;
+        }
+
+        public String getPublicBaseUrl() {
+            return publicBaseUrl;
+        }
+        public void setPublicBaseUrl(String publicBaseUrl) {
+            this.publicBaseUrl = publicBaseUrl;
+        }
+
+        /** Relative share of new objects; 0 keeps existing objects readable but sends nothing new here. */
+        public int getWeight() {
+            return weight;
+        }
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+    }
 
     public String getEndpoint() {
         return endpoint;
@@ -52,4 +125,33 @@ public class S3Props {
     public void setPublicBaseUrl(String publicBaseUrl) {
         this.publicBaseUrl = publicBaseUrl;
     }
+
+    /** Send CRC32C as an S3 additional checksum with every PUT, so the store verifies what it receives. */
+    public boolean isChecksums() {
+        return checksums;
+    }
+    public void setChecksums(boolean checksums) {
+        this.checksums = checksums;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+    public void setShards(List<Shard> shards) {
+        this.shards = shards;
+    }
+
+    public Map<Integer, String> getTenants() {
+        return tenants;
+    }
+    public void setTenants(Map<Integer, String> tenants) {
+        this.tenants = tenants;
+    }
 }
@@ -0,0 +1,43 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "storage.search")
+public class SearchProps {
+    private boolean enabled = true;
+    /** Parallel readers of the startup rebuild, each loading one id range of {@code files} at a time. */
+    private int loaders = 4;
+    private int loadRangeSize = 10000;
+    /** Changes become visible to searches after at most this long. */
+    private Duration refreshInterval = Duration.ofSeconds(1);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getLoaders() {
+        return loaders;
+    }
+    public void setLoaders(int loaders) {
+        this.loaders = loaders;
+    }
+
+    public int getLoadRangeSize() {
+        return loadRangeSize;
+    }
+    public void setLoadRangeSize(int loadRangeSize) {
+        this.loadRangeSize = loadRangeSize;
+    }
+
+    public Duration getRefreshInterval() {
+        return refreshInterval;
+    }
+    public void setRefreshInterval(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+}
@@ -1,9 +1,12 @@
 package com.crudapp.filestorage.config;
 
 import com.crudapp.filestorage.repository.UserRepository;
+import com.crudapp.filestorage.security.AdaptiveConcurrencyLimiter;
 import com.crudapp.filestorage.security.BearerTokenServerAuthenticationConverter;
 import com.crudapp.filestorage.security.JwtReactiveAuthenticationManager;
 import com.crudapp.filestorage.security.JwtTokenService;
+import com.crudapp.filestorage.security.RateLimitWebFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -28,7 +31,10 @@ public class SecurityConfig {
     public SecurityWebFilterChain springSecurityFilterChain(ServerHttpSecurity http,
                                                             JwtTokenService tokenService,
                                                             UserRepository userRepository,
-                                                            BearerTokenServerAuthenticationConverter converter) {
+                                                            BearerTokenServerAuthenticationConverter converter,
+                                                            RateLimitProps rateLimitProps,
+                                                            AdaptiveConcurrencyLimiter s3Limiter,
+                                                            ObjectMapper mapper) {
         var authManager = new JwtReactiveAuthenticationManager(tokenService, userRepository);
 
         AuthenticationWebFilter bearer = new AuthenticationWebFilter(authManager);
@@ -47,10 +53,13 @@ public class SecurityConfig {
 
                         .pathMatchers(HttpMethod.GET, "/users/**").hasAnyRole("ADMIN","MODERATOR")
                         .pathMatchers("/users/**").hasRole("ADMIN")
+                        .pathMatchers("/admin/**").hasRole("ADMIN")
 
                         .anyExchange().authenticated()
                 )
                 .addFilterAt(bearer, SecurityWebFiltersOrder.AUTHENTICATION)
+                // not a bean: WebFilter beans would also be added to the main chain
+                .addFilterAfter(new RateLimitWebFilter(rateLimitProps, s3Limiter, mapper), SecurityWebFiltersOrder.AUTHENTICATION)
                 .build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "storage.spool")
+public class SpoolProps {
+    private boolean enabled = false;
+    private String dir;
+    private int workers = 4;
+    private int queueCapacity = 1000;
+    private int maxAttempts = 5;
+    private Duration backoff = Duration.ofSeconds(1);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Required when the spool is enabled. Spool files are the only copy of an upload until it
+     * reaches S3, so this must be persistent storage, not a tmpfs that a reboot clears.
+     */
+    public String getDir() {
+        return dir;
+    }
+    public void setDir(String dir) {
+        this.dir = dir;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Duration getBackoff() {
+        return backoff;
+    }
+    public void setBackoff(Duration backoff) {
+        this.backoff = backoff;
+    }
+}
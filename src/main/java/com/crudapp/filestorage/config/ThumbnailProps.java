@@ -0,0 +1,83 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "storage.thumbnails")
+public class ThumbnailProps {
+    private boolean enabled = true;
+    private List<Integer> sizes = List.of(128, 512);
+    private int workers = 2;
+    private int queueCapacity = 1000;
+    private DataSize maxSourceSize = DataSize.ofMegabytes(50);
+    private long maxPixels = 50_000_000L;
+    private float jpegQuality = 0.8f;
+    private String prefix = "sys/thumbs/";
+    private Duration urlTtl = Duration.ofHours(1);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<Integer> getSizes() {
+        return sizes;
+    }
+    public void setSizes(List<Integer> sizes) {
+        this.sizes = sizes;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public DataSize getMaxSourceSize() {
+        return maxSourceSize;
+    }
+    public void setMaxSourceSize(DataSize maxSourceSize) {
+        this.maxSourceSize = maxSourceSize;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+    public void setMaxPixels(long maxPixels) {
+        this.maxPixels = maxPixels;
+    }
+
+    public float getJpegQuality() {
+        return jpegQuality;
+    }
+    public void setJpegQuality(float jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public Duration getUrlTtl() {
+        return urlTtl;
+    }
+    public void setUrlTtl(Duration urlTtl) {
+        this.urlTtl = urlTtl;
+    }
+}
@@ -0,0 +1,58 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "storage.tiering")
+public class TieringProps {
+    private boolean enabled = false;
+    /** Bucket for COLD objects; when empty they stay in the main bucket and only change storage class. */
+    private String coldBucket;
+    private String storageClass = "STANDARD_IA";
+    private Duration coldAfter = Duration.ofDays(30);
+    private int batchSize = 200;
+    private int concurrency = 8;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getColdBucket() {
+        return coldBucket;
+    }
+    public void setColdBucket(String coldBucket) {
+        this.coldBucket = coldBucket;
+    }
+
+    public String getStorageClass() {
+        return storageClass;
+    }
+    public void setStorageClass(String storageClass) {
+        this.storageClass = storageClass;
+    }
+
+    public Duration getColdAfter() {
+        return coldAfter;
+    }
+    public void setColdAfter(Duration coldAfter) {
+        this.coldAfter = coldAfter;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+}
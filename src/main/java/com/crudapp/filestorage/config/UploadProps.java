@@ -0,0 +1,45 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "storage.upload")
+public class UploadProps {
+    private int batchConcurrency = 8;
+    private int batchMaxFiles = 1000;
+    private KeyLayout keyLayout = KeyLayout.DATE;
+
+    /**
+     * How keys of new objects are laid out. S3 partitions a bucket by key prefix, so the
+     * first characters decide where a burst of PUTs lands. Every layout starts with "u",
+     * which the reconciler scans; existing keys stay valid whatever the layout.
+     */
+    public enum KeyLayout {
+        /** {@code u<user>/<yyyyMMdd>/<uuid>_<name>}: a busy user writes into one prefix all day. */
+        DATE,
+        /** {@code u<4 hex of the uuid>/<user>/<yyyyMMdd>/<uuid>_<name>}: uniform over 65536 prefixes. */
+        HASHED,
+        /** {@code u<epoch millis, digits reversed>/<user>/<uuid>_<name>}: the fastest-moving digit leads. */
+        REVERSED_TIME
+    }
+
+    public int getBatchConcurrency() {
+        return batchConcurrency;
+    }
+    public void setBatchConcurrency(int batchConcurrency) {
+        this.batchConcurrency = batchConcurrency;
+    }
+
+    public int getBatchMaxFiles() {
+        return batchMaxFiles;
+    }
+    public void setBatchMaxFiles(int batchMaxFiles) {
+        this.batchMaxFiles = batchMaxFiles;
+    }
+
+    public KeyLayout getKeyLayout() {
+        return keyLayout;
+    }
+    public void setKeyLayout(KeyLayout keyLayout) {
+        this.keyLayout = keyLayout;
+    }
+}
@@ -0,0 +1,43 @@
+package com.crudapp.filestorage.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "storage.versions")
+public class VersionProps {
+    private boolean retention = true;
+    /** Previous versions kept per file, newest first. */
+    private int keep = 10;
+    /** Previous versions older than this are deleted regardless of {@code keep}. */
+    private Duration maxAge = Duration.ofDays(90);
+    private int batchSize = 500;
+
+    public boolean isRetention() {
+        return retention;
+    }
+    public void setRetention(boolean retention) {
+        this.retention = retention;
+    }
+
+    public int getKeep() {
+        return keep;
+    }
+    public void setKeep(int keep) {
+        this.keep = keep;
+    }
+
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+    public void setMaxAge(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
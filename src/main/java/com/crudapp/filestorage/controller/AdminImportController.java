@@ -0,0 +1,53 @@
+package com.crudapp.filestorage.controller;
+
+import com.crudapp.filestorage.dto.ImportPrefixRequest;
+import com.crudapp.filestorage.dto.ImportResult;
+import com.crudapp.filestorage.model.User;
+import com.crudapp.filestorage.service.BulkImporter;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+@Tag(name = "Admin import", description = "Массовый импорт существующих объектов и архивов")
+@SecurityRequirement(name = "bearerAuth")
+@RestController
+@RequestMapping("/admin/import")
+public class AdminImportController {
+
+    private final BulkImporter importer;
+
+    public AdminImportController(BulkImporter importer) {
+        this.importer = importer;
+    }
+
+    @Operation(summary = "Зарегистрировать объекты бакета по префиксу",
+            description = "Создаёт файлы и Event(CREATED) для объектов без записи в БД, пакетами")
+    @PostMapping("/prefix")
+    public Mono<ImportResult> importPrefix(@RequestBody @Valid ImportPrefixRequest req, Authentication auth) {
+        return importer.importPrefix(req.prefix(), req.ownerId(), currentUserOr401(auth));
+    }
+
+    @Operation(summary = "Загрузить ZIP/TAR и разложить его на отдельные файлы",
+            description = "Архив читается потоком, каждая запись становится отдельным объектом и файлом")
+    @PostMapping(path = "/archive", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Mono<ImportResult> importArchive(@RequestPart("file") FilePart file,
+                                            @RequestParam Integer ownerId,
+                                            Authentication auth) {
+        return importer.importArchive(file.content(), file.filename(), ownerId, currentUserOr401(auth));
+    }
+
+    private static User currentUserOr401(Authentication auth) {
+        if (auth == null || !(auth.getPrincipal() instanceof User u)) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
+        }
+        return u;
+    }
+}
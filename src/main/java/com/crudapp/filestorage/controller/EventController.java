@@ -14,6 +14,8 @@ import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+
 @Tag(name = "Events", description = "История событий по файлам")
 @SecurityRequirement(name = "bearerAuth")
 @RestController
@@ -40,13 +42,15 @@ public class EventController {
             Authentication auth,
             @RequestParam(required = false) Integer userId,
             @RequestParam(required = false) String status,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String sort
     ) {
         User current = extractUserOrThrow(auth);
         boolean modOrAdmin = hasRole(auth, "ROLE_ADMIN") || hasRole(auth, "ROLE_MODERATOR");
-        return service.listPaged(current, modOrAdmin, userId, status, page, size, sort);
+        return service.listPaged(current, modOrAdmin, userId, status, from, to, page, size, sort);
     }
 
     private static User extractUserOrThrow(Authentication auth) {
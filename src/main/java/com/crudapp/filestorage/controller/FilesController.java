@@ -1,25 +1,47 @@
 package com.crudapp.filestorage.controller;
 
+import com.crudapp.filestorage.config.DownloadProps;
+import com.crudapp.filestorage.config.ThumbnailProps;
+import com.crudapp.filestorage.dto.ArchiveRequest;
+import com.crudapp.filestorage.dto.BatchUploadResult;
 import com.crudapp.filestorage.dto.FileDto;
 import com.crudapp.filestorage.dto.FileUpdateRequest;
+import com.crudapp.filestorage.dto.FolderListing;
+import com.crudapp.filestorage.dto.FolderMoveRequest;
+import com.crudapp.filestorage.dto.FolderMoveResult;
 import com.crudapp.filestorage.dto.PageResponse;
+import com.crudapp.filestorage.dto.PresignRequest;
+import com.crudapp.filestorage.dto.PresignedUrl;
+import com.crudapp.filestorage.dto.SearchPageResponse;
+import com.crudapp.filestorage.dto.VersionPageResponse;
 import com.crudapp.filestorage.model.User;
+import com.crudapp.filestorage.service.BatchUploader;
+import com.crudapp.filestorage.service.FileContent;
 import com.crudapp.filestorage.service.FileStorageService;
+import com.crudapp.filestorage.service.ZipArchiver;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
 import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
 
 @Tag(name = "Files", description = "Загрузка, получение, переименование и удаление файлов")
 @SecurityRequirement(name = "bearerAuth")
@@ -28,9 +50,18 @@ import java.time.Duration;
 public class FilesController {
 
     private final FileStorageService storage;
+    private final BatchUploader batchUploader;
+    private final ZipArchiver archiver;
+    private final DownloadProps downloadProps;
+    private final ThumbnailProps thumbnailProps;
 
-    public FilesController(FileStorageService storage) {
+    public FilesController(FileStorageService storage, BatchUploader batchUploader, ZipArchiver archiver,
+                           DownloadProps downloadProps, ThumbnailProps thumbnailProps) {
         this.storage = storage;
+        this.batchUploader = batchUploader;
+        this.archiver = archiver;
+        this.downloadProps = downloadProps;
+        this.thumbnailProps = thumbnailProps;
     }
 
     private static User currentUserOr401(Authentication auth) {
@@ -46,12 +77,27 @@ public class FilesController {
                 .anyMatch(a -> a.getAuthority().equals("ROLE_ADMIN") || a.getAuthority().equals("ROLE_MODERATOR"));
     }
 
-    @Operation(summary = "Загрузить файл", description = "Создаёт файл в S3 и Event(CREATED)")
+    @Operation(summary = "Загрузить файл",
+            description = "Создаёт файл в S3 и Event(CREATED). encrypt=true шифрует объект (storage.encryption.*), "
+                    + "folder - папка, по умолчанию корень /")
     @PostMapping(path = "", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @ResponseStatus(HttpStatus.CREATED)
-    public Mono<FileDto> upload(@RequestPart("file") FilePart file, Authentication auth) {
+    public Mono<FileDto> upload(@RequestPart("file") FilePart file,
+                                @RequestParam(required = false) Boolean encrypt,
+                                @RequestParam(required = false) String folder,
+                                Authentication auth) {
         User u = currentUserOr401(auth);
-        return storage.upload(file, u);
+        return storage.upload(file, encrypt, folder, u);
+    }
+
+    @Operation(summary = "Загрузить несколько файлов одним запросом",
+            description = "Все части multipart загружаются в S3 параллельно, файлы и Event(CREATED) пишутся одной транзакцией. "
+                    + "Ответ - NDJSON, по строке на файл")
+    @PostMapping(path = "/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchUploadResult> uploadBatch(@RequestBody Flux<Part> parts, Authentication auth) {
+        User u = currentUserOr401(auth);
+        return batchUploader.upload(parts, u);
     }
 
     @Operation(summary = "Удалить (архивировать) файл", description = "Помечает файл ARCHIVED и создаёт Event(DELETED)")
@@ -99,6 +145,49 @@ public class FilesController {
         return storage.listPaged(u, modOrAdmin, page, size, sort);
     }
 
+    @Operation(summary = "Содержимое папки",
+            description = "Подпапки (на первой странице) и файлы папки path, файлы keyset-пагинацией по after. "
+                    + "ownerId - чужие папки, только MODERATOR/ADMIN")
+    @GetMapping("/tree")
+    public Mono<FolderListing> tree(@RequestParam(defaultValue = "/") String path,
+                                    @RequestParam(required = false) Integer ownerId,
+                                    @RequestParam(required = false) Integer after,
+                                    @RequestParam(defaultValue = "50") int size,
+                                    Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.listFolder(path, ownerId, after, size, u, modOrAdmin);
+    }
+
+    @Operation(summary = "Переместить или переименовать папку",
+            description = "Вместе со всеми вложенными папками и файлами, одним UPDATE; Event(UPDATED) на каждый файл")
+    @PostMapping(path = "/tree/move", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<FolderMoveResult> moveFolder(@RequestBody @Valid FolderMoveRequest req, Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.moveFolder(req.from(), req.to(), req.ownerId(), u, modOrAdmin);
+    }
+
+    @Operation(summary = "Переместить файл в папку", description = "Создаёт Event(UPDATED)")
+    @PutMapping("/{id}/folder")
+    public Mono<FileDto> moveFile(@PathVariable Integer id, @RequestParam String path, Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.moveFile(id, path, u, modOrAdmin);
+    }
+
+    @Operation(summary = "Поиск файлов по имени и типу",
+            description = "Точные, префиксные и нечёткие совпадения, лучшие первыми; keyset-пагинация по after")
+    @GetMapping("/search")
+    public Mono<SearchPageResponse> search(@RequestParam String q,
+                                           @RequestParam(required = false) String after,
+                                           @RequestParam(defaultValue = "20") int size,
+                                           Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.search(q, after, size, u, modOrAdmin);
+    }
+
     @Operation(summary = "Скачать файл по ID (302 на presigned URL)")
     @GetMapping("/{id}/download")
     public Mono<org.springframework.http.ResponseEntity<Void>> download(@PathVariable Integer id, Authentication auth) {
@@ -109,4 +198,159 @@ public class FilesController {
                         .header(HttpHeaders.LOCATION, url)
                         .build());
     }
-}
\ No newline at end of file
+
+    @Operation(summary = "Ссылки на скачивание нескольких файлов одним запросом",
+            description = "Для галерей: публичные файлы получают CDN-ссылку, остальные - presigned URL. "
+                    + "url = null для файлов, которые нельзя отдать по ссылке (PENDING, ARCHIVED, зашифрованные)")
+    @PostMapping(path = "/presign", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<List<PresignedUrl>> presign(@RequestBody PresignRequest req, Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.presignBatch(req.ids(), u, modOrAdmin);
+    }
+
+    @Operation(summary = "Сделать файл публичным или приватным",
+            description = "Публичные файлы отдаются через CDN (storage.cdn.*) по постоянной ссылке без подписи")
+    @PutMapping("/{id}/public")
+    public Mono<FileDto> setPublic(@PathVariable Integer id,
+                                   @RequestParam(defaultValue = "true") boolean enabled,
+                                   Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.setPublic(id, enabled, u, modOrAdmin);
+    }
+
+    @Operation(summary = "Миниатюра изображения (302 на presigned URL)",
+            description = "Наименьшая из сгенерированных миниатюр не меньше size пикселей по большей стороне. "
+                    + "409, пока миниатюры ещё генерируются")
+    @GetMapping("/{id}/thumbnail")
+    public Mono<org.springframework.http.ResponseEntity<Void>> thumbnail(@PathVariable Integer id,
+                                                                          @RequestParam(defaultValue = "128") int size,
+                                                                          Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        if (size <= 0) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be positive"));
+        }
+        return storage.presignThumbnail(id, u, modOrAdmin, size)
+                .map(url -> org.springframework.http.ResponseEntity.status(302)
+                        .header(HttpHeaders.LOCATION, url)
+                        .header(HttpHeaders.CACHE_CONTROL, "private, max-age=" + thumbnailProps.getUrlTtl().dividedBy(2).toSeconds())
+                        .build());
+    }
+
+    @Operation(summary = "Скачать содержимое файла через сервер",
+            description = "Поддерживает Range. Файлы с локального диска отдаются zero-copy (sendfile), "
+                    + "крупные объекты читаются из S3 параллельными Range-запросами")
+    @GetMapping("/{id}/content")
+    public Mono<Void> content(@PathVariable Integer id, ServerHttpRequest request, ServerHttpResponse response,
+                              Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.openContent(id, u, modOrAdmin)
+                .flatMap(c -> writeContent(c, request, response));
+    }
+
+    @Operation(summary = "Заменить содержимое файла",
+            description = "Создаёт новую версию и Event(UPDATED); прежнее содержимое остаётся доступным как версия")
+    @PutMapping(path = "/{id}/content", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Mono<FileDto> replaceContent(@PathVariable Integer id,
+                                        @RequestPart("file") FilePart file,
+                                        @RequestParam(required = false) Boolean encrypt,
+                                        Authentication auth) {
+        User u = currentUserOr401(auth);
+        return storage.replaceContent(id, file, encrypt, u);
+    }
+
+    @Operation(summary = "История версий файла", description = "От новых к старым, keyset-пагинация по before")
+    @GetMapping("/{id}/versions")
+    public Mono<VersionPageResponse> versions(@PathVariable Integer id,
+                                              @RequestParam(required = false) Integer before,
+                                              @RequestParam(defaultValue = "20") int size,
+                                              Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.listVersions(id, before, size, u, modOrAdmin);
+    }
+
+    @Operation(summary = "Скачать содержимое версии файла", description = "Поддерживает Range")
+    @GetMapping("/{id}/versions/{version}/content")
+    public Mono<Void> versionContent(@PathVariable Integer id, @PathVariable int version,
+                                     ServerHttpRequest request, ServerHttpResponse response,
+                                     Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.openVersionContent(id, version, u, modOrAdmin)
+                .flatMap(c -> writeContent(c, request, response));
+    }
+
+    @Operation(summary = "Скачать несколько файлов одним ZIP-архивом",
+            description = "По списку ids или всем ACTIVE-файлам владельца. Архив собирается на лету, без временных файлов")
+    @PostMapping(path = "/archive", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Void> archive(@RequestBody ArchiveRequest req, ServerHttpResponse response, Authentication auth) {
+        User u = currentUserOr401(auth);
+        boolean modOrAdmin = isModOrAdmin(auth);
+        return storage.archiveFiles(req.ids(), req.ownerId(), u, modOrAdmin, downloadProps.getArchiveMaxFiles())
+                .flatMap(files -> {
+                    response.setStatusCode(HttpStatus.OK);
+                    response.getHeaders().setContentType(MediaType.parseMediaType("application/zip"));
+                    response.getHeaders().setContentDisposition(ContentDisposition.attachment()
+                            .filename("files.zip")
+                            .build());
+                    return response.writeWith(archiver.zip(files));
+                });
+    }
+
+    private static Mono<Void> writeContent(FileContent c, ServerHttpRequest request, ServerHttpResponse response) {
+        long length = c.contentLength();
+        long start = 0;
+        long end = length - 1;
+
+        List<HttpRange> ranges;
+        try {
+            ranges = request.getHeaders().getRange();
+        } catch (IllegalArgumentException e) {
+            ranges = List.of();
+        }
+        HttpHeaders headers = response.getHeaders();
+        if (ranges.size() == 1) {
+            try {
+                start = ranges.get(0).getRangeStart(length);
+                end = ranges.get(0).getRangeEnd(length);
+            } catch (IllegalArgumentException e) {
+                start = length;
+            }
+            // HttpRange does not check the start against the length: "bytes=100-" of 16 bytes gives 100-15
+            if (start >= length || start > end) {
+                response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return response.setComplete();
+            }
+            response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        } else {
+            response.setStatusCode(HttpStatus.OK);
+        }
+
+        headers.setContentType(MediaType.parseMediaType(c.contentType()));
+        headers.setContentLength(end - start + 1);
+        if (c.eTag() != null) {
+            headers.setETag(c.eTag());
+        }
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setContentDisposition(ContentDisposition.attachment()
+                .filename(c.name(), StandardCharsets.UTF_8)
+                .build());
+
+        if (length == 0) {
+            return response.setComplete();
+        }
+        // Reactor Netty maps this onto sendfile/FileRegion: page cache -> socket, no heap copies.
+        if (c.localFile() != null && response instanceof ZeroCopyHttpOutputMessage zeroCopy) {
+            long from = start;
+            long count = end - start + 1;
+            return c.localFile().withPath(path -> zeroCopy.writeWith(path, from, count));
+        }
+        return response.writeWith(c.body(start, end));
+    }
+}
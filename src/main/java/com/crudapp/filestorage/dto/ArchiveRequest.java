@@ -0,0 +1,10 @@
+package com.crudapp.filestorage.dto;
+
+import java.util.List;
+
+/**
+ * Either explicit {@code ids}, or - when they are empty - every ACTIVE file of {@code ownerId}
+ * (the caller's own files when it is null; other owners need MODERATOR/ADMIN).
+ */
+public record ArchiveRequest(List<Integer> ids, Integer ownerId) {
+}
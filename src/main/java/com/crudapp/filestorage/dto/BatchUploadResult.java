@@ -0,0 +1,5 @@
+package com.crudapp.filestorage.dto;
+
+/** One line of the batch upload response: either {@code file} or {@code error} is set. */
+public record BatchUploadResult(int index, String name, FileDto file, String error) {
+}
@@ -1,4 +1,4 @@
 package com.crudapp.filestorage.dto;
 
-public record FileDto(Integer id, String name, String location, String status) {
+public record FileDto(Integer id, String name, String location, String status, long size, String contentType) {
 }
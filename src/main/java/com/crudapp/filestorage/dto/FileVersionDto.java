@@ -0,0 +1,6 @@
+package com.crudapp.filestorage.dto;
+
+import java.time.Instant;
+
+public record FileVersionDto(int version, long size, String contentType, String sha256, Integer replacedBy, Instant replacedAt) {
+}
@@ -0,0 +1,10 @@
+package com.crudapp.filestorage.dto;
+
+import java.util.List;
+
+/**
+ * One page of a folder: its direct subfolders (first page only) and files in id order;
+ * pass {@code nextAfter} as {@code after} for the next page of files, null on the last one.
+ */
+public record FolderListing(String path, List<String> folders, List<FileDto> files, Integer nextAfter) {
+}
@@ -0,0 +1,7 @@
+package com.crudapp.filestorage.dto;
+
+import jakarta.validation.constraints.NotBlank;
+
+/** Moves or renames folder {@code from} of {@code ownerId} (the caller when null) to {@code to}. */
+public record FolderMoveRequest(@NotBlank String from, @NotBlank String to, Integer ownerId) {
+}
@@ -0,0 +1,4 @@
+package com.crudapp.filestorage.dto;
+
+public record FolderMoveResult(String from, String to, int moved) {
+}
@@ -0,0 +1,7 @@
+package com.crudapp.filestorage.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+public record ImportPrefixRequest(@NotBlank String prefix, @NotNull Integer ownerId) {
+}
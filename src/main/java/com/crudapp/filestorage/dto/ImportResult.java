@@ -0,0 +1,4 @@
+package com.crudapp.filestorage.dto;
+
+public record ImportResult(long imported, long skipped, long bytes) {
+}
@@ -0,0 +1,6 @@
+package com.crudapp.filestorage.dto;
+
+import java.util.List;
+
+public record PresignRequest(List<Integer> ids) {
+}
@@ -0,0 +1,10 @@
+package com.crudapp.filestorage.dto;
+
+import java.time.Instant;
+
+/**
+ * Download URL of one file. {@code expiresAt} is null for public CDN URLs, which do not
+ * expire; {@code url} is null when the file cannot be linked (PENDING, ARCHIVED, encrypted).
+ */
+public record PresignedUrl(Integer id, String url, Instant expiresAt) {
+}
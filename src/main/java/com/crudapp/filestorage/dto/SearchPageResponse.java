@@ -0,0 +1,7 @@
+package com.crudapp.filestorage.dto;
+
+import java.util.List;
+
+/** Keyset page of search results, best match first; pass {@code next} as {@code after} for the next page, null on the last one. */
+public record SearchPageResponse(List<FileDto> content, String next) {
+}
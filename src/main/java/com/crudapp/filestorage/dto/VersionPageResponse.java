@@ -0,0 +1,7 @@
+package com.crudapp.filestorage.dto;
+
+import java.util.List;
+
+/** Keyset page of file versions; pass {@code nextBefore} as {@code before} for the next page, null on the last one. */
+public record VersionPageResponse(List<FileVersionDto> content, Integer nextBefore) {
+}
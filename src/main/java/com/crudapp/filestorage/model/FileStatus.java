@@ -1,5 +1,5 @@
 package com.crudapp.filestorage.model;
 
 public enum FileStatus {
-    ACTIVE, ARCHIVED
+    PENDING, ACTIVE, ARCHIVED
 }
@@ -0,0 +1,56 @@
+package com.crudapp.filestorage.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+@Entity
+@Table(name = "file_versions")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
+public class FileVersion {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "file_id", nullable = false)
+    private Integer fileId;
+
+    @Column(nullable = false)
+    private int version;
+
+    @Column(nullable = false, length = 63)
+    private String bucket;
+
+    @Column(name = "object_key", nullable = false, length = 500)
+    private String objectKey;
+
+    @Builder.Default
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private StorageTier tier = StorageTier.HOT;
+
+    @Column(name = "size_bytes", nullable = false)
+    private long sizeBytes;
+
+    @Column(name = "content_type", length = 255)
+    private String contentType;
+
+    @Column(name = "checksum_crc32c", length = 12)
+    private String checksumCrc32c;
+
+    @Column(name = "checksum_sha256", length = 64)
+    private String checksumSha256;
+
+    @Column(name = "encryption_key", length = 128)
+    private String encryptionKey;
+
+    @Column(name = "encryption_frame_size")
+    private Integer encryptionFrameSize;
+
+    @Column(name = "replaced_by")
+    private Integer replacedBy;
+
+    @Column(name = "replaced_at", nullable = false)
+    private Instant replacedAt;
+}
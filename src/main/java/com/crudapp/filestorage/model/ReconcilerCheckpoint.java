@@ -0,0 +1,21 @@
+package com.crudapp.filestorage.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+@Entity
+@Table(name = "reconciler_checkpoints")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
+public class ReconcilerCheckpoint {
+    @Id
+    @Column(length = 64)
+    private String name;
+
+    @Column(name = "last_key", length = 1024)
+    private String lastKey;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+}
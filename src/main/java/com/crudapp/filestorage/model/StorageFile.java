@@ -3,6 +3,8 @@ package com.crudapp.filestorage.model;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.Instant;
+
 @Entity
 @Table(name = "files")
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
@@ -14,13 +16,64 @@ public class StorageFile {
     @Column(nullable = false, length = 255)
     private String name;
 
-    @Column(nullable = false, length = 500)
-    private String location;
+    // materialized path, "/" or "/a/b/"; moved by dedicated UPDATEs only, see FolderTree
+    @Builder.Default
+    @Column(nullable = false, length = 512, updatable = false)
+    private String folder = "/";
+
+    // the content columns, thumbnail_sizes and version are written by dedicated UPDATEs only
+    // (StorageFileRepository.replaceContent, updateThumbnailSizes): saving an entity loaded
+    // before a replace committed must not put the previous object back
+    @Column(nullable = false, length = 63, updatable = false)
+    private String bucket;
+
+    // the public URL is built from s3.publicBaseUrl on serialization, see ObjectLocations.url
+    @Column(name = "object_key", nullable = false, length = 500, updatable = false)
+    private String objectKey;
+
+    @Column(name = "size_bytes", nullable = false, updatable = false)
+    private long sizeBytes;
+
+    @Column(name = "content_type", length = 255, updatable = false)
+    private String contentType;
+
+    @Column(name = "checksum_crc32c", length = 12, updatable = false)
+    private String checksumCrc32c;
+
+    @Column(name = "checksum_sha256", length = 64, updatable = false)
+    private String checksumSha256;
+
+    @Column(name = "encryption_key", length = 128, updatable = false)
+    private String encryptionKey;
+
+    @Column(name = "encryption_frame_size", updatable = false)
+    private Integer encryptionFrameSize;
+
+    @Column(name = "thumbnail_sizes", length = 64, updatable = false)
+    private String thumbnailSizes;
 
     @Enumerated(EnumType.STRING)
     @Column(nullable = false, length = 50)
     private FileStatus status;
 
+    @Builder.Default
+    @Column(name = "public_read", nullable = false)
+    private boolean publicRead = false;
+
+    @Builder.Default
+    @Column(nullable = false, updatable = false)
+    private int version = 1;
+
+    // both are written by dedicated UPDATEs only, never by saving a loaded entity
+    @Builder.Default
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16, updatable = false)
+    private StorageTier tier = StorageTier.HOT;
+
+    @Builder.Default
+    @Column(name = "last_accessed_at", nullable = false, updatable = false)
+    private Instant lastAccessedAt = Instant.now();
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "owner_id", foreignKey = @ForeignKey(name = "fk_files_owner"))
     private User owner;
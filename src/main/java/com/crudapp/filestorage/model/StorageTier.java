@@ -0,0 +1,5 @@
+package com.crudapp.filestorage.model;
+
+public enum StorageTier {
+    HOT, COLD
+}
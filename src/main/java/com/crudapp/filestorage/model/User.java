@@ -24,6 +24,9 @@ public class User {
     @Column(nullable = false, length = 50)
     private UserStatus status;
 
+    @Column(name = "quota_bytes")
+    private Long quotaBytes;
+
     @ManyToMany(fetch = FetchType.EAGER)
     @JoinTable(
             name = "user_roles",
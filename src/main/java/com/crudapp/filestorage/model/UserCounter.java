@@ -0,0 +1,29 @@
+package com.crudapp.filestorage.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+
+@Entity
+@Table(name = "user_counters")
+@IdClass(UserCounter.Key.class)
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor
+public class UserCounter {
+    @Id
+    @Column(name = "user_id")
+    private Integer userId;
+
+    @Id
+    @Column(length = 32)
+    private String counter;
+
+    @Column(nullable = false)
+    private long amount;
+
+    @Getter @Setter @NoArgsConstructor @AllArgsConstructor @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private Integer userId;
+        private String counter;
+    }
+}
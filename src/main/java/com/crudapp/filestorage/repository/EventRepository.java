@@ -46,12 +46,16 @@ public interface EventRepository extends JpaRepository<Event, Integer> {
         where (:all = true or u.id = :currentUserId)
           and (:userId is null or u.id = :userId)
           and (:status is null or e.status = :status)
+          and (:from is null or e.createdAt >= :from)
+          and (:to is null or e.createdAt < :to)
         order by e.createdAt desc, e.id desc
         """)
     List<EventProjection> findPaged(@Param("currentUserId") Integer currentUserId,
                                     @Param("all") boolean all,
                                     @Param("userId") Integer userId,
                                     @Param("status") String status,
+                                    @Param("from") Instant from,
+                                    @Param("to") Instant to,
                                     org.springframework.data.domain.Pageable pageable);
 
     @Query("""
@@ -61,11 +65,15 @@ public interface EventRepository extends JpaRepository<Event, Integer> {
         where (:all = true or u.id = :currentUserId)
           and (:userId is null or u.id = :userId)
           and (:status is null or e.status = :status)
+          and (:from is null or e.createdAt >= :from)
+          and (:to is null or e.createdAt < :to)
         """)
     long countPaged(@Param("currentUserId") Integer currentUserId,
                     @Param("all") boolean all,
                     @Param("userId") Integer userId,
-                    @Param("status") String status);
+                    @Param("status") String status,
+                    @Param("from") Instant from,
+                    @Param("to") Instant to);
 
     boolean existsByUser_Id(Integer userId);
 }
\ No newline at end of file
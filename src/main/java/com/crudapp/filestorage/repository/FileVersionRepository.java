@@ -0,0 +1,32 @@
+package com.crudapp.filestorage.repository;
+
+import com.crudapp.filestorage.model.FileVersion;
+import com.crudapp.filestorage.repository.StorageFileRepository.KeyRow;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface FileVersionRepository extends JpaRepository<FileVersion, Integer> {
+
+    // keyset page over uq_file_versions_file_version, newest first
+    List<FileVersion> findByFileIdAndVersionLessThanOrderByVersionDesc(Integer fileId, int before, Pageable pageable);
+
+    Optional<FileVersion> findByFileIdAndVersion(Integer fileId, int version);
+
+    // same walk as StorageFileRepository.findKeysAfter, over idx_file_versions_bucket_key
+    @Query(value = """
+        select v.file_id as id, v.object_key as objectKey, 'VERSION' as status, v.tier as tier
+        from file_versions v
+        where v.bucket = :bucket and v.object_key > :after and v.object_key < :upper
+        order by v.object_key
+        limit :limit
+        """, nativeQuery = true)
+    List<KeyRow> findKeysAfter(@Param("bucket") String bucket,
+                               @Param("after") String after,
+                               @Param("upper") String upper,
+                               @Param("limit") int limit);
+}
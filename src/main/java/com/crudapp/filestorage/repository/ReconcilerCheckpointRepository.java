@@ -0,0 +1,7 @@
+package com.crudapp.filestorage.repository;
+
+import com.crudapp.filestorage.model.ReconcilerCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ReconcilerCheckpointRepository extends JpaRepository<ReconcilerCheckpoint, String> {
+}
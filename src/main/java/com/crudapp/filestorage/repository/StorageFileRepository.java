@@ -1,15 +1,136 @@
 package com.crudapp.filestorage.repository;
 
+import com.crudapp.filestorage.model.FileStatus;
 import com.crudapp.filestorage.model.StorageFile;
-import org.springframework.data.domain.Page;
+import com.crudapp.filestorage.model.StorageTier;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 public interface StorageFileRepository extends JpaRepository<StorageFile, Integer> {
+
+    interface KeyRow {
+        Integer getId();
+        String getObjectKey();
+        String getStatus();
+        String getTier();
+    }
+
     List<StorageFile> findAllByOwner_Id(Integer ownerId);
     boolean existsByOwner_Id(Integer ownerId);
-    Page<StorageFile> findAllByOwner_Id(Integer ownerId, Pageable pageable);
-    Page<StorageFile> findAll(Pageable pageable);
+    // Slice, not Page: totals come from user_counters instead of a count query
+    Slice<StorageFile> findAllByOwner_Id(Integer ownerId, Pageable pageable);
+    Slice<StorageFile> findAllBy(Pageable pageable);
+    Slice<StorageFile> findAllByOwner_IdAndStatus(Integer ownerId, FileStatus status, Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("update StorageFile f set f.status = :to where f.id = :id and f.status = :from")
+    int updateStatus(@Param("id") Integer id, @Param("from") FileStatus from, @Param("to") FileStatus to);
+
+    // name, public flag and status get targeted UPDATEs too: a loaded entity may be older than
+    // what a concurrent replace committed, and only the changed column is written
+    @Modifying
+    @Transactional
+    @Query("update StorageFile f set f.name = :name where f.id = :id")
+    int rename(@Param("id") Integer id, @Param("name") String name);
+
+    // encrypted files cannot be public, and a replace may have encrypted this one since it was read
+    @Modifying
+    @Transactional
+    @Query("""
+        update StorageFile f set f.publicRead = :publicRead
+        where f.id = :id and f.status <> com.crudapp.filestorage.model.FileStatus.ARCHIVED
+          and (:publicRead = false or f.encryptionKey is null)
+        """)
+    int updatePublicRead(@Param("id") Integer id, @Param("publicRead") boolean publicRead);
+
+    // unpublishing moves the file to a key the CDN has never served; compare-and-set on the old
+    // key, so a concurrent replace or delete updates nothing
+    @Modifying
+    @Transactional
+    @Query("""
+        update StorageFile f set f.objectKey = :newKey, f.publicRead = false
+        where f.id = :id and f.objectKey = :key and f.publicRead = true
+          and f.status <> com.crudapp.filestorage.model.FileStatus.ARCHIVED
+        """)
+    int unpublish(@Param("id") Integer id, @Param("key") String key, @Param("newKey") String newKey);
+
+    // 0 when the file was archived already
+    @Modifying
+    @Transactional
+    @Query("""
+        update StorageFile f set f.status = com.crudapp.filestorage.model.FileStatus.ARCHIVED
+        where f.id = :id and f.status <> com.crudapp.filestorage.model.FileStatus.ARCHIVED
+        """)
+    int archive(@Param("id") Integer id);
+
+    @Query("select f.sizeBytes from StorageFile f where f.id = :id")
+    long findSizeBytes(@Param("id") Integer id);
+
+    // compare-and-set on version, tier and key: a concurrent replace, or the tiering job or an
+    // unpublish moving the object the caller is about to record as the previous version,
+    // updates nothing
+    @Modifying
+    @Transactional
+    @Query("""
+        update StorageFile f
+        set f.bucket = :bucket, f.objectKey = :key, f.sizeBytes = :size, f.contentType = :contentType,
+            f.checksumCrc32c = :crc32c, f.checksumSha256 = :sha256,
+            f.encryptionKey = :encryptionKey, f.encryptionFrameSize = :frameSize,
+            f.thumbnailSizes = null, f.version = f.version + 1,
+            f.tier = com.crudapp.filestorage.model.StorageTier.HOT
+        where f.id = :id and f.version = :version and f.tier = :tier and f.objectKey = :previousKey
+          and f.status = :status
+        """)
+    int replaceContent(@Param("id") Integer id, @Param("version") int version, @Param("tier") StorageTier tier,
+                       @Param("previousKey") String previousKey, @Param("status") FileStatus status,
+                       @Param("bucket") String bucket, @Param("key") String key, @Param("size") long size,
+                       @Param("contentType") String contentType,
+                       @Param("crc32c") String crc32c, @Param("sha256") String sha256,
+                       @Param("encryptionKey") String encryptionKey, @Param("frameSize") Integer frameSize);
+
+    // one folder in id order, idx_files_owner_folder
+    @Query("""
+        select f from StorageFile f
+        where f.owner.id = :ownerId and f.folder = :folder and f.id > :after
+          and f.status <> com.crudapp.filestorage.model.FileStatus.ARCHIVED
+        order by f.id
+        """)
+    List<StorageFile> findInFolder(@Param("ownerId") Integer ownerId, @Param("folder") String folder,
+                                   @Param("after") int after, Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("update StorageFile f set f.folder = :folder where f.id = :id")
+    int moveToFolder(@Param("id") Integer id, @Param("folder") String folder);
+
+    @Modifying
+    @Transactional
+    // only for the version the thumbnails were rendered from: a replace resets them to null
+    @Query("""
+        update StorageFile f set f.thumbnailSizes = :sizes
+        where f.id = :id and f.version = :version and f.status = :status
+        """)
+    int updateThumbnailSizes(@Param("id") Integer id, @Param("version") int version, @Param("status") FileStatus status,
+                             @Param("sizes") String sizes);
+
+    // object_key is utf8mb4_bin, so this walks idx_files_bucket_key in the same byte order S3 lists keys in
+    @Query(value = """
+        select f.id as id, f.object_key as objectKey, f.status as status, f.tier as tier
+        from files f
+        where f.bucket = :bucket and f.object_key > :after and f.object_key < :upper
+        order by f.object_key
+        limit :limit
+        """, nativeQuery = true)
+    List<KeyRow> findKeysAfter(@Param("bucket") String bucket,
+                               @Param("after") String after,
+                               @Param("upper") String upper,
+                               @Param("limit") int limit);
 }
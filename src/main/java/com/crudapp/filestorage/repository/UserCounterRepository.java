@@ -0,0 +1,34 @@
+package com.crudapp.filestorage.repository;
+
+import com.crudapp.filestorage.model.UserCounter;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface UserCounterRepository extends JpaRepository<UserCounter, UserCounter.Key> {
+
+    @Modifying
+    @Transactional
+    @Query(value = """
+        insert into user_counters(user_id, counter, amount)
+        values (:userId, :counter, :delta) as n
+        on duplicate key update amount = user_counters.amount + n.amount
+        """, nativeQuery = true)
+    int add(@Param("userId") Integer userId, @Param("counter") String counter, @Param("delta") long delta);
+
+    // counter is a LIKE pattern: 'events.%' sums every event status
+    @Query(value = """
+        select coalesce(sum(c.amount), 0)
+        from user_counters c
+        where (:userId is null or c.user_id = :userId)
+          and c.counter like :counter
+        """, nativeQuery = true)
+    long sum(@Param("userId") Integer userId, @Param("counter") String counter);
+
+    @Modifying
+    @Transactional
+    @Query("delete from UserCounter c where c.userId = :userId")
+    int deleteByUser(@Param("userId") Integer userId);
+}
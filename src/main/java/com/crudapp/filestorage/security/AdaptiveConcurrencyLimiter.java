@@ -0,0 +1,92 @@
+package com.crudapp.filestorage.security;
+
+import com.crudapp.filestorage.config.RateLimitProps;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Node-wide cap on S3-bound requests in flight. The cap grows additively while S3 latency
+ * stays near its long-term baseline and shrinks multiplicatively when recent latency rises
+ * above {@code baseline * tolerance} or a call fails, so an overloaded backend sheds load
+ * at the door instead of queueing it.
+ *
+ * Only calls moving at most {@code sampleMaxBytes} are latency samples: the time of a large
+ * PUT or GET grows with its size, and one multi-GB transfer would otherwise read as
+ * congestion. Failures - 5xx, throttling and timeouts, nothing the caller caused - shrink
+ * the cap whatever the size, but only small ones feed the latency averages.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+    private static final double FAST = 0.2;
+    private static final double SLOW = 0.01;
+    private static final long DECREASE_EVERY_NANOS = 100_000_000L;
+
+    private final RateLimitProps.Adaptive props;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+
+    private double recent;
+    private double baseline;
+    private long lastDecrease;
+
+    public AdaptiveConcurrencyLimiter(RateLimitProps props) {
+        this.props = props.getAdaptive();
+        this.limit = this.props.getInitialLimit();
+    }
+
+    public boolean tryAcquire() {
+        if (!props.isEnabled()) return true;
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    public void release() {
+        if (props.isEnabled()) inFlight.decrementAndGet();
+    }
+
+    public int limit() {
+        return (int) limit;
+    }
+
+    /** Fed by the S3 client for every completed call; {@code bytes} is the larger of request and response body. */
+    public void onSample(long latencyNanos, long bytes, boolean failed) {
+        if (bytes <= props.getSampleMaxBytes().toBytes()) {
+            onSample(latencyNanos, failed);
+        } else if (failed) {
+            onFailure();
+        }
+    }
+
+    synchronized void onSample(long latencyNanos, boolean failed) {
+        if (baseline == 0) {
+            baseline = recent = latencyNanos;
+            return;
+        }
+        recent += FAST * (latencyNanos - recent);
+        baseline += SLOW * (latencyNanos - baseline);
+
+        if (failed || recent > baseline * props.getTolerance()) {
+            decrease();
+        } else if (inFlight.get() * 2 >= limit) {
+            // only grow while the current limit is actually being used
+            limit = Math.min(props.getMaxLimit(), limit + 1 / limit);
+        }
+    }
+
+    // a large transfer that failed: S3 is in trouble, but the time it took is no latency sample
+    private synchronized void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        long now = System.nanoTime();
+        if (now - lastDecrease > DECREASE_EVERY_NANOS) {
+            limit = Math.max(props.getMinLimit(), limit * 0.9);
+            lastDecrease = now;
+        }
+    }
+}
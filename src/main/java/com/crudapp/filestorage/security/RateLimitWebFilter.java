@@ -0,0 +1,230 @@
+package com.crudapp.filestorage.security;
+
+import com.crudapp.filestorage.api.ApiError;
+import com.crudapp.filestorage.config.RateLimitProps;
+import com.crudapp.filestorage.config.RateLimitProps.Limits;
+import com.crudapp.filestorage.model.Role;
+import com.crudapp.filestorage.model.User;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Admission control, placed right after the bearer {@link org.springframework.security.web.server.authentication.AuthenticationWebFilter}:
+ * a token bucket per user (per client address when anonymous), a cap on concurrent uploads
+ * per user, and the node-wide {@link AdaptiveConcurrencyLimiter} for S3-bound requests.
+ * Rejected requests get 429 with {@code Retry-After}.
+ *
+ * Tenants are forgotten after {@code tenantIdleTimeout} without requests, and at most
+ * {@code maxTenants} are kept: past that the least recently seen idle ones are evicted, so
+ * clients rotating addresses cannot grow the map. A user's limits follow role changes within
+ * {@code limitsTtl}.
+ */
+public class RateLimitWebFilter implements WebFilter {
+
+    private final RateLimitProps props;
+    private final AdaptiveConcurrencyLimiter global;
+    private final ObjectMapper mapper;
+    private final LongSupplier clock;
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long lastSweep;
+
+    private static final class Tenant {
+        final AtomicInteger uploads = new AtomicInteger();
+        volatile Limits limits;
+        volatile TokenBucket requests;
+        volatile long limitsAt;
+        volatile long lastSeen;
+
+        Tenant(Limits limits, long now) {
+            apply(limits, now);
+            this.lastSeen = now;
+        }
+
+        // limits are instances from RateLimitProps: the same instance means the same limits
+        void apply(Limits limits, long now) {
+            if (limits != this.limits) {
+                this.requests = new TokenBucket(limits.getRequestsPerSecond(), limits.getBurst());
+                this.limits = limits;
+            }
+            this.limitsAt = now;
+        }
+
+        boolean tryStartUpload() {
+            while (true) {
+                int current = uploads.get();
+                if (current >= limits.getUploadSlots()) return false;
+                if (uploads.compareAndSet(current, current + 1)) return true;
+            }
+        }
+    }
+
+    private record Seen(String key, Tenant tenant, long at) {}
+
+    public RateLimitWebFilter(RateLimitProps props, AdaptiveConcurrencyLimiter global, ObjectMapper mapper) {
+        this(props, global, mapper, System::nanoTime);
+    }
+
+    RateLimitWebFilter(RateLimitProps props, AdaptiveConcurrencyLimiter global, ObjectMapper mapper, LongSupplier clock) {
+        this.props = props;
+        this.global = global;
+        this.mapper = mapper;
+        this.clock = clock;
+        this.lastSweep = clock.getAsLong();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!props.isEnabled()) return chain.filter(exchange);
+        return ReactiveSecurityContextHolder.getContext()
+                .map(SecurityContext::getAuthentication)
+                .filter(a -> a.getPrincipal() instanceof User)
+                .map(a -> (User) a.getPrincipal())
+                .map(u -> tenant("u:" + u.getId(), () -> limitsFor(u)))
+                .switchIfEmpty(Mono.fromSupplier(() ->
+                        tenant("a:" + clientAddress(exchange.getRequest()), props::getAnonymous)))
+                .flatMap(t -> admit(t, exchange, chain));
+    }
+
+    private Tenant tenant(String key, Supplier<Limits> limits) {
+        long now = clock.getAsLong();
+        Tenant tenant = tenants.get(key);
+        if (tenant == null) {
+            evict(now);
+            tenant = tenants.computeIfAbsent(key, k -> new Tenant(limits.get(), now));
+        } else if (now - tenant.limitsAt > props.getLimitsTtl().toNanos()) {
+            tenant.apply(limits.get(), now);
+        }
+        tenant.lastSeen = now;
+        return tenant;
+    }
+
+    /**
+     * Drops tenants idle for {@code tenantIdleTimeout}, at most once per timeout, and when the
+     * map is full the least recently seen idle ones down to 90% of {@code maxTenants}.
+     * Tenants with uploads in flight are kept, their slots are still taken.
+     */
+    private void evict(long now) {
+        long idle = props.getTenantIdleTimeout().toNanos();
+        boolean full = tenants.size() >= props.getMaxTenants();
+        if (!full && now - lastSweep < idle) return;
+        if (!sweeping.compareAndSet(false, true)) return;
+        try {
+            lastSweep = now;
+            tenants.values().removeIf(t -> now - t.lastSeen >= idle && t.uploads.get() == 0);
+            int excess = tenants.size() - props.getMaxTenants() * 9 / 10;
+            if (excess <= 0) return;
+            // lastSeen keeps moving: sort a snapshot of it
+            List<Seen> oldest = tenants.entrySet().stream()
+                    .filter(e -> e.getValue().uploads.get() == 0)
+                    .map(e -> new Seen(e.getKey(), e.getValue(), e.getValue().lastSeen))
+                    .sorted(Comparator.comparingLong(Seen::at))
+                    .limit(excess)
+                    .toList();
+            oldest.forEach(seen -> tenants.remove(seen.key(), seen.tenant()));
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    int tenants() {
+        return tenants.size();
+    }
+
+    private Mono<Void> admit(Tenant tenant, ServerWebExchange exchange, WebFilterChain chain) {
+        long waitNanos = tenant.requests.tryAcquire();
+        if (waitNanos > 0) {
+            return reject(exchange, TimeUnit.NANOSECONDS.toMillis(waitNanos), "Request rate limit exceeded");
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        boolean upload = isUpload(request);
+        if (upload && !tenant.tryStartUpload()) {
+            return reject(exchange, 1000, "Too many concurrent uploads");
+        }
+        boolean s3Bound = upload || isDownload(request);
+        if (s3Bound && !global.tryAcquire()) {
+            if (upload) tenant.uploads.decrementAndGet();
+            return reject(exchange, props.getAdaptive().getRetryAfter().toMillis(), "Server is busy");
+        }
+        if (!upload && !s3Bound) return chain.filter(exchange);
+        return chain.filter(exchange)
+                .doFinally(s -> {
+                    if (upload) tenant.uploads.decrementAndGet();
+                    if (s3Bound) global.release();
+                });
+    }
+
+    private Limits limitsFor(User user) {
+        return user.getRoles().stream()
+                .map(Role::getName)
+                .map(props.getRoles()::get)
+                .filter(Objects::nonNull)
+                .max(Comparator.comparingDouble(Limits::getRequestsPerSecond))
+                .orElse(props.getUser());
+    }
+
+    // streamed request bodies: multipart uploads and raw content replacement
+    private static boolean isUpload(ServerHttpRequest request) {
+        HttpMethod m = request.getMethod();
+        if (m != HttpMethod.POST && m != HttpMethod.PUT) return false;
+        MediaType type = request.getHeaders().getContentType();
+        return type != null && (MediaType.MULTIPART_FORM_DATA.includes(type)
+                || MediaType.APPLICATION_OCTET_STREAM.includes(type));
+    }
+
+    private static boolean isDownload(ServerHttpRequest request) {
+        String path = request.getPath().value();
+        return (request.getMethod() == HttpMethod.GET && path.endsWith("/content"))
+                || (request.getMethod() == HttpMethod.POST && path.equals("/files/archive"));
+    }
+
+    private static String clientAddress(ServerHttpRequest request) {
+        InetSocketAddress remote = request.getRemoteAddress();
+        return remote != null && remote.getAddress() != null ? remote.getAddress().getHostAddress() : "unknown";
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange, long retryAfterMillis, String message) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (retryAfterMillis + 999) / 1000)));
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        ApiError body = new ApiError(
+                HttpStatus.TOO_MANY_REQUESTS.value(),
+                HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase(),
+                message,
+                exchange.getRequest().getPath().value(),
+                OffsetDateTime.now()
+        );
+        try {
+            return response.writeWith(Mono.just(response.bufferFactory().wrap(mapper.writeValueAsBytes(body))));
+        } catch (JsonProcessingException e) {
+            return response.setComplete();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.crudapp.filestorage.security;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket in its GCRA form: the whole state is one "theoretical arrival time",
+ * advanced by one emission interval per admitted request with a single CAS.
+ */
+final class TokenBucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong tat;
+
+    TokenBucket(double perSecond, int burst) {
+        this.intervalNanos = (long) (1_000_000_000L / perSecond);
+        this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    /** @return 0 when admitted, otherwise how many nanoseconds until a token is available */
+    long tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long wait = next - now - toleranceNanos - intervalNanos;
+            if (wait > 0) return wait;
+            if (tat.compareAndSet(current, next)) return 0;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.crudapp.filestorage.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind record of downloads for the tiering engine. A download only adds the file id
+ * to a set; the set is flushed every {@code storage.tiering.accessFlushInterval} as a few
+ * batched UPDATEs, so reads never wait for a write and a hot file costs one row update per
+ * interval however often it is read.
+ */
+@Component
+public class AccessLog {
+    private static final Logger log = LoggerFactory.getLogger(AccessLog.class);
+    private static final int CHUNK = 1000;
+
+    private final NamedParameterJdbcTemplate named;
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+
+    public AccessLog(DataSource dataSource) {
+        this.named = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    public void touch(Integer fileId) {
+        pending.add(fileId);
+    }
+
+    @Scheduled(fixedDelayString = "${storage.tiering.accessFlushInterval:PT30S}")
+    public void flush() {
+        if (pending.isEmpty()) return;
+        List<Integer> ids = new ArrayList<>();
+        for (Iterator<Integer> it = pending.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+        try {
+            for (int i = 0; i < ids.size(); i += CHUNK) {
+                named.update("update files set last_accessed_at = :now where id in (:ids)",
+                        new MapSqlParameterSource("now", now)
+                                .addValue("ids", ids.subList(i, Math.min(ids.size(), i + CHUNK))));
+            }
+        } catch (RuntimeException e) {
+            // a lost access only makes a file look older than it is
+            log.warn("Failed to flush access log of {} files", ids.size(), e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flush();
+    }
+}
@@ -28,14 +28,17 @@ public class AdminUserService {
     private final RoleRepository roles;
     private final StorageFileRepository files;
     private final EventRepository events;
+    private final UserCounters counters;
     private final PasswordEncoder encoder;
 
 
-    public AdminUserService(UserRepository users, RoleRepository roles, StorageFileRepository files, EventRepository events, PasswordEncoder encoder) {
+    public AdminUserService(UserRepository users, RoleRepository roles, StorageFileRepository files, EventRepository events,
+                            UserCounters counters, PasswordEncoder encoder) {
         this.users = users;
         this.roles = roles;
         this.files = files;
         this.events = events;
+        this.counters = counters;
         this.encoder = encoder;
     }
 
@@ -92,6 +95,7 @@ public class AdminUserService {
                         throw new ResponseStatusException(HttpStatus.CONFLICT, "User has files or events");
                     }
                     users.deleteById(userId);
+                    counters.deleteUser(userId);
                     return null;
                 }).subscribeOn(Schedulers.boundedElastic()))
                 .then();
@@ -0,0 +1,140 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.CdnProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SigV4 query-string signing of path-style GET URLs, for pages that need hundreds of links
+ * at once. Unlike {@code S3Presigner}, which runs the full SDK request pipeline and derives
+ * the signing key on every call, this keeps one derived key per day, region and access key
+ * and one {@link Mac} per thread, so a URL costs two HMACs and a SHA-256 of a short string.
+ *
+ * The signing time is rounded down to {@code storage.cdn.presignWindow} and the expiry is
+ * extended by the same window, so every URL is valid for at least {@code ttl} and repeated
+ * requests within a window return byte-identical, browser-cacheable URLs.
+ */
+@Component
+public class BatchPresigner {
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final long MAX_EXPIRES = Duration.ofDays(7).toSeconds();
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final S3ClientPool pool;
+    private final CdnProps props;
+    // "<date>/<region>/<access key>" -> derived signing key
+    private final Map<String, byte[]> signingKeys = new ConcurrentHashMap<>();
+
+    public BatchPresigner(S3ClientPool pool, CdnProps props) {
+        this.pool = pool;
+        this.props = props;
+    }
+
+    public record Signed(String url, Instant expiresAt) {}
+
+    public Signed sign(String bucket, String key, Duration ttl, Instant now) {
+        long window = Math.max(1, props.getPresignWindow().toSeconds());
+        Instant signedAt = Instant.ofEpochSecond(now.getEpochSecond() / window * window);
+        long expires = Math.min(MAX_EXPIRES, ttl.toSeconds() + window);
+
+        S3ClientPool.Target target = pool.target(bucket);
+        String accessKey = target.credentials().accessKeyId();
+        String date = DATE.format(signedAt);
+        String amzDate = DATE_TIME.format(signedAt);
+        String scope = date + "/" + target.region() + "/s3/aws4_request";
+
+        URI endpoint = URI.create(target.endpoint());
+        String host = endpoint.getPort() == -1 ? endpoint.getHost() : endpoint.getHost() + ":" + endpoint.getPort();
+        String basePath = endpoint.getRawPath() == null ? "" : endpoint.getRawPath().replaceAll("/+$", "");
+        String path = basePath + "/" + encode(bucket, false) + "/" + encode(key, true);
+
+        // parameters in canonical (sorted) order
+        String query = "X-Amz-Algorithm=" + ALGORITHM
+                + "&X-Amz-Credential=" + encode(accessKey + "/" + scope, false)
+                + "&X-Amz-Date=" + amzDate
+                + "&X-Amz-Expires=" + expires
+                + "&X-Amz-SignedHeaders=host";
+        String canonicalRequest = "GET\n" + path + "\n" + query + "\nhost:" + host + "\n\nhost\nUNSIGNED-PAYLOAD";
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+        String signature = HEX.formatHex(hmac(signingKey(date, target), stringToSign));
+
+        return new Signed(endpoint.getScheme() + "://" + host + path + "?" + query + "&X-Amz-Signature=" + signature,
+                signedAt.plusSeconds(expires));
+    }
+
+    private byte[] signingKey(String date, S3ClientPool.Target target) {
+        String id = date + "/" + target.region() + "/" + target.credentials().accessKeyId();
+        byte[] cached = signingKeys.get(id);
+        if (cached != null) return cached;
+        // a new day: keys of the previous ones are never used again
+        signingKeys.keySet().removeIf(k -> !k.startsWith(date + "/"));
+        byte[] k = hmac(("AWS4" + target.credentials().secretAccessKey()).getBytes(StandardCharsets.UTF_8), date);
+        k = hmac(k, target.region());
+        k = hmac(k, "s3");
+        k = hmac(k, "aws4_request");
+        signingKeys.put(id, k);
+        return k;
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        Mac mac = MAC.get();
+        try {
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256Hex(String data) {
+        return HEX.formatHex(SHA256.get().digest(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** RFC 3986 encoding as SigV4 expects it: unreserved characters as is, '/' kept in keys. */
+    private static String encode(String value, boolean keepSlash) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(bytes.length + 16);
+        for (byte b : bytes) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (keepSlash && c == '/')) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xf, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,186 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.config.UploadProps;
+import com.crudapp.filestorage.dto.BatchUploadResult;
+import com.crudapp.filestorage.dto.FileDto;
+import com.crudapp.filestorage.model.FileStatus;
+import com.crudapp.filestorage.model.User;
+import com.crudapp.filestorage.service.FileBatchWriter.NewFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uploads every file part of one multipart request. Parts go to S3 with at most
+ * {@code storage.upload.batchConcurrency} PUTs in flight; the rows of all stored parts and
+ * their CREATED events are then written in one batched transaction. A failed part does not
+ * fail the request, it just gets an error line in the result stream.
+ *
+ * Parts always go straight to S3, the upload spool is not used here.
+ */
+@Component
+public class BatchUploader {
+    private static final Logger log = LoggerFactory.getLogger(BatchUploader.class);
+
+    private final S3ClientPool s3;
+    private final BucketRouter router;
+    private final S3Props s3Props;
+    private final UploadProps props;
+    private final ObjectLocations locations;
+    private final QuotaLedger quotas;
+    private final FileBatchWriter writer;
+    private final ThumbnailService thumbnails;
+
+    private record Outcome(int index, String name, NewFile file, QuotaLedger.Reservation quota, String error) {
+        static Outcome failed(int index, String name, String error) {
+            return new Outcome(index, name, null, null, error);
+        }
+    }
+
+    public BatchUploader(S3ClientPool s3, BucketRouter router, S3Props s3Props, UploadProps props,
+                         ObjectLocations locations, QuotaLedger quotas, FileBatchWriter writer,
+                         ThumbnailService thumbnails) {
+        this.s3 = s3;
+        this.router = router;
+        this.s3Props = s3Props;
+        this.props = props;
+        this.locations = locations;
+        this.quotas = quotas;
+        this.writer = writer;
+        this.thumbnails = thumbnails;
+    }
+
+    public Flux<BatchUploadResult> upload(Flux<Part> parts, User user) {
+        int max = props.getBatchMaxFiles();
+        String bucket = router.bucketFor(user.getId());
+        return parts
+                .filter(p -> p instanceof FilePart)
+                .cast(FilePart.class)
+                .index()
+                .flatMap(t -> {
+                    int index = t.getT1().intValue();
+                    FilePart part = t.getT2();
+                    if (index >= max) {
+                        return part.delete()
+                                .onErrorResume(e -> Mono.empty())
+                                .thenReturn(Outcome.failed(index, part.filename(), "At most " + max + " files per batch"));
+                    }
+                    return put(index, part, bucket, user);
+                }, props.getBatchConcurrency())
+                .collectList()
+                .flatMapMany(outcomes -> Mono.fromCallable(() -> persist(outcomes, user))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .flatMapIterable(results -> results));
+    }
+
+    private Mono<Outcome> put(int index, FilePart part, String bucket, User user) {
+        String name = StringUtils.cleanPath(part.filename());
+        if (!StringUtils.hasText(name)) {
+            return part.content().doOnNext(DataBufferUtils::release)
+                    .then(Mono.just(Outcome.failed(index, name, "Empty filename")));
+        }
+        String key = locations.newKey(user.getId(), name);
+        String contentType = part.headers().getContentType() != null
+                ? part.headers().getContentType().toString()
+                : "application/octet-stream";
+
+        return Mono.fromCallable(() -> quotas.open(user))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(quota -> {
+                    StreamingChecksum checksum = StreamingChecksum.full();
+                    Flux<ByteBuffer> body = part.content().map(db -> {
+                        int n = db.readableByteCount();
+                        try {
+                            quota.grow(n);
+                        } catch (QuotaExceededException e) {
+                            DataBufferUtils.release(db);
+                            throw e;
+                        }
+                        // copied out: the SDK reads the bytes after the pooled buffer went back
+                        byte[] bytes = new byte[n];
+                        db.read(bytes);
+                        DataBufferUtils.release(db);
+                        ByteBuffer bb = ByteBuffer.wrap(bytes);
+                        checksum.update(bb);
+                        return bb;
+                    });
+                    var req = PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .contentType(contentType);
+                    if (s3Props.isChecksums()) req.checksumAlgorithm(ChecksumAlgorithm.CRC32_C);
+                    return Mono.fromFuture(() -> s3.client(bucket).putObject(req.build(), AsyncRequestBody.fromPublisher(body)))
+                            .map(resp -> {
+                                checksum.verifyStored(resp.checksumCRC32C());
+                                StreamingChecksum.Result digest = checksum.result();
+                                return new Outcome(index, name, new NewFile(name, bucket, key, quota.bytes(),
+                                        contentType, digest.crc32c(), digest.sha256()), quota, null);
+                            })
+                            .onErrorResume(e -> {
+                                quota.close();
+                                return Mono.just(Outcome.failed(index, name, reason(e)));
+                            });
+                });
+    }
+
+    private List<BatchUploadResult> persist(List<Outcome> outcomes, User user) {
+        List<Outcome> stored = outcomes.stream().filter(o -> o.file() != null).toList();
+        List<Integer> ids = List.of();
+        String dbError = null;
+        try {
+            ids = writer.insert(stored.stream().map(Outcome::file).toList(), user, user);
+            stored.forEach(o -> o.quota().commit());
+        } catch (RuntimeException e) {
+            // the objects are left to the reconciler as orphans
+            log.warn("Batch upload of {} files by user {} failed to persist", stored.size(), user.getId(), e);
+            dbError = "Failed to save file";
+        } finally {
+            stored.forEach(o -> o.quota().close());
+        }
+
+        List<BatchUploadResult> results = new ArrayList<>(outcomes.size());
+        int i = 0;
+        for (Outcome o : outcomes) {
+            if (o.file() == null) {
+                results.add(new BatchUploadResult(o.index(), o.name(), null, o.error()));
+            } else if (dbError != null) {
+                results.add(new BatchUploadResult(o.index(), o.name(), null, dbError));
+            } else {
+                NewFile f = o.file();
+                Integer id = ids.get(i++);
+                // a new file, version 1; batch uploads are never encrypted
+                thumbnails.submit(id, 1, f.bucket(), f.key(), f.contentType(), f.size(), false);
+                results.add(new BatchUploadResult(o.index(), o.name(),
+                        new FileDto(id, f.name(), locations.url(f.bucket(), f.key()), FileStatus.ACTIVE.name(),
+                                f.size(), f.contentType()),
+                        null));
+            }
+        }
+        return results;
+    }
+
+    private static String reason(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ResponseStatusException r) return r.getReason();
+        }
+        return "S3 upload failed";
+    }
+}
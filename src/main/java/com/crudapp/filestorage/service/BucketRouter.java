@@ -0,0 +1,11 @@
+package com.crudapp.filestorage.service;
+
+/**
+ * Picks the bucket new objects of a user are written to. The choice is stored on the file
+ * row, so changing the placement only affects new objects. Declare a {@code @Primary} bean
+ * to replace the default {@link ConsistentHashBucketRouter}.
+ */
+public interface BucketRouter {
+
+    String bucketFor(Integer userId);
+}
@@ -0,0 +1,241 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.ImportProps;
+import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.dto.ImportResult;
+import com.crudapp.filestorage.model.User;
+import com.crudapp.filestorage.service.FileBatchWriter.NewFile;
+import com.crudapp.filestorage.repository.UserRepository;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import javax.sql.DataSource;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Admin bulk import. Registers objects that already sit under a bucket prefix, or explodes an
+ * uploaded ZIP/TAR into one object per entry, and writes the file rows through
+ * {@link FileBatchWriter} in batches of {@code storage.import.batchSize}.
+ */
+@Component
+public class BulkImporter {
+    private static final Logger log = LoggerFactory.getLogger(BulkImporter.class);
+    private static final int PIPE_SIZE = 256 * 1024;
+
+    private final S3AsyncClient s3;
+    private final S3Props s3Props;
+    private final ImportProps props;
+    private final UserRepository users;
+    private final ObjectLocations locations;
+    private final MultipartUploader uploader;
+    private final FileBatchWriter writer;
+    private final NamedParameterJdbcTemplate named;
+
+    public BulkImporter(S3AsyncClient s3, S3Props s3Props, ImportProps props, UserRepository users,
+                        ObjectLocations locations, MultipartUploader uploader, FileBatchWriter writer,
+                        DataSource dataSource) {
+        this.s3 = s3;
+        this.s3Props = s3Props;
+        this.props = props;
+        this.users = users;
+        this.locations = locations;
+        this.uploader = uploader;
+        this.writer = writer;
+        this.named = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    /** Registers every object under {@code prefix} that has no row yet. */
+    public Mono<ImportResult> importPrefix(String prefix, Integer ownerId, User actor) {
+        var req = ListObjectsV2Request.builder()
+                .bucket(s3Props.getBucket())
+                .prefix(prefix)
+                .maxKeys(Math.min(1000, props.getBatchSize()))
+                .build();
+        return owner(ownerId)
+                .flatMap(owner -> Flux.from(s3.listObjectsV2Paginator(req))
+                        .concatMap(page -> Mono.fromCallable(() -> registerPage(page.contents(), owner, actor))
+                                .subscribeOn(Schedulers.boundedElastic()))
+                        .reduce(new ImportResult(0, 0, 0), BulkImporter::sum))
+                .doOnNext(r -> log.info("Imported prefix {}: {}", prefix, r));
+    }
+
+    /**
+     * Explodes a ZIP, TAR or TAR.GZ upload into one object per regular entry. Entries are
+     * read strictly in order from the request stream; large entries go up as multipart uploads.
+     */
+    public Mono<ImportResult> importArchive(Flux<DataBuffer> content, String filename, Integer ownerId, User actor) {
+        return owner(ownerId)
+                .flatMap(owner -> Mono.fromCallable(() -> {
+                    try (InputStream raw = new PipedBody(content, PIPE_SIZE);
+                         ArchiveInputStream<?> archive = open(raw, filename)) {
+                        return explode(archive, owner, actor);
+                    }
+                }).subscribeOn(Schedulers.boundedElastic()))
+                .doOnNext(r -> log.info("Imported archive {}: {}", filename, r));
+    }
+
+    private ImportResult explode(ArchiveInputStream<?> archive, User owner, User actor) throws IOException {
+        List<NewFile> batch = new ArrayList<>();
+        ImportResult total = new ImportResult(0, 0, 0);
+        long skipped = 0;
+        ArchiveEntry entry;
+        while ((entry = archive.getNextEntry()) != null) {
+            if (entry.isDirectory() || !archive.canReadEntryData(entry)) {
+                skipped++;
+                continue;
+            }
+            String name = baseName(entry.getName());
+            if (name.isEmpty()) {
+                skipped++;
+                continue;
+            }
+            String key = locations.newKey(owner.getId(), name);
+            String contentType = contentType(name);
+            long size = uploader.upload(s3Props.getBucket(), key, contentType, archive);
+            batch.add(new NewFile(name, s3Props.getBucket(), key, size, contentType, null, null));
+            if (batch.size() >= props.getBatchSize()) {
+                total = sum(total, insert(batch, owner, actor));
+                batch.clear();
+            }
+        }
+        total = sum(total, insert(batch, owner, actor));
+        return new ImportResult(total.imported(), total.skipped() + skipped, total.bytes());
+    }
+
+    private ImportResult registerPage(List<S3Object> objects, User owner, User actor) {
+        List<NewFile> candidates = objects.stream()
+                .filter(o -> !o.key().endsWith("/"))
+                .map(o -> {
+                    String name = baseName(o.key());
+                    return new NewFile(name, s3Props.getBucket(), o.key(), o.size(), contentType(name), null, null);
+                })
+                .toList();
+        if (candidates.isEmpty()) return new ImportResult(0, objects.size(), 0);
+
+        Set<String> known = new HashSet<>(named.queryForList(
+                "select object_key from files where bucket = :bucket and object_key in (:keys)",
+                new MapSqlParameterSource("bucket", s3Props.getBucket())
+                        .addValue("keys", candidates.stream().map(NewFile::key).toList()),
+                String.class));
+        List<NewFile> fresh = candidates.stream().filter(f -> !known.contains(f.key())).toList();
+        ImportResult inserted = insert(fresh, owner, actor);
+        return new ImportResult(inserted.imported(), objects.size() - fresh.size(), inserted.bytes());
+    }
+
+    private ImportResult insert(List<NewFile> batch, User owner, User actor) {
+        writer.insert(batch, owner, actor);
+        return new ImportResult(batch.size(), 0, batch.stream().mapToLong(NewFile::size).sum());
+    }
+
+    private Mono<User> owner(Integer ownerId) {
+        return Mono.fromCallable(() -> users.findById(ownerId).orElse(null))
+                .subscribeOn(Schedulers.boundedElastic())
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found")));
+    }
+
+    private static ArchiveInputStream<?> open(InputStream raw, String filename) throws IOException {
+        String lower = filename == null ? "" : filename.toLowerCase(Locale.ROOT);
+        InputStream in = new BufferedInputStream(raw, 64 * 1024);
+        if (lower.endsWith(".zip")) return new ZipArchiveInputStream(in);
+        if (lower.endsWith(".tar")) return new TarArchiveInputStream(in);
+        if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) {
+            return new TarArchiveInputStream(new GzipCompressorInputStream(in));
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Expected a .zip, .tar, .tar.gz or .tgz file");
+    }
+
+    private static String baseName(String path) {
+        String name = path.replace('\\', '/');
+        name = name.substring(name.lastIndexOf('/') + 1);
+        return name.length() > 255 ? name.substring(name.length() - 255) : name;
+    }
+
+    private static String contentType(String name) {
+        return MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+    }
+
+    private static ImportResult sum(ImportResult a, ImportResult b) {
+        return new ImportResult(a.imported() + b.imported(), a.skipped() + b.skipped(), a.bytes() + b.bytes());
+    }
+
+    /**
+     * Blocking view of a request body for the archive readers. A writer on boundedElastic
+     * copies the buffers into a pipe of {@code pipeSize} bytes, so at most that much of the
+     * upload is held at once. An upstream error closes the pipe and is rethrown from the read
+     * that hits the end, so a broken upload never passes for a short archive. Closing the
+     * stream cancels the body.
+     */
+    static final class PipedBody extends PipedInputStream {
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final Disposable writer;
+
+        PipedBody(Flux<DataBuffer> content, int pipeSize) throws IOException {
+            super(pipeSize);
+            PipedOutputStream out = new PipedOutputStream(this);
+            this.writer = DataBufferUtils.write(content.publishOn(Schedulers.boundedElastic(), 4), out)
+                    .doOnNext(DataBufferUtils::release)
+                    .doOnError(failure::set)
+                    .doFinally(signal -> {
+                        try {
+                            out.close();
+                        } catch (IOException ignored) {
+                            // the reader is gone
+                        }
+                    })
+                    .subscribe(null, e -> {});
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            return checked(super.read());
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            return checked(super.read(b, off, len));
+        }
+
+        private int checked(int n) throws IOException {
+            Throwable e = failure.get();
+            if (n == -1 && e != null) throw new IOException("Upload interrupted: " + e.getMessage(), e);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.dispose();
+            super.close();
+        }
+    }
+}
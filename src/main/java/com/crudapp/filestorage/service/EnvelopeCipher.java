@@ -0,0 +1,258 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.EncryptionProps;
+import com.crudapp.filestorage.model.StorageFile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Envelope encryption of object bytes. Every file gets its own random AES-256 data key,
+ * stored on the row wrapped (AES-GCM) by the configured master key.
+ *
+ * The object is a sequence of AES-GCM frames, one per {@code frameSize} bytes of plaintext,
+ * each followed by its 16-byte tag. The nonce is the frame index (the key is never reused
+ * across files) and the AAD binds the index and a last-frame flag, so frames cannot be
+ * reordered, dropped or truncated unnoticed. Frames have a fixed ciphertext size, which
+ * lets a plaintext range be served by fetching and opening only the frames it touches.
+ *
+ * Only one frame is buffered at a time in either direction. {@code AES/GCM/NoPadding} runs
+ * on the JDK's AES-NI/CLMUL intrinsics where the CPU has them.
+ */
+@Component
+public class EnvelopeCipher {
+    static final int TAG_BYTES = 16;
+    private static final int NONCE_BYTES = 12;
+    private static final String GCM = "AES/GCM/NoPadding";
+    private static final byte[] WRAP_AAD = "fs-data-key".getBytes(StandardCharsets.US_ASCII);
+
+    private final EncryptionProps props;
+    private final SecretKey masterKey;
+    private final SecureRandom random = new SecureRandom();
+
+    public record DataKey(SecretKey key, String wrapped, int frameSize) {}
+
+    public EnvelopeCipher(EncryptionProps props) {
+        this.props = props;
+        if (props.isEnabled()) {
+            if (props.getMasterKey() == null) {
+                throw new IllegalStateException("storage.encryption.masterKey is required when encryption is enabled");
+            }
+            byte[] raw = Base64.getDecoder().decode(props.getMasterKey());
+            if (raw.length != 32) {
+                throw new IllegalStateException("storage.encryption.masterKey must be 256 bits");
+            }
+            this.masterKey = new SecretKeySpec(raw, "AES");
+        } else {
+            this.masterKey = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    /** Whether an upload is encrypted, given what the client asked for ({@code null}: no preference). */
+    public boolean shouldEncrypt(Boolean requested) {
+        boolean wanted = requested != null ? requested : props.isByDefault();
+        if (wanted && !props.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Encryption is not configured");
+        }
+        return wanted;
+    }
+
+    public DataKey newDataKey() {
+        try {
+            KeyGenerator gen = KeyGenerator.getInstance("AES");
+            gen.init(256, random);
+            SecretKey key = gen.generateKey();
+            byte[] nonce = new byte[NONCE_BYTES];
+            random.nextBytes(nonce);
+            Cipher c = Cipher.getInstance(GCM);
+            c.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BYTES * 8, nonce));
+            c.updateAAD(WRAP_AAD);
+            byte[] sealed = c.doFinal(key.getEncoded());
+            byte[] out = new byte[NONCE_BYTES + sealed.length];
+            System.arraycopy(nonce, 0, out, 0, NONCE_BYTES);
+            System.arraycopy(sealed, 0, out, NONCE_BYTES, sealed.length);
+            return new DataKey(key, Base64.getEncoder().encodeToString(out), (int) props.getFrameSize().toBytes());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot create data key", e);
+        }
+    }
+
+    SecretKey unwrap(String wrapped) {
+        if (masterKey == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Encryption is not configured");
+        }
+        byte[] in = Base64.getDecoder().decode(wrapped);
+        try {
+            Cipher c = Cipher.getInstance(GCM);
+            c.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BYTES * 8, in, 0, NONCE_BYTES));
+            c.updateAAD(WRAP_AAD);
+            return new SecretKeySpec(c.doFinal(in, NONCE_BYTES, in.length - NONCE_BYTES), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot unwrap data key", e);
+        }
+    }
+
+    /** Seals {@code plain} frame by frame; consumes and releases the input buffers. */
+    public Flux<DataBuffer> encrypt(Flux<DataBuffer> plain, DataKey dataKey) {
+        return Flux.defer(() -> {
+            Frames frames = new Frames(Cipher.ENCRYPT_MODE, dataKey.key(), dataKey.frameSize(), 0, -1, -1);
+            return plain
+                    .concatMapIterable(db -> {
+                        try {
+                            return frames.update(db);
+                        } finally {
+                            DataBufferUtils.release(db);
+                        }
+                    })
+                    .concatWith(Mono.fromCallable(frames::finish))
+                    .map(DefaultDataBufferFactory.sharedInstance::wrap);
+        });
+    }
+
+    /**
+     * Plaintext view of an encrypted object. {@code object} reads the stored bytes - from S3,
+     * the cache or the spool file - and a requested range is widened to whole frames there.
+     */
+    public FileContent decrypting(FileContent object, StorageFile sf) {
+        SecretKey key = unwrap(sf.getEncryptionKey());
+        int frame = sf.getEncryptionFrameSize();
+        long size = sf.getSizeBytes();
+        long frames = Math.max(1, (size + frame - 1) / frame);
+        long sealedFrame = frame + TAG_BYTES;
+        return new FileContent(object.name(), object.contentType(), size, object.eTag(), null, (start, end) -> {
+            long first = start / frame;
+            long last = end / frame;
+            long objectStart = first * sealedFrame;
+            long objectEnd = Math.min((last + 1) * sealedFrame, object.contentLength()) - 1;
+            Flux<DataBuffer> plain = Flux.defer(() -> {
+                Frames opener = new Frames(Cipher.DECRYPT_MODE, key, (int) sealedFrame, first, last, frames - 1);
+                return object.body(objectStart, objectEnd)
+                        .concatMapIterable(db -> {
+                            try {
+                                return opener.update(db);
+                            } finally {
+                                DataBufferUtils.release(db);
+                            }
+                        })
+                        .concatWith(Mono.fromCallable(opener::finish).filter(b -> b.length > 0))
+                        .map(DefaultDataBufferFactory.sharedInstance::wrap);
+            });
+            return DataBufferUtils.takeUntilByteCount(
+                    DataBufferUtils.skipUntilByteCount(plain, start - first * frame),
+                    end - start + 1);
+        });
+    }
+
+    /**
+     * Cuts a byte stream into frames of {@code chunk} input bytes and seals or opens each one.
+     * A full frame is held back until more input arrives, because only then is it known not
+     * to be the last one.
+     */
+    private static final class Frames {
+        private final int mode;
+        private final SecretKey key;
+        private final int chunk;
+        private final long untilIndex;
+        private final long lastIndex;
+        private final Cipher cipher;
+        private final byte[] buf;
+        private final byte[] nonce = new byte[NONCE_BYTES];
+        private final byte[] aad = new byte[9];
+        private int filled;
+        private long index;
+
+        /**
+         * @param untilIndex last frame the input is expected to contain, -1 when encrypting
+         * @param lastIndex  index of the object's last frame, -1 when encrypting
+         */
+        Frames(int mode, SecretKey key, int chunk, long firstIndex, long untilIndex, long lastIndex) {
+            this.mode = mode;
+            this.key = key;
+            this.chunk = chunk;
+            this.untilIndex = untilIndex;
+            this.lastIndex = lastIndex;
+            this.index = firstIndex;
+            this.buf = new byte[chunk];
+            try {
+                this.cipher = Cipher.getInstance(GCM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /** Unchecked, for use inside operator lambdas; a cipher failure becomes an IllegalStateException. */
+        List<byte[]> update(DataBuffer db) {
+            List<byte[]> out = new ArrayList<>(2);
+            int remaining = db.readableByteCount();
+            while (remaining > 0) {
+                if (filled == chunk) {
+                    try {
+                        out.add(seal(false));
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException("Cannot " + (mode == Cipher.ENCRYPT_MODE ? "seal" : "open")
+                                + " frame " + index, e);
+                    }
+                }
+                int n = Math.min(remaining, chunk - filled);
+                db.read(buf, filled, n);
+                filled += n;
+                remaining -= n;
+            }
+            return out;
+        }
+
+        byte[] finish() throws GeneralSecurityException {
+            if (mode == Cipher.ENCRYPT_MODE) return seal(true);
+            byte[] out = filled > 0 ? seal(true) : new byte[0];
+            if (index != untilIndex + 1) {
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Encrypted object is truncated");
+            }
+            return out;
+        }
+
+        private byte[] seal(boolean endOfInput) throws GeneralSecurityException {
+            boolean last = mode == Cipher.ENCRYPT_MODE ? endOfInput : index == lastIndex;
+            if (mode == Cipher.DECRYPT_MODE && index > lastIndex) {
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Encrypted object is longer than expected");
+            }
+            ByteBuffer.wrap(nonce, NONCE_BYTES - 8, 8).putLong(index);
+            ByteBuffer.wrap(aad).putLong(index).put((byte) (last ? 1 : 0));
+            cipher.init(mode, key, new GCMParameterSpec(TAG_BYTES * 8, nonce));
+            cipher.updateAAD(aad);
+            try {
+                byte[] out = cipher.doFinal(buf, 0, filled);
+                filled = 0;
+                index++;
+                return out;
+            } catch (AEADBadTagException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Encrypted frame " + index + " failed authentication", e);
+            } finally {
+                if (mode == Cipher.ENCRYPT_MODE) Arrays.fill(buf, (byte) 0);
+            }
+        }
+    }
+}
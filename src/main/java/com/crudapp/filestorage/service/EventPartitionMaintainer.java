@@ -0,0 +1,237 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.EventPartitionProps;
+import com.crudapp.filestorage.config.S3Props;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the monthly RANGE partitions of {@code events} in shape: splits {@code p_max} so that
+ * {@code monthsAhead} future months always have their own partition, and removes partitions
+ * older than {@code retentionMonths}, exporting them first to gzipped NDJSON in the bucket.
+ *
+ * The future partitions are also added once at startup, even with {@code maintenance} off, so
+ * the boundaries of the initial migration never leave new events in {@code p_max}. Dropped
+ * events are subtracted from the counters before the drop, journaled in
+ * {@code event_partition_drops}; a drop interrupted after that is finished on the next run.
+ */
+@Component
+public class EventPartitionMaintainer {
+    private static final Logger log = LoggerFactory.getLogger(EventPartitionMaintainer.class);
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final String MAX_PARTITION = "p_max";
+
+    private final JdbcTemplate jdbc;
+    private final JdbcTemplate streamingJdbc;
+    private final S3AsyncClient s3;
+    private final S3Props s3Props;
+    private final EventPartitionProps props;
+    private final ObjectMapper mapper;
+    private final UserCounters counters;
+    private final TransactionTemplate tx;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    record Partition(String name, LocalDate bound) {}
+
+    record EventCount(Integer userId, String status, long count) {}
+
+    record ArchivedEvent(Integer id, Integer userId, Integer fileId, String status, String message, Instant createdAt) {}
+
+    public EventPartitionMaintainer(DataSource dataSource, S3AsyncClient s3, S3Props s3Props,
+                                    EventPartitionProps props, ObjectMapper mapper,
+                                    UserCounters counters, TransactionTemplate tx) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        // Connector/J streams the result set row by row only with this magic fetch size
+        this.streamingJdbc = new JdbcTemplate(dataSource);
+        this.streamingJdbc.setFetchSize(Integer.MIN_VALUE);
+        this.s3 = s3;
+        this.s3Props = s3Props;
+        this.props = props;
+        this.mapper = mapper;
+        this.counters = counters;
+        this.tx = tx;
+    }
+
+    @Scheduled(fixedDelayString = "${storage.events.interval:PT6H}",
+            initialDelayString = "${storage.events.initialDelay:PT1M}")
+    public void scheduled() {
+        if (props.isMaintenance()) run();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startup() {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            addFuturePartitions();
+        } catch (Exception e) {
+            log.error("Events partitions could not be added, new events go to " + MAX_PARTITION, e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public void run() {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            addFuturePartitions();
+            if (props.getRetentionMonths() > 0) expire();
+        } catch (Exception e) {
+            log.warn("Events partition maintenance failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void addFuturePartitions() {
+        LocalDate last = partitions().stream()
+                .map(Partition::bound)
+                .filter(b -> b != null)
+                .max(LocalDate::compareTo)
+                .orElse(null);
+        if (last == null) return;
+        LocalDate target = YearMonth.now(ZoneOffset.UTC).plusMonths(props.getMonthsAhead() + 1L).atDay(1);
+        if (!last.isBefore(target)) return;
+
+        StringBuilder ddl = new StringBuilder("ALTER TABLE events REORGANIZE PARTITION " + MAX_PARTITION + " INTO (");
+        for (LocalDate from = last; from.isBefore(target); from = from.plusMonths(1)) {
+            ddl.append("PARTITION ").append(NAME.format(from))
+                    .append(" VALUES LESS THAN ('").append(BOUND.format(from.plusMonths(1).atStartOfDay())).append("'), ");
+        }
+        ddl.append("PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE))");
+        jdbc.execute(ddl.toString());
+        log.info("Events partitions added up to {}", target);
+    }
+
+    private void expire() {
+        finishDrops();
+        LocalDate cutoff = YearMonth.now(ZoneOffset.UTC).minusMonths(props.getRetentionMonths()).atDay(1);
+        for (Partition p : partitions()) {
+            if (p.bound() == null || p.bound().isAfter(cutoff)) continue;
+            long exported = props.isArchive() ? export(p) : 0;
+            // DROP PARTITION commits on its own: subtract first, together with the journal row
+            tx.executeWithoutResult(ts -> {
+                jdbc.update("insert into event_partition_drops(partition_name) values (?)", p.name());
+                List<EventCount> dropped = jdbc.query(
+                        "select user_id, status, count(*) from events partition (" + p.name() + ") group by user_id, status",
+                        (rs, i) -> new EventCount((Integer) rs.getObject(1), rs.getString(2), rs.getLong(3)));
+                dropped.forEach(c -> counters.events(c.userId(), c.status(), -c.count()));
+            });
+            drop(p.name());
+            log.info("Events partition {} (< {}) dropped, {} rows archived", p.name(), p.bound(), exported);
+        }
+    }
+
+    // drops whose counters were subtracted but that did not get to (or past) the DROP
+    private void finishDrops() {
+        List<String> pending = jdbc.queryForList("select partition_name from event_partition_drops", String.class);
+        if (pending.isEmpty()) return;
+        List<String> existing = partitions().stream().map(Partition::name).toList();
+        for (String name : pending) {
+            if (existing.contains(name)) {
+                drop(name);
+                log.info("Interrupted drop of events partition {} finished", name);
+            } else {
+                jdbc.update("delete from event_partition_drops where partition_name = ?", name);
+            }
+        }
+    }
+
+    private void drop(String partition) {
+        jdbc.execute("ALTER TABLE events DROP PARTITION " + partition);
+        jdbc.update("delete from event_partition_drops where partition_name = ?", partition);
+    }
+
+    private long export(Partition p) {
+        String key = props.getArchivePrefix() + "events_" + p.name() + ".ndjson.gz";
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile("events-" + p.name(), ".ndjson.gz");
+            AtomicLong rows = new AtomicLong();
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024), StandardCharsets.UTF_8))) {
+                streamingJdbc.query(
+                        "select id, user_id, file_id, status, message, created_at from events partition (" + p.name() + ")",
+                        rs -> {
+                            var ev = new ArchivedEvent(
+                                    rs.getInt("id"),
+                                    (Integer) rs.getObject("user_id"),
+                                    (Integer) rs.getObject("file_id"),
+                                    rs.getString("status"),
+                                    rs.getString("message"),
+                                    rs.getTimestamp("created_at").toInstant());
+                            try {
+                                out.write(mapper.writeValueAsString(ev));
+                                out.write('\n');
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            rows.incrementAndGet();
+                        });
+            }
+            var req = PutObjectRequest.builder()
+                    .bucket(s3Props.getBucket())
+                    .key(key)
+                    .contentType("application/gzip")
+                    .build();
+            s3.putObject(req, AsyncRequestBody.fromFile(tmp)).join();
+            return rows.get();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    log.warn("Failed to delete {}", tmp, e);
+                }
+            }
+        }
+    }
+
+    private List<Partition> partitions() {
+        return jdbc.query("""
+                        select partition_name, partition_description
+                        from information_schema.partitions
+                        where table_schema = database() and table_name = 'events' and partition_name is not null
+                        order by partition_ordinal_position
+                        """,
+                (rs, i) -> new Partition(rs.getString(1), bound(rs.getString(2))));
+    }
+
+    // RANGE COLUMNS descriptions look like '2026-11-01 00:00:00' (quotes included) or MAXVALUE
+    private static LocalDate bound(String description) {
+        if (description == null || "MAXVALUE".equals(description)) return null;
+        return LocalDateTime.parse(description.replace("'", ""), BOUND).toLocalDate();
+    }
+}
@@ -14,14 +14,17 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.time.Instant;
 import java.util.List;
 
 @Service
 public class EventService {
     private final EventRepository repo;
+    private final UserCounters counters;
 
-    public EventService(EventRepository repo) {
+    public EventService(EventRepository repo, UserCounters counters) {
         this.repo = repo;
+        this.counters = counters;
     }
 
     public Flux<EventDto> list(User current, boolean modOrAdmin) {
@@ -34,14 +37,17 @@ public class EventService {
 
     public Mono<PageResponse<EventDto>> listPaged(User current, boolean modOrAdmin,
                                                   Integer userId, String status,
+                                                  Instant from, Instant to,
                                                   int page, int size, String sort) {
         return Mono.fromCallable(() -> {
                     Pageable pageable = PageRequest.of(page, size);
                     boolean all = modOrAdmin;
 
                     List<EventRepository.EventProjection> rows =
-                            repo.findPaged(current.getId(), all, userId, status, pageable);
-                    long total = repo.countPaged(current.getId(), all, userId, status);
+                            repo.findPaged(current.getId(), all, userId, status, from, to, pageable);
+                    long total = (from != null || to != null)
+                            ? repo.countPaged(current.getId(), all, userId, status, from, to)
+                            : countFromCounters(current.getId(), all, userId, status);
 
                     List<EventDto> content = rows.stream().map(this::toDto).toList();
                     return new PageResponse<>(content, page, size, total);
@@ -49,6 +55,20 @@ public class EventService {
                 .subscribeOn(Schedulers.boundedElastic());
     }
 
+    private long countFromCounters(Integer currentUserId, boolean all, Integer userId, String status) {
+        EventStatus st;
+        try {
+            st = status != null ? EventStatus.valueOf(status) : null;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+        if (!all) {
+            if (userId != null && !userId.equals(currentUserId)) return 0;
+            return counters.events(currentUserId, st);
+        }
+        return counters.events(userId, st);
+    }
+
     private EventDto toDto(EventRepository.EventProjection p) {
         return new EventDto(
                 p.getId(),
@@ -0,0 +1,96 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.model.EventStatus;
+import com.crudapp.filestorage.model.User;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Inserts many ACTIVE file rows, their CREATED events and the matching counter deltas with
+ * JDBC batches in a single transaction. Blocking.
+ */
+@Component
+public class FileBatchWriter {
+
+    private final JdbcTemplate jdbc;
+    private final UserCounters counters;
+    private final FileSearchIndex search;
+    private final TransactionTemplate tx;
+
+    public record NewFile(String name, String bucket, String key, long size, String contentType,
+                          String crc32c, String sha256) {}
+
+    public FileBatchWriter(DataSource dataSource, UserCounters counters, FileSearchIndex search,
+                           TransactionTemplate tx) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.counters = counters;
+        this.search = search;
+        this.tx = tx;
+    }
+
+    /** @return generated file ids, in the order of {@code batch} */
+    public List<Integer> insert(List<NewFile> batch, User owner, User actor) {
+        if (batch.isEmpty()) return List.of();
+        long bytes = batch.stream().mapToLong(NewFile::size).sum();
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Integer> inserted = tx.execute(ts -> {
+            var keys = new GeneratedKeyHolder();
+            jdbc.batchUpdate(
+                    con -> con.prepareStatement("""
+                            insert into files(name, bucket, object_key, size_bytes, content_type,
+                                              checksum_crc32c, checksum_sha256, status, owner_id)
+                            values (?, ?, ?, ?, ?, ?, ?, 'ACTIVE', ?)
+                            """, Statement.RETURN_GENERATED_KEYS),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            NewFile f = batch.get(i);
+                            ps.setString(1, f.name());
+                            ps.setString(2, f.bucket());
+                            ps.setString(3, f.key());
+                            ps.setLong(4, f.size());
+                            ps.setString(5, f.contentType());
+                            ps.setString(6, f.crc32c());
+                            ps.setString(7, f.sha256());
+                            ps.setInt(8, owner.getId());
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return batch.size();
+                        }
+                    },
+                    keys);
+            List<Integer> ids = keys.getKeyList().stream()
+                    .map(m -> ((Number) m.values().iterator().next()).intValue())
+                    .toList();
+            jdbc.batchUpdate("insert into events(user_id, file_id, status, created_at) values (?, ?, ?, ?)",
+                    ids, ids.size(), (ps, id) -> {
+                        ps.setInt(1, actor.getId());
+                        ps.setInt(2, id);
+                        ps.setString(3, EventStatus.CREATED.name());
+                        ps.setTimestamp(4, now);
+                    });
+            counters.add(owner.getId(), UserCounters.FILES, batch.size());
+            counters.add(owner.getId(), UserCounters.ACTIVE_FILES, batch.size());
+            counters.add(owner.getId(), UserCounters.BYTES, bytes);
+            counters.events(actor.getId(), EventStatus.CREATED.name(), batch.size());
+            return ids;
+        });
+        for (int i = 0; i < inserted.size(); i++) {
+            search.put(inserted.get(i), owner.getId(), batch.get(i).name(), batch.get(i).contentType());
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,43 @@
+package com.crudapp.filestorage.service;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.lang.Nullable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * Object bytes ready to be written to a response. {@code localFile} is set when the bytes
+ * already sit on local disk, so the controller can hand the file to the server for zero-copy
+ * transfer instead of streaming {@link DataBuffer}s.
+ */
+public record FileContent(
+        String name,
+        String contentType,
+        long contentLength,
+        String eTag,
+        @Nullable LocalFile localFile,
+        RangeReader reader
+) {
+
+    /** Access to the file behind the content; it is kept on disk until {@code use} completes. */
+    @FunctionalInterface
+    public interface LocalFile {
+        Mono<Void> withPath(Function<Path, Mono<Void>> use);
+    }
+
+    @FunctionalInterface
+    public interface RangeReader {
+        Flux<DataBuffer> read(long start, long endInclusive);
+    }
+
+    public Flux<DataBuffer> body() {
+        return contentLength == 0 ? Flux.empty() : reader.read(0, contentLength - 1);
+    }
+
+    public Flux<DataBuffer> body(long start, long endInclusive) {
+        return reader.read(start, endInclusive);
+    }
+}
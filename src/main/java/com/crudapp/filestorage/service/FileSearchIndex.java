@@ -0,0 +1,350 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.SearchProps;
+import com.crudapp.filestorage.model.StorageFile;
+import jakarta.annotation.PreDestroy;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory Lucene index of file names and content types, for {@code GET /files/search}.
+ *
+ * Writes go straight to the index from the paths that create, rename, replace and archive
+ * files, after their transaction has committed; searches see them after the next refresh
+ * ({@code storage.search.refreshInterval}). The index is not persisted: it is rebuilt from
+ * {@code files} on startup by {@code loaders} parallel readers over primary key ranges. Changes
+ * made while the rebuild runs are queued and re-read from the table once it is done, so a
+ * loader never overwrites a newer write with the row it read earlier.
+ *
+ * Each instance keeps its own index; changes made through another instance show up here
+ * after its next restart.
+ */
+@Component
+public class FileSearchIndex {
+    private static final Logger log = LoggerFactory.getLogger(FileSearchIndex.class);
+    private static final String ID = "id";
+    private static final String OWNER = "owner";
+    private static final String NAME = "name";
+    private static final String TYPE = "type";
+    private static final int MAX_TERMS = 8;
+    private static final Sort RANKED = new Sort(SortField.FIELD_SCORE, new SortField(ID, SortField.Type.LONG, true));
+
+    private final SearchProps props;
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate named;
+    private final IndexWriter writer;
+    private final SearcherManager searchers;
+    private final Analyzer analyzer = new NameAnalyzer();
+
+    private final Object lock = new Object();
+    private boolean loading = true;
+    private final Set<Integer> changedWhileLoading = new HashSet<>();
+    private volatile boolean ready;
+
+    public FileSearchIndex(SearchProps props, DataSource dataSource) throws IOException {
+        this.props = props;
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.named = new NamedParameterJdbcTemplate(jdbc);
+        this.writer = new IndexWriter(new ByteBuffersDirectory(), new IndexWriterConfig(analyzer)
+                .setRAMBufferSizeMB(64));
+        this.searchers = new SearcherManager(writer, null);
+    }
+
+    /** One page of matches, best first; pass {@code next} as {@code after} for the next one, null on the last. */
+    public record Hits(List<Integer> ids, String next) {}
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    public void put(StorageFile f) {
+        put(f.getId(), f.getOwner() != null ? f.getOwner().getId() : null, f.getName(), f.getContentType());
+    }
+
+    public void put(Integer id, Integer ownerId, String name, String contentType) {
+        if (!props.isEnabled() || deferred(id)) return;
+        write(id, ownerId, name, contentType);
+    }
+
+    public void remove(Integer id) {
+        if (!props.isEnabled() || deferred(id)) return;
+        try {
+            writer.deleteDocuments(new Term(ID, id.toString()));
+        } catch (IOException e) {
+            log.warn("Failed to remove file {} from the search index", id, e);
+        }
+    }
+
+    /**
+     * Every word of {@code q} has to match a word of the name or content type exactly, as a
+     * prefix or within one or two edits; exact matches rank above prefixes, prefixes above
+     * fuzzy ones. {@code ownerId} null searches all files.
+     */
+    public Hits search(String q, Integer ownerId, String after, int size) {
+        if (!ready) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Search index is still loading");
+        }
+        List<String> terms = terms(q);
+        if (terms.isEmpty()) return new Hits(List.of(), null);
+
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String t : terms) {
+            BooleanQuery.Builder word = new BooleanQuery.Builder()
+                    .add(new BoostQuery(new TermQuery(new Term(NAME, t)), 4f), BooleanClause.Occur.SHOULD)
+                    .add(new BoostQuery(new PrefixQuery(new Term(NAME, t)), 2f), BooleanClause.Occur.SHOULD)
+                    .add(new BoostQuery(new TermQuery(new Term(TYPE, t)), 0.5f), BooleanClause.Occur.SHOULD);
+            if (t.length() >= 4) {
+                int edits = t.length() >= 8 ? 2 : 1;
+                word.add(new FuzzyQuery(new Term(NAME, t), edits, 1), BooleanClause.Occur.SHOULD);
+            }
+            query.add(word.build(), BooleanClause.Occur.MUST);
+        }
+        query.add(ownerId != null ? new TermQuery(new Term(OWNER, ownerId.toString())) : new MatchAllDocsQuery(),
+                BooleanClause.Occur.FILTER);
+
+        try {
+            IndexSearcher searcher = searchers.acquire();
+            try {
+                TopDocs top = searcher.searchAfter(cursor(after, searcher), query.build(), size, RANKED, true);
+                List<Integer> ids = new ArrayList<>(top.scoreDocs.length);
+                for (ScoreDoc sd : top.scoreDocs) {
+                    ids.add(((Long) ((FieldDoc) sd).fields[1]).intValue());
+                }
+                String next = null;
+                if (top.scoreDocs.length == size) {
+                    FieldDoc last = (FieldDoc) top.scoreDocs[top.scoreDocs.length - 1];
+                    next = last.fields[0] + "_" + last.fields[1];
+                }
+                return new Hits(ids, next);
+            } finally {
+                searchers.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${storage.search.refreshInterval:PT1S}")
+    public void refresh() {
+        if (!props.isEnabled()) return;
+        try {
+            searchers.maybeRefresh();
+        } catch (IOException e) {
+            log.warn("Search index refresh failed", e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (!props.isEnabled()) return;
+        Mono.fromRunnable(this::load)
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(null, e -> {
+                    log.error("Search index rebuild failed, search stays unavailable", e);
+                    synchronized (lock) {
+                        loading = false;
+                        changedWhileLoading.clear();
+                    }
+                });
+    }
+
+    @PreDestroy
+    void shutdown() throws IOException {
+        searchers.close();
+        writer.close();
+    }
+
+    private void load() {
+        long started = System.currentTimeMillis();
+        int[] bounds = jdbc.queryForObject("select coalesce(min(id), 0), coalesce(max(id), 0) from files",
+                (rs, i) -> new int[]{rs.getInt(1), rs.getInt(2)});
+        int width = props.getLoadRangeSize();
+        int ranges = (int) (((long) bounds[1] - bounds[0]) / width + 1);
+        Long loaded = Flux.range(0, ranges)
+                .flatMap(i -> Mono.fromCallable(() -> loadRange(bounds[0] + (long) i * width, width))
+                                .subscribeOn(Schedulers.boundedElastic()),
+                        props.getLoaders())
+                .reduce(0L, Long::sum)
+                .block();
+
+        // replay what changed meanwhile from the table, until nothing is left to replay
+        while (true) {
+            List<Integer> changed;
+            synchronized (lock) {
+                if (changedWhileLoading.isEmpty()) {
+                    loading = false;
+                    break;
+                }
+                changed = List.copyOf(changedWhileLoading);
+                changedWhileLoading.clear();
+            }
+            reload(changed);
+        }
+        refresh();
+        ready = true;
+        log.info("Search index rebuilt: {} files in {} ms", loaded, System.currentTimeMillis() - started);
+    }
+
+    private long loadRange(long from, int width) {
+        List<Document> docs = new ArrayList<>();
+        jdbc.query("""
+                        select id, owner_id, name, content_type from files
+                        where id >= ? and id < ? and status <> 'ARCHIVED'
+                        """,
+                rs -> {
+                    Integer owner = rs.getObject(2) != null ? rs.getInt(2) : null;
+                    docs.add(document(rs.getInt(1), owner, rs.getString(3), rs.getString(4)));
+                },
+                from, from + width);
+        try {
+            writer.addDocuments(docs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return docs.size();
+    }
+
+    private void reload(List<Integer> ids) {
+        Set<Integer> live = new HashSet<>();
+        named.query("""
+                        select id, owner_id, name, content_type from files
+                        where id in (:ids) and status <> 'ARCHIVED'
+                        """,
+                Map.of("ids", ids),
+                rs -> {
+                    Integer owner = rs.getObject(2) != null ? rs.getInt(2) : null;
+                    live.add(rs.getInt(1));
+                    write(rs.getInt(1), owner, rs.getString(3), rs.getString(4));
+                });
+        for (Integer id : ids) {
+            if (live.contains(id)) continue;
+            try {
+                writer.deleteDocuments(new Term(ID, id.toString()));
+            } catch (IOException e) {
+                log.warn("Failed to remove file {} from the search index", id, e);
+            }
+        }
+    }
+
+    private boolean deferred(Integer id) {
+        synchronized (lock) {
+            if (!loading) return false;
+            changedWhileLoading.add(id);
+            return true;
+        }
+    }
+
+    private void write(Integer id, Integer ownerId, String name, String contentType) {
+        try {
+            writer.updateDocument(new Term(ID, id.toString()), document(id, ownerId, name, contentType));
+        } catch (IOException e) {
+            log.warn("Failed to index file {}", id, e);
+        }
+    }
+
+    private static Document document(int id, Integer ownerId, String name, String contentType) {
+        Document doc = new Document();
+        doc.add(new StringField(ID, Integer.toString(id), Field.Store.NO));
+        doc.add(new NumericDocValuesField(ID, id));
+        if (ownerId != null) doc.add(new StringField(OWNER, ownerId.toString(), Field.Store.NO));
+        doc.add(new TextField(NAME, name, Field.Store.NO));
+        if (contentType != null) doc.add(new TextField(TYPE, contentType, Field.Store.NO));
+        return doc;
+    }
+
+    private List<String> terms(String q) {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream(NAME, q)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken() && terms.size() < MAX_TERMS) {
+                terms.add(term.toString());
+            }
+            ts.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return terms;
+    }
+
+    // "<score>_<id>" of the last hit of the previous page
+    private static FieldDoc cursor(String after, IndexSearcher searcher) {
+        if (after == null || after.isEmpty()) return null;
+        int sep = after.lastIndexOf('_');
+        try {
+            float score = Float.parseFloat(after.substring(0, sep));
+            long id = Long.parseLong(after.substring(sep + 1));
+            // the doc id only breaks ties between equal sort values, and ids are unique; Lucene
+            // wants one below maxDoc, the last one also skips the previous hit if still equal
+            int doc = Math.max(0, searcher.getIndexReader().maxDoc() - 1);
+            return new FieldDoc(doc, score, new Object[]{score, id});
+        } catch (RuntimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    /** Splits on anything but letters and digits, lower-cases and folds accents: "Résumé_2024-Q1.PDF" -> resume, 2024, q1, pdf. */
+    private static final class NameAnalyzer extends Analyzer {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer tokenizer = CharTokenizer.fromTokenCharPredicate(Character::isLetterOrDigit);
+            TokenStream stream = new ASCIIFoldingFilter(new LowerCaseFilter(tokenizer));
+            return new TokenStreamComponents(tokenizer, stream);
+        }
+
+        @Override
+        protected TokenStream normalize(String fieldName, TokenStream in) {
+            return new ASCIIFoldingFilter(new LowerCaseFilter(in));
+        }
+    }
+}
@@ -1,124 +1,464 @@
 package com.crudapp.filestorage.service;
 
+import com.crudapp.filestorage.config.CdnProps;
+import com.crudapp.filestorage.config.S3ClientPool;
 import com.crudapp.filestorage.config.S3Props;
 import com.crudapp.filestorage.dto.FileDto;
+import com.crudapp.filestorage.dto.FileVersionDto;
+import com.crudapp.filestorage.dto.FolderListing;
+import com.crudapp.filestorage.dto.FolderMoveResult;
 import com.crudapp.filestorage.dto.PageResponse;
+import com.crudapp.filestorage.dto.PresignedUrl;
+import com.crudapp.filestorage.dto.SearchPageResponse;
+import com.crudapp.filestorage.dto.VersionPageResponse;
 import com.crudapp.filestorage.model.Event;
 import com.crudapp.filestorage.model.EventStatus;
 import com.crudapp.filestorage.model.FileStatus;
+import com.crudapp.filestorage.model.FileVersion;
 import com.crudapp.filestorage.model.StorageFile;
+import com.crudapp.filestorage.model.StorageTier;
 import com.crudapp.filestorage.model.User;
 import com.crudapp.filestorage.repository.EventRepository;
+import com.crudapp.filestorage.repository.FileVersionRepository;
 import com.crudapp.filestorage.repository.StorageFileRepository;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
-import org.springframework.data.domain.Page;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
-import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 @Service
 public class FileStorageService {
 
-    private final S3AsyncClient s3;
-    private final S3Presigner presigner;
+    // subfolders returned by one listing, each costs an index probe
+    private static final int MAX_SUBFOLDERS = 1000;
+
+    private final S3ClientPool s3;
+    private final BucketRouter router;
     private final S3Props props;
     private final StorageFileRepository files;
+    private final FileVersionRepository versions;
     private final EventRepository events;
+    private final ParallelRangeDownloader downloader;
+    private final ObjectCache cache;
+    private final UploadSpooler spooler;
+    private final ObjectLocations locations;
+    private final UserCounters counters;
+    private final QuotaLedger quotas;
+    private final ThumbnailService thumbnails;
+    private final EnvelopeCipher envelope;
+    private final AccessLog accessLog;
+    private final BatchPresigner batchPresigner;
+    private final ObjectCopier copier;
+    private final CdnProps cdn;
+    private final FileSearchIndex search;
+    private final FolderTree folders;
+    private final TransactionTemplate tx;
+    private final SingleFlight<Integer, Optional<StorageFile>> lookups = new SingleFlight<>();
 
-    public FileStorageService(S3AsyncClient s3, S3Presigner presigner, S3Props props,
-                              StorageFileRepository files, EventRepository events) {
+    public FileStorageService(S3ClientPool s3, BucketRouter router, S3Props props,
+                              StorageFileRepository files, FileVersionRepository versions, EventRepository events,
+                              ParallelRangeDownloader downloader, ObjectCache cache,
+                              UploadSpooler spooler, ObjectLocations locations,
+                              UserCounters counters, QuotaLedger quotas, ThumbnailService thumbnails,
+                              EnvelopeCipher envelope, AccessLog accessLog, BatchPresigner batchPresigner,
+                              ObjectCopier copier, CdnProps cdn, FileSearchIndex search, FolderTree folders,
+                              TransactionTemplate tx) {
         this.s3 = s3;
-        this.presigner = presigner;
+        this.router = router;
         this.props = props;
         this.files = files;
+        this.versions = versions;
         this.events = events;
+        this.downloader = downloader;
+        this.cache = cache;
+        this.spooler = spooler;
+        this.locations = locations;
+        this.counters = counters;
+        this.quotas = quotas;
+        this.thumbnails = thumbnails;
+        this.envelope = envelope;
+        this.accessLog = accessLog;
+        this.batchPresigner = batchPresigner;
+        this.copier = copier;
+        this.cdn = cdn;
+        this.search = search;
+        this.folders = folders;
+        this.tx = tx;
     }
 
     public Mono<FileDto> getById(Integer id) {
-        return Mono.fromCallable(() -> files.findById(id))
-                .subscribeOn(Schedulers.boundedElastic())
-                .flatMap(opt -> opt.<Mono<StorageFile>>map(Mono::just)
-                        .orElseGet(() -> Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"))))
+        return findShared(id)
                 .map(this::toDto);
     }
 
-    public Mono<FileDto> upload(FilePart filePart, User currentUser) {
+    /**
+     * Single-flight lookup for read-only paths: concurrent calls for the same id share one
+     * query and the same entity instance, so callers must not modify it. The entry is removed
+     * as soon as the query completes; later calls go to the database again.
+     */
+    private Mono<StorageFile> findShared(Integer id) {
+        return lookups.load(id, () -> Mono.fromCallable(() -> files.findById(id))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .flatMap(opt -> opt.<Mono<StorageFile>>map(Mono::just)
+                        .orElseGet(() -> Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"))));
+    }
+
+    public Mono<FileDto> upload(FilePart filePart, Boolean encrypt, String folder, User currentUser) {
         String originalName = StringUtils.cleanPath(filePart.filename());
         if (!StringUtils.hasText(originalName)) {
             return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty filename"));
         }
+        String path;
+        try {
+            path = FolderTree.normalize(folder);
+        } catch (ResponseStatusException e) {
+            return Mono.error(e);
+        }
+        boolean encrypted = envelope.shouldEncrypt(encrypt);
 
-        String key = buildKey(currentUser.getId(), originalName);
+        String bucket = router.bucketFor(currentUser.getId());
+        String key = locations.newKey(currentUser.getId(), originalName);
         String contentType = filePart.headers().getContentType() != null
                 ? filePart.headers().getContentType().toString()
                 : "application/octet-stream";
 
+        return Mono.fromCallable(() -> quotas.open(currentUser))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(quota -> {
+                    Flux<DataBuffer> content = metered(filePart, quota);
+                    EnvelopeCipher.DataKey dataKey = encrypted ? envelope.newDataKey() : null;
+                    return store(dataKey != null ? envelope.encrypt(content, dataKey) : content,
+                            originalName, path, bucket, key, contentType, dataKey, currentUser, quota)
+                            .doFinally(s -> quota.close());
+                })
+                .map(this::toDto);
+    }
+
+    // every chunk is charged against the quota before it goes anywhere,
+    // so an over-quota upload fails on the chunk that crosses the limit
+    private static Flux<DataBuffer> metered(FilePart filePart, QuotaLedger.Reservation quota) {
+        return filePart.content().doOnNext(db -> {
+            try {
+                quota.grow(db.readableByteCount());
+            } catch (QuotaExceededException e) {
+                DataBufferUtils.release(db);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Writes the object bytes - ciphertext when {@code dataKey} is set - to the spool or S3
+     * and stores the row. {@code quota} has counted the plaintext.
+     */
+    private Mono<StorageFile> store(Flux<DataBuffer> content, String name, String folder, String bucket, String key,
+                                    String contentType,
+                                    EnvelopeCipher.DataKey dataKey, User user,
+                                    QuotaLedger.Reservation quota) {
+        if (spooler.isEnabled()) {
+            // digests are taken from the buffers on their way out, no second pass over the bytes
+            StreamingChecksum checksum = StreamingChecksum.full();
+            return spooler.spool(content.doOnNext(checksum::update))
+                    .flatMap(spooled -> Mono.fromCallable(() -> persistFileAndEvent(name, folder, bucket, key, contentType, quota.bytes(),
+                                    checksum.result(), dataKey, user, FileStatus.PENDING))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .flatMap(sf -> {
+                                quota.commit();
+                                try {
+                                    spooler.submit(sf, spooled);
+                                    return Mono.just(sf);
+                                } catch (UncheckedIOException e) {
+                                    // no spool file behind the row: archive it rather than leave it PENDING forever
+                                    markDeletedAndEvent(sf, user);
+                                    return Mono.<StorageFile>error(new ResponseStatusException(
+                                            HttpStatus.INTERNAL_SERVER_ERROR, "Failed to spool upload", e));
+                                }
+                            })
+                            .doOnError(e -> spooled.toFile().delete()));
+        }
+
+        return putObject(content, bucket, key, contentType)
+                .flatMap(digest -> Mono.<StorageFile>fromCallable(() -> persistFileAndEvent(name, folder, bucket, key, contentType, quota.bytes(),
+                                digest, dataKey, user, FileStatus.ACTIVE))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .doOnNext(sf -> {
+                    quota.commit();
+                    thumbnails.submit(sf);
+                });
+    }
+
+    /** PUTs {@code content} to {@code key} and returns the digests taken on the way. */
+    private Mono<StreamingChecksum.Result> putObject(Flux<DataBuffer> content, String bucket, String key, String contentType) {
+        // digests are taken from the buffers on their way out, no second pass over the bytes
+        StreamingChecksum checksum = StreamingChecksum.full();
         var request = PutObjectRequest.builder()
-                .bucket(props.getBucket())
+                .bucket(bucket)
                 .key(key)
-                .contentType(contentType)
-                .build();
+                .contentType(contentType);
+        if (props.isChecksums()) request.checksumAlgorithm(ChecksumAlgorithm.CRC32_C);
 
-        var bodyPublisher = filePart.content().map(db -> {
-            ByteBuffer bb = db.asByteBuffer();
+        var bodyPublisher = content.map(db -> {
+            // copied out: the SDK reads the bytes after the pooled buffer went back
+            byte[] bytes = new byte[db.readableByteCount()];
+            db.read(bytes);
             DataBufferUtils.release(db);
+            ByteBuffer bb = ByteBuffer.wrap(bytes);
+            checksum.update(bb);
             return bb;
         });
 
-        return Mono.fromFuture(s3.putObject(request, AsyncRequestBody.fromPublisher(bodyPublisher)))
-                .onErrorMap(e -> new ResponseStatusException(HttpStatus.BAD_GATEWAY, "S3 upload failed: " + e.getMessage(), e))
-                .flatMap(resp -> {
-                    String location = props.getPublicBaseUrl().replaceAll("/+$", "")
-                            + "/" + props.getBucket() + "/" + key;
+        return Mono.fromFuture(s3.client(bucket).putObject(request.build(), AsyncRequestBody.fromPublisher(bodyPublisher)))
+                .onErrorMap(FileStorageService::uploadError)
+                .map(resp -> {
+                    checksum.verifyStored(resp.checksumCRC32C());
+                    return checksum.result();
+                });
+    }
 
-                    return Mono.<StorageFile>fromCallable(() -> persistFileAndEvent(originalName, location, currentUser))
-                            .subscribeOn(Schedulers.boundedElastic());
+    /**
+     * Replaces the content of a file. The current object is not copied: its row moves to
+     * {@code file_versions} and the file row points at the new object, so links by id keep
+     * working and older versions stay readable until retention removes them. Only the owner
+     * may do this, and the new bytes count against the owner's quota.
+     */
+    public Mono<FileDto> replaceContent(Integer id, FilePart filePart, Boolean encrypt, User currentUser) {
+        boolean encrypted = envelope.shouldEncrypt(encrypt);
+        String contentType = filePart.headers().getContentType() != null
+                ? filePart.headers().getContentType().toString()
+                : "application/octet-stream";
+
+        return Mono.fromCallable(() -> files.findById(id))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(opt -> opt.<Mono<StorageFile>>map(Mono::just)
+                        .orElseGet(() -> Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"))))
+                .flatMap(sf -> {
+                    if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+                    }
+                    if (sf.getStatus() == FileStatus.ARCHIVED) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.GONE, "File archived"));
+                    }
+                    if (sf.getStatus() == FileStatus.PENDING) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "Upload still in progress"));
+                    }
+                    StorageFile previous = snapshot(sf);
+                    String bucket = router.bucketFor(currentUser.getId());
+                    String key = locations.newKey(currentUser.getId(), sf.getName());
+                    return Mono.fromCallable(() -> quotas.open(currentUser))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .flatMap(quota -> {
+                                Flux<DataBuffer> content = metered(filePart, quota);
+                                EnvelopeCipher.DataKey dataKey = encrypted ? envelope.newDataKey() : null;
+                                return putObject(dataKey != null ? envelope.encrypt(content, dataKey) : content, bucket, key, contentType)
+                                        .flatMap(digest -> Mono.fromCallable(() -> persistVersion(sf, bucket, key,
+                                                        contentType, quota.bytes(), digest, dataKey, currentUser))
+                                                .subscribeOn(Schedulers.boundedElastic()))
+                                        .doOnNext(updated -> quota.commit())
+                                        .doFinally(s -> quota.close());
+                            })
+                            .flatMap(updated -> thumbnails.delete(previous)
+                                    .then(Mono.fromRunnable(() -> thumbnails.submit(updated)))
+                                    .thenReturn(updated));
                 })
                 .map(this::toDto);
     }
 
-    @Transactional
-    protected StorageFile persistFileAndEvent(String name, String location, User user) {
-        StorageFile f = StorageFile.builder()
-                .name(name)
-                .location(location)
-                .status(FileStatus.ACTIVE)
-                .owner(user)
+    private StorageFile persistVersion(StorageFile sf, String bucket, String key, String contentType, long size,
+                                       StreamingChecksum.Result digest, EnvelopeCipher.DataKey dataKey, User user) {
+        String encryptionKey = dataKey != null ? dataKey.wrapped() : null;
+        Integer frameSize = dataKey != null ? dataKey.frameSize() : null;
+        StorageFile replaced = tx.execute(ts -> {
+            int updated = files.replaceContent(sf.getId(), sf.getVersion(), sf.getTier(), sf.getObjectKey(),
+                    FileStatus.ACTIVE, bucket, key, size, contentType, digest.crc32c(), digest.sha256(),
+                    encryptionKey, frameSize);
+            if (updated == 0) {
+                // the new object is left to the reconciler
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "File was changed concurrently");
+            }
+            versions.save(FileVersion.builder()
+                    .fileId(sf.getId())
+                    .version(sf.getVersion())
+                    .bucket(sf.getBucket())
+                    .objectKey(sf.getObjectKey())
+                    .tier(sf.getTier())
+                    .sizeBytes(sf.getSizeBytes())
+                    .contentType(sf.getContentType())
+                    .checksumCrc32c(sf.getChecksumCrc32c())
+                    .checksumSha256(sf.getChecksumSha256())
+                    .encryptionKey(sf.getEncryptionKey())
+                    .encryptionFrameSize(sf.getEncryptionFrameSize())
+                    .replacedBy(user.getId())
+                    .replacedAt(Instant.now())
+                    .build());
+            // the previous version keeps its bytes until retention deletes it
+            counters.add(user.getId(), UserCounters.BYTES, size);
+            recordEvent(user, sf, EventStatus.UPDATED);
+
+            sf.setVersion(sf.getVersion() + 1);
+            sf.setBucket(bucket);
+            sf.setObjectKey(key);
+            sf.setTier(StorageTier.HOT);
+            sf.setSizeBytes(size);
+            sf.setContentType(contentType);
+            sf.setChecksumCrc32c(digest.crc32c());
+            sf.setChecksumSha256(digest.sha256());
+            sf.setEncryptionKey(encryptionKey);
+            sf.setEncryptionFrameSize(frameSize);
+            sf.setThumbnailSizes(null);
+            return sf;
+        });
+        // the content type may have changed
+        search.put(replaced);
+        return replaced;
+    }
+
+    /** Version history, newest first, in keyset pages: pass the returned {@code nextBefore} as {@code before}. */
+    public Mono<VersionPageResponse> listVersions(Integer id, Integer before, int size, User currentUser,
+                                                  boolean moderatorOrAdmin) {
+        int limit = Math.max(1, Math.min(size, 100));
+        return findShared(id)
+                .flatMap(sf -> {
+                    if (!moderatorOrAdmin) {
+                        if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+                        }
+                    }
+                    return Mono.fromCallable(() -> versions.findByFileIdAndVersionLessThanOrderByVersionDesc(
+                                    id, before != null ? before : sf.getVersion(), PageRequest.ofSize(limit)))
+                            .subscribeOn(Schedulers.boundedElastic());
+                })
+                .map(list -> {
+                    var content = list.stream()
+                            .map(v -> new FileVersionDto(v.getVersion(), v.getSizeBytes(), v.getContentType(),
+                                    v.getChecksumSha256(), v.getReplacedBy(), v.getReplacedAt()))
+                            .toList();
+                    Integer next = list.size() == limit ? list.get(list.size() - 1).getVersion() : null;
+                    return new VersionPageResponse(content, next);
+                });
+    }
+
+    /** Content of a previous version, served like the current one. */
+    public Mono<FileContent> openVersionContent(Integer id, int version, User currentUser, boolean moderatorOrAdmin) {
+        return findShared(id)
+                .flatMap(sf -> {
+                    if (!moderatorOrAdmin) {
+                        if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+                        }
+                    }
+                    if (sf.getStatus() == FileStatus.ARCHIVED) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.GONE, "File archived"));
+                    }
+                    if (version == sf.getVersion()) return openContent(sf);
+                    return Mono.fromCallable(() -> versions.findByFileIdAndVersion(id, version))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .flatMap(opt -> opt.<Mono<FileVersion>>map(Mono::just)
+                                    .orElseGet(() -> Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Version not found"))))
+                            .flatMap(v -> openContent(StorageFile.builder()
+                                    .id(sf.getId())
+                                    .name(sf.getName())
+                                    .bucket(v.getBucket())
+                                    .objectKey(v.getObjectKey())
+                                    .tier(v.getTier())
+                                    .sizeBytes(v.getSizeBytes())
+                                    .contentType(v.getContentType())
+                                    .checksumCrc32c(v.getChecksumCrc32c())
+                                    .checksumSha256(v.getChecksumSha256())
+                                    .encryptionKey(v.getEncryptionKey())
+                                    .encryptionFrameSize(v.getEncryptionFrameSize())
+                                    .status(FileStatus.ACTIVE)
+                                    .version(v.getVersion())
+                                    .build()));
+                });
+    }
+
+    private static StorageFile snapshot(StorageFile sf) {
+        return StorageFile.builder()
+                .id(sf.getId())
+                .version(sf.getVersion())
+                .thumbnailSizes(sf.getThumbnailSizes())
                 .build();
-        StorageFile saved = files.save(f);
+    }
 
-        Event ev = Event.builder()
+    // the SDK wraps errors of the body publisher, so look for ours in the cause chain
+    private static Throwable uploadError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof QuotaExceededException q) return q;
+        }
+        return new ResponseStatusException(HttpStatus.BAD_GATEWAY, "S3 upload failed: " + e.getMessage(), e);
+    }
+
+    private StorageFile persistFileAndEvent(String name, String folder, String bucket, String key, String contentType,
+                                            long size,
+                                            StreamingChecksum.Result digest, EnvelopeCipher.DataKey dataKey,
+                                            User user, FileStatus status) {
+        StorageFile stored = tx.execute(ts -> {
+            StorageFile f = StorageFile.builder()
+                    .name(name)
+                    .folder(folder)
+                    .bucket(bucket)
+                    .objectKey(key)
+                    .sizeBytes(size)
+                    .contentType(contentType)
+                    .checksumCrc32c(digest.crc32c())
+                    .checksumSha256(digest.sha256())
+                    .encryptionKey(dataKey != null ? dataKey.wrapped() : null)
+                    .encryptionFrameSize(dataKey != null ? dataKey.frameSize() : null)
+                    .status(status)
+                    .owner(user)
+                    .build();
+            StorageFile saved = files.save(f);
+            counters.add(user.getId(), UserCounters.FILES, 1);
+            counters.add(user.getId(), UserCounters.ACTIVE_FILES, 1);
+            counters.add(user.getId(), UserCounters.BYTES, size);
+            recordEvent(user, saved, EventStatus.CREATED);
+            return saved;
+        });
+        search.put(stored);
+        return stored;
+    }
+
+    private void recordEvent(User user, StorageFile file, EventStatus status) {
+        events.save(Event.builder()
                 .user(user)
-                .file(saved)
-                .status(EventStatus.CREATED)
+                .file(file)
+                .status(status)
                 .createdAt(Instant.now())
-                .build();
-        events.save(ev);
-
-        return saved;
+                .build());
+        counters.event(user.getId(), status);
     }
 
     public Mono<Void> delete(Integer fileId, User currentUser, boolean moderatorOrAdmin) {
@@ -132,14 +472,17 @@ public class FileStorageService {
                             return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
                         }
                     }
-                    String key = extractKeyFromLocation(sf.getLocation());
+                    String key = sf.getObjectKey();
+                    String bucket = locations.bucket(sf.getBucket(), sf.getTier());
                     var req = DeleteObjectRequest.builder()
-                            .bucket(props.getBucket())
+                            .bucket(bucket)
                             .key(key)
                             .build();
 
-                    return Mono.fromFuture(s3.deleteObject(req))
+                    return Mono.fromFuture(s3.client(bucket).deleteObject(req))
                             .onErrorResume(e -> Mono.empty())
+                            .then(Mono.fromRunnable(() -> cache.invalidate(bucket, key)))
+                            .then(thumbnails.delete(sf))
                             .then(Mono.fromCallable(() -> markDeletedAndEvent(sf, currentUser))
                                     .subscribeOn(Schedulers.boundedElastic()))
                             .then();
@@ -162,21 +505,175 @@ public class FileStorageService {
                         }
                     }
                     sf.setName(newName);
-                    return Mono.<StorageFile>fromCallable(() -> {
-                                files.save(sf);
-                                events.save(Event.builder()
-                                        .user(currentUser)
-                                        .file(sf)
-                                        .status(EventStatus.UPDATED)
-                                        .createdAt(Instant.now())
-                                        .build());
+                    return Mono.<StorageFile>fromCallable(() -> tx.execute(ts -> {
+                                files.rename(sf.getId(), newName);
+                                recordEvent(currentUser, sf, EventStatus.UPDATED);
                                 return sf;
-                            })
+                            }))
+                            .doOnNext(search::put)
+                            .subscribeOn(Schedulers.boundedElastic());
+                })
+                .map(this::toDto);
+    }
+
+    /**
+     * Marks a file public or private. Public files link to the CDN (storage.cdn.*) instead of
+     * a presigned URL. The CDN fetches from the bucket with its own origin credentials, so a
+     * published URL keeps working for as long as the object sits under that key: unpublishing
+     * therefore copies the object to a new key and deletes the old one. The CDN still serves
+     * copies it has cached until they expire, and previous versions replaced while the file
+     * was public keep their keys until retention deletes them.
+     */
+    public Mono<FileDto> setPublic(Integer id, boolean publicRead, User currentUser, boolean moderatorOrAdmin) {
+        return Mono.fromCallable(() -> files.findById(id))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(opt -> opt.<Mono<StorageFile>>map(Mono::just)
+                        .orElseGet(() -> Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"))))
+                .flatMap(sf -> {
+                    if (!moderatorOrAdmin) {
+                        if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+                        }
+                    }
+                    if (sf.getStatus() == FileStatus.ARCHIVED) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.GONE, "File archived"));
+                    }
+                    if (publicRead && sf.getEncryptionKey() != null) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "Encrypted files cannot be public"));
+                    }
+                    if (sf.isPublicRead() == publicRead) return Mono.just(sf);
+                    if (!publicRead) return unpublish(sf, currentUser);
+                    sf.setPublicRead(true);
+                    return Mono.<StorageFile>fromCallable(() -> tx.execute(ts -> {
+                                if (files.updatePublicRead(sf.getId(), publicRead) == 0) {
+                                    throw new ResponseStatusException(HttpStatus.CONFLICT, "File was changed concurrently");
+                                }
+                                recordEvent(currentUser, sf, EventStatus.UPDATED);
+                                return sf;
+                            }))
+                            .subscribeOn(Schedulers.boundedElastic());
+                })
+                .map(this::toDto);
+    }
+
+    private Mono<StorageFile> unpublish(StorageFile sf, User currentUser) {
+        String bucket = locations.bucket(sf.getBucket(), sf.getTier());
+        String key = sf.getObjectKey();
+        String newKey = locations.newKey(sf.getOwner() != null ? sf.getOwner().getId() : null, sf.getName());
+        return copier.copy(bucket, key, newKey, sf.getSizeBytes(), sf.getContentType(), sf.getTier())
+                .then(Mono.fromCallable(() -> tx.execute(ts -> {
+                            if (files.unpublish(sf.getId(), key, newKey) == 0) {
+                                // the copy is left to the reconciler
+                                throw new ResponseStatusException(HttpStatus.CONFLICT, "File was changed concurrently");
+                            }
+                            recordEvent(currentUser, sf, EventStatus.UPDATED);
+                            return true;
+                        }))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .then(Mono.fromFuture(() -> s3.client(bucket).deleteObject(DeleteObjectRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .build()))
+                        // a leftover is an orphan the reconciler removes
+                        .onErrorResume(e -> Mono.empty()))
+                .then(Mono.fromRunnable(() -> cache.invalidate(bucket, key)))
+                .then(Mono.fromCallable(() -> {
+                    sf.setObjectKey(newKey);
+                    sf.setPublicRead(false);
+                    return sf;
+                }));
+    }
+
+    /**
+     * Ranked search over names and content types (see {@link FileSearchIndex}), in keyset pages:
+     * pass the returned {@code next} as {@code after}. Own files for USER, all for MODERATOR/ADMIN.
+     */
+    public Mono<SearchPageResponse> search(String q, String after, int size, User currentUser, boolean moderatorOrAdmin) {
+        if (!search.isEnabled()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Search is disabled"));
+        }
+        if (!StringUtils.hasText(q)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty query"));
+        }
+        int limit = Math.max(1, Math.min(size, 100));
+        Integer ownerId = moderatorOrAdmin ? null : currentUser.getId();
+        return Mono.fromCallable(() -> {
+                    FileSearchIndex.Hits hits = search.search(q, ownerId, after, limit);
+                    Map<Integer, StorageFile> byId = new HashMap<>();
+                    files.findAllById(hits.ids()).forEach(f -> byId.put(f.getId(), f));
+                    // the table has the last word: drop hits archived or re-owned since they were indexed
+                    List<FileDto> content = hits.ids().stream()
+                            .map(byId::get)
+                            .filter(f -> f != null && f.getStatus() != FileStatus.ARCHIVED)
+                            .filter(f -> ownerId == null || (f.getOwner() != null && f.getOwner().getId().equals(ownerId)))
+                            .map(this::toDto)
+                            .toList();
+                    return new SearchPageResponse(content, hits.next());
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /** Subfolders and files of one folder of {@code ownerId} (the caller when null), see {@link FolderTree}. */
+    public Mono<FolderListing> listFolder(String path, Integer ownerId, Integer after, int size,
+                                          User currentUser, boolean moderatorOrAdmin) {
+        if (!moderatorOrAdmin && ownerId != null && !ownerId.equals(currentUser.getId())) {
+            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+        }
+        Integer owner = ownerId != null ? ownerId : currentUser.getId();
+        int limit = Math.max(1, Math.min(size, 100));
+        return Mono.fromCallable(() -> {
+                    String folder = FolderTree.normalize(path);
+                    List<String> children = after == null ? folders.children(owner, folder, MAX_SUBFOLDERS) : List.of();
+                    List<StorageFile> page = files.findInFolder(owner, folder, after != null ? after : 0,
+                            PageRequest.ofSize(limit));
+                    Integer next = page.size() == limit ? page.get(page.size() - 1).getId() : null;
+                    return new FolderListing(folder, children, page.stream().map(this::toDto).toList(), next);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public Mono<FileDto> moveFile(Integer id, String path, User currentUser, boolean moderatorOrAdmin) {
+        return Mono.fromCallable(() -> files.findById(id))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(opt -> opt.<Mono<StorageFile>>map(Mono::just)
+                        .orElseGet(() -> Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"))))
+                .flatMap(sf -> {
+                    if (!moderatorOrAdmin) {
+                        if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+                        }
+                    }
+                    if (sf.getStatus() == FileStatus.ARCHIVED) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.GONE, "File archived"));
+                    }
+                    String folder = FolderTree.normalize(path);
+                    return Mono.<StorageFile>fromCallable(() -> tx.execute(ts -> {
+                                files.moveToFolder(sf.getId(), folder);
+                                recordEvent(currentUser, sf, EventStatus.UPDATED);
+                                sf.setFolder(folder);
+                                return sf;
+                            }))
                             .subscribeOn(Schedulers.boundedElastic());
                 })
                 .map(this::toDto);
     }
 
+    /** Recursive move or rename of a folder of {@code ownerId} (the caller when null), set-based. */
+    public Mono<FolderMoveResult> moveFolder(String from, String to, Integer ownerId,
+                                             User currentUser, boolean moderatorOrAdmin) {
+        if (!moderatorOrAdmin && ownerId != null && !ownerId.equals(currentUser.getId())) {
+            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+        }
+        Integer owner = ownerId != null ? ownerId : currentUser.getId();
+        return Mono.fromCallable(() -> {
+                    String source = FolderTree.normalize(from);
+                    String target = FolderTree.normalize(to);
+                    int moved = source.equals(target) ? 0 : folders.move(owner, source, target, currentUser.getId());
+                    return new FolderMoveResult(source, target, moved);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
     public Mono<PageResponse<FileDto>> listPaged(User currentUser, boolean moderatorOrAdmin,
                                                  int page, int size, String sort) {
         return Mono.fromCallable(() -> {
@@ -184,41 +681,237 @@ public class FileStorageService {
                             ? Sort.by("id").descending()
                             : Sort.by(Sort.Order.by(sort));
                     PageRequest pr = PageRequest.of(page, size, s);
-                    Page<StorageFile> p = moderatorOrAdmin
-                            ? files.findAll(pr)
-                            : files.findAllByOwner_Id(currentUser.getId(), pr);
+                    Integer ownerId = moderatorOrAdmin ? null : currentUser.getId();
+                    Slice<StorageFile> p = ownerId == null
+                            ? files.findAllBy(pr)
+                            : files.findAllByOwner_Id(ownerId, pr);
 
                     var content = p.getContent().stream().map(this::toDto).toList();
-                    long total = p.getTotalElements();
+                    long total = counters.get(ownerId, UserCounters.FILES);
                     return new PageResponse<>(content, page, size, total);
                 })
                 .subscribeOn(Schedulers.boundedElastic());
     }
 
     public Mono<String> presignDownload(Integer id, User currentUser, boolean moderatorOrAdmin, Duration ttl) {
-        return Mono.fromCallable(() -> files.findById(id).orElse(null))
-                .subscribeOn(Schedulers.boundedElastic())
-                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found")))
+        return findShared(id)
                 .flatMap(sf -> {
                     if (!moderatorOrAdmin) {
                         if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
                             return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
                         }
                     }
-                    String key = extractKeyFromLocation(sf.getLocation());
+                    if (sf.getStatus() == FileStatus.PENDING) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "Upload still in progress"));
+                    }
+                    if (sf.getEncryptionKey() != null) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+                                "File is encrypted, download it through /files/" + id + "/content"));
+                    }
+                    accessLog.touch(sf.getId());
+                    // cold files may live in another bucket; the link points wherever the bytes are
+                    String key = sf.getObjectKey();
+                    String bucket = locations.bucket(sf.getBucket(), sf.getTier());
+                    if (servedByCdn(sf)) return Mono.just(locations.cdnUrl(bucket, key));
                     var getReq = GetObjectRequest.builder()
-                            .bucket(props.getBucket())
+                            .bucket(bucket)
                             .key(key)
                             .build();
                     var presignReq = GetObjectPresignRequest.builder()
                             .getObjectRequest(getReq)
                             .signatureDuration(ttl)
                             .build();
-                    URL url = presigner.presignGetObject(presignReq).url();
+                    URL url = s3.presigner(bucket).presignGetObject(presignReq).url();
                     return Mono.just(url.toString());
                 });
     }
 
+    public Mono<String> presignThumbnail(Integer id, User currentUser, boolean moderatorOrAdmin, int size) {
+        return findShared(id)
+                .flatMap(sf -> {
+                    if (!moderatorOrAdmin) {
+                        if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+                        }
+                    }
+                    if (sf.getStatus() != FileStatus.ACTIVE) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "No thumbnail for this file"));
+                    }
+                    return thumbnails.url(sf, size);
+                });
+    }
+
+    public Mono<FileContent> openContent(Integer id, User currentUser, boolean moderatorOrAdmin) {
+        return findShared(id)
+                .flatMap(sf -> {
+                    if (!moderatorOrAdmin) {
+                        if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+                        }
+                    }
+                    accessLog.touch(sf.getId());
+                    return openContent(sf);
+                });
+    }
+
+    /** Content of an already authorized file row, decrypted if it is stored encrypted. */
+    Mono<FileContent> openContent(StorageFile sf) {
+        if (sf.getEncryptionKey() == null) return openObject(sf);
+        return openObject(sf).map(object -> envelope.decrypting(object, sf));
+    }
+
+    /** The stored object bytes, from the spool, the local cache or S3. */
+    private Mono<FileContent> openObject(StorageFile sf) {
+        if (sf.getStatus() == FileStatus.ARCHIVED) {
+            return Mono.error(new ResponseStatusException(HttpStatus.GONE, "File archived"));
+        }
+        if (sf.getStatus() == FileStatus.PENDING) {
+            return spooler.spooled(sf.getId())
+                    .map(path -> Mono.fromCallable(() -> spooledContent(sf, path)))
+                    .orElseGet(() -> Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "Upload still in progress")));
+        }
+        String key = sf.getObjectKey();
+        return cache.lookup(locations.bucket(sf.getBucket(), sf.getTier()), key)
+                .map(e -> cachedContent(sf.getName(), e))
+                .switchIfEmpty(Mono.defer(() -> fetchContent(sf, key)));
+    }
+
+    /**
+     * Resolves and authorizes the files of an archive request. Fails as a whole (403/404/410)
+     * before anything is streamed, so errors still reach the client as a normal response.
+     */
+    public Mono<List<StorageFile>> archiveFiles(List<Integer> ids, Integer ownerId, User currentUser,
+                                                boolean moderatorOrAdmin, int maxFiles) {
+        if (!moderatorOrAdmin && ownerId != null && !ownerId.equals(currentUser.getId())) {
+            return Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner"));
+        }
+        return Mono.fromCallable(() -> {
+                    List<StorageFile> found;
+                    if (ids != null && !ids.isEmpty()) {
+                        List<Integer> unique = ids.stream().distinct().toList();
+                        if (unique.size() > maxFiles) {
+                            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxFiles + " files per archive");
+                        }
+                        Map<Integer, StorageFile> byId = new HashMap<>();
+                        files.findAllById(unique).forEach(f -> byId.put(f.getId(), f));
+                        found = new ArrayList<>(unique.size());
+                        for (Integer id : unique) {
+                            StorageFile sf = byId.get(id);
+                            if (sf == null) {
+                                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found: " + id);
+                            }
+                            found.add(sf);
+                        }
+                    } else {
+                        Integer owner = ownerId != null ? ownerId : currentUser.getId();
+                        Slice<StorageFile> slice = files.findAllByOwner_IdAndStatus(owner, FileStatus.ACTIVE,
+                                PageRequest.of(0, maxFiles, Sort.by("id")));
+                        if (slice.hasNext()) {
+                            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxFiles + " files per archive");
+                        }
+                        found = slice.getContent();
+                    }
+                    for (StorageFile sf : found) {
+                        if (!moderatorOrAdmin) {
+                            if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                                throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner: " + sf.getId());
+                            }
+                        }
+                        if (sf.getStatus() == FileStatus.ARCHIVED) {
+                            throw new ResponseStatusException(HttpStatus.GONE, "File archived: " + sf.getId());
+                        }
+                    }
+                    found.forEach(sf -> accessLog.touch(sf.getId()));
+                    return found;
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Download URLs for many files in one call: CDN URLs for public files, presigned URLs
+     * (see {@link BatchPresigner}) for the rest. The request fails as a whole on unknown or
+     * foreign files; files that cannot be linked (PENDING, ARCHIVED, encrypted) get a null url.
+     */
+    public Mono<List<PresignedUrl>> presignBatch(List<Integer> ids, User currentUser, boolean moderatorOrAdmin) {
+        if (ids == null || ids.isEmpty()) return Mono.just(List.of());
+        List<Integer> unique = ids.stream().distinct().toList();
+        if (unique.size() > cdn.getPresignMaxFiles()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + cdn.getPresignMaxFiles() + " files per request"));
+        }
+        return Mono.fromCallable(() -> {
+                    Map<Integer, StorageFile> byId = new HashMap<>();
+                    files.findAllById(unique).forEach(f -> byId.put(f.getId(), f));
+                    Instant now = Instant.now();
+                    List<PresignedUrl> urls = new ArrayList<>(unique.size());
+                    for (Integer id : unique) {
+                        StorageFile sf = byId.get(id);
+                        if (sf == null) {
+                            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found: " + id);
+                        }
+                        if (!moderatorOrAdmin) {
+                            if (sf.getOwner() == null || !sf.getOwner().getId().equals(currentUser.getId())) {
+                                throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owner: " + id);
+                            }
+                        }
+                        if (sf.getStatus() != FileStatus.ACTIVE || sf.getEncryptionKey() != null) {
+                            urls.add(new PresignedUrl(id, null, null));
+                            continue;
+                        }
+                        accessLog.touch(id);
+                        String bucket = locations.bucket(sf.getBucket(), sf.getTier());
+                        if (servedByCdn(sf)) {
+                            urls.add(new PresignedUrl(id, locations.cdnUrl(bucket, sf.getObjectKey()), null));
+                        } else {
+                            BatchPresigner.Signed signed = batchPresigner.sign(bucket, sf.getObjectKey(),
+                                    cdn.getPresignTtl(), now);
+                            urls.add(new PresignedUrl(id, signed.url(), signed.expiresAt()));
+                        }
+                    }
+                    return urls;
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private boolean servedByCdn(StorageFile sf) {
+        return sf.isPublicRead() && sf.getEncryptionKey() == null && locations.cdnEnabled();
+    }
+
+    private Mono<FileContent> fetchContent(StorageFile sf, String key) {
+        String name = sf.getName();
+        String expected = sf.getChecksumCrc32c();
+        return downloader.head(locations.bucket(sf.getBucket(), sf.getTier()), key)
+                .flatMap(obj -> {
+                    String contentType = obj.contentType() != null ? obj.contentType() : "application/octet-stream";
+                    boolean cacheable = cache.admits(obj.contentLength());
+                    return Mono.just(new FileContent(name, contentType, obj.contentLength(), obj.eTag(), null,
+                            (start, end) -> {
+                                Flux<DataBuffer> body = downloader.read(obj, start, end).map(DefaultDataBufferFactory.sharedInstance::wrap);
+                                // a cold range goes straight to S3; only whole reads are verified and cached
+                                if (start != 0 || end != obj.contentLength() - 1) return body;
+                                if (expected != null) body = StreamingChecksum.verified(body, expected, key);
+                                return cacheable ? cache.tee(obj.bucket(), key, obj.eTag(), contentType, body) : body;
+                            }));
+                })
+                .onErrorMap(e -> !(e instanceof ResponseStatusException),
+                        e -> new ResponseStatusException(HttpStatus.BAD_GATEWAY, "S3 download failed: " + e.getMessage(), e));
+    }
+
+    private FileContent spooledContent(StorageFile sf, Path path) throws IOException {
+        String contentType = sf.getContentType() != null ? sf.getContentType() : "application/octet-stream";
+        return new FileContent(sf.getName(), contentType, Files.size(path), null, use -> use.apply(path),
+                (start, end) -> DataBufferUtils.takeUntilByteCount(
+                        DataBufferUtils.readAsynchronousFileChannel(
+                                () -> AsynchronousFileChannel.open(path, StandardOpenOption.READ),
+                                start, DefaultDataBufferFactory.sharedInstance, 64 * 1024),
+                        end - start + 1));
+    }
+
+    private FileContent cachedContent(String name, ObjectCache.Entry e) {
+        return new FileContent(name, e.contentType(), e.size(), e.eTag(), use -> cache.withPinned(e, use),
+                (start, end) -> cache.read(e, start, end));
+    }
+
     public Flux<FileDto> list(User currentUser, boolean moderatorOrAdmin) {
         return Mono.fromCallable(() -> moderatorOrAdmin
                         ? files.findAll()
@@ -228,36 +921,31 @@ public class FileStorageService {
                 .map(this::toDto);
     }
 
-    @Transactional
-    protected Void markDeletedAndEvent(StorageFile f, User user) {
+    private Void markDeletedAndEvent(StorageFile f, User user) {
+        Integer ownerId = f.getOwner() != null ? f.getOwner().getId() : null;
+        // the size is read once the archive UPDATE holds the row: a replace may have changed it
+        // since f was loaded, and none can commit after
+        Long released = tx.execute(ts -> {
+            Long size = null;
+            if (files.archive(f.getId()) > 0) {
+                size = files.findSizeBytes(f.getId());
+                counters.add(ownerId, UserCounters.ACTIVE_FILES, -1);
+                counters.add(ownerId, UserCounters.BYTES, -size);
+            }
+            recordEvent(user, f, EventStatus.DELETED);
+            return size;
+        });
         f.setStatus(FileStatus.ARCHIVED);
-        files.save(f);
-        events.save(Event.builder()
-                .user(user)
-                .file(f)
-                .status(EventStatus.DELETED)
-                .createdAt(Instant.now())
-                .build());
+        if (released != null && ownerId != null) quotas.release(ownerId, released);
+        search.remove(f.getId());
         return null;
     }
 
     private FileDto toDto(StorageFile f) {
-        return new FileDto(f.getId(), f.getName(), f.getLocation(), f.getStatus().name());
-    }
-
-    private String buildKey(Integer userId, String originalName) {
-        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        String safe = originalName.replaceAll("[^\\w\\-.]", "_");
-        return "u" + userId + "/" + date + "/" + UUID.randomUUID() + "_" + safe;
-    }
-
-    private String extractKeyFromLocation(String location) {
-        String base = props.getPublicBaseUrl().replaceAll("/+$", "") + "/" + props.getBucket() + "/";
-        if (location.startsWith(base)) {
-            return location.substring(base.length());
-        }
-        int i = location.indexOf(props.getBucket() + "/");
-        if (i >= 0) return location.substring(i + props.getBucket().length() + 1);
-        return location;
+        String location = servedByCdn(f)
+                ? locations.cdnUrl(locations.bucket(f.getBucket(), f.getTier()), f.getObjectKey())
+                : locations.url(f.getBucket(), f.getObjectKey());
+        return new FileDto(f.getId(), f.getName(), location,
+                f.getStatus().name(), f.getSizeBytes(), f.getContentType());
     }
-}
\ No newline at end of file
+}
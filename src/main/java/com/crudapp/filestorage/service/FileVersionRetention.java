@@ -0,0 +1,141 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.VersionProps;
+import com.crudapp.filestorage.model.StorageTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes previous file versions that fall out of retention: beyond the newest
+ * {@code storage.versions.keep} per file, older than {@code maxAge}, or belonging to an
+ * ARCHIVED file. Works in batches of {@code batchSize}: one DeleteObjects call, then one
+ * transaction removing the rows and their bytes from the owners' counters. A version whose
+ * object S3 refused to delete keeps its row and is retried on the next run.
+ */
+@Component
+public class FileVersionRetention {
+    private static final Logger log = LoggerFactory.getLogger(FileVersionRetention.class);
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate named;
+    private final S3ClientPool s3;
+    private final VersionProps props;
+    private final ObjectLocations locations;
+    private final UserCounters counters;
+    private final QuotaLedger quotas;
+    private final TransactionTemplate tx;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    record Expired(Integer id, String bucket, String key, StorageTier tier, long size, Integer ownerId) {}
+
+    public FileVersionRetention(DataSource dataSource, S3ClientPool s3, VersionProps props,
+                                ObjectLocations locations, UserCounters counters, QuotaLedger quotas,
+                                TransactionTemplate tx) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.named = new NamedParameterJdbcTemplate(jdbc);
+        this.s3 = s3;
+        this.props = props;
+        this.locations = locations;
+        this.counters = counters;
+        this.quotas = quotas;
+        this.tx = tx;
+    }
+
+    @Scheduled(fixedDelayString = "${storage.versions.interval:PT1H}",
+            initialDelayString = "${storage.versions.initialDelay:PT10M}")
+    public void scheduled() {
+        if (props.isRetention()) run();
+    }
+
+    public void run() {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            long deleted = 0;
+            int afterId = 0;
+            List<Expired> batch;
+            do {
+                batch = nextBatch(afterId);
+                if (batch.isEmpty()) break;
+                deleted += delete(batch);
+                afterId = batch.get(batch.size() - 1).id();
+            } while (batch.size() == props.getBatchSize());
+            if (deleted > 0) log.info("File version retention: deleted {} versions", deleted);
+        } catch (Exception e) {
+            log.warn("File version retention failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private List<Expired> nextBatch(int afterId) {
+        return jdbc.query("""
+                        select v.id, v.bucket, v.object_key, v.tier, v.size_bytes, f.owner_id
+                        from file_versions v
+                        join files f on f.id = v.file_id
+                        where v.id > ?
+                          and (v.replaced_at < ? or v.version < f.version - ? or f.status = 'ARCHIVED')
+                        order by v.id
+                        limit ?
+                        """,
+                (rs, i) -> new Expired(rs.getInt(1), rs.getString(2), rs.getString(3),
+                        StorageTier.valueOf(rs.getString(4)), rs.getLong(5), (Integer) rs.getObject(6)),
+                afterId, Timestamp.from(Instant.now().minus(props.getMaxAge())), props.getKeep(), props.getBatchSize());
+    }
+
+    private int delete(List<Expired> batch) {
+        // versions are spread over the shards, and cold ones may sit in the cold bucket
+        List<Expired> deleted = new ArrayList<>();
+        batch.stream()
+                .collect(Collectors.groupingBy(e -> locations.bucket(e.bucket(), e.tier())))
+                .forEach((bucket, expired) -> deleted.addAll(deleteObjects(bucket, expired)));
+        if (deleted.isEmpty()) return 0;
+
+        Map<Integer, Long> bytesByOwner = deleted.stream()
+                .filter(e -> e.ownerId() != null)
+                .collect(Collectors.groupingBy(Expired::ownerId, Collectors.summingLong(Expired::size)));
+        tx.executeWithoutResult(ts -> {
+            named.update("delete from file_versions where id in (:ids)",
+                    new MapSqlParameterSource("ids", deleted.stream().map(Expired::id).toList()));
+            bytesByOwner.forEach((owner, bytes) -> counters.add(owner, UserCounters.BYTES, -bytes));
+        });
+        bytesByOwner.forEach(quotas::release);
+        return deleted.size();
+    }
+
+    /** Returns the versions whose objects are gone. */
+    private List<Expired> deleteObjects(String bucket, List<Expired> expired) {
+        List<ObjectIdentifier> ids = expired.stream()
+                .map(e -> ObjectIdentifier.builder().key(e.key()).build())
+                .toList();
+        var resp = s3.client(bucket).deleteObjects(DeleteObjectsRequest.builder()
+                .bucket(bucket)
+                .delete(Delete.builder().objects(ids).quiet(true).build())
+                .build()).join();
+        if (!resp.hasErrors() || resp.errors().isEmpty()) return expired;
+        // keep the rows of the failed ones: the next run retries them instead of leaving orphans
+        log.warn("File version retention: {} deletes failed, first: {}", resp.errors().size(), resp.errors().get(0));
+        Set<String> failed = resp.errors().stream().map(S3Error::key).collect(Collectors.toSet());
+        return expired.stream().filter(e -> !failed.contains(e.key())).toList();
+    }
+}
@@ -0,0 +1,127 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.model.EventStatus;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Virtual folders over {@code files.folder}, a materialized path such as {@code "/photos/2024/"}.
+ * Folders exist as long as some file lives in them or below. Paths are binary-collated, so a
+ * subtree is one range of idx_files_owner_folder, {@code [path, upper(path))}.
+ *
+ * Child folders are found by skipping through that index: one probe returns the first folder
+ * below the path, the next starts past that child's whole subtree. A listing costs one index
+ * dive per child folder, however many files the children hold. Blocking.
+ */
+@Component
+public class FolderTree {
+    public static final String ROOT = "/";
+    private static final int MAX_PATH = 512;
+
+    private final JdbcTemplate jdbc;
+    private final UserCounters counters;
+    private final TransactionTemplate tx;
+
+    public FolderTree(DataSource dataSource, UserCounters counters, TransactionTemplate tx) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.counters = counters;
+        this.tx = tx;
+    }
+
+    /** {@code "photos//2024"} -> {@code "/photos/2024/"}, null or blank -> {@code "/"}. */
+    public static String normalize(String path) {
+        if (path == null || path.isBlank()) return ROOT;
+        StringBuilder sb = new StringBuilder(ROOT);
+        for (String segment : path.split("/")) {
+            if (segment.isBlank()) continue;
+            if (segment.equals(".") || segment.equals("..") || segment.chars().anyMatch(Character::isISOControl)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid folder name: " + segment);
+            }
+            sb.append(segment.strip()).append('/');
+        }
+        if (sb.length() > MAX_PATH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Folder path longer than " + MAX_PATH);
+        }
+        return sb.toString();
+    }
+
+    // first string past every path below `path`: the trailing '/' bumped to the next byte, '0'
+    private static String upper(String path) {
+        return path.substring(0, path.length() - 1) + '0';
+    }
+
+    /** Direct subfolders of {@code path} that hold non-archived files, in path order. */
+    public List<String> children(Integer ownerId, String path, int limit) {
+        List<String> children = new ArrayList<>();
+        String upper = upper(path);
+        String after = path;
+        while (children.size() < limit) {
+            List<String> next = jdbc.queryForList("""
+                            select folder from files
+                            where owner_id = ? and folder > ? and folder < ? and status <> 'ARCHIVED'
+                            order by folder
+                            limit 1
+                            """,
+                    String.class, ownerId, after, upper);
+            if (next.isEmpty()) break;
+            String child = next.get(0).substring(0, next.get(0).indexOf('/', path.length()) + 1);
+            children.add(child);
+            // no path ends in '0', so "> upper(child)" is exactly "past the child's subtree"
+            after = upper(child);
+        }
+        return children;
+    }
+
+    /**
+     * Moves folder {@code from} with everything below it to {@code to} - a move, a rename or
+     * both - with one UPDATE over the subtree range and one INSERT ... SELECT of the UPDATED
+     * events. Folders that already exist at the target are merged.
+     *
+     * @return number of files moved
+     */
+    public int move(Integer ownerId, String from, String to, Integer actorId) {
+        if (from.equals(ROOT)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The root folder cannot be moved");
+        }
+        if (to.startsWith(from)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A folder cannot be moved into itself");
+        }
+        String upper = upper(from);
+        return tx.execute(ts -> {
+            Integer longest = jdbc.queryForObject("""
+                            select max(char_length(folder)) from files
+                            where owner_id = ? and folder >= ? and folder < ?
+                            for update
+                            """,
+                    Integer.class, ownerId, from, upper);
+            if (longest == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Folder not found");
+            }
+            if (longest - from.codePointCount(0, from.length()) + to.codePointCount(0, to.length()) > MAX_PATH) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Folder path longer than " + MAX_PATH);
+            }
+            int events = jdbc.update("""
+                            insert into events(user_id, file_id, status, created_at)
+                            select ?, id, ?, ? from files
+                            where owner_id = ? and folder >= ? and folder < ? and status <> 'ARCHIVED'
+                            """,
+                    actorId, EventStatus.UPDATED.name(), Timestamp.from(Instant.now()), ownerId, from, upper);
+            int moved = jdbc.update("""
+                            update files set folder = concat(?, substring(folder, char_length(?) + 1))
+                            where owner_id = ? and folder >= ? and folder < ?
+                            """,
+                    to, from, ownerId, from, upper);
+            counters.events(actorId, EventStatus.UPDATED.name(), events);
+            return moved;
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.ImportProps;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Copies a blocking {@link InputStream} into S3. Anything up to one part is a single PutObject;
+ * larger streams become a multipart upload whose parts are read sequentially and uploaded
+ * with up to {@code partConcurrency} in flight, so memory stays at that many part buffers.
+ * Must be called off the event loop.
+ */
+@Component
+public class MultipartUploader {
+
+    private final S3AsyncClient s3;
+    private final ImportProps props;
+
+    public MultipartUploader(S3AsyncClient s3, ImportProps props) {
+        this.s3 = s3;
+        this.props = props;
+    }
+
+    /** @return number of bytes uploaded */
+    public long upload(String bucket, String key, String contentType, InputStream in) throws IOException {
+        int partSize = (int) props.getPartSize().toBytes();
+        byte[] first = in.readNBytes(partSize);
+        if (first.length < partSize) {
+            var req = PutObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .contentType(contentType)
+                    .build();
+            s3.putObject(req, AsyncRequestBody.fromBytes(first)).join();
+            return first.length;
+        }
+
+        String uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .contentType(contentType)
+                        .build())
+                .join()
+                .uploadId();
+        Semaphore inFlight = new Semaphore(props.getPartConcurrency());
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        long total = 0;
+        try {
+            byte[] chunk = first;
+            int number = 1;
+            while (chunk.length > 0) {
+                inFlight.acquire();
+                int partNumber = number++;
+                var req = UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) chunk.length)
+                        .build();
+                parts.add(s3.uploadPart(req, AsyncRequestBody.fromBytes(chunk))
+                        .whenComplete((r, e) -> inFlight.release())
+                        .thenApply(r -> CompletedPart.builder().partNumber(partNumber).eTag(r.eTag()).build()));
+                total += chunk.length;
+                chunk = in.readNBytes(partSize);
+            }
+            List<CompletedPart> completed = parts.stream().map(CompletableFuture::join).toList();
+            s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                            .build())
+                    .join();
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(bucket, key, uploadId);
+            throw new IOException("Interrupted during multipart upload of " + key, e);
+        } catch (IOException | RuntimeException e) {
+            abort(bucket, key, uploadId);
+            throw e;
+        }
+    }
+
+    private void abort(String bucket, String key, String uploadId) {
+        s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .build())
+                .exceptionally(e -> null);
+    }
+}
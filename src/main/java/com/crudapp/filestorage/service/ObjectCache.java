@@ -0,0 +1,374 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.CacheProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache of object bytes on local disk. Entries are evicted in LRU order once
+ * the total size exceeds {@code storage.cache.maxSize}, and are revalidated against the
+ * object's ETag with a HEAD request after {@code revalidateAfter}.
+ *
+ * An entry is a {@code <uuid>.obj} file with a {@code <uuid>.meta} sidecar naming the object,
+ * so the index is rebuilt from disk on startup; only files with the cache's own suffixes are
+ * ever deleted from {@code storage.cache.dir}. Entries are pinned while they are read: an
+ * evicted entry leaves the index at once, but its file is deleted when the last reader is done.
+ */
+@Component
+public class ObjectCache {
+    private static final Logger log = LoggerFactory.getLogger(ObjectCache.class);
+    private static final int MAP_CHUNK = 1024 * 1024;
+    static final String OBJECT_SUFFIX = ".obj";
+    static final String META_SUFFIX = ".meta";
+    static final String TMP_SUFFIX = ".tmp";
+
+    private final S3ClientPool s3;
+    private final CacheProps props;
+    private final Path dir;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Set<String> filling = ConcurrentHashMap.newKeySet();
+    private long totalBytes;
+
+    public ObjectCache(S3ClientPool s3, CacheProps props) throws IOException {
+        this.s3 = s3;
+        this.props = props;
+        this.dir = Path.of(props.getDir());
+        if (props.isEnabled()) {
+            Files.createDirectories(dir);
+            rebuild();
+        }
+    }
+
+    public static final class Entry {
+        private final String id;
+        private final Path path;
+        private final long size;
+        private final String eTag;
+        private final String contentType;
+        private volatile long validatedAt;
+        // guarded by the cache
+        private int pins;
+        private boolean evicted;
+        private boolean deleted;
+
+        Entry(String id, Path path, long size, String eTag, String contentType, long validatedAt) {
+            this.id = id;
+            this.path = path;
+            this.size = size;
+            this.eTag = eTag;
+            this.contentType = contentType;
+            this.validatedAt = validatedAt;
+        }
+
+        public Path path() { return path; }
+        public long size() { return size; }
+        public String eTag() { return eTag; }
+        public String contentType() { return contentType; }
+    }
+
+    public boolean admits(long size) {
+        return props.isEnabled() && size <= props.getMaxObjectSize().toBytes();
+    }
+
+    public Mono<Entry> lookup(String bucket, String key) {
+        if (!props.isEnabled()) return Mono.empty();
+        String id = id(bucket, key);
+        Entry e;
+        synchronized (this) {
+            e = entries.get(id);
+        }
+        if (e == null) return Mono.empty();
+        if (System.currentTimeMillis() - e.validatedAt < props.getRevalidateAfter().toMillis()) {
+            return Mono.just(e);
+        }
+        var head = HeadObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build();
+        return Mono.fromFuture(() -> s3.client(bucket).headObject(head))
+                .flatMap(h -> {
+                    if (e.eTag.equals(h.eTag())) {
+                        e.validatedAt = System.currentTimeMillis();
+                        return Mono.just(e);
+                    }
+                    invalidate(bucket, key);
+                    return Mono.<Entry>empty();
+                })
+                .onErrorResume(NoSuchKeyException.class, ex -> {
+                    invalidate(bucket, key);
+                    return Mono.empty();
+                })
+                // S3 unreachable: keep serving what we have
+                .onErrorResume(ex -> Mono.just(e));
+    }
+
+    /**
+     * Passes {@code body} - the whole object - through to the caller while writing it to a new
+     * entry, so the client does not wait for the fill. Each buffer is emitted once it is on
+     * disk. The entry is added when the body completes; an error or a cancel drops the
+     * partial file. When another request is already filling the object, {@code body} is
+     * returned untouched.
+     */
+    public Flux<DataBuffer> tee(String bucket, String key, String eTag, String contentType, Flux<DataBuffer> body) {
+        String id = id(bucket, key);
+        return Flux.defer(() -> {
+            if (!filling.add(id)) return body;
+            String name = UUID.randomUUID().toString();
+            Path tmp = dir.resolve(name + TMP_SUFFIX);
+            AtomicBoolean committed = new AtomicBoolean();
+            return Flux.using(
+                            () -> AsynchronousFileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                            ch -> DataBufferUtils.write(body, ch),
+                            ch -> {
+                                try {
+                                    ch.close();
+                                } catch (IOException ex) {
+                                    throw new UncheckedIOException(ex);
+                                }
+                            })
+                    .concatWith(Mono.<DataBuffer>fromRunnable(() -> {
+                                commit(id, bucket, key, eTag, contentType, name, tmp);
+                                committed.set(true);
+                            })
+                            .subscribeOn(Schedulers.boundedElastic())
+                            // the client already has every byte
+                            .onErrorResume(ex -> {
+                                log.warn("Failed to add {} to the cache", id, ex);
+                                return Mono.empty();
+                            }))
+                    .doFinally(s -> {
+                        filling.remove(id);
+                        if (!committed.get()) deleteQuietly(tmp);
+                    });
+        });
+    }
+
+    private void commit(String id, String bucket, String key, String eTag, String contentType,
+                        String name, Path tmp) {
+        Path meta = dir.resolve(name + META_SUFFIX);
+        Path target = dir.resolve(name + OBJECT_SUFFIX);
+        Properties p = new Properties();
+        p.setProperty("bucket", bucket);
+        p.setProperty("key", key);
+        p.setProperty("eTag", eTag);
+        p.setProperty("contentType", contentType);
+        try {
+            try (Writer w = Files.newBufferedWriter(meta, StandardCharsets.UTF_8)) {
+                p.store(w, null);
+            }
+            // the .obj appears last, so a crash never leaves an entry without its sidecar
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            put(id, new Entry(id, target, Files.size(target), eTag, contentType, System.currentTimeMillis()));
+        } catch (IOException ex) {
+            deleteQuietly(meta);
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public void invalidate(String bucket, String key) {
+        if (!props.isEnabled()) return;
+        Entry e;
+        synchronized (this) {
+            e = entries.remove(id(bucket, key));
+            if (e != null) {
+                totalBytes -= e.size;
+                if (!evict(e)) e = null;
+            }
+        }
+        if (e != null) deleteFiles(e);
+    }
+
+    public Flux<DataBuffer> read(Entry e, long start, long endInclusive) {
+        return Flux.using(
+                () -> {
+                    pin(e);
+                    try {
+                        return FileChannel.open(e.path, StandardOpenOption.READ);
+                    } catch (IOException | RuntimeException ex) {
+                        unpin(e);
+                        throw ex;
+                    }
+                },
+                ch -> Flux.<DataBuffer, Long>generate(() -> start, (pos, sink) -> {
+                    long len = Math.min(MAP_CHUNK, endInclusive + 1 - pos);
+                    if (len <= 0) {
+                        sink.complete();
+                        return pos;
+                    }
+                    try {
+                        sink.next(DefaultDataBufferFactory.sharedInstance
+                                .wrap(ch.map(FileChannel.MapMode.READ_ONLY, pos, len)));
+                    } catch (IOException ex) {
+                        sink.error(ex);
+                    }
+                    return pos + len;
+                }),
+                ch -> {
+                    try {
+                        ch.close();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    unpin(e);
+                });
+    }
+
+    /** Runs {@code use} with the entry's file pinned, e.g. for a zero-copy transfer by path. */
+    public Mono<Void> withPinned(Entry e, Function<Path, Mono<Void>> use) {
+        return Mono.using(() -> {
+            pin(e);
+            return e;
+        }, pinned -> use.apply(pinned.path), this::unpin);
+    }
+
+    private void pin(Entry e) throws NoSuchFileException {
+        synchronized (this) {
+            if (e.deleted) throw new NoSuchFileException(e.path.toString(), null, "evicted from the cache");
+            e.pins++;
+        }
+    }
+
+    private void unpin(Entry e) {
+        boolean delete;
+        synchronized (this) {
+            e.pins--;
+            delete = e.evicted && e.pins == 0 && !e.deleted;
+            if (delete) e.deleted = true;
+        }
+        if (delete) deleteFiles(e);
+    }
+
+    /** Marks {@code e} evicted; true when nobody reads it and its files can go now. Holds the lock. */
+    private boolean evict(Entry e) {
+        e.evicted = true;
+        if (e.pins > 0) return false;
+        e.deleted = true;
+        return true;
+    }
+
+    private void put(String id, Entry e) {
+        List<Entry> evicted = new ArrayList<>();
+        long max = props.getMaxSize().toBytes();
+        synchronized (this) {
+            Entry prev = entries.put(id, e);
+            if (prev != null) {
+                totalBytes -= prev.size;
+                if (evict(prev)) evicted.add(prev);
+            }
+            totalBytes += e.size;
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (totalBytes > max && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                if (eldest == e) continue;
+                it.remove();
+                totalBytes -= eldest.size;
+                if (evict(eldest)) evicted.add(eldest);
+            }
+        }
+        evicted.forEach(this::deleteFiles);
+    }
+
+    /**
+     * Re-indexes the entries left by a previous run, least recently written first. They are
+     * revalidated on first use, since the objects may have changed meanwhile. Partial fills
+     * and halves of entries are deleted; anything without the cache's suffixes is left alone.
+     */
+    private void rebuild() throws IOException {
+        List<Path> objects = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(dir)) {
+            listing.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    deleteQuietly(p);
+                } else if (name.endsWith(META_SUFFIX)) {
+                    if (!Files.exists(sibling(p, META_SUFFIX, OBJECT_SUFFIX))) deleteQuietly(p);
+                } else if (name.endsWith(OBJECT_SUFFIX)) {
+                    objects.add(p);
+                }
+            });
+        }
+        objects.sort(Comparator.comparing(ObjectCache::lastModified));
+        for (Path p : objects) {
+            Path meta = sibling(p, OBJECT_SUFFIX, META_SUFFIX);
+            Properties m = new Properties();
+            try (Reader r = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+                m.load(r);
+            } catch (IOException ex) {
+                log.warn("Dropping cache file {} without readable metadata", p);
+                deleteQuietly(p);
+                deleteQuietly(meta);
+                continue;
+            }
+            String id = id(m.getProperty("bucket"), m.getProperty("key"));
+            put(id, new Entry(id, p, Files.size(p), m.getProperty("eTag"), m.getProperty("contentType"), 0));
+        }
+        log.info("Object cache: {} entries, {} bytes restored from {}", entries.size(), totalBytes, dir);
+    }
+
+    private void deleteFiles(Entry e) {
+        deleteQuietly(e.path);
+        deleteQuietly(sibling(e.path, OBJECT_SUFFIX, META_SUFFIX));
+    }
+
+    private static Path sibling(Path p, String suffix, String other) {
+        String name = p.getFileName().toString();
+        return p.resolveSibling(name.substring(0, name.length() - suffix.length()) + other);
+    }
+
+    private static long lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    private static String id(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ex) {
+            log.warn("Failed to delete cache file {}", p, ex);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.TieringProps;
+import com.crudapp.filestorage.model.StorageTier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.StorageClass;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+
+/**
+ * Server-side copy of an object to another key of the same bucket. Up to the CopyObject limit
+ * (5 GB) this is one call; larger objects become a multipart upload of UploadPartCopy parts,
+ * {@code PART_CONCURRENCY} in flight. No bytes pass through this service either way. A COLD
+ * object is copied into the cold storage class, which S3 would otherwise reset to STANDARD.
+ */
+@Component
+public class ObjectCopier {
+    static final long MAX_SINGLE_COPY = 5L * 1024 * 1024 * 1024;
+    static final long PART_SIZE = 512L * 1024 * 1024;
+    private static final int PART_CONCURRENCY = 4;
+
+    private final S3ClientPool s3;
+    private final TieringProps tiering;
+
+    public ObjectCopier(S3ClientPool s3, TieringProps tiering) {
+        this.s3 = s3;
+        this.tiering = tiering;
+    }
+
+    /** @param bucket the bucket holding the object now, see {@link ObjectLocations#bucket} */
+    public Mono<Void> copy(String bucket, String sourceKey, String targetKey, long size,
+                           String contentType, StorageTier tier) {
+        S3AsyncClient client = s3.client(bucket);
+        StorageClass storageClass = tier == StorageTier.COLD ? StorageClass.fromValue(tiering.getStorageClass()) : null;
+        if (size <= MAX_SINGLE_COPY) {
+            return Mono.fromFuture(() -> client.copyObject(CopyObjectRequest.builder()
+                            .sourceBucket(bucket)
+                            .sourceKey(sourceKey)
+                            .destinationBucket(bucket)
+                            .destinationKey(targetKey)
+                            .storageClass(storageClass)
+                            .metadataDirective(MetadataDirective.COPY)
+                            .build()))
+                    .then();
+        }
+        // parts do not carry the source's metadata: the content type is set on the upload
+        return Mono.fromFuture(() -> client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(targetKey)
+                        .contentType(contentType)
+                        .storageClass(storageClass)
+                        .build()))
+                .flatMap(created -> {
+                    String uploadId = created.uploadId();
+                    int parts = (int) ((size + PART_SIZE - 1) / PART_SIZE);
+                    return Flux.range(1, parts)
+                            .flatMapSequential(n -> {
+                                long first = (n - 1) * PART_SIZE;
+                                long last = Math.min(size, first + PART_SIZE) - 1;
+                                return Mono.fromFuture(() -> client.uploadPartCopy(UploadPartCopyRequest.builder()
+                                                .sourceBucket(bucket)
+                                                .sourceKey(sourceKey)
+                                                .destinationBucket(bucket)
+                                                .destinationKey(targetKey)
+                                                .uploadId(uploadId)
+                                                .partNumber(n)
+                                                .copySourceRange("bytes=" + first + "-" + last)
+                                                .build()))
+                                        .map(r -> CompletedPart.builder().partNumber(n).eTag(r.copyPartResult().eTag()).build());
+                            }, PART_CONCURRENCY)
+                            .collectList()
+                            .flatMap(completed -> Mono.fromFuture(() -> client.completeMultipartUpload(
+                                    CompleteMultipartUploadRequest.builder()
+                                            .bucket(bucket)
+                                            .key(targetKey)
+                                            .uploadId(uploadId)
+                                            .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                                            .build())))
+                            .onErrorResume(e -> Mono.fromFuture(() -> client.abortMultipartUpload(
+                                            AbortMultipartUploadRequest.builder()
+                                                    .bucket(bucket)
+                                                    .key(targetKey)
+                                                    .uploadId(uploadId)
+                                                    .build()))
+                                    .onErrorResume(abortFailed -> Mono.empty())
+                                    .then(Mono.error(e)));
+                })
+                .then();
+    }
+}
@@ -0,0 +1,93 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.CdnProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.TieringProps;
+import com.crudapp.filestorage.config.UploadProps;
+import com.crudapp.filestorage.model.StorageTier;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+@Component
+public class ObjectLocations {
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Pattern UNSAFE = Pattern.compile("[^\\w\\-.]");
+
+    private final TieringProps tiering;
+    private final S3ClientPool pool;
+    private final UploadProps.KeyLayout layout;
+    // bucket -> "<public base URL>/<bucket>/"
+    private final Map<String, String> bases = new HashMap<>();
+    private final String mainBaseUrl;
+    // "<cdn base URL>/", null when public files are not served through a CDN
+    private final String cdnBaseUrl;
+
+    public ObjectLocations(TieringProps tiering, S3ClientPool pool, UploadProps upload, CdnProps cdn) {
+        this.tiering = tiering;
+        this.pool = pool;
+        this.layout = upload.getKeyLayout();
+        this.mainBaseUrl = pool.targets().get(0).publicBaseUrl() + "/";
+        this.cdnBaseUrl = cdn.isEnabled() && StringUtils.hasText(cdn.getBaseUrl())
+                ? cdn.getBaseUrl().replaceAll("/+$", "") + "/"
+                : null;
+        for (S3ClientPool.Target t : pool.targets()) {
+            bases.put(t.bucket(), t.publicBaseUrl() + "/" + t.bucket() + "/");
+        }
+    }
+
+    /**
+     * Bucket currently holding an object written to {@code bucket} and moved to {@code tier}.
+     * Rows always name the hot bucket; keys are the same in both. Cold objects only leave
+     * their bucket when the cold bucket is on the same endpoint.
+     */
+    public String bucket(String bucket, StorageTier tier) {
+        if (tier == StorageTier.COLD && StringUtils.hasText(tiering.getColdBucket())
+                && pool.sameEndpoint(bucket, tiering.getColdBucket())) {
+            return tiering.getColdBucket();
+        }
+        return bucket;
+    }
+
+    /** Public URL of an object, from the base URL precomputed per bucket at startup. */
+    public String url(String bucket, String key) {
+        String base = bases.get(bucket);
+        // a bucket dropped from the config is still served by the main endpoint
+        return base != null ? base + key : mainBaseUrl + bucket + "/" + key;
+    }
+
+    public boolean cdnEnabled() {
+        return cdnBaseUrl != null;
+    }
+
+    /**
+     * Unsigned CDN URL of a public object. Keys are never reused, so the URL can be cached
+     * for as long as the CDN and the browser like.
+     */
+    public String cdnUrl(String bucket, String key) {
+        return cdnBaseUrl + bucket + "/" + key;
+    }
+
+    /** Key for a new object of {@code userId} in the configured {@code storage.upload.keyLayout}. */
+    public String newKey(Integer userId, String originalName) {
+        return newKey(layout, userId, originalName);
+    }
+
+    public static String newKey(UploadProps.KeyLayout layout, Integer userId, String originalName) {
+        String safe = UNSAFE.matcher(originalName).replaceAll("_");
+        String uuid = UUID.randomUUID().toString();
+        return switch (layout) {
+            case DATE -> "u" + userId + "/" + LocalDateTime.now().format(DAY) + "/" + uuid + "_" + safe;
+            case HASHED -> "u" + uuid.substring(0, 4) + "/" + userId + "/" + LocalDateTime.now().format(DAY)
+                    + "/" + uuid + "_" + safe;
+            case REVERSED_TIME -> "u" + new StringBuilder(Long.toString(System.currentTimeMillis())).reverse()
+                    + "/" + userId + "/" + uuid + "_" + safe;
+        };
+    }
+}
@@ -0,0 +1,117 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.DownloadProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads an object as a sequence of ranged GetObject calls, at most {@code concurrency}
+ * of them in flight, and re-emits the parts in order. Small objects are streamed with a
+ * single GetObject.
+ *
+ * Parts that finish ahead of the one being sent wait in memory, so a parallel read first
+ * reserves {@code (window + 1) * partSize} from {@code storage.download.bufferBudget}, shared
+ * by all downloads. When the budget is spent the object is streamed with a single GetObject,
+ * which holds no more than the network buffers.
+ */
+@Component
+public class ParallelRangeDownloader {
+
+    private static final long MB = 1024 * 1024;
+
+    private final S3ClientPool s3;
+    private final DownloadProps props;
+    // one permit per MiB of buffered parts
+    private final Semaphore budget;
+
+    public ParallelRangeDownloader(S3ClientPool s3, DownloadProps props) {
+        this.s3 = s3;
+        this.props = props;
+        this.budget = new Semaphore((int) Math.min(Integer.MAX_VALUE, props.getBufferBudget().toBytes() / MB));
+    }
+
+    public record RemoteObject(String bucket, String key, long contentLength, String contentType, String eTag) {}
+
+    public Mono<RemoteObject> head(String bucket, String key) {
+        var head = HeadObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build();
+        return Mono.fromFuture(() -> s3.client(bucket).headObject(head))
+                .map(h -> new RemoteObject(bucket, key, h.contentLength(), h.contentType(), h.eTag()));
+    }
+
+    public Flux<ByteBuffer> read(RemoteObject obj) {
+        return obj.contentLength() == 0 ? Flux.empty() : read(obj, 0, obj.contentLength() - 1);
+    }
+
+    public Flux<ByteBuffer> read(RemoteObject obj, long start, long end) {
+        long span = end - start + 1;
+        if (!props.isParallel() || span < props.getParallelThreshold().toBytes()) {
+            return single(obj, start, end);
+        }
+        long partSize = partSize(span);
+        int parts = (int) ((span + partSize - 1) / partSize);
+        int window = Math.min(props.getConcurrency(), parts);
+        int reserved = (int) (((window + 1) * partSize + MB - 1) / MB);
+        return Flux.defer(() -> {
+            if (!budget.tryAcquire(reserved)) {
+                return single(obj, start, end);
+            }
+            return Flux.range(0, parts)
+                    .flatMapSequential(i -> {
+                        long from = start + i * partSize;
+                        long to = Math.min(end, from + partSize - 1);
+                        return part(obj, from, to);
+                    }, window, 1)
+                    .doFinally(s -> budget.release(reserved));
+        });
+    }
+
+    private Flux<ByteBuffer> single(RemoteObject obj, long start, long end) {
+        var builder = GetObjectRequest.builder()
+                .bucket(obj.bucket())
+                .key(obj.key())
+                .ifMatch(obj.eTag());
+        if (start > 0 || end < obj.contentLength() - 1) {
+            builder.range("bytes=" + start + "-" + end);
+        }
+        var req = builder.build();
+        return Mono.fromFuture(() -> s3.client(obj.bucket()).getObject(req, AsyncResponseTransformer.toPublisher()))
+                .flatMapMany(Flux::from);
+    }
+
+    private Mono<ByteBuffer> part(RemoteObject obj, long start, long end) {
+        var req = GetObjectRequest.builder()
+                .bucket(obj.bucket())
+                .key(obj.key())
+                .ifMatch(obj.eTag())
+                .range("bytes=" + start + "-" + end)
+                .build();
+        return Mono.fromFuture(() -> s3.client(obj.bucket()).getObject(req, AsyncResponseTransformer.toBytes()))
+                .map(ResponseBytes::asByteBuffer)
+                .retryWhen(Retry.backoff(2, Duration.ofMillis(200)));
+    }
+
+    // Aim for ~4 parts per connection, rounded up to whole MiB and clamped to [min, max]; max is
+    // lowered so that at least four full windows fit in the buffer budget at once.
+    private long partSize(long size) {
+        long min = props.getMinPartSize().toBytes();
+        long fair = props.getBufferBudget().toBytes() / (4L * (props.getConcurrency() + 1)) / MB * MB;
+        long max = Math.max(min, Math.min(props.getMaxPartSize().toBytes(), fair));
+        long target = size / (props.getConcurrency() * 4L);
+        target = ((target + MB - 1) / MB) * MB;
+        return Math.max(min, Math.min(max, target));
+    }
+}
@@ -0,0 +1,10 @@
+package com.crudapp.filestorage.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class QuotaExceededException extends ResponseStatusException {
+    public QuotaExceededException(long limit) {
+        super(HttpStatus.PAYLOAD_TOO_LARGE, "Storage quota of " + limit + " bytes exceeded");
+    }
+}
@@ -0,0 +1,144 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.QuotaProps;
+import com.crudapp.filestorage.model.Role;
+import com.crudapp.filestorage.model.User;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory view of each user's storage usage. An upload opens a {@link Reservation} and
+ * grows it as bytes arrive, so concurrent uploads of one user are checked against the same
+ * total and the one that crosses the limit fails on the chunk that crossed it.
+ *
+ * Committed usage is loaded from the {@code bytes} counter when an account is first opened.
+ * After that the account is kept exact in memory - uploads commit after their row, deletes
+ * release after theirs - and is never overwritten from the counters: a read of the counter
+ * cannot be ordered against a commit running concurrently. Idle accounts are dropped
+ * periodically instead, so the next upload reloads them with whatever else (version
+ * retention) has changed the counter meanwhile.
+ */
+@Component
+public class QuotaLedger {
+
+    private final QuotaProps props;
+    private final UserCounters counters;
+    private final Map<Integer, Account> accounts = new ConcurrentHashMap<>();
+
+    public QuotaLedger(QuotaProps props, UserCounters counters) {
+        this.props = props;
+        this.counters = counters;
+    }
+
+    private static final class Account {
+        long used;
+        long reserved;
+        int holders;
+        boolean removed;
+
+        Account(long used) {
+            this.used = used;
+        }
+    }
+
+    public final class Reservation implements AutoCloseable {
+        private final long limit;
+        private final Account account;
+        private long bytes;
+        private boolean done;
+
+        private Reservation(long limit, Account account) {
+            this.limit = limit;
+            this.account = account;
+        }
+
+        /** Reserves {@code n} more bytes, or throws {@link QuotaExceededException} if that crosses the limit. */
+        public void grow(long n) {
+            synchronized (account) {
+                if (account.used + account.reserved + n > limit) {
+                    throw new QuotaExceededException(limit);
+                }
+                account.reserved += n;
+                bytes += n;
+            }
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        /** The file row is stored: the reserved bytes become used bytes. */
+        public void commit() {
+            synchronized (account) {
+                if (done) return;
+                account.reserved -= bytes;
+                account.used += bytes;
+                account.holders--;
+                done = true;
+            }
+        }
+
+        /** Drops whatever was not committed. */
+        @Override
+        public void close() {
+            synchronized (account) {
+                if (done) return;
+                account.reserved -= bytes;
+                account.holders--;
+                done = true;
+            }
+        }
+    }
+
+    /** Loads the user's usage on first access, so call it off the event loop. */
+    public Reservation open(User user) {
+        long limit = limit(user);
+        while (true) {
+            Account account = accounts.computeIfAbsent(user.getId(),
+                    id -> new Account(counters.get(id, UserCounters.BYTES)));
+            synchronized (account) {
+                // lost a race with reconcile(): load a fresh account
+                if (account.removed) continue;
+                account.holders++;
+                return new Reservation(limit, account);
+            }
+        }
+    }
+
+    /** Bytes freed by a delete. */
+    public void release(Integer userId, long bytes) {
+        Account account = accounts.get(userId);
+        if (account == null) return;
+        synchronized (account) {
+            account.used = Math.max(0, account.used - bytes);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${storage.quota.reconcileInterval:PT5M}")
+    public void reconcile() {
+        accounts.forEach((userId, account) -> {
+            synchronized (account) {
+                // accounts with uploads in flight stay as they are, see the class comment
+                if (account.holders > 0) return;
+                account.removed = true;
+                accounts.remove(userId, account);
+            }
+        });
+    }
+
+    long limit(User user) {
+        if (!props.isEnabled()) return Long.MAX_VALUE;
+        if (user.getQuotaBytes() != null) return user.getQuotaBytes();
+        return user.getRoles().stream()
+                .map(Role::getName)
+                .map(props.getRoles()::get)
+                .filter(l -> l != null)
+                .mapToLong(DataSize::toBytes)
+                .max()
+                .orElse(props.getDefaultLimit().toBytes());
+    }
+}
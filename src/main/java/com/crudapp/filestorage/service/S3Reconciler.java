@@ -0,0 +1,286 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.ReconcilerProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.TieringProps;
+import com.crudapp.filestorage.model.FileStatus;
+import com.crudapp.filestorage.model.ReconcilerCheckpoint;
+import com.crudapp.filestorage.model.StorageTier;
+import com.crudapp.filestorage.repository.FileVersionRepository;
+import com.crudapp.filestorage.repository.ReconcilerCheckpointRepository;
+import com.crudapp.filestorage.repository.StorageFileRepository;
+import com.crudapp.filestorage.repository.StorageFileRepository.KeyRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Diffs the bucket against the {@code files} table and deletes what should not be there:
+ * objects with no row (orphans of failed uploads, older than the grace period) and objects
+ * of ARCHIVED rows whose best-effort delete failed.
+ *
+ * Both sides are read in key order - S3 via ListObjectsV2 pages, the tables via keyset pages
+ * over the binary-collated (bucket, object_key) indexes of {@code files} and {@code file_versions},
+ * merged into one stream - and walked with a merge-join, so memory stays
+ * bounded by one page from each side. S3 and utf8mb4_bin both order keys by UTF-8 bytes, so
+ * the merge compares keys by code point, not by {@link String#compareTo}. Progress is
+ * checkpointed after every delete batch; a run stops after {@code maxKeysPerRun} keys and the
+ * next one resumes from the checkpoint.
+ *
+ * Every bucket objects are written to - each bucket of the pool and the cold bucket - is
+ * reconciled on its own with its own checkpoint. Rows always name the hot bucket, so the cold
+ * bucket is diffed against the rows of every hot bucket on its endpoint. An object whose row
+ * places it in another bucket - a copy left behind by a tier move - is deleted like an orphan.
+ */
+@Component
+public class S3Reconciler {
+    private static final Logger log = LoggerFactory.getLogger(S3Reconciler.class);
+    private static final String CHECKPOINT = "s3-gc";
+    private static final int DB_PAGE = 500;
+    // the highest code point; every key under the prefix sorts below prefix + MAX_CHAR
+    private static final String MAX_CHAR = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    private final S3ClientPool s3;
+    private final ReconcilerProps props;
+    private final TieringProps tiering;
+    private final ObjectLocations locations;
+    private final StorageFileRepository files;
+    private final FileVersionRepository versions;
+    private final ReconcilerCheckpointRepository checkpoints;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public S3Reconciler(S3ClientPool s3, ReconcilerProps props, TieringProps tiering, ObjectLocations locations,
+                        StorageFileRepository files, FileVersionRepository versions,
+                        ReconcilerCheckpointRepository checkpoints) {
+        this.s3 = s3;
+        this.props = props;
+        this.tiering = tiering;
+        this.locations = locations;
+        this.files = files;
+        this.versions = versions;
+        this.checkpoints = checkpoints;
+    }
+
+    // a row together with the bucket its object currently lives in
+    private record Located(KeyRow row, String bucket) {
+        String key() {
+            return row.getObjectKey();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${storage.reconciler.interval:PT1H}",
+            initialDelayString = "${storage.reconciler.initialDelay:PT5M}")
+    public void scheduled() {
+        if (props.isEnabled()) run();
+    }
+
+    public void run() {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            for (String bucket : buckets()) {
+                reconcile(bucket);
+            }
+        } catch (Exception e) {
+            log.warn("S3 reconciliation failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /** Every bucket objects can be written to: the pool's buckets, then the cold bucket. */
+    List<String> buckets() {
+        Set<String> buckets = new LinkedHashSet<>();
+        s3.targets().forEach(t -> buckets.add(t.bucket()));
+        if (StringUtils.hasText(tiering.getColdBucket())) buckets.add(tiering.getColdBucket());
+        return List.copyOf(buckets);
+    }
+
+    // buckets named by the rows of objects that may sit in `bucket`
+    private List<String> rowBuckets(String bucket) {
+        Set<String> buckets = new LinkedHashSet<>();
+        buckets.add(bucket);
+        if (bucket.equals(tiering.getColdBucket())) {
+            s3.targets().stream()
+                    .map(S3ClientPool.Target::bucket)
+                    .filter(b -> s3.sameEndpoint(b, bucket))
+                    .forEach(buckets::add);
+        }
+        return List.copyOf(buckets);
+    }
+
+    /** Orders keys the way S3 lists them and utf8mb4_bin sorts them: by code point, i.e. by UTF-8 bytes. */
+    static int compareKeys(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(i);
+            if (ca != cb) return Integer.compare(ca, cb);
+            i += Character.charCount(ca);
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    private void reconcile(String bucket) {
+        String checkpoint = bucket.equals(s3.mainBucket()) ? CHECKPOINT : CHECKPOINT + ":" + bucket;
+        String startAfter = checkpoints.findById(checkpoint).map(ReconcilerCheckpoint::getLastKey).orElse(null);
+        Instant orphanBefore = Instant.now().minus(props.getOrphanGracePeriod());
+
+        Iterator<S3Object> objects = objects(bucket, startAfter).toIterable(1000).iterator();
+        Iterator<Located> rows = rows(bucket, startAfter).toIterable(DB_PAGE).iterator();
+
+        List<String> toDelete = new ArrayList<>();
+        int scanned = 0;
+        int orphans = 0;
+        int retried = 0;
+        int stale = 0;
+        int missing = 0;
+        String lastKey = startAfter;
+
+        S3Object o = objects.hasNext() ? objects.next() : null;
+        Located r = rows.hasNext() ? rows.next() : null;
+
+        while (o != null && scanned < props.getMaxKeysPerRun()) {
+            int cmp = r == null ? -1 : compareKeys(o.key(), r.key());
+            if (cmp > 0) {
+                if (FileStatus.ACTIVE.name().equals(r.row().getStatus()) && r.bucket().equals(bucket)) missing++;
+                r = rows.hasNext() ? rows.next() : null;
+                continue;
+            }
+            boolean old = o.lastModified().isBefore(orphanBefore);
+            if (cmp < 0) {
+                if (old) {
+                    toDelete.add(o.key());
+                    orphans++;
+                }
+            } else {
+                if (FileStatus.ARCHIVED.name().equals(r.row().getStatus())) {
+                    toDelete.add(o.key());
+                    retried++;
+                } else if (!r.bucket().equals(bucket) && old) {
+                    // the row places the object in the other tier's bucket; a fresh copy may be a move in flight
+                    toDelete.add(o.key());
+                    stale++;
+                }
+                r = rows.hasNext() ? rows.next() : null;
+            }
+            lastKey = o.key();
+            scanned++;
+            o = objects.hasNext() ? objects.next() : null;
+
+            if (toDelete.size() >= props.getBatchSize()) {
+                deleteBatch(bucket, toDelete);
+                saveCheckpoint(checkpoint, lastKey);
+            }
+        }
+        deleteBatch(bucket, toDelete);
+        // a finished pass starts over from the beginning next time
+        saveCheckpoint(checkpoint, o == null ? null : lastKey);
+
+        log.info("S3 reconciliation of {}: scanned={}, orphansDeleted={}, archivedDeleted={}, staleCopiesDeleted={}, "
+                        + "missingObjects={}, complete={}",
+                bucket, scanned, orphans, retried, stale, missing, o == null);
+    }
+
+    private Flux<S3Object> objects(String bucket, String startAfter) {
+        var req = ListObjectsV2Request.builder()
+                .bucket(bucket)
+                .prefix(props.getPrefix())
+                .startAfter(startAfter)
+                .maxKeys(1000)
+                .build();
+        return Flux.from(s3.client(bucket).listObjectsV2Paginator(req).contents());
+    }
+
+    // current objects and previous versions of every row bucket, merged into one stream in key order
+    private Flux<Located> rows(String bucket, String startAfter) {
+        String first = startAfter != null ? startAfter : props.getPrefix();
+        String upper = props.getPrefix() + MAX_CHAR;
+        List<Flux<Located>> sources = new ArrayList<>();
+        for (String rowBucket : rowBuckets(bucket)) {
+            for (PageQuery query : List.<PageQuery>of(files::findKeysAfter, versions::findKeysAfter)) {
+                sources.add(keyset(rowBucket, first, upper, query)
+                        .map(row -> new Located(row, locations.bucket(rowBucket, StorageTier.valueOf(row.getTier())))));
+            }
+        }
+        return mergeInOrder(sources, Comparator.comparing(Located::key, S3Reconciler::compareKeys));
+    }
+
+    // halves merged pairwise, log2(n) merge stages per element; a List does not become a typed
+    // Publisher[] for the varargs of Flux.mergeComparing without an unchecked cast
+    private static <T> Flux<T> mergeInOrder(List<Flux<T>> sources, Comparator<? super T> order) {
+        if (sources.isEmpty()) return Flux.empty();
+        if (sources.size() == 1) return sources.get(0);
+        int half = sources.size() / 2;
+        return Flux.mergeComparing(order,
+                mergeInOrder(sources.subList(0, half), order),
+                mergeInOrder(sources.subList(half, sources.size()), order));
+    }
+
+    private interface PageQuery {
+        List<KeyRow> find(String bucket, String after, String upper, int limit);
+    }
+
+    private Flux<KeyRow> keyset(String bucket, String first, String upper, PageQuery query) {
+        return page(bucket, first, upper, query)
+                .expand(page -> page.size() < DB_PAGE
+                        ? Mono.empty()
+                        : page(bucket, page.get(page.size() - 1).getObjectKey(), upper, query))
+                .flatMapIterable(page -> page);
+    }
+
+    private Mono<List<KeyRow>> page(String bucket, String after, String upper, PageQuery query) {
+        return Mono.fromCallable(() -> query.find(bucket, after, upper, DB_PAGE));
+    }
+
+    private void deleteBatch(String bucket, List<String> keys) {
+        if (keys.isEmpty()) return;
+        List<ObjectIdentifier> ids = keys.stream()
+                .map(k -> ObjectIdentifier.builder().key(k).build())
+                .toList();
+        var req = DeleteObjectsRequest.builder()
+                .bucket(bucket)
+                .delete(Delete.builder().objects(ids).quiet(true).build())
+                .build();
+        var resp = s3.client(bucket).deleteObjects(req).join();
+        if (resp.hasErrors() && !resp.errors().isEmpty()) {
+            log.warn("S3 reconciliation: {} deletes failed, first: {}", resp.errors().size(), resp.errors().get(0));
+        }
+        throttle(keys.size());
+        keys.clear();
+    }
+
+    private void throttle(int deleted) {
+        long pauseMs = deleted * 1000L / Math.max(1, props.getDeletesPerSecond());
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void saveCheckpoint(String name, String lastKey) {
+        checkpoints.save(ReconcilerCheckpoint.builder()
+                .name(name)
+                .lastKey(lastKey)
+                .updatedAt(Instant.now())
+                .build());
+    }
+}
@@ -0,0 +1,35 @@
+package com.crudapp.filestorage.service;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: callers that arrive while a load is running
+ * subscribe to it instead of starting their own. The entry is removed as soon as the load
+ * terminates, so nothing is cached beyond requests that overlap in time.
+ */
+final class SingleFlight<K, V> {
+    private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    Mono<V> load(K key, Supplier<Mono<V>> loader) {
+        return Mono.defer(() -> {
+            Mono<V> pending = inFlight.get(key);
+            if (pending != null) return pending;
+            AtomicReference<Mono<V>> self = new AtomicReference<>();
+            Mono<V> created = loader.get()
+                    .doFinally(sig -> inFlight.remove(key, self.get()))
+                    .cache();
+            self.set(created);
+            pending = inFlight.putIfAbsent(key, created);
+            return pending != null ? pending : created;
+        });
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+}
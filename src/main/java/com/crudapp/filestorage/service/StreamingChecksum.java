@@ -0,0 +1,110 @@
+package com.crudapp.filestorage.service;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C and, optionally, SHA-256 of a byte stream, updated buffer by buffer as the bytes
+ * pass through, so checking integrity never needs a second read. Values are rendered the
+ * way S3 reports additional checksums: base64 of the big-endian digest. Not thread-safe;
+ * a reactive stream delivers its buffers serially anyway.
+ */
+final class StreamingChecksum {
+
+    private final CRC32C crc = new CRC32C();
+    private final MessageDigest sha256;
+
+    record Result(String crc32c, String sha256) {}
+
+    private StreamingChecksum(boolean withSha256) {
+        try {
+            this.sha256 = withSha256 ? MessageDigest.getInstance("SHA-256") : null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static StreamingChecksum full() {
+        return new StreamingChecksum(true);
+    }
+
+    static StreamingChecksum crc32c() {
+        return new StreamingChecksum(false);
+    }
+
+    /** Leaves the position of {@code bb} untouched. */
+    void update(ByteBuffer bb) {
+        crc.update(bb.duplicate());
+        if (sha256 != null) sha256.update(bb.duplicate());
+    }
+
+    /** Leaves the read position of {@code db} untouched. */
+    void update(DataBuffer db) {
+        try (DataBuffer.ByteBufferIterator it = db.readableByteBuffers()) {
+            while (it.hasNext()) update(it.next());
+        }
+    }
+
+    String crc32cValue() {
+        int v = (int) crc.getValue();
+        return Base64.getEncoder().encodeToString(new byte[]{
+                (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v});
+    }
+
+    /**
+     * Checks the CRC32C S3 reports for a stored object against ours. A store that does not
+     * support additional checksums reports none, which passes.
+     */
+    void verifyStored(String reported) {
+        if (reported != null && !reported.equals(crc32cValue())) {
+            // the orphaned object is left to the reconciler
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Checksum mismatch after upload");
+        }
+    }
+
+    Result result() {
+        return new Result(crc32cValue(),
+                sha256 != null ? Base64.getEncoder().encodeToString(sha256.digest()) : null);
+    }
+
+    /**
+     * Passes {@code body} through while computing its CRC32C, holding back the last buffer
+     * until the digest is known: a corrupted object fails the stream before the client has
+     * received all of it, and never makes it into the local cache. The held buffer is
+     * released on every terminal signal - mismatch, upstream error or cancel.
+     */
+    static Flux<DataBuffer> verified(Flux<DataBuffer> body, String expected, String key) {
+        return Flux.defer(() -> {
+            StreamingChecksum checksum = crc32c();
+            AtomicReference<DataBuffer> held = new AtomicReference<>();
+            return body
+                    .<DataBuffer>handle((db, sink) -> {
+                        checksum.update(db);
+                        DataBuffer previous = held.getAndSet(db);
+                        if (previous != null) sink.next(previous);
+                    })
+                    .concatWith(Mono.defer(() -> {
+                        DataBuffer last = held.getAndSet(null);
+                        if (expected.equals(checksum.crc32cValue())) return Mono.justOrEmpty(last);
+                        if (last != null) DataBufferUtils.release(last);
+                        return Mono.error(new ResponseStatusException(HttpStatus.BAD_GATEWAY,
+                                "Checksum mismatch reading " + key));
+                    }))
+                    .doFinally(signal -> {
+                        DataBuffer last = held.getAndSet(null);
+                        if (last != null) DataBufferUtils.release(last);
+                    });
+        });
+    }
+}
@@ -0,0 +1,350 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.config.ThumbnailProps;
+import com.crudapp.filestorage.model.FileStatus;
+import com.crudapp.filestorage.model.StorageFile;
+import com.crudapp.filestorage.repository.StorageFileRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Derives downscaled copies of uploaded images. New images are queued to a bounded set of
+ * workers that stream the original back from S3, decode it with ImageIO (subsampled while
+ * reading, so large photos never get decoded at full resolution) and store one object per
+ * configured size under {@code storage.thumbnails.prefix}{@code <file id>/<version>/<size>}. The
+ * generated sizes are recorded in {@code files.thumbnail_sizes}, only if the file is still at
+ * the version that was rendered: NULL means not generated yet, empty means the image could not
+ * be decoded. A job still rendering a replaced version thus never touches the new thumbnails.
+ *
+ * Thumbnails are served as presigned URLs, which are reused until half of their lifetime
+ * has passed. A request for an image without thumbnails queues it again, so anything lost
+ * to a full queue or a restart is generated on first use.
+ */
+@Component
+public class ThumbnailService {
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+    private static final int MAX_CACHED_URLS = 10_000;
+
+    private final S3AsyncClient s3;
+    private final S3Presigner presigner;
+    private final S3Props s3Props;
+    private final S3ClientPool pool;
+    private final ThumbnailProps props;
+    private final StorageFileRepository files;
+    private final ObjectLocations locations;
+
+    private final Sinks.Many<Task> queue;
+    private final Set<Task> inFlight = ConcurrentHashMap.newKeySet();
+    private final Disposable workers;
+    private final Map<String, SignedUrl> urls = new ConcurrentHashMap<>();
+
+    record Task(Integer fileId, int version, String bucket, String key) {}
+
+    record Thumb(int size, String contentType, byte[] bytes) {}
+
+    private record SignedUrl(String url, Instant refreshAt) {}
+
+    public ThumbnailService(S3AsyncClient s3, S3Presigner presigner, S3Props s3Props, S3ClientPool pool,
+                            ThumbnailProps props, StorageFileRepository files, ObjectLocations locations) {
+        this.s3 = s3;
+        this.presigner = presigner;
+        this.s3Props = s3Props;
+        this.pool = pool;
+        this.props = props;
+        this.files = files;
+        this.locations = locations;
+        this.queue = Sinks.many().unicast().onBackpressureBuffer(new ArrayBlockingQueue<>(props.getQueueCapacity()));
+        this.workers = props.isEnabled()
+                ? queue.asFlux().flatMap(this::generate, props.getWorkers()).subscribe()
+                : null;
+    }
+
+    public boolean accepts(String contentType, long size) {
+        return props.isEnabled()
+                && contentType != null && contentType.startsWith("image/")
+                && size > 0 && size <= props.getMaxSourceSize().toBytes();
+    }
+
+    /**
+     * Queues an ACTIVE file for thumbnail generation if it is an image. Never blocks.
+     * The source is read from {@code bucket}; thumbnails always go to the main bucket.
+     * Encrypted files are skipped: their thumbnails would be stored in plaintext.
+     */
+    public void submit(Integer fileId, int version, String bucket, String key, String contentType, long size,
+                       boolean encrypted) {
+        Task task = new Task(fileId, version, bucket, key);
+        if (encrypted || !accepts(contentType, size) || !inFlight.add(task)) return;
+        Sinks.EmitResult result;
+        synchronized (queue) {
+            result = queue.tryEmitNext(task);
+        }
+        if (result.isFailure()) {
+            // generated on the first thumbnail request instead
+            inFlight.remove(task);
+            log.debug("Thumbnail queue rejected file {}: {}", fileId, result);
+        }
+    }
+
+    public void submit(StorageFile sf) {
+        submit(sf.getId(), sf.getVersion(), locations.bucket(sf.getBucket(), sf.getTier()), sf.getObjectKey(),
+                sf.getContentType(), sf.getSizeBytes(), sf.getEncryptionKey() != null);
+    }
+
+    /**
+     * Presigned URL of the smallest thumbnail at least {@code size} pixels on its longer edge,
+     * or of the largest one if none is that big.
+     */
+    public Mono<String> url(StorageFile sf, int size) {
+        List<Integer> sizes = sizes(sf.getThumbnailSizes());
+        if (sizes.isEmpty()) {
+            if (sf.getThumbnailSizes() == null && sf.getEncryptionKey() == null
+                    && accepts(sf.getContentType(), sf.getSizeBytes())) {
+                submit(sf);
+                return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "Thumbnail not ready"));
+            }
+            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "No thumbnail for this file"));
+        }
+        int pick = sizes.stream()
+                .filter(s -> s >= size)
+                .findFirst()
+                .orElse(sizes.get(sizes.size() - 1));
+        return Mono.fromCallable(() -> presign(key(sf.getId(), sf.getVersion(), pick)));
+    }
+
+    /** Deletes the thumbnails of a file, best-effort. */
+    public Mono<Void> delete(StorageFile sf) {
+        List<Integer> sizes = sizes(sf.getThumbnailSizes());
+        if (sizes.isEmpty()) return Mono.empty();
+        return delete(sf.getId(), sf.getVersion(), sizes);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (workers != null) workers.dispose();
+    }
+
+    private Mono<Void> generate(Task task) {
+        return Mono.fromCallable(() -> render(task.bucket(), task.key()))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(thumbs -> Flux.fromIterable(thumbs)
+                        .concatMap(t -> put(task.fileId(), task.version(), t))
+                        .then(Mono.fromCallable(() -> files.updateThumbnailSizes(task.fileId(), task.version(),
+                                        FileStatus.ACTIVE,
+                                        thumbs.stream().map(t -> String.valueOf(t.size())).collect(Collectors.joining(","))))
+                                .subscribeOn(Schedulers.boundedElastic()))
+                        // deleted or replaced while we were rendering: drop what we have just written
+                        .flatMap(updated -> updated > 0 || thumbs.isEmpty()
+                                ? Mono.<Void>empty()
+                                : delete(task.fileId(), task.version(), thumbs.stream().map(Thumb::size).toList())))
+                .onErrorResume(e -> {
+                    log.warn("Thumbnail generation for file {} failed", task.fileId(), e);
+                    return Mono.empty();
+                })
+                .doFinally(s -> inFlight.remove(task))
+                .then();
+    }
+
+    /** Blocking. Returns no thumbnails for formats ImageIO cannot read and for oversized images. */
+    List<Thumb> render(String bucket, String key) throws IOException {
+        var req = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build();
+        BufferedImage source;
+        try (InputStream in = pool.client(bucket).getObject(req, AsyncResponseTransformer.toBlockingInputStream()).join();
+             ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            source = decode(iis, key);
+        }
+        if (source == null) return List.of();
+
+        List<Integer> sizes = props.getSizes().stream()
+                .distinct()
+                .sorted(Comparator.reverseOrder())
+                .toList();
+        List<Thumb> thumbs = new ArrayList<>(sizes.size());
+        BufferedImage current = source;
+        for (int size : sizes) {
+            // halve step by step: a single bilinear pass over a large ratio aliases badly
+            while (edge(current) > 2 * size) {
+                current = resize(current, edge(current) / 2);
+            }
+            thumbs.add(encode(resize(current, size), size));
+        }
+        thumbs.sort(Comparator.comparingInt(Thumb::size));
+        return thumbs;
+    }
+
+    private BufferedImage decode(ImageInputStream iis, String key) {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if (!readers.hasNext()) return null;
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(iis, true, true);
+            int w = reader.getWidth(0);
+            int h = reader.getHeight(0);
+            if ((long) w * h > props.getMaxPixels()) {
+                log.info("Skipping thumbnails of {}: {}x{} pixels", key, w, h);
+                return null;
+            }
+            int largest = props.getSizes().stream().mapToInt(Integer::intValue).max().orElse(w);
+            int step = Math.max(1, Math.max(w, h) / (2 * largest));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            return reader.read(0, param);
+        } catch (IOException | RuntimeException e) {
+            log.info("Cannot decode {} for thumbnails: {}", key, e.toString());
+            return null;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private Thumb encode(BufferedImage img, int size) throws IOException {
+        var out = new ByteArrayOutputStream();
+        if (img.getColorModel().hasAlpha()) {
+            ImageIO.write(img, "png", out);
+            return new Thumb(size, "image/png", out.toByteArray());
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(props.getJpegQuality());
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return new Thumb(size, "image/jpeg", out.toByteArray());
+    }
+
+    // fits the image into an edge x edge box, never upscales
+    private static BufferedImage resize(BufferedImage src, int edge) {
+        double f = Math.min(1.0, (double) edge / edge(src));
+        int w = Math.max(1, (int) Math.round(src.getWidth() * f));
+        int h = Math.max(1, (int) Math.round(src.getHeight() * f));
+        boolean alpha = src.getColorModel().hasAlpha();
+        BufferedImage out = new BufferedImage(w, h, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(src, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    private static int edge(BufferedImage img) {
+        return Math.max(img.getWidth(), img.getHeight());
+    }
+
+    private Mono<Void> put(Integer fileId, int version, Thumb t) {
+        var req = PutObjectRequest.builder()
+                .bucket(s3Props.getBucket())
+                .key(key(fileId, version, t.size()))
+                .contentType(t.contentType())
+                .build();
+        return Mono.fromFuture(() -> s3.putObject(req, AsyncRequestBody.fromBytes(t.bytes()))).then();
+    }
+
+    private Mono<Void> delete(Integer fileId, int version, List<Integer> sizes) {
+        List<ObjectIdentifier> ids = sizes.stream()
+                .map(s -> key(fileId, version, s))
+                .peek(urls::remove)
+                .map(k -> ObjectIdentifier.builder().key(k).build())
+                .toList();
+        var req = DeleteObjectsRequest.builder()
+                .bucket(s3Props.getBucket())
+                .delete(Delete.builder().objects(ids).quiet(true).build())
+                .build();
+        return Mono.fromFuture(() -> s3.deleteObjects(req))
+                .onErrorResume(e -> {
+                    log.warn("Failed to delete thumbnails of file {}", fileId, e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private String presign(String key) {
+        Instant now = Instant.now();
+        SignedUrl cached = urls.get(key);
+        if (cached != null && now.isBefore(cached.refreshAt())) return cached.url();
+
+        var presignReq = GetObjectPresignRequest.builder()
+                .getObjectRequest(GetObjectRequest.builder()
+                        .bucket(s3Props.getBucket())
+                        .key(key)
+                        .build())
+                .signatureDuration(props.getUrlTtl())
+                .build();
+        String url = presigner.presignGetObject(presignReq).url().toString();
+        if (urls.size() >= MAX_CACHED_URLS) {
+            urls.values().removeIf(u -> !now.isBefore(u.refreshAt()));
+            if (urls.size() >= MAX_CACHED_URLS) urls.clear();
+        }
+        urls.put(key, new SignedUrl(url, now.plus(props.getUrlTtl().dividedBy(2))));
+        return url;
+    }
+
+    private String key(Integer fileId, int version, int size) {
+        return props.getPrefix() + fileId + "/" + version + "/" + size;
+    }
+
+    private static List<Integer> sizes(String csv) {
+        if (!StringUtils.hasText(csv)) return List.of();
+        return Arrays.stream(csv.split(","))
+                .map(Integer::valueOf)
+                .sorted()
+                .toList();
+    }
+}
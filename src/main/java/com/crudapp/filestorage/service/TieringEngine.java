@@ -0,0 +1,139 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.TieringProps;
+import com.crudapp.filestorage.model.StorageTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.StorageClass;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves ACTIVE files nobody has downloaded for {@code storage.tiering.coldAfter} to the cold
+ * tier. Each move is a server-side CopyObject - into the cold bucket, or onto itself with the
+ * cold storage class - so no bytes pass through this service; batches run with at most
+ * {@code concurrency} copies in flight. The row flips to COLD only if it still points at the
+ * copied object, and only then is the hot copy removed.
+ *
+ * ARCHIVED files are not moved: their objects are deleted by delete() and the reconciler.
+ * Objects above the single CopyObject limit (5 GB) stay hot, and so do public files: their
+ * reads go to the CDN and never reach the access log, and a move would break the CDN URL.
+ */
+@Component
+public class TieringEngine {
+    private static final Logger log = LoggerFactory.getLogger(TieringEngine.class);
+    private static final long MAX_COPY_BYTES = 5L * 1024 * 1024 * 1024 - 1024 * 1024;
+
+    private final JdbcTemplate jdbc;
+    private final S3ClientPool s3;
+    private final TieringProps props;
+    private final ObjectLocations locations;
+    private final ObjectCache cache;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    record Candidate(Integer id, String bucket, String key) {}
+
+    public TieringEngine(DataSource dataSource, S3ClientPool s3, TieringProps props,
+                         ObjectLocations locations, ObjectCache cache) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.s3 = s3;
+        this.props = props;
+        this.locations = locations;
+        this.cache = cache;
+    }
+
+    @Scheduled(fixedDelayString = "${storage.tiering.interval:PT1H}",
+            initialDelayString = "${storage.tiering.initialDelay:PT15M}")
+    public void scheduled() {
+        if (props.isEnabled()) run();
+    }
+
+    public void run() {
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            long moved = 0;
+            while (true) {
+                List<Candidate> batch = candidates();
+                long ok = Flux.fromIterable(batch)
+                        .flatMap(this::move, props.getConcurrency())
+                        .filter(Boolean::booleanValue)
+                        .count()
+                        .block();
+                moved += ok;
+                // a short batch is the last one; failures are retried on the next run
+                if (batch.size() < props.getBatchSize() || ok < batch.size()) break;
+            }
+            if (moved > 0) log.info("Tiering: moved {} files to the cold tier", moved);
+        } catch (Exception e) {
+            log.warn("Tiering run failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private List<Candidate> candidates() {
+        return jdbc.query("""
+                        select f.id, f.bucket, f.object_key from files f
+                        where f.status = 'ACTIVE' and f.tier = 'HOT' and f.last_accessed_at < ?
+                          and f.size_bytes <= ? and f.public_read = false
+                        order by f.last_accessed_at
+                        limit ?
+                        """,
+                (rs, i) -> new Candidate(rs.getInt(1), rs.getString(2), rs.getString(3)),
+                Timestamp.from(Instant.now().minus(props.getColdAfter())), MAX_COPY_BYTES, props.getBatchSize());
+    }
+
+    private Mono<Boolean> move(Candidate c) {
+        String key = c.key();
+        String hot = locations.bucket(c.bucket(), StorageTier.HOT);
+        String cold = locations.bucket(c.bucket(), StorageTier.COLD);
+        boolean separate = !hot.equals(cold);
+        var copy = CopyObjectRequest.builder()
+                .sourceBucket(hot)
+                .sourceKey(key)
+                .destinationBucket(cold)
+                .destinationKey(key)
+                .storageClass(StorageClass.fromValue(props.getStorageClass()))
+                .metadataDirective(MetadataDirective.COPY)
+                .build();
+        return Mono.fromFuture(() -> s3.client(hot).copyObject(copy))
+                .then(Mono.fromCallable(() -> jdbc.update("""
+                                update files set tier = 'COLD'
+                                where id = ? and tier = 'HOT' and status = 'ACTIVE' and bucket = ? and object_key = ?
+                                """, c.id(), c.bucket(), key))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .flatMap(updated -> {
+                    if (!separate) return Mono.just(updated > 0);
+                    // moved: drop the hot copy; lost a race with a replace or delete: drop ours
+                    String bucket = updated > 0 ? hot : cold;
+                    if (updated > 0) cache.invalidate(hot, key);
+                    return Mono.fromFuture(() -> s3.client(hot).deleteObject(DeleteObjectRequest.builder()
+                                    .bucket(bucket)
+                                    .key(key)
+                                    .build()))
+                            .onErrorResume(e -> {
+                                log.warn("Tiering: failed to delete {}/{}", bucket, key, e);
+                                return Mono.empty();
+                            })
+                            .thenReturn(updated > 0);
+                })
+                .onErrorResume(e -> {
+                    log.warn("Tiering: failed to move file {}", c.id(), e);
+                    return Mono.just(false);
+                });
+    }
+}
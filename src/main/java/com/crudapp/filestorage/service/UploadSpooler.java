@@ -0,0 +1,239 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.config.SpoolProps;
+import com.crudapp.filestorage.model.FileStatus;
+import com.crudapp.filestorage.model.StorageFile;
+import com.crudapp.filestorage.repository.StorageFileRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Decouples the client upload from the S3 PUT: the body is written to a local spool file,
+ * the file row is stored as PENDING and the PUT runs later on a bounded set of workers.
+ * A periodic sweep re-submits PENDING files whose push failed, overflowed the queue or was
+ * interrupted by a restart.
+ */
+@Component
+public class UploadSpooler {
+    private static final Logger log = LoggerFactory.getLogger(UploadSpooler.class);
+    private static final String SPOOL_SUFFIX = ".spool";
+    private static final String PART_SUFFIX = ".part";
+
+    private final S3ClientPool s3;
+    private final S3Props s3Props;
+    private final SpoolProps props;
+    private final StorageFileRepository files;
+    private final ThumbnailService thumbnails;
+    private final Path dir;
+
+    private final Sinks.Many<SpoolTask> queue;
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+    private final Disposable workers;
+
+    record SpoolTask(Integer fileId, String bucket, String key, String contentType, String crc32c, boolean encrypted,
+                     Path path) {}
+
+    public UploadSpooler(S3ClientPool s3, S3Props s3Props, SpoolProps props,
+                         StorageFileRepository files, ThumbnailService thumbnails) throws IOException {
+        this.s3 = s3;
+        this.s3Props = s3Props;
+        this.props = props;
+        this.files = files;
+        this.thumbnails = thumbnails;
+        this.queue = Sinks.many().unicast().onBackpressureBuffer(new ArrayBlockingQueue<>(props.getQueueCapacity()));
+        if (props.isEnabled()) {
+            if (props.getDir() == null || props.getDir().isBlank()) {
+                throw new IllegalStateException("storage.spool.dir is required when the spool is enabled");
+            }
+            this.dir = Path.of(props.getDir());
+            Files.createDirectories(dir);
+            this.workers = queue.asFlux()
+                    .flatMap(this::push, props.getWorkers())
+                    .subscribe();
+        } else {
+            this.dir = null;
+            this.workers = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    /** Streams {@code content} into a new spool file through an {@link AsynchronousFileChannel}. */
+    public Mono<Path> spool(Flux<DataBuffer> content) {
+        Path tmp = dir.resolve(UUID.randomUUID() + PART_SUFFIX);
+        return Mono.using(
+                        () -> AsynchronousFileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                        ch -> DataBufferUtils.write(content, ch)
+                                .map(DataBufferUtils::release)
+                                .then(Mono.just(tmp)),
+                        ch -> {
+                            try {
+                                ch.close();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                .doOnError(e -> deleteQuietly(tmp))
+                .doOnCancel(() -> deleteQuietly(tmp));
+    }
+
+    /**
+     * Hands a spooled file over to the workers. {@code sf} must already be stored as PENDING;
+     * when this throws, the file never reached the spool and the caller must retire the row.
+     */
+    public void submit(StorageFile sf, Path spooled) {
+        Path target = spoolPath(sf.getId());
+        try {
+            Files.move(spooled, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        enqueue(task(sf, target));
+    }
+
+    public Optional<Path> spooled(Integer fileId) {
+        if (dir == null) return Optional.empty();
+        Path p = spoolPath(fileId);
+        return Files.exists(p) ? Optional.of(p) : Optional.empty();
+    }
+
+    @Scheduled(fixedDelayString = "${storage.spool.sweepInterval:PT1M}")
+    public void sweep() {
+        if (!props.isEnabled()) return;
+        Instant staleBefore = Instant.now().minus(Duration.ofHours(1));
+        try (Stream<Path> listing = Files.list(dir)) {
+            listing.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.endsWith(PART_SUFFIX)) {
+                    if (lastModified(p).isBefore(staleBefore)) deleteQuietly(p);
+                    return;
+                }
+                if (!name.endsWith(SPOOL_SUFFIX)) return;
+                Integer fileId;
+                try {
+                    fileId = Integer.valueOf(name.substring(0, name.length() - SPOOL_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in the spool directory", p);
+                    return;
+                }
+                if (inFlight.contains(fileId)) return;
+                StorageFile sf = files.findById(fileId).orElse(null);
+                if (sf == null || sf.getStatus() != FileStatus.PENDING) {
+                    deleteQuietly(p);
+                    return;
+                }
+                enqueue(task(sf, p));
+            });
+        } catch (IOException e) {
+            log.warn("Spool sweep failed", e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (workers != null) workers.dispose();
+    }
+
+    private static SpoolTask task(StorageFile sf, Path path) {
+        String contentType = sf.getContentType() != null ? sf.getContentType() : "application/octet-stream";
+        return new SpoolTask(sf.getId(), sf.getBucket(), sf.getObjectKey(), contentType, sf.getChecksumCrc32c(),
+                sf.getEncryptionKey() != null, path);
+    }
+
+    private void enqueue(SpoolTask task) {
+        if (!inFlight.add(task.fileId())) return;
+        Sinks.EmitResult result;
+        synchronized (queue) {
+            result = queue.tryEmitNext(task);
+        }
+        if (result.isFailure()) {
+            // queue full: the row stays PENDING and the next sweep picks it up
+            inFlight.remove(task.fileId());
+            log.warn("Spool queue rejected file {}: {}", task.fileId(), result);
+        }
+    }
+
+    private Mono<Void> push(SpoolTask task) {
+        var builder = PutObjectRequest.builder()
+                .bucket(task.bucket())
+                .key(task.key())
+                .contentType(task.contentType());
+        // the digest is known before the PUT here, so S3 checks it against the body it receives
+        if (s3Props.isChecksums() && task.crc32c() != null) builder.checksumCRC32C(task.crc32c());
+        var req = builder.build();
+        return Mono.defer(() -> Mono.fromFuture(s3.client(task.bucket()).putObject(req, AsyncRequestBody.fromFile(task.path()))))
+                .retryWhen(Retry.backoff(props.getMaxAttempts() - 1, props.getBackoff()))
+                .then(Mono.fromCallable(() -> files.updateStatus(task.fileId(), FileStatus.PENDING, FileStatus.ACTIVE))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .flatMap(updated -> updated > 0
+                        // a pending file cannot be replaced yet, so it is still at version 1
+                        ? Mono.<Void>fromRunnable(() -> thumbnails.submit(task.fileId(), 1, task.bucket(), task.key(),
+                                task.contentType(), task.path().toFile().length(), task.encrypted()))
+                        // deleted while pending: drop the object we have just written
+                        : Mono.fromFuture(s3.client(task.bucket()).deleteObject(DeleteObjectRequest.builder()
+                                .bucket(task.bucket())
+                                .key(task.key())
+                                .build())).then())
+                .then(Mono.fromRunnable(() -> deleteQuietly(task.path())))
+                .onErrorResume(e -> {
+                    log.warn("Spooled upload of file {} failed, leaving it PENDING", task.fileId(), e);
+                    return Mono.empty();
+                })
+                .doFinally(s -> inFlight.remove(task.fileId()))
+                .then();
+    }
+
+    private Path spoolPath(Integer fileId) {
+        return dir.resolve(fileId + SPOOL_SUFFIX);
+    }
+
+    private static Instant lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toInstant();
+        } catch (IOException e) {
+            return Instant.now();
+        }
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException e) {
+            log.warn("Failed to delete spool file {}", p, e);
+        }
+    }
+}
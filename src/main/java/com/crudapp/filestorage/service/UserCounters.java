@@ -0,0 +1,56 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.model.EventStatus;
+import com.crudapp.filestorage.repository.UserCounterRepository;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-user totals kept next to the rows they count, so paged listings can report a total
+ * without running {@code count(*)}. Updates must run in the transaction that writes the rows.
+ * Files without an owner are counted under {@link #NO_OWNER}, so sums over all users match
+ * the table; events without a user are not listed and not counted.
+ */
+@Component
+public class UserCounters {
+    // no user has id 0
+    public static final int NO_OWNER = 0;
+    public static final String FILES = "files";
+    public static final String ACTIVE_FILES = "files.active";
+    // bytes of files that are not ARCHIVED
+    public static final String BYTES = "bytes";
+    private static final String EVENTS = "events.";
+
+    private final UserCounterRepository repo;
+
+    public UserCounters(UserCounterRepository repo) {
+        this.repo = repo;
+    }
+
+    public void add(Integer userId, String counter, long delta) {
+        if (delta == 0) return;
+        repo.add(userId != null ? userId : NO_OWNER, counter, delta);
+    }
+
+    public void event(Integer userId, EventStatus status) {
+        events(userId, status.name(), 1);
+    }
+
+    public void events(Integer userId, String status, long delta) {
+        if (userId == null) return;
+        add(userId, EVENTS + status, delta);
+    }
+
+    /** {@code userId == null} sums over all users. */
+    public long get(Integer userId, String counter) {
+        return repo.sum(userId, counter);
+    }
+
+    /** Number of events of {@code status}, or of any status when it is null. */
+    public long events(Integer userId, EventStatus status) {
+        return repo.sum(userId, EVENTS + (status != null ? status.name() : "%"));
+    }
+
+    public void deleteUser(Integer userId) {
+        repo.deleteByUser(userId);
+    }
+}
@@ -0,0 +1,100 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.model.StorageFile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a ZIP of several files. {@link ZipOutputStream} writes into
+ * {@link DataBufferUtils#outputStreamPublisher}, which blocks the writer thread whenever the
+ * client is not reading, so memory stays at a few chunks regardless of archive size.
+ * Entries are read one after another; within an entry the usual cache / parallel-range
+ * readers apply.
+ *
+ * The writer blocks - on the response, and on opening and reading every entry - so it only
+ * ever runs on a boundedElastic worker, never on an event loop thread.
+ */
+@Component
+public class ZipArchiver {
+    private static final int CHUNK = 64 * 1024;
+    private static final int PREFETCH = 4;
+
+    private final FileStorageService storage;
+
+    public ZipArchiver(FileStorageService storage) {
+        this.storage = storage;
+    }
+
+    public Flux<DataBuffer> zip(List<StorageFile> files) {
+        return Flux.from(DataBufferUtils.outputStreamPublisher(
+                out -> write(files, out),
+                DefaultDataBufferFactory.sharedInstance,
+                task -> Schedulers.boundedElastic().schedule(task),
+                CHUNK));
+    }
+
+    /** Blocking: runs on the boundedElastic worker {@link #zip} hands to the output stream publisher. */
+    private void write(List<StorageFile> files, OutputStream out) {
+        Set<String> names = new HashSet<>();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (StorageFile sf : files) {
+                FileContent content = storage.openContent(sf).block();
+                if (content == null) continue;
+                // compressing media and archives again only burns CPU
+                zip.setLevel(compressible(content.contentType()) ? Deflater.BEST_SPEED : Deflater.NO_COMPRESSION);
+                zip.putNextEntry(new ZipEntry(entryName(sf, names)));
+                // closing the stream cancels the body if the client went away mid-entry
+                try (Stream<DataBuffer> body = content.body().toStream(PREFETCH)) {
+                    body.forEach(db -> copy(db, zip));
+                }
+                zip.closeEntry();
+            }
+            zip.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void copy(DataBuffer db, OutputStream out) {
+        try (InputStream in = db.asInputStream(true)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // flat, unique names without path components, so extraction cannot escape its directory
+    private static String entryName(StorageFile sf, Set<String> used) {
+        String name = sf.getName().replaceAll("[/\\\\]", "_");
+        if (name.isBlank() || name.equals(".") || name.equals("..")) name = "file";
+        while (!used.add(name)) {
+            name = sf.getId() + "_" + name;
+        }
+        return name;
+    }
+
+    private static boolean compressible(String contentType) {
+        if (contentType == null) return true;
+        return contentType.startsWith("text/")
+                || contentType.contains("json")
+                || contentType.contains("xml")
+                || contentType.contains("javascript")
+                || contentType.equals("application/octet-stream");
+    }
+}
@@ -0,0 +1,7 @@
+ALTER TABLE files
+    ADD COLUMN size_bytes BIGINT NOT NULL DEFAULT 0 AFTER location,
+    ADD COLUMN content_type VARCHAR(255) NULL AFTER size_bytes;
+
+-- per-user override of the role quota (storage.quota.*); NULL means "use the role quota"
+ALTER TABLE users
+    ADD COLUMN quota_bytes BIGINT NULL;
@@ -0,0 +1,3 @@
+-- comma-separated edge lengths of the generated thumbnails (storage.thumbnails.*); NULL until generated
+ALTER TABLE files
+    ADD COLUMN thumbnail_sizes VARCHAR(64) NULL AFTER content_type;
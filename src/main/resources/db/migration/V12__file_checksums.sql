@@ -0,0 +1,4 @@
+-- base64 CRC32C / SHA-256 of the object bytes, computed while uploading; NULL for rows from before this
+ALTER TABLE files
+    ADD COLUMN checksum_crc32c VARCHAR(12) NULL AFTER content_type,
+    ADD COLUMN checksum_sha256 VARCHAR(64) NULL AFTER checksum_crc32c;
@@ -0,0 +1,5 @@
+-- envelope encryption (storage.encryption.*): the file's data key wrapped by the master key,
+-- and the plaintext frame size the object was sealed with; both NULL for plaintext objects
+ALTER TABLE files
+    ADD COLUMN encryption_key VARCHAR(128) NULL AFTER checksum_sha256,
+    ADD COLUMN encryption_frame_size INT NULL AFTER encryption_key;
@@ -0,0 +1,23 @@
+ALTER TABLE files
+    ADD COLUMN version INT NOT NULL DEFAULT 1 AFTER status;
+
+-- superseded contents of a file; the current one stays on the files row
+CREATE TABLE IF NOT EXISTS file_versions (
+  id INT PRIMARY KEY AUTO_INCREMENT,
+  file_id INT NOT NULL,
+  version INT NOT NULL,
+  location VARCHAR(500) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL,
+  size_bytes BIGINT NOT NULL,
+  content_type VARCHAR(255) NULL,
+  checksum_crc32c VARCHAR(12) NULL,
+  checksum_sha256 VARCHAR(64) NULL,
+  encryption_key VARCHAR(128) NULL,
+  encryption_frame_size INT NULL,
+  replaced_by INT NULL,
+  replaced_at DATETIME NOT NULL,
+  CONSTRAINT fk_file_versions_file FOREIGN KEY (file_id) REFERENCES files(id),
+  CONSTRAINT uq_file_versions_file_version UNIQUE (file_id, version)
+);
+
+-- the reconciler walks this next to idx_files_location
+CREATE INDEX idx_file_versions_location ON file_versions(location);
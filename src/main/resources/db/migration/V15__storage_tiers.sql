@@ -0,0 +1,11 @@
+-- storage.tiering.*: COLD objects live in the cold bucket (or the cold storage class);
+-- last_accessed_at is written behind in batches by the access log
+ALTER TABLE files
+    ADD COLUMN tier VARCHAR(16) NOT NULL DEFAULT 'HOT' AFTER version,
+    ADD COLUMN last_accessed_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP AFTER tier;
+
+ALTER TABLE file_versions
+    ADD COLUMN tier VARCHAR(16) NOT NULL DEFAULT 'HOT' AFTER location;
+
+-- candidates for the cold tier, least recently used first
+CREATE INDEX idx_files_status_tier_access ON files(status, tier, last_accessed_at);
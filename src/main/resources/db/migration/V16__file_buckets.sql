@@ -0,0 +1,7 @@
+-- bucket chosen by the bucket router when the object was written;
+-- NULL for rows from before sharding, which all live in the main bucket (s3.bucket)
+ALTER TABLE files
+    ADD COLUMN bucket VARCHAR(63) NULL AFTER location;
+
+ALTER TABLE file_versions
+    ADD COLUMN bucket VARCHAR(63) NULL AFTER location;
@@ -0,0 +1,44 @@
+-- objects are addressed by bucket + key; public URLs are built from s3.publicBaseUrl when a
+-- file is serialized, so moving the base URL (e.g. behind a CDN) needs no data change.
+-- Stored locations are path-style, <s3.publicBaseUrl>/<bucket>/<key>, and the base URL may have
+-- a path of its own, so the key is whatever follows the first "/<bucket>/". Rows without a
+-- bucket are from before sharding and live in the main bucket, ${bucket} (s3.bucket).
+--
+-- location is dropped below, so first make sure every row parses: adding the CHECK fails the
+-- migration, before anything is changed, when some location does not contain its bucket.
+ALTER TABLE files
+    ADD CONSTRAINT chk_files_location_has_bucket
+        CHECK (LOCATE(CONCAT('/', COALESCE(bucket, '${bucket}'), '/'), location) > 0);
+ALTER TABLE file_versions
+    ADD CONSTRAINT chk_file_versions_location_has_bucket
+        CHECK (LOCATE(CONCAT('/', COALESCE(bucket, '${bucket}'), '/'), location) > 0);
+
+ALTER TABLE files
+    DROP CHECK chk_files_location_has_bucket,
+    ADD COLUMN object_key VARCHAR(500) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NULL AFTER bucket;
+
+UPDATE files SET bucket = '${bucket}' WHERE bucket IS NULL;
+UPDATE files SET object_key = SUBSTRING(location, LOCATE(CONCAT('/', bucket, '/'), location) + CHAR_LENGTH(bucket) + 2);
+
+ALTER TABLE files
+    MODIFY bucket VARCHAR(63) NOT NULL,
+    MODIFY object_key VARCHAR(500) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL,
+    DROP INDEX idx_files_location,
+    DROP COLUMN location;
+
+ALTER TABLE file_versions
+    DROP CHECK chk_file_versions_location_has_bucket,
+    ADD COLUMN object_key VARCHAR(500) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NULL AFTER bucket;
+
+UPDATE file_versions SET bucket = '${bucket}' WHERE bucket IS NULL;
+UPDATE file_versions SET object_key = SUBSTRING(location, LOCATE(CONCAT('/', bucket, '/'), location) + CHAR_LENGTH(bucket) + 2);
+
+ALTER TABLE file_versions
+    MODIFY bucket VARCHAR(63) NOT NULL,
+    MODIFY object_key VARCHAR(500) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL,
+    DROP INDEX idx_file_versions_location,
+    DROP COLUMN location;
+
+-- the reconciler walks each bucket in key order, in the byte order S3 lists keys in
+CREATE INDEX idx_files_bucket_key ON files(bucket, object_key);
+CREATE INDEX idx_file_versions_bucket_key ON file_versions(bucket, object_key);
@@ -0,0 +1,3 @@
+-- public files are served from storage.cdn.baseUrl with plain, unsigned URLs
+ALTER TABLE files
+    ADD COLUMN public_read BOOLEAN NOT NULL DEFAULT FALSE AFTER status;
@@ -0,0 +1,7 @@
+-- virtual folders as materialized paths: '/' is the root, '/photos/2024/' a folder two levels down.
+-- utf8mb4_bin orders paths byte-wise, so a subtree is the range [path, path with its last '/' bumped to '0')
+ALTER TABLE files
+    ADD COLUMN folder VARCHAR(512) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '/' AFTER name;
+
+-- listings of one folder by id, subtree ranges and the child-folder probes; status makes the probes index-only
+CREATE INDEX idx_files_owner_folder ON files(owner_id, folder, id, status);
@@ -0,0 +1,4 @@
+-- archives of a whole account: findAllByOwner_IdAndStatus ordered by id.
+-- Queries on status alone (the tiering candidates) use idx_files_status_tier_access, whose
+-- leading column is status; a separate (status) index would be a redundant prefix of it.
+CREATE INDEX idx_files_owner_status ON files(owner_id, status, id);
@@ -0,0 +1,7 @@
+-- DROP PARTITION commits on its own, so EventPartitionMaintainer subtracts the dropped events
+-- from user_counters first, in one transaction with a row here, and deletes the row after the
+-- drop. A row left behind by a crash names a partition whose counts are already subtracted.
+CREATE TABLE IF NOT EXISTS event_partition_drops (
+  partition_name VARCHAR(64) CHARACTER SET ascii COLLATE ascii_bin NOT NULL PRIMARY KEY,
+  created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
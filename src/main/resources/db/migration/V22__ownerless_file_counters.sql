@@ -0,0 +1,12 @@
+-- files without an owner (rows older than V4) are counted under user_id 0, which no user has,
+-- so the totals over all users (admin listings) match the table
+INSERT INTO user_counters(user_id, counter, amount)
+SELECT 0, 'files', COUNT(*) FROM files WHERE owner_id IS NULL HAVING COUNT(*) > 0;
+
+INSERT INTO user_counters(user_id, counter, amount)
+SELECT 0, 'files.active', COUNT(*) FROM files
+WHERE owner_id IS NULL AND status <> 'ARCHIVED' HAVING COUNT(*) > 0;
+
+INSERT INTO user_counters(user_id, counter, amount)
+SELECT 0, 'bytes', SUM(size_bytes) FROM files
+WHERE owner_id IS NULL AND status <> 'ARCHIVED' HAVING COUNT(*) > 0;
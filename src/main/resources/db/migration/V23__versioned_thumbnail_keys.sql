@@ -0,0 +1,4 @@
+-- thumbnails moved from <prefix><id>/<size> to <prefix><id>/<version>/<size>: forget the old ones,
+-- they are generated again on first request. The old objects are no longer read and can be
+-- removed in bulk (every key under the prefix with two path segments)
+UPDATE files SET thumbnail_sizes = NULL WHERE thumbnail_sizes <> '';
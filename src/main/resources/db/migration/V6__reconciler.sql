@@ -0,0 +1,10 @@
+ALTER TABLE files
+    MODIFY location VARCHAR(500) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL;
+
+CREATE INDEX idx_files_location ON files(location);
+
+CREATE TABLE IF NOT EXISTS reconciler_checkpoints (
+  name VARCHAR(64) PRIMARY KEY,
+  last_key VARCHAR(1024) NULL,
+  updated_at DATETIME NOT NULL
+);
@@ -0,0 +1,11 @@
+-- files: owner listings sorted by id (findAllByOwner_Id, existsByOwner_Id) need no index of
+-- their own: InnoDB appends the primary key to the fk_files_owner index, (owner_id) is (owner_id, id)
+
+-- events: EventRepository.findPaged / countPaged / existsByUser_Id,
+-- one index per filter shape, each covering the projected columns
+CREATE INDEX idx_events_user_status_created ON events(user_id, status, created_at, id, file_id);
+CREATE INDEX idx_events_user_created ON events(user_id, created_at, id, status, file_id);
+CREATE INDEX idx_events_status_created ON events(status, created_at, id, user_id, file_id);
+
+-- superseded by idx_events_user_created, which also backs fk_events_user
+DROP INDEX idx_events_user ON events;
@@ -0,0 +1,17 @@
+-- MySQL does not allow foreign keys on partitioned tables; integrity of user_id/file_id
+-- is kept by the application (events are only written next to their file row)
+ALTER TABLE events DROP FOREIGN KEY fk_events_user;
+ALTER TABLE events DROP FOREIGN KEY fk_events_file;
+
+-- every unique key of a partitioned table must contain the partitioning column
+ALTER TABLE events
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, created_at);
+
+-- all history so far goes into one partition; EventPartitionMaintainer splits p_max
+-- into monthly partitions ahead of time and exports/drops the expired ones
+ALTER TABLE events
+    PARTITION BY RANGE COLUMNS(created_at) (
+        PARTITION p_initial VALUES LESS THAN ('2026-11-01 00:00:00'),
+        PARTITION p_max VALUES LESS THAN (MAXVALUE)
+    );
@@ -0,0 +1,17 @@
+CREATE TABLE IF NOT EXISTS user_counters (
+  user_id INT NOT NULL,
+  counter VARCHAR(32) CHARACTER SET ascii COLLATE ascii_bin NOT NULL,
+  amount BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (user_id, counter)
+);
+
+INSERT INTO user_counters(user_id, counter, amount)
+SELECT owner_id, 'files', COUNT(*) FROM files WHERE owner_id IS NOT NULL GROUP BY owner_id;
+
+INSERT INTO user_counters(user_id, counter, amount)
+SELECT owner_id, 'files.active', COUNT(*) FROM files
+WHERE owner_id IS NOT NULL AND status <> 'ARCHIVED' GROUP BY owner_id;
+
+INSERT INTO user_counters(user_id, counter, amount)
+SELECT user_id, CONCAT('events.', status), COUNT(*) FROM events
+WHERE user_id IS NOT NULL GROUP BY user_id, status;
@@ -0,0 +1,141 @@
+package com.crudapp.filestorage;
+
+import com.crudapp.filestorage.config.EventPartitionProps;
+import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.service.EventPartitionMaintainer;
+import com.crudapp.filestorage.service.UserCounters;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs EventPartitionMaintainer against the migrated schema: partitions ahead of time at
+ * startup, and counters that are subtracted exactly once per dropped partition.
+ */
+@Testcontainers
+class EventPartitionMaintainerIT {
+
+    @Container
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.4")
+            .withDatabaseName("filestorage")
+            .withUsername("fs_user")
+            .withPassword("fs_pass_123");
+
+    static DriverManagerDataSource dataSource;
+    static JdbcTemplate jdbc;
+
+    @BeforeAll
+    static void migrate() {
+        dataSource = new DriverManagerDataSource(mysql.getJdbcUrl(), mysql.getUsername(), mysql.getPassword());
+        jdbc = new JdbcTemplate(dataSource);
+        Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration")
+                .placeholders(Map.of("bucket", "it-bucket"))
+                .load()
+                .migrate();
+    }
+
+    private static EventPartitionMaintainer maintainer(UserCounters counters) {
+        EventPartitionProps props = new EventPartitionProps();
+        props.setArchive(false);
+        return new EventPartitionMaintainer(dataSource, mock(S3AsyncClient.class), new S3Props(), props,
+                new ObjectMapper(), counters, new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+    }
+
+    // splits the range below `bound` off the partition holding it
+    private static void splitOff(String partition, String bound) {
+        var holder = jdbc.queryForMap("""
+                        select partition_name as name, partition_description as upper from information_schema.partitions
+                        where table_schema = database() and table_name = 'events'
+                          and (partition_description = 'MAXVALUE' or partition_description > ?)
+                        order by partition_ordinal_position limit 1
+                        """,
+                "'" + bound + "'");
+        jdbc.execute("ALTER TABLE events REORGANIZE PARTITION " + holder.get("name") + " INTO ("
+                + "PARTITION " + partition + " VALUES LESS THAN ('" + bound + "'), "
+                + "PARTITION " + holder.get("name") + " VALUES LESS THAN (" + holder.get("upper") + "))");
+    }
+
+    private static void event(int userId, String status, String createdAt) {
+        jdbc.update("insert into events(user_id, file_id, status, created_at) values (?, ?, ?, ?)",
+                userId, 1, status, Timestamp.valueOf(createdAt));
+    }
+
+    private static boolean exists(String partition) {
+        return jdbc.queryForObject("""
+                        select count(*) from information_schema.partitions
+                        where table_schema = database() and table_name = 'events' and partition_name = ?
+                        """,
+                Integer.class, partition) > 0;
+    }
+
+    @Test
+    void startup_adds_partitions_ahead_even_without_maintenance() {
+        maintainer(mock(UserCounters.class)).startup();
+
+        YearMonth now = YearMonth.now(ZoneOffset.UTC);
+        DateTimeFormatter name = DateTimeFormatter.ofPattern("'p'yyyyMM");
+        for (int m = 0; m <= new EventPartitionProps().getMonthsAhead(); m++) {
+            assertThat(exists(name.format(now.plusMonths(m)))).as("partition for %s", now.plusMonths(m)).isTrue();
+        }
+        jdbc.update("insert into events(user_id, file_id, status, created_at) values (1, 1, 'CREATED', ?)",
+                Timestamp.from(Instant.now()));
+        assertThat(jdbc.queryForObject("select count(*) from events partition (p_max)", Integer.class)).isZero();
+    }
+
+    @Test
+    void expired_partition_is_dropped_and_subtracted_once() {
+        splitOff("p200001", "2000-02-01 00:00:00");
+        event(101, "CREATED", "2000-01-10 10:00:00");
+        event(101, "CREATED", "2000-01-11 10:00:00");
+        event(102, "DELETED", "2000-01-12 10:00:00");
+        UserCounters counters = mock(UserCounters.class);
+
+        maintainer(counters).run();
+
+        assertThat(exists("p200001")).isFalse();
+        verify(counters).events(101, "CREATED", -2);
+        verify(counters).events(102, "DELETED", -1);
+        assertThat(jdbc.queryForObject("select count(*) from event_partition_drops", Integer.class)).isZero();
+    }
+
+    @Test
+    void interrupted_drop_is_finished_without_subtracting_again() {
+        splitOff("p199901", "1999-02-01 00:00:00");
+        event(103, "UPDATED", "1999-01-10 10:00:00");
+        // a crash after the counters were subtracted, before DROP PARTITION
+        jdbc.update("insert into event_partition_drops(partition_name) values ('p199901')");
+        UserCounters counters = mock(UserCounters.class);
+
+        maintainer(counters).run();
+
+        assertThat(exists("p199901")).isFalse();
+        verify(counters, never()).events(eq(103), anyString(), anyLong());
+        assertThat(jdbc.queryForObject("select count(*) from event_partition_drops", Integer.class)).isZero();
+    }
+}
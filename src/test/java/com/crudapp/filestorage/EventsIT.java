@@ -187,6 +187,7 @@ class EventsIT {
         assertThat(page).as("page из /events/paged не должен быть null").isNotNull();
         List<EventDto> content = page.content();
         assertThat(content).as("content не должен быть null").isNotNull();
+        assertThat(page.total()).as("total берётся из счётчиков user_counters").isEqualTo(3);
 
         List<EventDto> forFile = content.stream()
                 .filter(e -> Objects.equals(e.fileId(), uploaded.id()))
@@ -1,5 +1,8 @@
 package com.crudapp.filestorage;
 
+import com.crudapp.filestorage.model.StorageFile;
+import com.crudapp.filestorage.repository.StorageFileRepository;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -8,37 +11,52 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.MultipartBodyBuilder;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.http.MediaType;
 import org.testcontainers.containers.MySQLContainer;
 import org.testcontainers.containers.localstack.LocalStackContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @Testcontainers
 @ActiveProfiles("test")
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 class FilesIT {
 
-    record FileDto(Integer id, String name, String location, String status) {}
+    record FileDto(Integer id, String name, String location, String status, long size, String contentType) {}
 
     private static final String BUCKET = "it-bucket";
 
@@ -73,8 +91,13 @@ class FilesIT {
     @Autowired
     WebClient.Builder webClientBuilder;
 
+    @Autowired
+    StorageFileRepository files;
+
     WebClient client;
 
+    S3Client s3;
+
     @LocalServerPort
     int port;
 
@@ -86,7 +109,7 @@ class FilesIT {
                 .baseUrl("http://localhost:" + port)
                 .build();
 
-        S3Client s3 = S3Client.builder()
+        s3 = S3Client.builder()
                 .endpointOverride(localstack.getEndpointOverride(LocalStackContainer.Service.S3))
                 .credentialsProvider(StaticCredentialsProvider.create(
                         AwsBasicCredentials.create(localstack.getAccessKey(), localstack.getSecretKey())))
@@ -97,23 +120,30 @@ class FilesIT {
         } catch (Exception ignore) {}
     }
 
-    @Test
-    void register_login_upload_and_get() throws Exception {
-        var registerJson = client.post().uri("/auth/register")
+    /** Registers {@code username} and returns a client that sends its bearer token. */
+    private WebClient authenticatedClient(String username) throws Exception {
+        client.post().uri("/auth/register")
                 .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(Map.of("username", "ituser", "password", "pass123"))
+                .bodyValue(Map.of("username", username, "password", "pass123"))
                 .retrieve()
-                .bodyToMono(String.class)
+                .toBodilessEntity()
                 .block();
-
-        final String tokenJson = client.post().uri("/auth/login")
+        String tokenJson = client.post().uri("/auth/login")
                 .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(Map.of("username", "ituser", "password", "pass123"))
+                .bodyValue(Map.of("username", username, "password", "pass123"))
                 .retrieve()
                 .bodyToMono(String.class)
                 .block();
         String jwt = om.readTree(tokenJson).get("token").asText();
         assertThat(jwt).isNotBlank();
+        return client.mutate()
+                .defaultHeaders(h -> h.setBearerAuth(jwt))
+                .build();
+    }
+
+    @Test
+    void register_login_upload_and_get() throws Exception {
+        WebClient user = authenticatedClient("ituser");
 
         Path tmp = Files.createTempFile("hello", ".txt");
         Files.writeString(tmp, "hello");
@@ -122,8 +152,7 @@ class FilesIT {
         MultipartBodyBuilder mb = new MultipartBodyBuilder();
         mb.part("file", fsr);
 
-        String uploadRespJson = client.post().uri("/files")
-                .headers(h -> h.setBearerAuth(jwt))
+        String uploadRespJson = user.post().uri("/files")
                 .body(BodyInserters.fromMultipartData(mb.build()))
                 .retrieve()
                 .bodyToMono(String.class)
@@ -133,18 +162,17 @@ class FilesIT {
         assertThat(uploaded.name()).isEqualTo(fsr.getFilename());
         assertThat(uploaded.status()).isEqualTo("ACTIVE");
         assertThat(uploaded.location()).contains(BUCKET + "/u");
+        assertThat(uploaded.size()).isEqualTo(5);
 
-        FileDto fetched = client.get().uri("/files/{id}", uploaded.id())
-                .headers(h -> h.setBearerAuth(jwt))
+        FileDto fetched = user.get().uri("/files/{id}", uploaded.id())
                 .retrieve()
                 .bodyToMono(FileDto.class)
                 .block(Duration.ofSeconds(30));
         assertThat(fetched.id()).isEqualTo(uploaded.id());
         assertThat(fetched.status()).isNotBlank();
 
-        var clientResp = client.get()
+        var clientResp = user.get()
                 .uri("/files/{id}/download", uploaded.id())
-                .headers(h -> h.setBearerAuth(jwt))
                 .exchangeToMono(Mono::just)
                 .block(Duration.ofSeconds(30));
         assertThat(clientResp.statusCode().is3xxRedirection()).isTrue();
@@ -153,27 +181,415 @@ class FilesIT {
         assertThat(loc.get(0)).contains("http");
 
         String newName = "hello-renamed.txt";
-        FileDto renamed = client.put()
+        FileDto renamed = user.put()
                 .uri("/files/{id}", uploaded.id())
-                .headers(h -> h.setBearerAuth(jwt))
                 .bodyValue(Map.of("name", newName))
                 .retrieve()
                 .bodyToMono(FileDto.class)
                 .block(Duration.ofSeconds(30));
         assertThat(renamed.name()).isEqualTo(newName);
 
-        client.delete()
+        user.delete()
                 .uri("/files/{id}", uploaded.id())
-                .headers(h -> h.setBearerAuth(jwt))
                 .retrieve()
                 .toBodilessEntity()
                 .block(Duration.ofSeconds(30));
 
-        FileDto afterDelete = client.get().uri("/files/{id}", uploaded.id())
-                .headers(h -> h.setBearerAuth(jwt))
+        FileDto afterDelete = user.get().uri("/files/{id}", uploaded.id())
                 .retrieve()
                 .bodyToMono(FileDto.class)
                 .block(Duration.ofSeconds(30));
         assertThat(afterDelete.status()).isEqualTo("ARCHIVED");
     }
+
+    @Test
+    void archive_streams_zip_of_selected_files() throws Exception {
+        WebClient user = authenticatedClient("zipuser");
+
+        FileDto a = upload(user, "a.txt", "first");
+        FileDto b = upload(user, "a.txt", "second");
+
+        byte[] zip = user.post().uri("/files/archive")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("ids", List.of(a.id(), b.id())))
+                .retrieve()
+                .bodyToMono(byte[].class)
+                .block(Duration.ofSeconds(30));
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry e = in.getNextEntry(); e != null; e = in.getNextEntry()) {
+                entries.put(e.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertThat(entries).containsExactly(
+                Map.entry("a.txt", "first"),
+                Map.entry(b.id() + "_a.txt", "second"));
+    }
+
+    @Test
+    void batch_upload_returns_line_per_file() throws Exception {
+        WebClient user = authenticatedClient("batchuser");
+
+        MultipartBodyBuilder mb = new MultipartBodyBuilder();
+        for (int i = 0; i < 20; i++) {
+            mb.part("files", ("content " + i).getBytes(StandardCharsets.UTF_8))
+                    .filename("f" + i + ".txt")
+                    .contentType(MediaType.TEXT_PLAIN);
+        }
+        List<String> lines = user.post().uri("/files/batch")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(BodyInserters.fromMultipartData(mb.build()))
+                .retrieve()
+                .bodyToFlux(String.class)
+                .collectList()
+                .block(Duration.ofSeconds(60));
+
+        assertThat(lines).hasSize(20);
+        for (String line : lines) {
+            var node = om.readTree(line);
+            assertThat(node.get("error").isNull()).isTrue();
+            FileDto f = om.treeToValue(node.get("file"), FileDto.class);
+            assertThat(f.status()).isEqualTo("ACTIVE");
+            assertThat(f.name()).isEqualTo(node.get("name").asText());
+        }
+    }
+
+    @Test
+    void replacing_content_keeps_previous_version() throws Exception {
+        WebClient user = authenticatedClient("versionuser");
+
+        FileDto original = upload(user, "doc.txt", "v1");
+
+        FileDto replaced = replace(user, original.id(), "version two");
+        assertThat(replaced.id()).isEqualTo(original.id());
+        assertThat(replaced.size()).isEqualTo(11);
+        assertThat(replaced.location()).isNotEqualTo(original.location());
+
+        String versions = user.get().uri("/files/{id}/versions", original.id())
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(Duration.ofSeconds(30));
+        var page = om.readTree(versions);
+        assertThat(page.get("content")).hasSize(1);
+        assertThat(page.get("content").get(0).get("version").asInt()).isEqualTo(1);
+
+        String previous = user.get().uri("/files/{id}/versions/1/content", original.id())
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(Duration.ofSeconds(30));
+        assertThat(previous).isEqualTo("v1");
+    }
+
+    @Test
+    void renames_racing_a_replace_keep_the_new_content() throws Exception {
+        WebClient user = authenticatedClient("raceuser");
+        FileDto original = upload(user, "race.txt", "v1");
+
+        // read before a replace, saved after it: what rename, publish and delete used to do
+        StorageFile stale = files.findById(original.id()).orElseThrow();
+        replace(user, original.id(), "version two");
+        stale.setName("stale.txt");
+        files.save(stale);
+
+        // and over HTTP: renames and publishes while a replace streams (an unpublish moves the
+        // object, so it would turn the replace into a 409; that case has its own test)
+        Mono.when(
+                        Mono.fromCallable(() -> replace(user, original.id(), "version three"))
+                                .subscribeOn(Schedulers.boundedElastic()),
+                        Flux.range(0, 20).flatMap(i -> user.put().uri("/files/{id}", original.id())
+                                .bodyValue(Map.of("name", "race-" + i + ".txt"))
+                                .retrieve()
+                                .toBodilessEntity()),
+                        Flux.range(0, 10).concatMap(i -> user.put()
+                                .uri(b -> b.path("/files/{id}/public").queryParam("enabled", true).build(original.id()))
+                                .exchangeToMono(r -> r.releaseBody())))
+                .block(Duration.ofSeconds(60));
+
+        StorageFile row = files.findById(original.id()).orElseThrow();
+        assertThat(row.getVersion()).isEqualTo(3);
+        assertThat(row.getSizeBytes()).isEqualTo("version three".length());
+        assertThat(content(user, original.id(), null).getBody()).isEqualTo("version three");
+        for (Map.Entry<Integer, String> v : Map.of(1, "v1", 2, "version two").entrySet()) {
+            String body = user.get().uri("/files/{id}/versions/{v}/content", original.id(), v.getKey())
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .block(Duration.ofSeconds(30));
+            assertThat(body).as("version %d", v.getKey()).isEqualTo(v.getValue());
+        }
+    }
+
+    @Test
+    void unpublishing_moves_the_object_to_a_new_key() throws Exception {
+        WebClient user = authenticatedClient("unpublishuser");
+        FileDto f = upload(user, "shared.txt", "shared bytes");
+        setPublic(user, f.id(), true);
+        String publishedKey = files.findById(f.id()).orElseThrow().getObjectKey();
+
+        setPublic(user, f.id(), false);
+
+        // the CDN fetches with its own credentials: nothing may be left under the published key
+        StorageFile row = files.findById(f.id()).orElseThrow();
+        assertThat(row.isPublicRead()).isFalse();
+        assertThat(row.getObjectKey()).isNotEqualTo(publishedKey);
+        assertThatThrownBy(() -> s3.headObject(b -> b.bucket(BUCKET).key(publishedKey)))
+                .isInstanceOf(NoSuchKeyException.class);
+        assertThat(content(user, f.id(), null).getBody()).isEqualTo("shared bytes");
+
+        // a replace that read the published key is refused instead of recording it as a version
+        StorageFile stale = files.findById(f.id()).orElseThrow();
+        assertThat(files.replaceContent(stale.getId(), stale.getVersion(), stale.getTier(), publishedKey,
+                stale.getStatus(), BUCKET, "u/other", 1, "text/plain", null, null, null, null)).isZero();
+    }
+
+    @Test
+    void content_serves_single_ranges_with_206() throws Exception {
+        WebClient user = authenticatedClient("rangeuser");
+        FileDto f = upload(user, "digits.txt", "0123456789abcdef");
+
+        ResponseEntity<String> middle = content(user, f.id(), "bytes=2-5");
+        assertThat(middle.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(middle.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/16");
+        assertThat(middle.getHeaders().getContentLength()).isEqualTo(4);
+        assertThat(middle.getBody()).isEqualTo("2345");
+
+        ResponseEntity<String> open = content(user, f.id(), "bytes=10-");
+        assertThat(open.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(open.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 10-15/16");
+        assertThat(open.getBody()).isEqualTo("abcdef");
+
+        ResponseEntity<String> suffix = content(user, f.id(), "bytes=-3");
+        assertThat(suffix.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(suffix.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 13-15/16");
+        assertThat(suffix.getBody()).isEqualTo("def");
+
+        // an end past the length is clamped to the last byte
+        ResponseEntity<String> clamped = content(user, f.id(), "bytes=14-100");
+        assertThat(clamped.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 14-15/16");
+        assertThat(clamped.getBody()).isEqualTo("ef");
+
+        ResponseEntity<String> whole = content(user, f.id(), null);
+        assertThat(whole.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(whole.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(whole.getHeaders().getContentLength()).isEqualTo(16);
+        assertThat(whole.getBody()).isEqualTo("0123456789abcdef");
+    }
+
+    @Test
+    void content_rejects_unsatisfiable_ranges_with_416() throws Exception {
+        WebClient user = authenticatedClient("range416user");
+        FileDto f = upload(user, "digits.txt", "0123456789abcdef");
+
+        for (String range : List.of("bytes=16-", "bytes=100-200")) {
+            ResponseEntity<String> r = content(user, f.id(), range);
+            assertThat(r.getStatusCode()).as(range).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            assertThat(r.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).as(range).isEqualTo("bytes */16");
+            assertThat(r.getBody()).as(range).isNull();
+        }
+    }
+
+    @Test
+    void content_answers_multiple_or_malformed_ranges_with_the_whole_body() throws Exception {
+        WebClient user = authenticatedClient("multirangeuser");
+        FileDto f = upload(user, "digits.txt", "0123456789abcdef");
+
+        // multipart/byteranges is not produced: the full representation is a valid answer
+        for (String range : List.of("bytes=0-1,4-5", "bytes=abc")) {
+            ResponseEntity<String> r = content(user, f.id(), range);
+            assertThat(r.getStatusCode()).as(range).isEqualTo(HttpStatus.OK);
+            assertThat(r.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).as(range).isNull();
+            assertThat(r.getBody()).as(range).isEqualTo("0123456789abcdef");
+        }
+    }
+
+    @Test
+    void concurrent_lookups_of_one_file_share_nothing_after_they_finish() throws Exception {
+        WebClient user = authenticatedClient("flightuser");
+        FileDto f = upload(user, "shared.txt", "x");
+
+        List<FileDto> seen = Flux.range(0, 50)
+                .flatMap(i -> user.get().uri("/files/{id}", f.id())
+                        .retrieve()
+                        .bodyToMono(FileDto.class), 50)
+                .collectList()
+                .block(Duration.ofSeconds(30));
+        assertThat(seen).hasSize(50).allSatisfy(d -> {
+            assertThat(d.id()).isEqualTo(f.id());
+            assertThat(d.name()).isEqualTo("shared.txt");
+        });
+
+        // the coalesced lookup is gone once it completed: a rename is visible right away
+        user.put().uri("/files/{id}", f.id())
+                .bodyValue(Map.of("name", "renamed.txt"))
+                .retrieve()
+                .toBodilessEntity()
+                .block(Duration.ofSeconds(30));
+        FileDto after = user.get().uri("/files/{id}", f.id())
+                .retrieve()
+                .bodyToMono(FileDto.class)
+                .block(Duration.ofSeconds(30));
+        assertThat(after.name()).isEqualTo("renamed.txt");
+
+        // a shared miss is a 404 for every caller
+        List<Integer> missing = Flux.range(0, 20)
+                .flatMap(i -> user.get().uri("/files/{id}", Integer.MAX_VALUE)
+                        .retrieve()
+                        .toBodilessEntity()
+                        .map(r -> r.getStatusCode().value())
+                        .onErrorResume(WebClientResponseException.class, e -> Mono.just(e.getStatusCode().value())), 20)
+                .collectList()
+                .block(Duration.ofSeconds(30));
+        assertThat(missing).hasSize(20).containsOnly(404);
+    }
+
+    @Test
+    void folder_listing_shows_one_level_of_subfolders_and_files() throws Exception {
+        WebClient user = authenticatedClient("treeuser");
+        FileDto top = upload(user, "/", "top.txt", "t");
+        FileDto a = upload(user, "docs", "a.txt", "a");
+        upload(user, "docs/2024/q1", "b.txt", "b");
+        upload(user, "docs/2025", "c.txt", "c");
+
+        JsonNode root = tree(user, "/");
+        assertThat(root.get("path").asText()).isEqualTo("/");
+        assertThat(texts(root.get("folders"))).containsExactly("/docs/");
+        assertThat(ids(root.get("files"))).containsExactly(top.id());
+
+        JsonNode docs = tree(user, "docs");
+        assertThat(docs.get("path").asText()).isEqualTo("/docs/");
+        assertThat(texts(docs.get("folders"))).containsExactly("/docs/2024/", "/docs/2025/");
+        assertThat(ids(docs.get("files"))).containsExactly(a.id());
+
+        // another user sees none of it
+        assertThat(texts(tree(authenticatedClient("treeother"), "/").get("folders"))).isEmpty();
+    }
+
+    @Test
+    void moving_a_folder_rewrites_the_path_of_everything_below_it() throws Exception {
+        WebClient user = authenticatedClient("moveuser");
+        FileDto direct = upload(user, "docs/2024", "direct.txt", "d");
+        FileDto deep = upload(user, "docs/2024/q1/march", "deep.txt", "e");
+        FileDto sibling = upload(user, "docs/2024x", "sibling.txt", "s");
+        FileDto other = upload(user, "docs/2024-old", "other.txt", "o");
+
+        JsonNode result = moveFolder(user, "docs/2024", "archive/old").getBody();
+        assertThat(result.get("from").asText()).isEqualTo("/docs/2024/");
+        assertThat(result.get("to").asText()).isEqualTo("/archive/old/");
+        assertThat(result.get("moved").asInt()).isEqualTo(2);
+
+        JsonNode moved = tree(user, "archive/old");
+        assertThat(texts(moved.get("folders"))).containsExactly("/archive/old/q1/");
+        assertThat(ids(moved.get("files"))).containsExactly(direct.id());
+        assertThat(ids(tree(user, "archive/old/q1/march").get("files"))).containsExactly(deep.id());
+
+        // folders whose names only start like the moved one stay where they were
+        JsonNode docs = tree(user, "docs");
+        assertThat(texts(docs.get("folders"))).containsExactly("/docs/2024-old/", "/docs/2024x/");
+        assertThat(ids(tree(user, "docs/2024x").get("files"))).containsExactly(sibling.id());
+        assertThat(ids(tree(user, "docs/2024-old").get("files"))).containsExactly(other.id());
+        assertThat(ids(tree(user, "docs/2024/q1/march").get("files"))).isEmpty();
+
+        assertThat(moveFolder(user, "archive", "archive/old/inner").getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(moveFolder(user, "missing", "elsewhere").getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void moving_a_file_changes_its_folder_but_not_when_archived_or_foreign() throws Exception {
+        WebClient user = authenticatedClient("movefileuser");
+        FileDto f = upload(user, "inbox", "photo.jpg", "p");
+
+        assertThat(moveFile(user, f.id(), "photos/2024").getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(ids(tree(user, "photos/2024").get("files"))).containsExactly(f.id());
+        assertThat(texts(tree(user, "/").get("folders"))).containsExactly("/photos/");
+
+        assertThat(moveFile(authenticatedClient("movefileother"), f.id(), "mine").getStatusCode())
+                .isEqualTo(HttpStatus.FORBIDDEN);
+
+        user.delete().uri("/files/{id}", f.id())
+                .retrieve()
+                .toBodilessEntity()
+                .block(Duration.ofSeconds(30));
+        assertThat(moveFile(user, f.id(), "inbox").getStatusCode()).isEqualTo(HttpStatus.GONE);
+        assertThat(texts(tree(user, "/").get("folders"))).isEmpty();
+    }
+
+    private JsonNode tree(WebClient user, String path) throws Exception {
+        String json = user.get().uri(b -> b.path("/files/tree").queryParam("path", path).build())
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(Duration.ofSeconds(30));
+        return om.readTree(json);
+    }
+
+    private ResponseEntity<JsonNode> moveFolder(WebClient user, String from, String to) {
+        return user.post().uri("/files/tree/move")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("from", from, "to", to))
+                .exchangeToMono(r -> r.toEntity(JsonNode.class))
+                .block(Duration.ofSeconds(30));
+    }
+
+    private ResponseEntity<String> moveFile(WebClient user, Integer id, String path) {
+        return user.put().uri(b -> b.path("/files/{id}/folder").queryParam("path", path).build(id))
+                .exchangeToMono(r -> r.toEntity(String.class))
+                .block(Duration.ofSeconds(30));
+    }
+
+    private static List<String> texts(JsonNode array) {
+        List<String> values = new ArrayList<>();
+        array.forEach(n -> values.add(n.asText()));
+        return values;
+    }
+
+    private static List<Integer> ids(JsonNode files) {
+        List<Integer> values = new ArrayList<>();
+        files.forEach(n -> values.add(n.get("id").asInt()));
+        return values;
+    }
+
+    private ResponseEntity<String> content(WebClient user, Integer id, String range) {
+        return user.get().uri("/files/{id}/content", id)
+                .headers(h -> {
+                    if (range != null) h.set(HttpHeaders.RANGE, range);
+                })
+                .exchangeToMono(r -> r.toEntity(String.class))
+                .block(Duration.ofSeconds(30));
+    }
+
+    private FileDto upload(WebClient user, String filename, String content) throws Exception {
+        return upload(user, null, filename, content);
+    }
+
+    private void setPublic(WebClient user, Integer id, boolean enabled) {
+        user.put().uri(b -> b.path("/files/{id}/public").queryParam("enabled", enabled).build(id))
+                .retrieve()
+                .toBodilessEntity()
+                .block(Duration.ofSeconds(30));
+    }
+
+    private FileDto replace(WebClient user, Integer id, String content) throws Exception {
+        MultipartBodyBuilder mb = new MultipartBodyBuilder();
+        mb.part("file", content.getBytes(StandardCharsets.UTF_8))
+                .filename("doc.txt")
+                .contentType(MediaType.TEXT_PLAIN);
+        String json = user.put().uri("/files/{id}/content", id)
+                .body(BodyInserters.fromMultipartData(mb.build()))
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(Duration.ofSeconds(30));
+        return om.readValue(json, FileDto.class);
+    }
+
+    private FileDto upload(WebClient user, String folder, String filename, String content) throws Exception {
+        MultipartBodyBuilder mb = new MultipartBodyBuilder();
+        mb.part("file", content.getBytes(StandardCharsets.UTF_8))
+                .filename(filename)
+                .contentType(MediaType.TEXT_PLAIN);
+        String json = user.post().uri(b -> b.path("/files").queryParamIfPresent("folder", Optional.ofNullable(folder)).build())
+                .body(BodyInserters.fromMultipartData(mb.build()))
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(Duration.ofSeconds(30));
+        return om.readValue(json, FileDto.class);
+    }
 }
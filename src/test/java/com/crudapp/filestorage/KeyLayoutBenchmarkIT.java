@@ -0,0 +1,92 @@
+package com.crudapp.filestorage;
+
+import com.crudapp.filestorage.config.UploadProps.KeyLayout;
+import com.crudapp.filestorage.service.ObjectLocations;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * PUT throughput of each {@link KeyLayout}: a few heavy users write small objects with many
+ * requests in flight. Not part of {@code ./gradlew test}; run it with {@code ./gradlew benchmark}.
+ * Against the LocalStack container the numbers mostly show per-request overhead; point
+ * {@code -Dbenchmark.s3.endpoint} at a MinIO cluster or S3 to see prefix throttling.
+ */
+@Tag("benchmark")
+@Testcontainers
+class KeyLayoutBenchmarkIT {
+
+    private static final String BUCKET = "bench-bucket";
+    private static final int OBJECTS = Integer.getInteger("benchmark.objects", 5000);
+    private static final int CONCURRENCY = Integer.getInteger("benchmark.concurrency", 64);
+    private static final int USERS = 4;
+    private static final byte[] BODY = new byte[4 * 1024];
+
+    @Container
+    static LocalStackContainer localstack =
+            new LocalStackContainer(DockerImageName.parse("localstack/localstack:3"))
+                    .withServices(LocalStackContainer.Service.S3);
+
+    static S3AsyncClient s3;
+
+    @BeforeAll
+    static void client() {
+        String endpoint = System.getProperty("benchmark.s3.endpoint");
+        s3 = S3AsyncClient.builder()
+                .endpointOverride(endpoint != null
+                        ? URI.create(endpoint)
+                        : localstack.getEndpointOverride(LocalStackContainer.Service.S3))
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(
+                        System.getProperty("benchmark.s3.accessKey", localstack.getAccessKey()),
+                        System.getProperty("benchmark.s3.secretKey", localstack.getSecretKey()))))
+                .region(Region.US_EAST_1)
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .build();
+        try {
+            s3.createBucket(b -> b.bucket(BUCKET)).join();
+        } catch (Exception ignore) {}
+    }
+
+    @Test
+    void put_throughput_per_key_layout() {
+        // warm up connections and the JIT before the first measured layout
+        run(KeyLayout.DATE, Math.min(OBJECTS, 500));
+
+        Map<KeyLayout, Double> opsPerSecond = new EnumMap<>(KeyLayout.class);
+        for (KeyLayout layout : KeyLayout.values()) {
+            opsPerSecond.put(layout, run(layout, OBJECTS));
+        }
+        opsPerSecond.forEach((layout, ops) ->
+                System.out.printf("key layout %-13s %8.0f PUT/s (%d objects, %d in flight)%n",
+                        layout, ops, OBJECTS, CONCURRENCY));
+        assertThat(opsPerSecond.values()).allMatch(ops -> ops > 0);
+    }
+
+    private static double run(KeyLayout layout, int objects) {
+        long start = System.nanoTime();
+        Flux.range(0, objects)
+                .flatMap(i -> Mono.fromFuture(() -> s3.putObject(
+                        b -> b.bucket(BUCKET).key(ObjectLocations.newKey(layout, i % USERS + 1, "photo.jpg")),
+                        AsyncRequestBody.fromBytes(BODY))), CONCURRENCY)
+                .blockLast();
+        return objects / ((System.nanoTime() - start) / 1e9);
+    }
+}
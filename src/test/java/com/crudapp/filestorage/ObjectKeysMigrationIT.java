@@ -0,0 +1,92 @@
+package com.crudapp.filestorage;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** V17 turns stored public URLs into bucket + key, for any s3.publicBaseUrl the rows were written with. */
+@Testcontainers
+class ObjectKeysMigrationIT {
+
+    @Container
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.4")
+            .withDatabaseName("filestorage")
+            .withUsername("fs_user")
+            .withPassword("fs_pass_123");
+
+    JdbcTemplate jdbc;
+
+    private Flyway flyway(String target) {
+        return Flyway.configure()
+                .dataSource(mysql.getJdbcUrl(), mysql.getUsername(), mysql.getPassword())
+                .locations("classpath:db/migration")
+                .placeholders(Map.of("bucket", "it-bucket"))
+                .cleanDisabled(false)
+                .target(target)
+                .load();
+    }
+
+    @BeforeEach
+    void migrateToV16() {
+        Flyway v16 = flyway("16");
+        v16.clean();
+        v16.migrate();
+        jdbc = new JdbcTemplate(new DriverManagerDataSource(mysql.getJdbcUrl(), mysql.getUsername(), mysql.getPassword()));
+    }
+
+    @Test
+    void keys_follow_the_bucket_segment_whatever_the_base_url() {
+        jdbc.update("""
+                insert into files(id, name, location, bucket, status) values
+                (1, 'a.txt', 'http://localhost:9000/it-bucket/u1/a.txt', null, 'ACTIVE'),
+                (2, 'b.txt', 'https://cdn.example.com/storage/v1/it-bucket/u1/dir/b.txt', null, 'ACTIVE'),
+                (3, 'c.txt', 'http://minio:9000/it-bucket-2/u2/it-bucket/c.txt', 'it-bucket-2', 'ACTIVE')
+                """);
+        jdbc.update("""
+                insert into file_versions(file_id, version, location, size_bytes, replaced_at) values
+                (2, 1, 'https://cdn.example.com/storage/v1/it-bucket/u1/dir/b-v1.txt', 1, now())
+                """);
+
+        flyway("latest").migrate();
+
+        List<Map<String, Object>> files = jdbc.queryForList("select bucket, object_key from files order by id");
+        assertThat(files).containsExactly(
+                Map.of("bucket", "it-bucket", "object_key", "u1/a.txt"),
+                Map.of("bucket", "it-bucket", "object_key", "u1/dir/b.txt"),
+                Map.of("bucket", "it-bucket-2", "object_key", "u2/it-bucket/c.txt"));
+        assertThat(jdbc.queryForMap("select bucket, object_key from file_versions"))
+                .isEqualTo(Map.of("bucket", "it-bucket", "object_key", "u1/dir/b-v1.txt"));
+    }
+
+    @Test
+    void refuses_to_drop_locations_it_cannot_parse() {
+        jdbc.update("""
+                insert into files(id, name, location, bucket, status) values
+                (1, 'a.txt', 'http://localhost:9000/it-bucket/u1/a.txt', null, 'ACTIVE'),
+                (2, 'x.txt', 'https://elsewhere.example.com/other-bucket/x.txt', null, 'ACTIVE')
+                """);
+
+        assertThatThrownBy(() -> flyway("latest").migrate()).isInstanceOf(FlywayException.class);
+
+        // nothing was changed, every location is still there to be fixed by hand
+        assertThat(jdbc.queryForList("select location from files order by id", String.class)).containsExactly(
+                "http://localhost:9000/it-bucket/u1/a.txt",
+                "https://elsewhere.example.com/other-bucket/x.txt");
+        assertThat(jdbc.queryForObject("""
+                select count(*) from information_schema.columns
+                where table_schema = database() and table_name = 'files' and column_name = 'object_key'
+                """, Integer.class)).isZero();
+    }
+}
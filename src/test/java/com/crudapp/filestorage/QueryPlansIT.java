@@ -0,0 +1,253 @@
+package com.crudapp.filestorage;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs EXPLAIN for the SQL behind the repository hot paths and fails when MySQL
+ * would fall back to a full table scan or a filesort.
+ * Parameters are inlined the way Connector/J sends client-side prepared statements.
+ */
+@Testcontainers
+class QueryPlansIT {
+
+    @Container
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.4")
+            .withDatabaseName("filestorage")
+            .withUsername("fs_user")
+            .withPassword("fs_pass_123");
+
+    record PlanRow(String table, String partitions, String type, String key, String extra) {}
+
+    @BeforeAll
+    static void migrateAndSeed() throws Exception {
+        Flyway.configure()
+                .dataSource(mysql.getJdbcUrl(), mysql.getUsername(), mysql.getPassword())
+                .locations("classpath:db/migration")
+                .placeholders(Map.of("bucket", "it-bucket"))
+                .load()
+                .migrate();
+
+        try (Connection c = connect()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement users = c.prepareStatement(
+                    "insert into users(username, password_hash, status) values (?, 'x', 'ACTIVE')")) {
+                for (int u = 1; u <= 20; u++) {
+                    users.setString(1, "plan_user_" + u);
+                    users.addBatch();
+                }
+                users.executeBatch();
+            }
+            try (PreparedStatement files = c.prepareStatement(
+                    "insert into files(name, folder, bucket, object_key, status, owner_id) values (?, ?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= 2000; i++) {
+                    files.setString(1, "f" + i + ".txt");
+                    files.setString(2, i % 3 == 0 ? "/" : "/d" + (i % 7) + "/s" + (i % 5) + "/");
+                    files.setString(3, i % 4 == 0 ? "it-bucket-2" : "it-bucket");
+                    files.setString(4, "u" + (i % 20 + 1) + "/20250101/" + i + "_f.txt");
+                    files.setString(5, i % 10 == 0 ? "ARCHIVED" : "ACTIVE");
+                    files.setInt(6, i % 20 + 1);
+                    files.addBatch();
+                }
+                files.executeBatch();
+            }
+            try (PreparedStatement events = c.prepareStatement(
+                    "insert into events(user_id, file_id, status, created_at) values (?, ?, ?, ?)")) {
+                String[] statuses = {"CREATED", "UPDATED", "DELETED"};
+                Instant t = Instant.parse("2025-01-01T00:00:00Z");
+                for (int i = 1; i <= 6000; i++) {
+                    events.setInt(1, i % 20 + 1);
+                    events.setInt(2, i % 2000 + 1);
+                    events.setString(3, statuses[i % 3]);
+                    events.setTimestamp(4, Timestamp.from(t.plusSeconds(i * 60L)));
+                    events.addBatch();
+                }
+                events.executeBatch();
+            }
+            c.commit();
+            try (Statement st = c.createStatement()) {
+                st.execute("analyze table users, files, events");
+            }
+        }
+    }
+
+    @Test
+    void files_owner_page_uses_owner_index() throws Exception {
+        assertIndexedWithoutSort("""
+                select f.id, f.bucket, f.object_key, f.name, f.owner_id, f.status from files f
+                where f.owner_id = 7 order by f.id desc limit 0, 20
+                """);
+    }
+
+    @Test
+    void files_exists_by_owner_uses_index() throws Exception {
+        assertIndexed("select f.id from files f where f.owner_id = 7 limit 1");
+    }
+
+    @Test
+    void files_owner_status_page_uses_owner_status_index() throws Exception {
+        assertIndexedWithoutSort("""
+                select f.id, f.bucket, f.object_key, f.name, f.owner_id, f.status from files f
+                where f.owner_id = 7 and f.status = 'ACTIVE' order by f.id asc limit 0, 1001
+                """);
+    }
+
+    @Test
+    void files_tiering_candidates_use_status_index() throws Exception {
+        assertIndexedWithoutSort("""
+                select f.id, f.bucket, f.object_key from files f
+                where f.status = 'ACTIVE' and f.tier = 'HOT' and f.last_accessed_at < '2030-01-01 00:00:00'
+                  and f.size_bytes <= 1048576 and f.public_read = false
+                order by f.last_accessed_at
+                limit 100
+                """);
+    }
+
+    @Test
+    void files_have_no_duplicate_owner_index() throws Exception {
+        List<String> owner = new ArrayList<>();
+        try (Connection c = connect(); Statement st = c.createStatement(); ResultSet rs = st.executeQuery("""
+                select s.index_name from information_schema.statistics s
+                where s.table_schema = database() and s.table_name = 'files'
+                  and s.seq_in_index = 1 and s.column_name = 'owner_id'
+                """)) {
+            while (rs.next()) owner.add(rs.getString(1));
+        }
+        assertThat(owner).containsExactlyInAnyOrder("fk_files_owner", "idx_files_owner_folder", "idx_files_owner_status");
+    }
+
+    @Test
+    void files_key_keyset_uses_bucket_key_index() throws Exception {
+        assertIndexedWithoutSort("""
+                select f.id, f.object_key, f.status, f.tier from files f
+                where f.bucket = 'it-bucket' and f.object_key > 'u' and f.object_key < 'u\uDBFF\uDFFF'
+                order by f.object_key limit 500
+                """);
+    }
+
+    @Test
+    void folder_listing_uses_folder_index() throws Exception {
+        assertIndexedWithoutSort("""
+                select f.id, f.name, f.bucket, f.object_key, f.status from files f
+                where f.owner_id = 7 and f.folder = '/d3/s1/' and f.id > 0 and f.status <> 'ARCHIVED'
+                order by f.id limit 50
+                """);
+    }
+
+    @Test
+    void child_folder_probe_uses_folder_index() throws Exception {
+        assertIndexedWithoutSort("""
+                select folder from files
+                where owner_id = 7 and folder > '/d3/' and folder < '/d30' and status <> 'ARCHIVED'
+                order by folder limit 1
+                """);
+    }
+
+    @Test
+    void events_paged_for_own_user() throws Exception {
+        assertIndexedWithoutSort(eventsPaged("false", "5", "null", "null"));
+    }
+
+    @Test
+    void events_paged_for_own_user_and_status() throws Exception {
+        assertIndexedWithoutSort(eventsPaged("false", "5", "null", "'UPDATED'"));
+    }
+
+    @Test
+    void events_paged_all_with_status() throws Exception {
+        assertIndexedWithoutSort(eventsPaged("true", "5", "null", "'DELETED'"));
+    }
+
+    @Test
+    void events_paged_all_for_user_and_status() throws Exception {
+        assertIndexedWithoutSort(eventsPaged("true", "5", "9", "'CREATED'"));
+    }
+
+    @Test
+    void events_paged_with_time_range_prunes_partitions() throws Exception {
+        String sql = eventsPaged("false", "5", "null", "null")
+                .replace("order by", "and e.created_at >= '2030-01-01 00:00:00' order by");
+        assertIndexedWithoutSort(sql);
+        PlanRow events = explain(sql).stream().filter(r -> "e".equals(r.table())).findFirst().orElseThrow();
+        assertThat(events.partitions()).isEqualTo("p_max");
+    }
+
+    @Test
+    void events_count_for_user_and_status() throws Exception {
+        assertIndexed("""
+                select count(e.id) from events e join users u on u.id = e.user_id
+                where (false = true or u.id = 5) and (null is null or u.id = null) and ('CREATED' is null or e.status = 'CREATED')
+                """);
+    }
+
+    @Test
+    void events_exists_by_user_uses_index() throws Exception {
+        assertIndexed("select e.id from events e where e.user_id = 5 limit 1");
+    }
+
+    private static String eventsPaged(String all, String currentUserId, String userId, String status) {
+        return """
+                select e.id, u.id, f.id, e.status, e.created_at
+                from events e
+                join users u on u.id = e.user_id
+                join files f on f.id = e.file_id
+                where (%1$s = true or u.id = %2$s)
+                  and (%3$s is null or u.id = %3$s)
+                  and (%4$s is null or e.status = %4$s)
+                order by e.created_at desc, e.id desc
+                limit 0, 20
+                """.formatted(all, currentUserId, userId, status);
+    }
+
+    private static void assertIndexed(String sql) throws Exception {
+        for (PlanRow row : explain(sql)) {
+            assertThat(row.type())
+                    .as("full scan on %s for:%n%s", row.table(), sql)
+                    .isNotEqualTo("ALL");
+        }
+    }
+
+    private static void assertIndexedWithoutSort(String sql) throws Exception {
+        List<PlanRow> plan = explain(sql);
+        for (PlanRow row : plan) {
+            assertThat(row.type())
+                    .as("full scan on %s for:%n%s", row.table(), sql)
+                    .isNotEqualTo("ALL");
+            assertThat(row.extra() == null ? "" : row.extra())
+                    .as("filesort on %s for:%n%s", row.table(), sql)
+                    .doesNotContain("filesort");
+        }
+    }
+
+    private static List<PlanRow> explain(String sql) throws Exception {
+        List<PlanRow> rows = new ArrayList<>();
+        try (Connection c = connect(); Statement st = c.createStatement(); ResultSet rs = st.executeQuery("explain " + sql)) {
+            while (rs.next()) {
+                rows.add(new PlanRow(rs.getString("table"), rs.getString("partitions"), rs.getString("type"), rs.getString("key"), rs.getString("Extra")));
+            }
+        }
+        assertThat(rows).as("empty plan for:%n%s", sql).isNotEmpty();
+        return rows;
+    }
+
+    private static Connection connect() throws Exception {
+        return DriverManager.getConnection(mysql.getJdbcUrl(), mysql.getUsername(), mysql.getPassword());
+    }
+}
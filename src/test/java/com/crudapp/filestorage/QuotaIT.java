@@ -0,0 +1,161 @@
+package com.crudapp.filestorage;
+
+import com.crudapp.filestorage.dto.FileDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Quotas are off by default; with a small limit, an upload that crosses it must fail with 413
+ * and leave neither a row nor an object behind.
+ */
+@Testcontainers
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class QuotaIT {
+
+    @Container
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.4")
+            .withDatabaseName("filestorage")
+            .withUsername("fs_user")
+            .withPassword("fs_pass_123");
+
+    @Container
+    static LocalStackContainer localstack =
+            new LocalStackContainer(DockerImageName.parse("localstack/localstack:3"))
+                    .withServices(LocalStackContainer.Service.S3);
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry r) {
+        r.add("spring.datasource.url", mysql::getJdbcUrl);
+        r.add("spring.datasource.username", mysql::getUsername);
+        r.add("spring.datasource.password", mysql::getPassword);
+
+        r.add("s3.endpoint", () -> localstack.getEndpointOverride(LocalStackContainer.Service.S3).toString());
+        r.add("s3.accessKey", localstack::getAccessKey);
+        r.add("s3.secretKey", localstack::getSecretKey);
+        r.add("s3.region", () -> "us-east-1");
+        r.add("s3.bucket", () -> "it-bucket");
+        r.add("s3.publicBaseUrl", () -> localstack.getEndpointOverride(LocalStackContainer.Service.S3).toString());
+
+        r.add("spring.main.web-application-type", () -> "reactive");
+        r.add("spring.codec.multipart.enabled", () -> "true");
+        r.add("logging.level.org.springframework.web", () -> "WARN");
+
+        r.add("storage.quota.enabled", () -> "true");
+        r.add("storage.quota.defaultLimit", () -> "64KB");
+    }
+
+    @Autowired WebClient.Builder builder;
+    @Autowired DataSource dataSource;
+    @LocalServerPort int port;
+
+    WebClient client;
+    JdbcTemplate jdbc;
+    S3Client s3;
+    ObjectMapper om = new ObjectMapper();
+
+    @BeforeEach
+    void setup() {
+        client = builder.baseUrl("http://localhost:" + port).build();
+        jdbc = new JdbcTemplate(dataSource);
+
+        s3 = S3Client.builder()
+                .endpointOverride(localstack.getEndpointOverride(LocalStackContainer.Service.S3))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(localstack.getAccessKey(), localstack.getSecretKey())))
+                .region(Region.US_EAST_1)
+                .build();
+        try {
+            s3.createBucket(b -> b.bucket("it-bucket"));
+        } catch (Exception ignore) {
+            // created by the previous test
+        }
+    }
+
+    private String registerAndLogin(String username, String password) throws Exception {
+        client.post().uri("/auth/register")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("username", username, "password", password))
+                .retrieve()
+                .bodyToMono(String.class)
+                .block();
+        String login = client.post().uri("/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("username", username, "password", password))
+                .retrieve()
+                .bodyToMono(String.class)
+                .block();
+        return om.readTree(login).get("token").asText();
+    }
+
+    private FileDto upload(String jwt, String filename, int size) {
+        MultipartBodyBuilder mb = new MultipartBodyBuilder();
+        mb.part("file", new ByteArrayResource(new byte[size]) {
+            @Override public String getFilename() { return filename; }
+        });
+        return client.post().uri("/files")
+                .headers(h -> h.setBearerAuth(jwt))
+                .body(BodyInserters.fromMultipartData(mb.build()))
+                .retrieve()
+                .bodyToMono(FileDto.class)
+                .block();
+    }
+
+    private List<String> keys() {
+        return s3.listObjectsV2(b -> b.bucket("it-bucket")).contents().stream().map(S3Object::key).toList();
+    }
+
+    @Test
+    void over_quota_upload_fails_with_413_and_writes_nothing() throws Exception {
+        String jwt = registerAndLogin("quota_user", "pass123");
+        FileDto first = upload(jwt, "fits.bin", 40 * 1024);
+        Integer owner = jdbc.queryForObject("select owner_id from files where id = ?", Integer.class, first.id());
+        List<String> before = keys();
+        long events = jdbc.queryForObject("select count(*) from events where user_id = ?", Long.class, owner);
+
+        // 40KB stored + 40KB more crosses the 64KB limit mid-stream
+        assertThatThrownBy(() -> upload(jwt, "too-much.bin", 40 * 1024))
+                .isInstanceOfSatisfying(WebClientResponseException.class,
+                        e -> assertThat(e.getStatusCode().value()).isEqualTo(413));
+
+        assertThat(jdbc.queryForObject("select count(*) from files where owner_id = ?", Long.class, owner)).isEqualTo(1);
+        assertThat(jdbc.queryForObject("select count(*) from events where user_id = ?", Long.class, owner)).isEqualTo(events);
+        assertThat(keys()).containsExactlyInAnyOrderElementsOf(before);
+        assertThat(jdbc.queryForObject("select amount from user_counters where user_id = ? and counter = 'bytes'",
+                Long.class, owner)).isEqualTo(40 * 1024);
+
+        // what is left still fits
+        upload(jwt, "rest.bin", 20 * 1024);
+    }
+}
@@ -0,0 +1,214 @@
+package com.crudapp.filestorage;
+
+import com.crudapp.filestorage.dto.FileDto;
+import com.crudapp.filestorage.dto.PageResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Totals of the paged listings come from user_counters; these tests compare them with
+ * count(*) after uploads and deletes, including files that have no owner.
+ */
+@Testcontainers
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class UserCountersIT {
+
+    @Container
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.4")
+            .withDatabaseName("filestorage")
+            .withUsername("fs_user")
+            .withPassword("fs_pass_123");
+
+    @Container
+    static LocalStackContainer localstack =
+            new LocalStackContainer(DockerImageName.parse("localstack/localstack:3"))
+                    .withServices(LocalStackContainer.Service.S3);
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry r) {
+        r.add("spring.datasource.url", mysql::getJdbcUrl);
+        r.add("spring.datasource.username", mysql::getUsername);
+        r.add("spring.datasource.password", mysql::getPassword);
+
+        r.add("s3.endpoint", () -> localstack.getEndpointOverride(LocalStackContainer.Service.S3).toString());
+        r.add("s3.accessKey", localstack::getAccessKey);
+        r.add("s3.secretKey", localstack::getSecretKey);
+        r.add("s3.region", () -> "us-east-1");
+        r.add("s3.bucket", () -> "it-bucket");
+        r.add("s3.publicBaseUrl", () -> localstack.getEndpointOverride(LocalStackContainer.Service.S3).toString());
+
+        r.add("spring.main.web-application-type", () -> "reactive");
+        r.add("spring.codec.multipart.enabled", () -> "true");
+        r.add("logging.level.org.springframework.web", () -> "WARN");
+    }
+
+    // runs before the application context starts: rows from before V4 have no owner,
+    // and V22 has to pick them up when the application migrates the rest
+    @BeforeAll
+    static void legacyRows() throws Exception {
+        Flyway.configure()
+                .dataSource(mysql.getJdbcUrl(), mysql.getUsername(), mysql.getPassword())
+                .locations("classpath:db/migration")
+                .placeholders(Map.of("bucket", "it-bucket"))
+                .target("21")
+                .load()
+                .migrate();
+        try (Connection c = DriverManager.getConnection(mysql.getJdbcUrl(), mysql.getUsername(), mysql.getPassword());
+             Statement st = c.createStatement()) {
+            st.executeUpdate("""
+                    insert into files(name, bucket, object_key, status) values
+                    ('legacy1.txt', 'it-bucket', 'legacy/1.txt', 'ACTIVE'),
+                    ('legacy2.txt', 'it-bucket', 'legacy/2.txt', 'ARCHIVED')
+                    """);
+        }
+    }
+
+    @Autowired WebClient.Builder builder;
+    @Autowired DataSource dataSource;
+    @LocalServerPort int port;
+
+    WebClient client;
+    JdbcTemplate jdbc;
+    ObjectMapper om = new ObjectMapper();
+
+    @BeforeEach
+    void setup() {
+        client = builder.baseUrl("http://localhost:" + port).build();
+        jdbc = new JdbcTemplate(dataSource);
+
+        S3Client s3 = S3Client.builder()
+                .endpointOverride(localstack.getEndpointOverride(LocalStackContainer.Service.S3))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(localstack.getAccessKey(), localstack.getSecretKey())))
+                .region(Region.US_EAST_1)
+                .build();
+        try {
+            s3.createBucket(b -> b.bucket("it-bucket"));
+        } catch (Exception ignore) {
+            // created by the previous test
+        }
+    }
+
+    private String login(String username, String password) throws Exception {
+        String login = client.post().uri("/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("username", username, "password", password))
+                .retrieve()
+                .bodyToMono(String.class)
+                .block();
+        return om.readTree(login).get("token").asText();
+    }
+
+    private String registerAndLogin(String username, String password) throws Exception {
+        client.post().uri("/auth/register")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("username", username, "password", password))
+                .retrieve()
+                .bodyToMono(String.class)
+                .block();
+        return login(username, password);
+    }
+
+    private FileDto upload(String jwt, String filename) {
+        MultipartBodyBuilder mb = new MultipartBodyBuilder();
+        mb.part("file", new ByteArrayResource(filename.getBytes()) {
+            @Override public String getFilename() { return filename; }
+        });
+        return client.post().uri("/files")
+                .headers(h -> h.setBearerAuth(jwt))
+                .body(BodyInserters.fromMultipartData(mb.build()))
+                .retrieve()
+                .bodyToMono(FileDto.class)
+                .block();
+    }
+
+    private void delete(String jwt, int fileId) {
+        client.delete().uri("/files/{id}", fileId)
+                .headers(h -> h.setBearerAuth(jwt))
+                .retrieve()
+                .toBodilessEntity()
+                .block();
+    }
+
+    private long total(String jwt) {
+        PageResponse<FileDto> page = client.get().uri("/files/paged?page=0&size=1")
+                .headers(h -> h.setBearerAuth(jwt))
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<PageResponse<FileDto>>() {})
+                .block();
+        assertThat(page).isNotNull();
+        return page.total();
+    }
+
+    private long counter(int userId, String counter) {
+        return jdbc.queryForObject("select coalesce(sum(amount), 0) from user_counters where user_id = ? and counter = ?",
+                Long.class, userId, counter);
+    }
+
+    @Test
+    void admin_total_counts_files_without_owner() throws Exception {
+        String admin = login("admin", "admin123");
+
+        assertThat(total(admin)).isEqualTo(jdbc.queryForObject("select count(*) from files", Long.class));
+        assertThat(counter(0, "files")).isEqualTo(2);
+        assertThat(counter(0, "files.active")).isEqualTo(1);
+    }
+
+    @Test
+    void totals_follow_uploads_and_deletes() throws Exception {
+        String jwt = registerAndLogin("counted_user", "pass123");
+        String admin = login("admin", "admin123");
+
+        FileDto a = upload(jwt, "a.txt");
+        upload(jwt, "b.txt");
+        FileDto c = upload(jwt, "c.txt");
+        delete(jwt, a.id());
+        delete(jwt, c.id());
+        upload(jwt, "d.txt");
+
+        Integer owner = jdbc.queryForObject("select owner_id from files where id = ?", Integer.class, a.id());
+        // deleted files stay as ARCHIVED rows and are still listed
+        assertThat(total(jwt))
+                .isEqualTo(jdbc.queryForObject("select count(*) from files where owner_id = ?", Long.class, owner))
+                .isEqualTo(4);
+        assertThat(counter(owner, "files.active"))
+                .isEqualTo(jdbc.queryForObject("select count(*) from files where owner_id = ? and status <> 'ARCHIVED'",
+                        Long.class, owner))
+                .isEqualTo(2);
+        assertThat(total(admin)).isEqualTo(jdbc.queryForObject("select count(*) from files", Long.class));
+    }
+}
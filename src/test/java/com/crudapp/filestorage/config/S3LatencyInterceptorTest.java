@@ -0,0 +1,85 @@
+package com.crudapp.filestorage.config;
+
+import com.crudapp.filestorage.security.AdaptiveConcurrencyLimiter;
+import com.crudapp.filestorage.service.QuotaExceededException;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3LatencyInterceptorTest {
+    private static final long GB = 1L << 30;
+
+    private final AdaptiveConcurrencyLimiter limiter = mock(AdaptiveConcurrencyLimiter.class);
+    private final S3LatencyInterceptor interceptor = new S3LatencyInterceptor(limiter);
+
+    @Test
+    void clientErrorsAreOrdinarySamples() {
+        fail(s3Error(404, "NoSuchKey"), 0);
+        verify(limiter).onSample(anyLong(), eq(0L), eq(false));
+
+        fail(s3Error(412, "PreconditionFailed"), 0);
+        verify(limiter, times(2)).onSample(anyLong(), eq(0L), eq(false));
+    }
+
+    @Test
+    void serverErrorsAndThrottlingAreFailures() {
+        fail(s3Error(500, "InternalError"), 0);
+        fail(s3Error(503, "SlowDown"), 0);
+        verify(limiter, times(2)).onSample(anyLong(), eq(0L), eq(true));
+    }
+
+    @Test
+    void timeoutsAreFailuresWithTheSizeOfTheCall() {
+        fail(ApiCallTimeoutException.create(30_000), 4 * GB);
+        verify(limiter).onSample(anyLong(), eq(4 * GB), eq(true));
+    }
+
+    @Test
+    void callsEndedOnOurSideAreNotReported() {
+        // client disconnect, and an upload body aborted by the quota
+        fail(SdkClientException.create("cancelled", new CancellationException()), 4 * GB);
+        fail(SdkClientException.create("aborted", new QuotaExceededException(1000)), 4 * GB);
+        verify(limiter, never()).onSample(anyLong(), anyLong(), anyBoolean());
+    }
+
+    private static S3Exception s3Error(int status, String code) {
+        return (S3Exception) S3Exception.builder()
+                .statusCode(status)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(code).build())
+                .build();
+    }
+
+    private void fail(Throwable e, long requestBytes) {
+        ExecutionAttributes attributes = new ExecutionAttributes();
+        interceptor.beforeExecution(mock(Context.BeforeExecution.class), attributes);
+        Context.FailedExecution context = mock(Context.FailedExecution.class);
+        when(context.exception()).thenReturn(e);
+        when(context.httpRequest()).thenReturn(Optional.of(SdkHttpFullRequest.builder()
+                .method(SdkHttpMethod.PUT)
+                .protocol("https")
+                .host("s3.example.com")
+                .encodedPath("/bucket/key")
+                .putHeader("Content-Length", Long.toString(requestBytes))
+                .build()));
+        when(context.httpResponse()).thenReturn(Optional.empty());
+        interceptor.onExecutionFailure(context, attributes);
+    }
+}
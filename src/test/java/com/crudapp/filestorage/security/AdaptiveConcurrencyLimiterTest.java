@@ -0,0 +1,64 @@
+package com.crudapp.filestorage.security;
+
+import com.crudapp.filestorage.config.RateLimitProps;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static AdaptiveConcurrencyLimiter warmedUp() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(new RateLimitProps());
+        for (int i = 0; i < 50; i++) limiter.onSample(20 * MS, 0, false);
+        return limiter;
+    }
+
+    @Test
+    void largeTransfersDoNotShrinkTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = warmedUp();
+        int before = limiter.limit();
+
+        // a multi-GB upload takes minutes because of its size, not because S3 is overloaded
+        limiter.onSample(300_000 * MS, 4L << 30, false);
+        limiter.onSample(300_000 * MS, 4L << 30, false);
+
+        assertThat(limiter.limit()).isEqualTo(before);
+    }
+
+    @Test
+    void slowSmallCallsShrinkTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = warmedUp();
+        int before = limiter.limit();
+
+        limiter.onSample(2_000 * MS, 512, false);
+
+        assertThat(limiter.limit()).isLessThan(before);
+    }
+
+    @Test
+    void failuresCountWhateverTheSize() {
+        AdaptiveConcurrencyLimiter limiter = warmedUp();
+        int before = limiter.limit();
+
+        limiter.onSample(20 * MS, 4L << 30, true);
+
+        assertThat(limiter.limit()).isLessThan(before);
+    }
+
+    @Test
+    void failedLargeCallsLeaveTheLatencyAveragesAlone() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = warmedUp();
+        limiter.onSample(300_000 * MS, 4L << 30, true);
+        int afterFailure = limiter.limit();
+
+        // past the decrease interval: a usual small call would shrink the limit again if the
+        // five minutes of the failed upload had gone into the recent average
+        Thread.sleep(150);
+        limiter.onSample(20 * MS, 512, false);
+
+        assertThat(limiter.limit()).isEqualTo(afterFailure);
+    }
+}
@@ -0,0 +1,190 @@
+package com.crudapp.filestorage.security;
+
+import com.crudapp.filestorage.config.RateLimitProps;
+import com.crudapp.filestorage.config.RateLimitProps.Limits;
+import com.crudapp.filestorage.model.Role;
+import com.crudapp.filestorage.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitWebFilterTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final RateLimitProps props = new RateLimitProps();
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private RateLimitWebFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        // no refill within a test: the buckets only hold their burst
+        props.setUser(new Limits(0.001, 2, 1));
+        props.setAnonymous(new Limits(0.001, 1, 0));
+        props.getAdaptive().setInitialLimit(1);
+        props.getAdaptive().setMinLimit(1);
+        filter = new RateLimitWebFilter(props, new AdaptiveConcurrencyLimiter(props), mapper, clock::get);
+    }
+
+    private static User user(int id, String... roles) {
+        User u = User.builder().id(id).username("u" + id).build();
+        for (String r : roles) u.getRoles().add(Role.builder().name(r).build());
+        return u;
+    }
+
+    private static MockServerWebExchange get(String path, String address) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get(path)
+                .remoteAddress(new InetSocketAddress(address, 40000)));
+    }
+
+    private static MockServerWebExchange upload() {
+        return MockServerWebExchange.from(MockServerHttpRequest.post("/files")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .remoteAddress(new InetSocketAddress("10.0.0.1", 40000)));
+    }
+
+    private Mono<Void> run(ServerWebExchange exchange, User user, WebFilterChain chain) {
+        Mono<Void> filtered = filter.filter(exchange, chain);
+        return user == null ? filtered : filtered.contextWrite(ReactiveSecurityContextHolder.withAuthentication(
+                new UsernamePasswordAuthenticationToken(user, "token", List.of())));
+    }
+
+    // the status the chain was reached with, or the rejection
+    private HttpStatus status(ServerWebExchange exchange, User user) {
+        run(exchange, user, ex -> Mono.empty()).block(TIMEOUT);
+        HttpStatus status = (HttpStatus) exchange.getResponse().getStatusCode();
+        return status != null ? status : HttpStatus.OK;
+    }
+
+    @Test
+    void exhaustedBucketGets429WithRetryAfter() {
+        User u = user(1);
+        assertThat(status(get("/files", "10.0.0.1"), u)).isEqualTo(HttpStatus.OK);
+        assertThat(status(get("/files", "10.0.0.1"), u)).isEqualTo(HttpStatus.OK);
+
+        MockServerWebExchange rejected = get("/files", "10.0.0.1");
+        assertThat(status(rejected, u)).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(Long.parseLong(rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER))).isPositive();
+        assertThat(rejected.getResponse().getBodyAsString().block(TIMEOUT)).contains("Request rate limit exceeded");
+    }
+
+    @Test
+    void tenantsAreIsolated() {
+        User a = user(1);
+        User b = user(2);
+        status(get("/files", "10.0.0.1"), a);
+        status(get("/files", "10.0.0.1"), a);
+        assertThat(status(get("/files", "10.0.0.1"), a)).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        // same address, different user
+        assertThat(status(get("/files", "10.0.0.1"), b)).isEqualTo(HttpStatus.OK);
+
+        assertThat(status(get("/auth/login", "10.0.0.7"), null)).isEqualTo(HttpStatus.OK);
+        assertThat(status(get("/auth/login", "10.0.0.7"), null)).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(status(get("/auth/login", "10.0.0.8"), null)).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void uploadSlotIsReleasedOnCompletionAndCancel() {
+        props.setUser(new Limits(1000, 1000, 1));
+        User u = user(1);
+
+        Sinks.Empty<Void> first = Sinks.empty();
+        run(upload(), u, ex -> first.asMono()).subscribe();
+        MockServerWebExchange second = upload();
+        assertThat(status(second, u)).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(second.getResponse().getBodyAsString().block(TIMEOUT)).contains("Too many concurrent uploads");
+
+        first.tryEmitEmpty();
+        Disposable third = run(upload(), u, ex -> Mono.never()).subscribe();
+        assertThat(status(upload(), u)).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+
+        // the client went away mid-upload
+        third.dispose();
+        assertThat(status(upload(), u)).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void globalSlotIsReleasedWhenTheDownloadEnds() {
+        props.setUser(new Limits(1000, 1000, 1));
+        Sinks.Empty<Void> download = Sinks.empty();
+        run(get("/files/1/content", "10.0.0.1"), user(1), ex -> download.asMono()).subscribe(null, e -> {});
+
+        MockServerWebExchange busy = get("/files/2/content", "10.0.0.2");
+        assertThat(status(busy, user(2))).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(busy.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        // not S3-bound: not limited by the global cap
+        assertThat(status(get("/files", "10.0.0.2"), user(2))).isEqualTo(HttpStatus.OK);
+
+        download.tryEmitError(new IllegalStateException("S3 failed"));
+        assertThat(status(get("/files/2/content", "10.0.0.2"), user(2))).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void idleTenantsAreForgotten() {
+        for (int i = 1; i <= 5; i++) status(get("/auth/login", "10.0.1." + i), null);
+        assertThat(filter.tenants()).isEqualTo(5);
+
+        clock.addAndGet(props.getTenantIdleTimeout().toNanos());
+        status(get("/auth/login", "10.0.2.1"), null);
+
+        assertThat(filter.tenants()).isEqualTo(1);
+    }
+
+    @Test
+    void rotatingAddressesCannotGrowTheMap() {
+        props.setMaxTenants(100);
+        for (int i = 0; i < 1000; i++) {
+            clock.incrementAndGet();
+            status(get("/auth/login", "10.1." + (i / 250) + "." + (i % 250)), null);
+        }
+        assertThat(filter.tenants()).isLessThanOrEqualTo(100);
+    }
+
+    @Test
+    void tenantsWithUploadsInFlightAreKept() {
+        props.setUser(new Limits(1000, 1000, 1));
+        User u = user(1);
+        run(upload(), u, ex -> Mono.never()).subscribe();
+
+        clock.addAndGet(props.getTenantIdleTimeout().toNanos());
+        status(get("/auth/login", "10.0.2.1"), null);
+
+        // still the same tenant, its slot still taken
+        assertThat(status(upload(), u)).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    @Test
+    void limitsFollowRoleChangesAfterTheTtl() {
+        props.setUser(new Limits(0.001, 1, 1));
+        props.getRoles().put("ADMIN", new Limits(1000, 1000, 16));
+        User u = user(1);
+        assertThat(status(get("/files", "10.0.0.1"), u)).isEqualTo(HttpStatus.OK);
+        assertThat(status(get("/files", "10.0.0.1"), u)).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+
+        User promoted = user(1, "ADMIN");
+        assertThat(status(get("/files", "10.0.0.1"), promoted)).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+
+        clock.addAndGet(props.getLimitsTtl().toNanos() + 1);
+        assertThat(status(get("/files", "10.0.0.1"), promoted)).isEqualTo(HttpStatus.OK);
+    }
+}
@@ -0,0 +1,121 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.CdnProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchPresignerTest {
+    private static final AwsBasicCredentials CREDENTIALS =
+            AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+    private static final String REGION = "eu-central-1";
+    private static final DateTimeFormatter AMZ_DATE =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final CdnProps props = new CdnProps();
+
+    @Test
+    void plainKeyOnAws() {
+        assertSameAsSdk("https://s3.eu-central-1.amazonaws.com", "7/report.pdf");
+    }
+
+    @Test
+    void keyWithSpaces() {
+        assertSameAsSdk("http://localhost:9000", "7/annual report 2024.pdf");
+    }
+
+    @Test
+    void nonAsciiKey() {
+        assertSameAsSdk("http://localhost:9000", "7/отчёт-ß-日本.pdf");
+    }
+
+    @Test
+    void keyWithPlusAndReservedCharacters() {
+        assertSameAsSdk("http://localhost:9000", "7/c++ & a+b=c?#.txt");
+    }
+
+    @Test
+    void endpointWithBasePath() {
+        assertSameAsSdk("https://gateway.example.com/storage/", "7/dir/~a_b.c-d (1).txt");
+    }
+
+    @Test
+    void endpointWithPortAndBasePath() {
+        assertSameAsSdk("https://gateway.example.com:8443/s3", "7/+plus +/x");
+    }
+
+    private void assertSameAsSdk(String endpoint, String key) {
+        Duration ttl = Duration.ofMinutes(15);
+        URI sdk;
+        try (S3Presigner presigner = S3Presigner.builder()
+                .region(Region.of(REGION))
+                .credentialsProvider(StaticCredentialsProvider.create(CREDENTIALS))
+                .endpointOverride(URI.create(endpoint))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .build()) {
+            sdk = URI.create(presigner.presignGetObject(r -> r
+                    .signatureDuration(ttl)
+                    .getObjectRequest(g -> g.bucket("files").key(key))).url().toString());
+        }
+        // the SDK signs with the system clock: sign at the same second, without rounding
+        Instant signedAt = Instant.from(AMZ_DATE.parse(query(sdk).get("X-Amz-Date")));
+        props.setPresignWindow(Duration.ofSeconds(1));
+
+        BatchPresigner.Signed signed = presigner(endpoint).sign("files", key, ttl.minusSeconds(1), signedAt);
+
+        URI ours = URI.create(signed.url());
+        assertThat(ours.getScheme() + "://" + ours.getRawAuthority() + ours.getRawPath())
+                .isEqualTo(sdk.getScheme() + "://" + sdk.getRawAuthority() + sdk.getRawPath());
+        assertThat(query(ours)).isEqualTo(query(sdk));
+        assertThat(signed.expiresAt()).isEqualTo(signedAt.plus(ttl));
+    }
+
+    @Test
+    void urlsWithinAWindowAreIdenticalAndLastAtLeastTheTtl() {
+        props.setPresignWindow(Duration.ofMinutes(5));
+        BatchPresigner presigner = presigner("http://localhost:9000");
+        Duration ttl = Duration.ofMinutes(15);
+        Instant start = Instant.parse("2024-05-01T10:05:00Z");
+
+        BatchPresigner.Signed first = presigner.sign("files", "7/a.txt", ttl, start.plusSeconds(1));
+        BatchPresigner.Signed last = presigner.sign("files", "7/a.txt", ttl, start.plusSeconds(299));
+        BatchPresigner.Signed next = presigner.sign("files", "7/a.txt", ttl, start.plusSeconds(300));
+
+        assertThat(last).isEqualTo(first);
+        assertThat(query(URI.create(first.url())).get("X-Amz-Date")).isEqualTo("20240501T100500Z");
+        assertThat(first.expiresAt()).isEqualTo(start.plus(ttl).plusSeconds(300));
+        assertThat(Duration.between(start.plusSeconds(299), last.expiresAt())).isGreaterThanOrEqualTo(ttl);
+        assertThat(next.url()).isNotEqualTo(first.url());
+    }
+
+    private BatchPresigner presigner(String endpoint) {
+        S3ClientPool pool = mock(S3ClientPool.class);
+        when(pool.target("files")).thenReturn(new S3ClientPool.Target("files", endpoint, endpoint, 1, REGION,
+                CREDENTIALS, null, null));
+        return new BatchPresigner(pool, props);
+    }
+
+    // raw (still encoded) values: both sides must encode the same way
+    private static Map<String, String> query(URI uri) {
+        return Arrays.stream(uri.getRawQuery().split("&"))
+                .map(p -> p.split("=", 2))
+                .collect(Collectors.toMap(p -> p[0], p -> p[1]));
+    }
+}
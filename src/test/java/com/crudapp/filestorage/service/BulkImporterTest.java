@@ -0,0 +1,137 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.ImportProps;
+import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.dto.ImportResult;
+import com.crudapp.filestorage.model.User;
+import com.crudapp.filestorage.repository.UserRepository;
+import com.crudapp.filestorage.service.FileBatchWriter.NewFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkImporterTest {
+
+    private final MultipartUploader uploader = mock(MultipartUploader.class);
+    private final FileBatchWriter writer = mock(FileBatchWriter.class);
+    private final UserRepository users = mock(UserRepository.class);
+    private final ObjectLocations locations = mock(ObjectLocations.class);
+    private final Map<String, byte[]> uploaded = new ConcurrentHashMap<>();
+    // the importer reuses its batch list, so copies are kept
+    private final List<List<NewFile>> batches = new CopyOnWriteArrayList<>();
+    private final User owner = User.builder().id(7).username("owner").build();
+    private BulkImporter importer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        S3Props s3Props = new S3Props();
+        s3Props.setBucket("files");
+        ImportProps props = new ImportProps();
+        props.setBatchSize(2);
+        importer = new BulkImporter(mock(S3AsyncClient.class), s3Props, props, users, locations, uploader, writer,
+                mock(DataSource.class));
+        when(users.findById(7)).thenReturn(Optional.of(owner));
+        when(locations.newKey(anyInt(), anyString())).thenAnswer(inv -> "7/" + inv.getArgument(1));
+        when(uploader.upload(anyString(), anyString(), anyString(), any(InputStream.class))).thenAnswer(inv -> {
+            byte[] data = inv.<InputStream>getArgument(3).readAllBytes();
+            uploaded.put(inv.getArgument(1), data);
+            return (long) data.length;
+        });
+        when(writer.insert(any(), any(), any())).thenAnswer(inv -> {
+            batches.add(List.copyOf(inv.<List<NewFile>>getArgument(0)));
+            return List.of();
+        });
+    }
+
+    private static byte[] zip(Map<String, String> entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (var e : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(e.getKey()));
+                zip.write(e.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // the request body as small, unevenly cut buffers
+    private static Flux<DataBuffer> body(byte[] data, int chunk) {
+        return Flux.range(0, (data.length + chunk - 1) / chunk)
+                .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(
+                        Arrays.copyOfRange(data, i * chunk, Math.min(data.length, (i + 1) * chunk))));
+    }
+
+    @Test
+    void explodesArchiveIntoObjectsAndRows() throws IOException {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("docs/", "");
+        entries.put("docs/a.txt", "alpha");
+        entries.put("docs/b.txt", "bravo".repeat(10_000));
+        entries.put("c.json", "{}");
+        byte[] archive = zip(entries);
+
+        StepVerifier.create(importer.importArchive(body(archive, 333), "bundle.zip", 7, owner))
+                .expectNext(new ImportResult(3, 1, 5 + 50_000 + 2))
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+
+        assertThat(new String(uploaded.get("7/b.txt"), StandardCharsets.UTF_8)).isEqualTo("bravo".repeat(10_000));
+        assertThat(batches).hasSize(2);
+        assertThat(batches.stream().flatMap(List::stream).map(NewFile::name))
+                .containsExactly("a.txt", "b.txt", "c.json");
+        assertThat(batches.get(0)).allSatisfy(f -> assertThat(f.bucket()).isEqualTo("files"));
+    }
+
+    @Test
+    void brokenUploadFailsInsteadOfImportingAShortArchive() throws IOException {
+        byte[] archive = zip(Map.of("a.txt", "alpha".repeat(1000)));
+        Flux<DataBuffer> broken = body(Arrays.copyOf(archive, archive.length / 2), 100)
+                .concatWith(Flux.error(new IOException("connection reset")));
+
+        StepVerifier.create(importer.importArchive(broken, "bundle.zip", 7, owner))
+                .expectErrorSatisfies(e -> assertThat(e).isInstanceOf(IOException.class)
+                        .hasMessageContaining("connection reset"))
+                .verify(Duration.ofSeconds(10));
+        verify(writer, never()).insert(any(), any(), any());
+    }
+
+    @Test
+    void pipedBodyDeliversEveryByteInOrder() throws IOException {
+        byte[] data = new byte[1_000_000];
+        new Random(1).nextBytes(data);
+        try (InputStream in = new BulkImporter.PipedBody(body(data, 4096), 64 * 1024)) {
+            assertThat(in.readAllBytes()).isEqualTo(data);
+        }
+    }
+}
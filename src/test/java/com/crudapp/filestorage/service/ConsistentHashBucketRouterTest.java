@@ -0,0 +1,110 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.S3Props;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ConsistentHashBucketRouterTest {
+    private static final int USERS = 100_000;
+
+    private final S3Props props = new S3Props();
+
+    @Test
+    void usersSpreadInProportionToTheWeights() {
+        Map<String, Integer> counts = count(router(Map.of("a", 1, "b", 3, "c", 0)));
+
+        assertThat(share(counts, "a")).isCloseTo(0.25, within(0.02));
+        assertThat(share(counts, "b")).isCloseTo(0.75, within(0.02));
+        assertThat(counts).doesNotContainKey("c");
+    }
+
+    @Test
+    void everyBucketWithoutWeightIsAConfigurationError() {
+        assertThatThrownBy(() -> router(Map.of("a", 0))).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void pinnedTenantsGoToTheirBucketWhateverItsWeight() {
+        props.setTenants(Map.of(42, "c", 43, "a"));
+        BucketRouter router = router(Map.of("a", 1, "b", 1, "c", 0));
+
+        assertThat(router.bucketFor(42)).isEqualTo("c");
+        assertThat(router.bucketFor(43)).isEqualTo("a");
+    }
+
+    @Test
+    void pinningToAnUnknownBucketIsAConfigurationError() {
+        props.setTenants(Map.of(42, "missing"));
+
+        assertThatThrownBy(() -> router(Map.of("a", 1)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("s3.tenants.42");
+    }
+
+    @Test
+    void addingAShardMovesOnlyItsShareOfUsersAndOnlyOntoIt() {
+        BucketRouter before = router(Map.of("a", 1, "b", 1, "c", 1));
+        BucketRouter after = router(Map.of("a", 1, "b", 1, "c", 1, "d", 1));
+
+        int moved = 0;
+        for (int user = 1; user <= USERS; user++) {
+            String from = before.bucketFor(user);
+            String to = after.bucketFor(user);
+            if (!from.equals(to)) {
+                moved++;
+                assertThat(to).as("user %d", user).isEqualTo("d");
+            }
+        }
+        assertThat((double) moved / USERS).isCloseTo(0.25, within(0.02));
+    }
+
+    @Test
+    void routingDoesNotDependOnTheOrderOfTheTargets() {
+        BucketRouter forward = router(List.of(target("a", 1), target("b", 2)));
+        BucketRouter reverse = router(List.of(target("b", 2), target("a", 1)));
+
+        for (int user = 1; user <= 1000; user++) {
+            assertThat(reverse.bucketFor(user)).isEqualTo(forward.bucketFor(user));
+        }
+    }
+
+    private BucketRouter router(Map<String, Integer> weights) {
+        List<S3ClientPool.Target> targets = new ArrayList<>();
+        weights.forEach((bucket, weight) -> targets.add(target(bucket, weight)));
+        return router(targets);
+    }
+
+    private BucketRouter router(List<S3ClientPool.Target> targets) {
+        S3ClientPool pool = mock(S3ClientPool.class);
+        when(pool.targets()).thenReturn(targets);
+        return new ConsistentHashBucketRouter(pool, props);
+    }
+
+    private static S3ClientPool.Target target(String bucket, int weight) {
+        return new S3ClientPool.Target(bucket, "http://s3:9000", "http://s3:9000", weight, "us-east-1",
+                null, null, null);
+    }
+
+    private static Map<String, Integer> count(BucketRouter router) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int user = 1; user <= USERS; user++) {
+            counts.merge(router.bucketFor(user), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static double share(Map<String, Integer> counts, String bucket) {
+        return (double) counts.getOrDefault(bucket, 0) / USERS;
+    }
+}
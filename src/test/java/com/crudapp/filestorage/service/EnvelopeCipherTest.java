@@ -0,0 +1,174 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.EncryptionProps;
+import com.crudapp.filestorage.model.StorageFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EnvelopeCipherTest {
+    private static final int FRAME = 16;
+    private static final int SEALED = FRAME + EnvelopeCipher.TAG_BYTES;
+
+    private EnvelopeCipher cipher;
+    private EnvelopeCipher.DataKey dataKey;
+
+    @BeforeEach
+    void setUp() {
+        byte[] master = new byte[32];
+        new Random(1).nextBytes(master);
+        EncryptionProps props = new EncryptionProps();
+        props.setEnabled(true);
+        props.setMasterKey(Base64.getEncoder().encodeToString(master));
+        props.setFrameSize(DataSize.ofBytes(FRAME));
+        cipher = new EnvelopeCipher(props);
+        dataKey = cipher.newDataKey();
+    }
+
+    private static byte[] plaintext(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+
+    // cut into buffers that do not line up with frames
+    private static Flux<DataBuffer> chunks(byte[] data, int chunk) {
+        return Flux.range(0, (data.length + chunk - 1) / chunk)
+                .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(
+                        Arrays.copyOfRange(data, i * chunk, Math.min(data.length, (i + 1) * chunk))));
+    }
+
+    private static byte[] join(Flux<DataBuffer> body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.doOnNext(db -> {
+            byte[] b = new byte[db.readableByteCount()];
+            db.read(b);
+            DataBufferUtils.release(db);
+            out.writeBytes(b);
+        }).blockLast();
+        return out.toByteArray();
+    }
+
+    private byte[] encrypt(byte[] plain) {
+        return join(cipher.encrypt(chunks(plain, 7), dataKey));
+    }
+
+    private FileContent decrypting(byte[] sealed, long plainSize) {
+        FileContent object = new FileContent("f", "application/octet-stream", sealed.length, null, null,
+                (start, end) -> chunks(Arrays.copyOfRange(sealed, (int) start, (int) end + 1), 11));
+        StorageFile sf = StorageFile.builder()
+                .sizeBytes(plainSize)
+                .encryptionKey(dataKey.wrapped())
+                .encryptionFrameSize(dataKey.frameSize())
+                .build();
+        return cipher.decrypting(object, sf);
+    }
+
+    private static byte[] swapFrames(byte[] sealed, int a, int b) {
+        byte[] out = sealed.clone();
+        System.arraycopy(sealed, a * SEALED, out, b * SEALED, SEALED);
+        System.arraycopy(sealed, b * SEALED, out, a * SEALED, SEALED);
+        return out;
+    }
+
+    private static void assertRejected(FileContent content) {
+        assertThatThrownBy(() -> join(content.body()))
+                .isInstanceOf(ResponseStatusException.class)
+                .satisfies(e -> assertThat(((ResponseStatusException) e).getStatusCode()).isEqualTo(HttpStatus.BAD_GATEWAY));
+    }
+
+    @Test
+    void roundTrip() {
+        byte[] plain = plaintext(100);
+        byte[] sealed = encrypt(plain);
+
+        // six full frames and a partial one, each with its tag
+        assertThat(sealed).hasSize(100 + 7 * EnvelopeCipher.TAG_BYTES);
+        assertThat(join(decrypting(sealed, plain.length).body())).isEqualTo(plain);
+    }
+
+    @Test
+    void roundTripOfWholeFrames() {
+        byte[] plain = plaintext(FRAME * 4);
+        byte[] sealed = encrypt(plain);
+
+        assertThat(sealed).hasSize(4 * SEALED);
+        assertThat(join(decrypting(sealed, plain.length).body())).isEqualTo(plain);
+    }
+
+    @Test
+    void rangesAcrossFrameBoundaries() {
+        byte[] plain = plaintext(100);
+        FileContent content = decrypting(encrypt(plain), plain.length);
+        long[][] ranges = {{0, 0}, {0, 15}, {15, 16}, {5, 40}, {16, 31}, {31, 32}, {47, 99}, {96, 99}, {99, 99}, {1, 98}};
+        for (long[] r : ranges) {
+            assertThat(join(content.body(r[0], r[1])))
+                    .as("bytes %d-%d", r[0], r[1])
+                    .isEqualTo(Arrays.copyOfRange(plain, (int) r[0], (int) r[1] + 1));
+        }
+    }
+
+    @Test
+    void rejectsTruncatedObject() {
+        byte[] plain = plaintext(100);
+        byte[] sealed = encrypt(plain);
+
+        assertRejected(decrypting(Arrays.copyOf(sealed, 6 * SEALED), plain.length));
+        assertRejected(decrypting(Arrays.copyOf(sealed, sealed.length - 1), plain.length));
+    }
+
+    @Test
+    void rejectsObjectCutAtAFrameBoundary() {
+        // the last-frame flag is in the AAD: frame 2 of 4 was not sealed as the last one
+        byte[] plain = plaintext(FRAME * 4);
+        byte[] sealed = encrypt(plain);
+
+        assertRejected(decrypting(Arrays.copyOf(sealed, 2 * SEALED), FRAME * 2));
+    }
+
+    @Test
+    void rejectsReorderedFrames() {
+        byte[] plain = plaintext(100);
+        byte[] sealed = encrypt(plain);
+
+        assertRejected(decrypting(swapFrames(sealed, 1, 2), plain.length));
+        // a range that only touches the swapped frames fails as well
+        assertThatThrownBy(() -> join(decrypting(swapFrames(sealed, 1, 2), plain.length).body(20, 40)))
+                .isInstanceOf(ResponseStatusException.class);
+    }
+
+    @Test
+    void rejectsTamperedFrame() {
+        byte[] plain = plaintext(100);
+        byte[] sealed = encrypt(plain);
+        sealed[3 * SEALED + 5] ^= 1;
+
+        assertRejected(decrypting(sealed, plain.length));
+        // frames before the damaged one still read
+        assertThat(join(decrypting(sealed, plain.length).body(0, 3 * FRAME - 1)))
+                .isEqualTo(Arrays.copyOf(plain, 3 * FRAME));
+    }
+
+    @Test
+    void rejectsDataKeyOfAnotherFile() {
+        byte[] plain = plaintext(40);
+        byte[] sealed = encrypt(plain);
+        dataKey = cipher.newDataKey();
+
+        assertRejected(decrypting(sealed, plain.length));
+    }
+}
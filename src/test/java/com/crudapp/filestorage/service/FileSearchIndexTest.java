@@ -0,0 +1,171 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.SearchProps;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileSearchIndexTest {
+    private final DataSource dataSource = mock(DataSource.class);
+    // rows of `files` as {id, owner_id, name, content_type}, read by the rebuild and by its replay
+    private final List<Object[]> table = new ArrayList<>();
+    private final CountDownLatch connect = new CountDownLatch(1);
+    private FileSearchIndex index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Connection con = mock(Connection.class);
+        Statement bounds = mock(Statement.class);
+        PreparedStatement select = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenAnswer(inv -> {
+            assertThat(connect.await(10, TimeUnit.SECONDS)).isTrue();
+            return con;
+        });
+        when(con.createStatement()).thenReturn(bounds);
+        when(con.prepareStatement(anyString())).thenReturn(select);
+        when(bounds.executeQuery(anyString())).thenAnswer(inv -> resultSet(List.<Object[]>of(new Object[]{
+                table.stream().mapToInt(r -> (Integer) r[0]).min().orElse(0),
+                table.stream().mapToInt(r -> (Integer) r[0]).max().orElse(0)})));
+        when(select.executeQuery()).thenAnswer(inv -> resultSet(List.copyOf(table)));
+
+        index = new FileSearchIndex(new SearchProps(), dataSource);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connect.countDown();
+        index.shutdown();
+    }
+
+    @Test
+    void ranksExactAbovePrefixAboveFuzzy() {
+        rebuilt();
+        index.put(1, 7, "raport.pdf", "application/pdf");
+        index.put(2, 7, "reports.pdf", "application/pdf");
+        index.put(3, 7, "report.pdf", "application/pdf");
+        index.put(4, 7, "invoice.pdf", "application/pdf");
+        index.refresh();
+
+        assertThat(index.search("Report", 7, null, 10).ids()).containsExactly(3, 2, 1);
+    }
+
+    @Test
+    void filtersByOwner() {
+        rebuilt();
+        index.put(1, 7, "notes.txt", "text/plain");
+        index.put(2, 8, "notes.txt", "text/plain");
+        index.put(3, null, "notes.txt", "text/plain");
+        index.refresh();
+
+        assertThat(index.search("notes", 7, null, 10).ids()).containsExactly(1);
+        assertThat(index.search("notes", 8, null, 10).ids()).containsExactly(2);
+        assertThat(index.search("notes", 9, null, 10).ids()).isEmpty();
+        assertThat(index.search("notes", null, null, 10).ids()).containsExactlyInAnyOrder(1, 2, 3);
+    }
+
+    @Test
+    void pagesWithTheCursorOfTheLastHit() {
+        rebuilt();
+        for (int id = 1; id <= 7; id++) {
+            // two score groups, ties broken by id
+            index.put(id, 7, id % 2 == 0 ? "photo.jpg" : "photo-" + id + "-edited.jpg", "image/jpeg");
+        }
+        index.refresh();
+        List<Integer> all = index.search("photo", 7, null, 100).ids();
+        assertThat(all).hasSize(7);
+
+        List<Integer> paged = new ArrayList<>();
+        String after = null;
+        int pages = 0;
+        do {
+            FileSearchIndex.Hits page = index.search("photo", 7, after, 3);
+            paged.addAll(page.ids());
+            after = page.next();
+            pages++;
+        } while (after != null);
+
+        assertThat(paged).isEqualTo(all);
+        assertThat(pages).isEqualTo(3);
+        assertThatThrownBy(() -> index.search("photo", 7, "not-a-cursor", 3))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    void unavailableWhileTheRebuildRunsAndReplaysChangesMadeMeanwhile() throws Exception {
+        table.add(new Object[]{1, 7, "budget.xlsx", "application/vnd.ms-excel"});
+        table.add(new Object[]{2, 7, "final.docx", "application/msword"});
+        assertUnavailable();
+
+        // the loaders are stuck on the connection
+        index.rebuild();
+        assertUnavailable();
+        // renamed while loading: indexed from the table once the load is done, not from here
+        index.put(2, 7, "draft.docx", "application/msword");
+        connect.countDown();
+
+        awaitReady();
+        assertThat(index.search("budget", 7, null, 10).ids()).containsExactly(1);
+        assertThat(index.search("final", 7, null, 10).ids()).containsExactly(2);
+        assertThat(index.search("draft", 7, null, 10).ids()).isEmpty();
+    }
+
+    private void rebuilt() {
+        connect.countDown();
+        index.rebuild();
+        awaitReady();
+    }
+
+    private void awaitReady() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                index.search("x", null, null, 1);
+                return;
+            } catch (ResponseStatusException e) {
+                assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+                assertThat(System.nanoTime()).isLessThan(deadline);
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void assertUnavailable() {
+        assertThatThrownBy(() -> index.search("budget", 7, null, 10))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+    }
+
+    private static ResultSet resultSet(List<Object[]> rows) throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        AtomicInteger at = new AtomicInteger(-1);
+        when(rs.next()).thenAnswer(inv -> at.incrementAndGet() < rows.size());
+        when(rs.getObject(anyInt())).thenAnswer(inv -> rows.get(at.get())[inv.<Integer>getArgument(0) - 1]);
+        when(rs.getInt(anyInt())).thenAnswer(inv -> {
+            Object v = rows.get(at.get())[inv.<Integer>getArgument(0) - 1];
+            return v != null ? (Integer) v : 0;
+        });
+        when(rs.getString(anyInt())).thenAnswer(inv -> (String) rows.get(at.get())[inv.<Integer>getArgument(0) - 1]);
+        return rs;
+    }
+}
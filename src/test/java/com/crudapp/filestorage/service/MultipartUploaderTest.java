@@ -0,0 +1,135 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.ImportProps;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MultipartUploaderTest {
+    private static final int PART = 1024;
+
+    private final S3AsyncClient s3 = mock(S3AsyncClient.class);
+    private MultipartUploader uploader;
+
+    @BeforeEach
+    void setUp() {
+        ImportProps props = new ImportProps();
+        props.setPartSize(DataSize.ofBytes(PART));
+        props.setPartConcurrency(2);
+        uploader = new MultipartUploader(s3, props);
+    }
+
+    private static byte[] bytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] drain(AsyncRequestBody body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Flux.from(body).toStream().forEach(bb -> {
+            byte[] chunk = new byte[bb.remaining()];
+            bb.get(chunk);
+            out.writeBytes(chunk);
+        });
+        return out.toByteArray();
+    }
+
+    @Test
+    void smallStreamIsOnePut() throws Exception {
+        byte[] data = bytes(PART - 1);
+        ArgumentCaptor<AsyncRequestBody> body = ArgumentCaptor.forClass(AsyncRequestBody.class);
+        when(s3.putObject(any(PutObjectRequest.class), body.capture()))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+
+        long size = uploader.upload("b", "k", "text/plain", new ByteArrayInputStream(data));
+
+        assertThat(size).isEqualTo(data.length);
+        assertThat(drain(body.getValue())).isEqualTo(data);
+        verify(s3, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void largeStreamIsUploadedInOrderedParts() throws Exception {
+        byte[] data = bytes(PART * 2 + PART / 2);
+        Map<Integer, byte[]> parts = new ConcurrentSkipListMap<>();
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("u1").build()));
+        when(s3.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class))).thenAnswer(inv -> {
+            UploadPartRequest req = inv.getArgument(0);
+            byte[] chunk = drain(inv.getArgument(1));
+            assertThat(req.contentLength()).isEqualTo(chunk.length);
+            parts.put(req.partNumber(), chunk);
+            return CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("e" + req.partNumber()).build());
+        });
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        when(s3.completeMultipartUpload(complete.capture()))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+
+        long size = uploader.upload("b", "k", "application/octet-stream", new ByteArrayInputStream(data));
+
+        assertThat(size).isEqualTo(data.length);
+        assertThat(parts).containsOnlyKeys(1, 2, 3);
+        ByteBuffer joined = ByteBuffer.allocate(data.length);
+        parts.values().forEach(joined::put);
+        assertThat(joined.array()).isEqualTo(data);
+        assertThat(complete.getValue().uploadId()).isEqualTo("u1");
+        assertThat(complete.getValue().multipartUpload().parts())
+                .extracting(CompletedPart::partNumber, CompletedPart::eTag)
+                .containsExactly(
+                        tuple(1, "e1"),
+                        tuple(2, "e2"),
+                        tuple(3, "e3"));
+    }
+
+    @Test
+    void failedPartAbortsTheUpload() {
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("u2").build()));
+        when(s3.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("boom")));
+        when(s3.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+
+        assertThatThrownBy(() -> uploader.upload("b", "k", null, new ByteArrayInputStream(bytes(PART * 2))))
+                .isInstanceOf(CompletionException.class)
+                .hasRootCauseMessage("boom");
+        ArgumentCaptor<AbortMultipartUploadRequest> abort = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+        verify(s3).abortMultipartUpload(abort.capture());
+        assertThat(abort.getValue().uploadId()).isEqualTo("u2");
+        verify(s3, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+}
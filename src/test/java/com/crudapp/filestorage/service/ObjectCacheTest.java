@@ -0,0 +1,207 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.CacheProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ObjectCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private final S3AsyncClient client = mock(S3AsyncClient.class);
+    private final S3ClientPool pool = mock(S3ClientPool.class);
+    private final CacheProps props = new CacheProps();
+
+    @BeforeEach
+    void setUp() {
+        props.setEnabled(true);
+        props.setDir(dir.toString());
+        props.setMaxSize(DataSize.ofBytes(100));
+        when(pool.client(anyString())).thenReturn(client);
+    }
+
+    private ObjectCache cache() throws IOException {
+        return new ObjectCache(pool, props);
+    }
+
+    private static Flux<DataBuffer> body(String... chunks) {
+        return Flux.fromArray(chunks).map(c -> DefaultDataBufferFactory.sharedInstance.wrap(c.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String join(Flux<DataBuffer> body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.doOnNext(db -> {
+            byte[] b = new byte[db.readableByteCount()];
+            db.read(b);
+            DataBufferUtils.release(db);
+            out.writeBytes(b);
+        }).blockLast();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private ObjectCache.Entry fill(ObjectCache cache, String key, String content) {
+        assertThat(join(cache.tee("b", key, "\"" + key + "\"", "text/plain", body(content)))).isEqualTo(content);
+        return cache.lookup("b", key).block();
+    }
+
+    private long filesWithSuffix(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(suffix)).count();
+        }
+    }
+
+    @Test
+    void teePassesBodyThroughAndAddsEntry() throws IOException {
+        ObjectCache cache = cache();
+
+        assertThat(join(cache.tee("b", "k", "\"e\"", "text/plain", body("hello ", "world")))).isEqualTo("hello world");
+
+        ObjectCache.Entry e = cache.lookup("b", "k").block();
+        assertThat(e).isNotNull();
+        assertThat(e.eTag()).isEqualTo("\"e\"");
+        assertThat(join(cache.read(e, 6, 10))).isEqualTo("world");
+        assertThat(filesWithSuffix(ObjectCache.TMP_SUFFIX)).isZero();
+    }
+
+    @Test
+    void cancelledOrFailedFillLeavesNoEntry() throws IOException {
+        ObjectCache cache = cache();
+
+        cache.tee("b", "k", "\"e\"", "text/plain", body("a", "b", "c")).take(1).doOnNext(DataBufferUtils::release).blockLast();
+        assertThat(join(cache.tee("b", "k2", "\"e\"", "text/plain",
+                body("a").concatWith(Mono.error(new IOException("reset")))).onErrorResume(ex -> Mono.empty())))
+                .isEqualTo("a");
+
+        assertThat(cache.lookup("b", "k").block()).isNull();
+        assertThat(cache.lookup("b", "k2").block()).isNull();
+        assertThat(filesWithSuffix(ObjectCache.TMP_SUFFIX)).isZero();
+        assertThat(filesWithSuffix(ObjectCache.OBJECT_SUFFIX)).isZero();
+    }
+
+    @Test
+    void concurrentFillOfSameObjectIsPassedThrough() throws IOException {
+        ObjectCache cache = cache();
+        Sinks.Many<DataBuffer> first = Sinks.many().unicast().onBackpressureBuffer();
+        var inProgress = cache.tee("b", "k", "\"e\"", "text/plain", first.asFlux())
+                .doOnNext(DataBufferUtils::release)
+                .then()
+                .toFuture();
+
+        assertThat(join(cache.tee("b", "k", "\"e\"", "text/plain", body("second")))).isEqualTo("second");
+        first.tryEmitNext(DefaultDataBufferFactory.sharedInstance.wrap("first".getBytes(StandardCharsets.UTF_8)));
+        first.tryEmitComplete();
+        inProgress.join();
+
+        assertThat(join(cache.read(cache.lookup("b", "k").block(), 0, 4))).isEqualTo("first");
+    }
+
+    @Test
+    void startupKeepsForeignFilesAndRestoresEntries() throws IOException {
+        Path foreign = Files.writeString(dir.resolve("notes.txt"), "not ours");
+        ObjectCache before = cache();
+        fill(before, "k", "cached bytes");
+        Files.writeString(dir.resolve("stale" + ObjectCache.TMP_SUFFIX), "partial");
+        Files.writeString(dir.resolve("orphan" + ObjectCache.META_SUFFIX), "bucket=b");
+
+        // restored entries are revalidated on first use
+        when(client.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(HeadObjectResponse.builder().eTag("\"k\"").build()));
+        ObjectCache after = cache();
+
+        assertThat(foreign).exists();
+        assertThat(dir.resolve("stale" + ObjectCache.TMP_SUFFIX)).doesNotExist();
+        assertThat(dir.resolve("orphan" + ObjectCache.META_SUFFIX)).doesNotExist();
+        ObjectCache.Entry e = after.lookup("b", "k").block();
+        assertThat(e).isNotNull();
+        assertThat(e.contentType()).isEqualTo("text/plain");
+        assertThat(join(after.read(e, 0, e.size() - 1))).isEqualTo("cached bytes");
+    }
+
+    @Test
+    void changedObjectIsDroppedOnRevalidation() throws IOException {
+        fill(cache(), "k", "old");
+        when(client.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(HeadObjectResponse.builder().eTag("\"other\"").build()));
+
+        ObjectCache restarted = cache();
+
+        assertThat(restarted.lookup("b", "k").block()).isNull();
+        assertThat(filesWithSuffix(ObjectCache.OBJECT_SUFFIX)).isZero();
+        assertThat(filesWithSuffix(ObjectCache.META_SUFFIX)).isZero();
+    }
+
+    @Test
+    void evictionWaitsForReaders() throws IOException {
+        ObjectCache cache = cache();
+        ObjectCache.Entry old = fill(cache, "old", "x".repeat(60));
+        Sinks.Empty<Void> transfer = Sinks.empty();
+        var serving = cache.withPinned(old, path -> transfer.asMono()).subscribe();
+
+        // pushes the total over 100 bytes: "old" is evicted but still being served
+        fill(cache, "new", "y".repeat(60));
+        assertThat(cache.lookup("b", "old").block()).isNull();
+        assertThat(old.path()).exists();
+
+        transfer.tryEmitEmpty();
+        assertThat(serving.isDisposed()).isTrue();
+        assertThat(old.path()).doesNotExist();
+    }
+
+    @Test
+    void readPinsEntryUntilDone() throws IOException {
+        props.setMaxSize(DataSize.ofMegabytes(4));
+        ObjectCache cache = cache();
+        // two mapped chunks, so the read can be paused in between
+        ObjectCache.Entry e = fill(cache, "k", "x".repeat(1024 * 1024 + 10));
+        StringBuilder got = new StringBuilder();
+        BaseSubscriber<DataBuffer> reader = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(1);
+            }
+
+            @Override
+            protected void hookOnNext(DataBuffer db) {
+                got.append(db.toString(StandardCharsets.UTF_8));
+            }
+        };
+        cache.read(e, 0, e.size() - 1).subscribe(reader);
+
+        cache.invalidate("b", "k");
+        assertThat(e.path()).exists();
+
+        // the second chunk and the completion
+        reader.request(2);
+        assertThat(got).hasSize(1024 * 1024 + 10);
+        assertThat(e.path()).doesNotExist();
+    }
+}
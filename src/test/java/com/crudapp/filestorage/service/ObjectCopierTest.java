@@ -0,0 +1,126 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.TieringProps;
+import com.crudapp.filestorage.model.StorageTier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.CopyPartResult;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.StorageClass;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ObjectCopierTest {
+    private static final long GB = 1L << 30;
+
+    private final S3ClientPool pool = mock(S3ClientPool.class);
+    private final S3AsyncClient client = mock(S3AsyncClient.class);
+    private final TieringProps tiering = new TieringProps();
+    private ObjectCopier copier;
+
+    @BeforeEach
+    void setUp() {
+        when(pool.client(anyString())).thenReturn(client);
+        when(client.copyObject(any(CopyObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CopyObjectResponse.builder().build()));
+        when(client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("up-1").build()));
+        when(client.uploadPartCopy(any(UploadPartCopyRequest.class))).thenAnswer(inv -> {
+            UploadPartCopyRequest r = inv.getArgument(0);
+            return CompletableFuture.completedFuture(UploadPartCopyResponse.builder()
+                    .copyPartResult(CopyPartResult.builder().eTag("\"etag-" + r.partNumber() + "\"").build())
+                    .build());
+        });
+        when(client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+        when(client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+        tiering.setStorageClass("STANDARD_IA");
+        copier = new ObjectCopier(pool, tiering);
+    }
+
+    @Test
+    void objectsUpToFiveGbAreOneCopy() {
+        copier.copy("b", "old", "new", ObjectCopier.MAX_SINGLE_COPY, "text/plain", StorageTier.HOT).block();
+
+        ArgumentCaptor<CopyObjectRequest> copy = ArgumentCaptor.forClass(CopyObjectRequest.class);
+        verify(client).copyObject(copy.capture());
+        assertThat(copy.getValue().sourceBucket()).isEqualTo("b");
+        assertThat(copy.getValue().sourceKey()).isEqualTo("old");
+        assertThat(copy.getValue().destinationBucket()).isEqualTo("b");
+        assertThat(copy.getValue().destinationKey()).isEqualTo("new");
+        assertThat(copy.getValue().storageClass()).isNull();
+        verify(client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    void coldObjectsStayInTheColdStorageClass() {
+        copier.copy("b", "old", "new", 10, "text/plain", StorageTier.COLD).block();
+
+        ArgumentCaptor<CopyObjectRequest> copy = ArgumentCaptor.forClass(CopyObjectRequest.class);
+        verify(client).copyObject(copy.capture());
+        assertThat(copy.getValue().storageClass()).isEqualTo(StorageClass.STANDARD_IA);
+    }
+
+    @Test
+    void largerObjectsAreCopiedInRanges() {
+        long size = 6 * GB + 1;
+
+        copier.copy("b", "old", "new", size, "video/mp4", StorageTier.HOT).block();
+
+        ArgumentCaptor<CreateMultipartUploadRequest> create = ArgumentCaptor.forClass(CreateMultipartUploadRequest.class);
+        verify(client).createMultipartUpload(create.capture());
+        assertThat(create.getValue().contentType()).isEqualTo("video/mp4");
+
+        ArgumentCaptor<UploadPartCopyRequest> parts = ArgumentCaptor.forClass(UploadPartCopyRequest.class);
+        verify(client, atLeastOnce()).uploadPartCopy(parts.capture());
+        List<UploadPartCopyRequest> sent = parts.getAllValues();
+        assertThat(sent).hasSize(13);
+        assertThat(sent.get(0).copySourceRange()).isEqualTo("bytes=0-" + (ObjectCopier.PART_SIZE - 1));
+        assertThat(sent.get(12).copySourceRange()).isEqualTo("bytes=" + (size - 1) + "-" + (size - 1));
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(client).completeMultipartUpload(complete.capture());
+        assertThat(complete.getValue().multipartUpload().parts())
+                .extracting(CompletedPart::partNumber)
+                .containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13);
+        assertThat(complete.getValue().multipartUpload().parts().get(4).eTag()).isEqualTo("\"etag-5\"");
+    }
+
+    @Test
+    void failedPartAbortsTheUpload() {
+        when(client.uploadPartCopy(any(UploadPartCopyRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().statusCode(503).build()));
+
+        assertThatThrownBy(() -> copier.copy("b", "old", "new", 6 * GB, "video/mp4", StorageTier.HOT).block())
+                .isInstanceOf(S3Exception.class);
+
+        verify(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+}
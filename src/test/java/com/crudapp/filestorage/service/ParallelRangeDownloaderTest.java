@@ -0,0 +1,136 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.DownloadProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.service.ParallelRangeDownloader.RemoteObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ParallelRangeDownloaderTest {
+    private static final int MB = 1024 * 1024;
+
+    private final S3AsyncClient client = mock(S3AsyncClient.class);
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final DownloadProps props = new DownloadProps();
+    private byte[] object;
+
+    @BeforeEach
+    void setUp() {
+        object = new byte[10 * MB + 12345];
+        new Random(42).nextBytes(object);
+        props.setParallelThreshold(DataSize.ofMegabytes(1));
+        props.setMinPartSize(DataSize.ofMegabytes(1));
+        props.setMaxPartSize(DataSize.ofMegabytes(2));
+        props.setConcurrency(3);
+        // serves the requested range through whatever transformer the downloader passes,
+        // in 64 KiB chunks the way the HTTP client would
+        when(client.getObject(any(GetObjectRequest.class),
+                ArgumentMatchers.<AsyncResponseTransformer<GetObjectResponse, Object>>any())).thenAnswer(inv -> {
+            GetObjectRequest req = inv.getArgument(0);
+            AsyncResponseTransformer<GetObjectResponse, Object> transformer = inv.getArgument(1);
+            int from = 0;
+            int to = object.length - 1;
+            if (req.range() != null) {
+                ranges.add(req.range());
+                String[] r = req.range().substring("bytes=".length()).split("-");
+                from = Integer.parseInt(r[0]);
+                to = Integer.parseInt(r[1]);
+            }
+            byte[] body = Arrays.copyOfRange(object, from, to + 1);
+            CompletableFuture<Object> result = transformer.prepare();
+            transformer.onResponse(GetObjectResponse.builder().contentLength((long) body.length).build());
+            transformer.onStream(SdkPublisher.adapt(Flux.range(0, (body.length + 65535) / 65536)
+                    .map(i -> ByteBuffer.wrap(body, i * 65536, Math.min(65536, body.length - i * 65536)).slice())));
+            return result;
+        });
+    }
+
+    private ParallelRangeDownloader downloader() {
+        S3ClientPool pool = mock(S3ClientPool.class);
+        when(pool.client(anyString())).thenReturn(client);
+        return new ParallelRangeDownloader(pool, props);
+    }
+
+    private RemoteObject remote() {
+        return new RemoteObject("b", "k", object.length, "application/octet-stream", "\"etag\"");
+    }
+
+    private static byte[] join(Flux<ByteBuffer> body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.doOnNext(bb -> {
+            byte[] b = new byte[bb.remaining()];
+            bb.get(b);
+            out.writeBytes(b);
+        }).blockLast();
+        return out.toByteArray();
+    }
+
+    @Test
+    void reassemblesMultiPartObjectByteForByte() {
+        byte[] read = join(downloader().read(remote()));
+
+        assertThat(read).isEqualTo(object);
+        assertThat(ranges).hasSizeGreaterThan(1);
+    }
+
+    @Test
+    void reassemblesRangeThatDoesNotStartOnAPart() {
+        int start = 3 * MB + 7;
+        int end = 9 * MB - 3;
+
+        assertThat(join(downloader().read(remote(), start, end)))
+                .isEqualTo(Arrays.copyOfRange(object, start, end + 1));
+        assertThat(ranges).hasSizeGreaterThan(1);
+    }
+
+    @Test
+    void streamsWithOneRequestWhenBudgetIsSpent() {
+        props.setBufferBudget(DataSize.ofMegabytes(3));
+        ParallelRangeDownloader downloader = downloader();
+
+        assertThat(join(downloader.read(remote()))).isEqualTo(object);
+        assertThat(ranges).isEmpty();
+    }
+
+    @Test
+    void releasesBudgetWhenReadEnds() {
+        // room for exactly one window of (3 + 1) parts of 1 MiB
+        props.setMaxPartSize(DataSize.ofMegabytes(1));
+        props.setBufferBudget(DataSize.ofMegabytes(4));
+        ParallelRangeDownloader downloader = downloader();
+
+        assertThat(join(downloader.read(remote()))).isEqualTo(object);
+        int first = ranges.size();
+        assertThat(first).isGreaterThan(1);
+        assertThat(join(downloader.read(remote()))).isEqualTo(object);
+        assertThat(ranges).hasSize(first * 2);
+
+        // a read cancelled half way gives its reservation back as well
+        downloader.read(remote()).take(3).blockLast();
+        ranges.clear();
+        assertThat(join(downloader.read(remote()))).isEqualTo(object);
+        assertThat(ranges).hasSize(first);
+    }
+}
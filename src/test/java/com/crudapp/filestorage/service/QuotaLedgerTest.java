@@ -0,0 +1,100 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.QuotaProps;
+import com.crudapp.filestorage.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class QuotaLedgerTest {
+    private final QuotaProps props = new QuotaProps();
+    private final UserCounters counters = mock(UserCounters.class);
+    private final User user = User.builder().id(7).build();
+    private QuotaLedger ledger;
+
+    @BeforeEach
+    void setUp() {
+        props.setEnabled(true);
+        props.setDefaultLimit(DataSize.ofBytes(1000));
+        when(counters.get(7, UserCounters.BYTES)).thenReturn(0L);
+        ledger = new QuotaLedger(props, counters);
+    }
+
+    @Test
+    void disabledByDefault() {
+        assertThat(new QuotaProps().isEnabled()).isFalse();
+        assertThat(new QuotaLedger(new QuotaProps(), counters).limit(user)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void chunkCrossingTheLimitFailsWith413AndReservesNothing() {
+        try (QuotaLedger.Reservation r = ledger.open(user)) {
+            r.grow(600);
+            assertThatThrownBy(() -> r.grow(500))
+                    .isInstanceOf(QuotaExceededException.class)
+                    .satisfies(e -> assertThat(((QuotaExceededException) e).getStatusCode())
+                            .isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+            assertThat(r.bytes()).isEqualTo(600);
+        }
+        // the aborted upload gave everything back
+        try (QuotaLedger.Reservation r = ledger.open(user)) {
+            r.grow(1000);
+        }
+    }
+
+    @Test
+    void concurrentUploadsShareTheLimit() {
+        try (QuotaLedger.Reservation a = ledger.open(user); QuotaLedger.Reservation b = ledger.open(user)) {
+            a.grow(700);
+            assertThatThrownBy(() -> b.grow(400)).isInstanceOf(QuotaExceededException.class);
+            b.grow(300);
+        }
+    }
+
+    @Test
+    void reconcileKeepsCommitsOfBusyAccounts() {
+        QuotaLedger.Reservation inFlight = ledger.open(user);
+        try (QuotaLedger.Reservation done = ledger.open(user)) {
+            done.grow(800);
+            done.commit();
+        }
+        // the counter read races the commit above and still says 0
+        ledger.reconcile();
+
+        assertThatThrownBy(() -> inFlight.grow(300)).isInstanceOf(QuotaExceededException.class);
+        inFlight.close();
+    }
+
+    @Test
+    void reconcileDropsIdleAccountsAndReloadsThem() {
+        try (QuotaLedger.Reservation r = ledger.open(user)) {
+            r.grow(800);
+            r.commit();
+        }
+        // versions were pruned: the counter went down behind the ledger's back
+        when(counters.get(7, UserCounters.BYTES)).thenReturn(100L);
+        ledger.reconcile();
+
+        try (QuotaLedger.Reservation r = ledger.open(user)) {
+            r.grow(900);
+        }
+    }
+
+    @Test
+    void releaseFreesDeletedBytes() {
+        try (QuotaLedger.Reservation r = ledger.open(user)) {
+            r.grow(900);
+            r.commit();
+            ledger.release(7, 500);
+        }
+        QuotaLedger.Reservation next = ledger.open(user);
+        next.grow(600);
+        next.close();
+    }
+}
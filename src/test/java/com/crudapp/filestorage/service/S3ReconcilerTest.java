@@ -0,0 +1,185 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.ReconcilerProps;
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.TieringProps;
+import com.crudapp.filestorage.model.ReconcilerCheckpoint;
+import com.crudapp.filestorage.model.StorageTier;
+import com.crudapp.filestorage.repository.FileVersionRepository;
+import com.crudapp.filestorage.repository.ReconcilerCheckpointRepository;
+import com.crudapp.filestorage.repository.StorageFileRepository;
+import com.crudapp.filestorage.repository.StorageFileRepository.KeyRow;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Publisher;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class S3ReconcilerTest {
+    private static final Instant OLD = Instant.now().minus(Duration.ofDays(3));
+    private static final Instant FRESH = Instant.now();
+
+    record Row(Integer id, String objectKey, String status, String tier) implements KeyRow {
+        public Integer getId() { return id; }
+        public String getObjectKey() { return objectKey; }
+        public String getStatus() { return status; }
+        public String getTier() { return tier; }
+    }
+
+    private final S3AsyncClient client = mock(S3AsyncClient.class);
+    private final S3ClientPool pool = mock(S3ClientPool.class);
+    private final StorageFileRepository files = mock(StorageFileRepository.class);
+    private final FileVersionRepository versions = mock(FileVersionRepository.class);
+    private final ReconcilerCheckpointRepository checkpoints = mock(ReconcilerCheckpointRepository.class);
+    private final ObjectLocations locations = mock(ObjectLocations.class);
+    private final TieringProps tiering = new TieringProps();
+    private final ReconcilerProps props = new ReconcilerProps();
+
+    // bucket -> objects / rows
+    private final Map<String, List<S3Object>> objects = new HashMap<>();
+    private final Map<String, List<KeyRow>> rows = new HashMap<>();
+    private final List<String> deleted = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        props.setDeletesPerSecond(1_000_000);
+        S3ClientPool.Target hot = new S3ClientPool.Target("hot", "http://s3", "http://s3", 1, "us-east-1", null, client, null);
+        when(pool.targets()).thenReturn(List.of(hot));
+        when(pool.mainBucket()).thenReturn("hot");
+        when(pool.client(anyString())).thenReturn(client);
+        when(pool.sameEndpoint(anyString(), anyString())).thenReturn(true);
+        when(locations.bucket(anyString(), any())).thenAnswer(inv ->
+                inv.getArgument(1) == StorageTier.COLD && tiering.getColdBucket() != null
+                        ? tiering.getColdBucket() : inv.getArgument(0));
+        when(checkpoints.findById(anyString())).thenReturn(Optional.empty());
+        when(checkpoints.save(any(ReconcilerCheckpoint.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        when(client.listObjectsV2Paginator(any(ListObjectsV2Request.class)))
+                .thenAnswer(inv -> new ListObjectsV2Publisher(client, inv.getArgument(0)));
+        // one page, in the order S3 lists keys: by UTF-8 bytes
+        when(client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(inv -> {
+            ListObjectsV2Request req = inv.getArgument(0);
+            List<S3Object> listed = new ArrayList<>(objects.getOrDefault(req.bucket(), List.of()));
+            listed.sort((a, b) -> S3Reconciler.compareKeys(a.key(), b.key()));
+            return CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                    .contents(listed).isTruncated(false).build());
+        });
+        when(client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(inv -> {
+            DeleteObjectsRequest req = inv.getArgument(0);
+            req.delete().objects().stream().map(ObjectIdentifier::key).forEach(k -> deleted.add(req.bucket() + ":" + k));
+            return CompletableFuture.completedFuture(DeleteObjectsResponse.builder().build());
+        });
+        // keyset pages as utf8mb4_bin returns them
+        when(files.findKeysAfter(anyString(), anyString(), anyString(), anyInt())).thenAnswer(inv -> {
+            String bucket = inv.getArgument(0);
+            String after = inv.getArgument(1);
+            String upper = inv.getArgument(2);
+            int limit = inv.getArgument(3);
+            return rows.getOrDefault(bucket, List.of()).stream()
+                    .filter(r -> S3Reconciler.compareKeys(r.getObjectKey(), after) > 0
+                            && S3Reconciler.compareKeys(r.getObjectKey(), upper) < 0)
+                    .sorted((a, b) -> S3Reconciler.compareKeys(a.getObjectKey(), b.getObjectKey()))
+                    .limit(limit)
+                    .toList();
+        });
+        when(versions.findKeysAfter(anyString(), anyString(), anyString(), anyInt())).thenReturn(List.of());
+    }
+
+    private void object(String bucket, String key, Instant lastModified) {
+        objects.computeIfAbsent(bucket, b -> new ArrayList<>())
+                .add(S3Object.builder().key(key).lastModified(lastModified).size(1L).build());
+    }
+
+    private void row(String bucket, String key, String status, StorageTier tier) {
+        rows.computeIfAbsent(bucket, b -> new ArrayList<>())
+                .add(new Row(rows.size() + 1, key, status, tier.name()));
+    }
+
+    private S3Reconciler reconciler() {
+        return new S3Reconciler(pool, props, tiering, locations, files, versions, checkpoints);
+    }
+
+    @Test
+    void keysCompareByUtf8BytesNotUtf16Units() {
+        // U+FFFD is one UTF-16 unit above the surrogates of U+1F600, but below it in UTF-8
+        assertThat("a�".compareTo("a😀")).isPositive();
+        assertThat(S3Reconciler.compareKeys("a�", "a😀")).isNegative();
+        assertThat(S3Reconciler.compareKeys("ab", "abc")).isNegative();
+        assertThat(S3Reconciler.compareKeys("u1/x", "u1/x")).isZero();
+    }
+
+    @Test
+    void keysOutsideTheBmpAreMatchedToTheirRows() {
+        for (String key : List.of("u1/a�.txt", "u1/a😀.txt", "u1/b.txt", "u1/📁/c.txt")) {
+            object("hot", key, OLD);
+            row("hot", key, "ACTIVE", StorageTier.HOT);
+        }
+
+        reconciler().run();
+
+        assertThat(deleted).isEmpty();
+    }
+
+    @Test
+    void deletesOldOrphansAndArchivedObjectsOnly() {
+        object("hot", "u1/orphan-old", OLD);
+        object("hot", "u1/orphan-new", FRESH);
+        object("hot", "u1/archived", FRESH);
+        row("hot", "u1/archived", "ARCHIVED", StorageTier.HOT);
+        object("hot", "u1/live", OLD);
+        row("hot", "u1/live", "ACTIVE", StorageTier.HOT);
+        row("hot", "u1/missing", "ACTIVE", StorageTier.HOT);
+
+        reconciler().run();
+
+        assertThat(deleted).containsExactlyInAnyOrder("hot:u1/orphan-old", "hot:u1/archived");
+    }
+
+    @Test
+    void coldBucketIsReconciledAgainstHotRows() {
+        tiering.setColdBucket("cold");
+        // moved to the cold tier: the row still names the hot bucket
+        object("cold", "u1/cold-live", OLD);
+        row("hot", "u1/cold-live", "ACTIVE", StorageTier.COLD);
+        // nothing points at it
+        object("cold", "u1/cold-orphan", OLD);
+        // a copy left in the cold bucket of a file that is HOT again
+        object("cold", "u1/restored", OLD);
+        object("hot", "u1/restored", OLD);
+        row("hot", "u1/restored", "ACTIVE", StorageTier.HOT);
+        // a move to COLD whose delete of the hot copy failed
+        object("hot", "u1/moved", OLD);
+        object("cold", "u1/moved", OLD);
+        row("hot", "u1/moved", "ACTIVE", StorageTier.COLD);
+        // a move in flight: the copy is younger than the grace period
+        object("cold", "u1/moving", FRESH);
+        object("hot", "u1/moving", OLD);
+        row("hot", "u1/moving", "ACTIVE", StorageTier.HOT);
+
+        reconciler().run();
+
+        assertThat(deleted).containsExactlyInAnyOrder("cold:u1/cold-orphan", "cold:u1/restored", "hot:u1/moved");
+    }
+}
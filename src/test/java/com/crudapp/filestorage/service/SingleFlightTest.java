@@ -0,0 +1,86 @@
+package com.crudapp.filestorage.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SingleFlightTest {
+    private final SingleFlight<Integer, String> flight = new SingleFlight<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<Sinks.One<String>> pending = new ArrayList<>();
+
+    private Mono<String> load(int key) {
+        return flight.load(key, () -> {
+            loads.incrementAndGet();
+            Sinks.One<String> sink = Sinks.one();
+            pending.add(sink);
+            return sink.asMono();
+        });
+    }
+
+    @Test
+    void overlappingCallersShareOneLoad() {
+        List<String> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) load(1).subscribe(results::add);
+
+        assertThat(loads).hasValue(1);
+        pending.get(0).tryEmitValue("row");
+
+        assertThat(results).hasSize(10).containsOnly("row");
+        assertThat(flight.inFlight()).isZero();
+    }
+
+    @Test
+    void laterCallersLoadAgain() {
+        load(1).subscribe();
+        pending.get(0).tryEmitValue("old");
+
+        StepVerifier.create(load(1))
+                .then(() -> pending.get(1).tryEmitValue("new"))
+                .expectNext("new")
+                .verifyComplete();
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void errorsReachEveryCallerAndAreNotKept() {
+        StepVerifier.create(load(1).zipWith(load(1)))
+                .then(() -> pending.get(0).tryEmitError(new IllegalStateException("db down")))
+                .expectErrorMessage("db down")
+                .verify(Duration.ofSeconds(5));
+        assertThat(loads).hasValue(1);
+        assertThat(flight.inFlight()).isZero();
+
+        load(1).subscribe();
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void keysLoadIndependently() {
+        load(1).subscribe();
+        load(2).subscribe();
+
+        assertThat(loads).hasValue(2);
+        assertThat(flight.inFlight()).isEqualTo(2);
+    }
+
+    @Test
+    void cancelledCallerDoesNotCancelTheOthers() {
+        var first = load(1).subscribe();
+        List<String> results = new ArrayList<>();
+        load(1).subscribe(results::add);
+
+        first.dispose();
+        pending.get(0).tryEmitValue("row");
+
+        assertThat(results).containsExactly("row");
+    }
+}
@@ -0,0 +1,83 @@
+package com.crudapp.filestorage.service;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingChecksumTest {
+
+    private final NettyDataBufferFactory factory = new NettyDataBufferFactory(new UnpooledByteBufAllocator(false));
+
+    private static String crc32c(String... chunks) {
+        StreamingChecksum checksum = StreamingChecksum.crc32c();
+        for (String chunk : chunks) {
+            checksum.update(ByteBuffer.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+        }
+        return checksum.crc32cValue();
+    }
+
+    private List<DataBuffer> buffers(String... chunks) {
+        return Arrays.stream(chunks).<DataBuffer>map(c -> factory.wrap(c.getBytes(StandardCharsets.UTF_8))).toList();
+    }
+
+    @Test
+    void passesIntactBodyThrough() {
+        List<DataBuffer> body = buffers("hello ", "checksum ", "world");
+        StepVerifier.create(StreamingChecksum.verified(Flux.fromIterable(body), crc32c("hello ", "checksum ", "world"), "k")
+                        .map(db -> {
+                            String s = db.toString(StandardCharsets.UTF_8);
+                            DataBufferUtils.release(db);
+                            return s;
+                        }))
+                .expectNext("hello ", "checksum ", "world")
+                .verifyComplete();
+        body.forEach(db -> assertThat(((PooledDataBuffer) db).isAllocated()).isFalse());
+    }
+
+    @Test
+    void rejectsCorruptedBodyAndReleasesHeldBuffer() {
+        List<DataBuffer> body = buffers("hello ", "checksun ", "world");
+        StepVerifier.create(StreamingChecksum.verified(Flux.fromIterable(body), crc32c("hello ", "checksum ", "world"), "k")
+                        .doOnNext(DataBufferUtils::release))
+                .expectNextCount(2)
+                .expectErrorSatisfies(e -> assertThat(e)
+                        .isInstanceOf(ResponseStatusException.class)
+                        .hasMessageContaining("Checksum mismatch"))
+                .verify();
+        body.forEach(db -> assertThat(((PooledDataBuffer) db).isAllocated()).isFalse());
+    }
+
+    @Test
+    void releasesHeldBufferOnUpstreamError() {
+        List<DataBuffer> body = buffers("partial");
+        Flux<DataBuffer> failing = Flux.fromIterable(body).concatWith(Flux.error(new IllegalStateException("reset")));
+        StepVerifier.create(StreamingChecksum.verified(failing, crc32c("partial"), "k"))
+                .expectError(IllegalStateException.class)
+                .verify();
+        assertThat(((PooledDataBuffer) body.get(0)).isAllocated()).isFalse();
+    }
+
+    @Test
+    void releasesHeldBufferOnCancel() {
+        List<DataBuffer> body = buffers("first", "second");
+        StepVerifier.create(StreamingChecksum.verified(Flux.fromIterable(body).concatWith(Flux.never()), crc32c("first", "second"), "k")
+                        .doOnNext(DataBufferUtils::release))
+                .expectNextCount(1)
+                .thenCancel()
+                .verify();
+        body.forEach(db -> assertThat(((PooledDataBuffer) db).isAllocated()).isFalse());
+    }
+}
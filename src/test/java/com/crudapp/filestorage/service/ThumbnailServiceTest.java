@@ -0,0 +1,203 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.config.ThumbnailProps;
+import com.crudapp.filestorage.model.FileStatus;
+import com.crudapp.filestorage.model.StorageFile;
+import com.crudapp.filestorage.repository.StorageFileRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import reactor.core.publisher.Flux;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ThumbnailServiceTest {
+    private final S3AsyncClient client = mock(S3AsyncClient.class);
+    private final S3Presigner presigner = mock(S3Presigner.class);
+    private final S3ClientPool pool = mock(S3ClientPool.class);
+    private final StorageFileRepository files = mock(StorageFileRepository.class);
+    private final ThumbnailProps props = new ThumbnailProps();
+    // objects written by the service, by key
+    private final Map<String, PutObjectRequest> puts = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+    private byte[] source;
+    private ThumbnailService thumbnails;
+
+    @BeforeEach
+    void setUp() {
+        when(pool.client(anyString())).thenReturn(client);
+        when(client.getObject(any(GetObjectRequest.class),
+                ArgumentMatchers.<AsyncResponseTransformer<GetObjectResponse, ResponseInputStream<GetObjectResponse>>>any()))
+                .thenAnswer(inv -> CompletableFuture.completedFuture(new ResponseInputStream<>(
+                        GetObjectResponse.builder().build(), AbortableInputStream.create(new ByteArrayInputStream(source)))));
+        when(client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class))).thenAnswer(inv -> {
+            PutObjectRequest req = inv.getArgument(0);
+            AsyncRequestBody body = inv.getArgument(1);
+            var out = new ByteArrayOutputStream();
+            Flux.from(body).doOnNext(bb -> {
+                byte[] b = new byte[bb.remaining()];
+                bb.get(b);
+                out.writeBytes(b);
+            }).blockLast();
+            bodies.put(req.key(), out.toByteArray());
+            puts.put(req.key(), req);
+            return CompletableFuture.completedFuture(PutObjectResponse.builder().build());
+        });
+        when(client.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeleteObjectsResponse.builder().build()));
+        when(files.updateThumbnailSizes(anyInt(), anyInt(), eq(FileStatus.ACTIVE), anyString())).thenReturn(1);
+
+        props.setSizes(List.of(512, 128));
+        props.setWorkers(1);
+        S3Props s3Props = new S3Props();
+        s3Props.setBucket("main");
+        thumbnails = new ThumbnailService(client, presigner, s3Props, pool, props, files, mock(ObjectLocations.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        thumbnails.shutdown();
+    }
+
+    @Test
+    void storesEveryConfiguredSizeUnderTheFileVersion() throws IOException {
+        source = image(2000, 1000, false, "png");
+
+        thumbnails.submit(5, 2, "b", "u1/photo.png", "image/png", source.length, false);
+
+        verify(files, timeout(10_000)).updateThumbnailSizes(5, 2, FileStatus.ACTIVE, "128,512");
+        assertThat(puts.keySet()).containsExactlyInAnyOrder("sys/thumbs/5/2/128", "sys/thumbs/5/2/512");
+        assertThat(puts.get("sys/thumbs/5/2/512").bucket()).isEqualTo("main");
+        assertThat(puts.get("sys/thumbs/5/2/512").contentType()).isEqualTo("image/jpeg");
+        assertSize(bodies.get("sys/thumbs/5/2/512"), 512, 256);
+        assertSize(bodies.get("sys/thumbs/5/2/128"), 128, 64);
+    }
+
+    @Test
+    void keepsTransparencyAsPng() throws IOException {
+        source = image(300, 600, true, "png");
+
+        thumbnails.submit(5, 1, "b", "u1/logo.png", "image/png", source.length, false);
+
+        verify(files, timeout(10_000)).updateThumbnailSizes(5, 1, FileStatus.ACTIVE, "128,512");
+        assertThat(puts.get("sys/thumbs/5/1/128").contentType()).isEqualTo("image/png");
+        assertSize(bodies.get("sys/thumbs/5/1/128"), 64, 128);
+        // smaller than the box: never upscaled
+        assertSize(bodies.get("sys/thumbs/5/1/512"), 256, 512);
+        assertThat(ImageIO.read(new ByteArrayInputStream(bodies.get("sys/thumbs/5/1/128"))).getColorModel().hasAlpha())
+                .isTrue();
+    }
+
+    @Test
+    void replacedWhileRenderingDropsItsOwnThumbnailsOnly() throws IOException {
+        source = image(800, 800, false, "jpeg");
+        when(files.updateThumbnailSizes(5, 1, FileStatus.ACTIVE, "128,512")).thenReturn(0);
+
+        thumbnails.submit(5, 1, "b", "u1/photo.jpg", "image/jpeg", source.length, false);
+
+        ArgumentCaptor<DeleteObjectsRequest> delete = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(client, timeout(10_000)).deleteObjects(delete.capture());
+        assertThat(delete.getValue().delete().objects()).extracting(ObjectIdentifier::key)
+                .containsExactlyInAnyOrder("sys/thumbs/5/1/128", "sys/thumbs/5/1/512");
+    }
+
+    @Test
+    void undecodableAndOversizedImagesAreRecordedAsEmpty() throws IOException {
+        source = "not an image".getBytes();
+        thumbnails.submit(5, 1, "b", "u1/fake.png", "image/png", source.length, false);
+        verify(files, timeout(10_000)).updateThumbnailSizes(5, 1, FileStatus.ACTIVE, "");
+
+        props.setMaxPixels(1000);
+        source = image(100, 100, false, "png");
+        thumbnails.submit(6, 1, "b", "u1/big.png", "image/png", source.length, false);
+        verify(files, timeout(10_000)).updateThumbnailSizes(6, 1, FileStatus.ACTIVE, "");
+
+        assertThat(puts).isEmpty();
+    }
+
+    @Test
+    void encryptedAndNonImageFilesAreNotQueued() throws IOException {
+        source = image(100, 100, false, "png");
+
+        thumbnails.submit(5, 1, "b", "u1/secret.png", "image/png", source.length, true);
+        thumbnails.submit(6, 1, "b", "u1/notes.txt", "text/plain", source.length, false);
+
+        verify(pool, after(300).never()).client(anyString());
+        verify(files, never()).updateThumbnailSizes(anyInt(), anyInt(), any(), anyString());
+    }
+
+    @Test
+    void urlPointsAtTheCurrentVersion() throws Exception {
+        PresignedGetObjectRequest presigned = mock(PresignedGetObjectRequest.class);
+        when(presigned.url()).thenReturn(new URL("https://s3.example.com/main/signed"));
+        when(presigner.presignGetObject(any(GetObjectPresignRequest.class))).thenReturn(presigned);
+        StorageFile sf = StorageFile.builder().id(5).version(3).thumbnailSizes("128,512").build();
+
+        assertThat(thumbnails.url(sf, 200).block()).isEqualTo("https://s3.example.com/main/signed");
+        // larger than every size: the largest one, whose URL is reused
+        thumbnails.url(sf, 1024).block();
+
+        ArgumentCaptor<GetObjectPresignRequest> req = ArgumentCaptor.forClass(GetObjectPresignRequest.class);
+        verify(presigner).presignGetObject(req.capture());
+        assertThat(req.getValue().getObjectRequest().key()).isEqualTo("sys/thumbs/5/3/512");
+    }
+
+    private static byte[] image(int w, int h, boolean alpha, String format) throws IOException {
+        BufferedImage img = new BufferedImage(w, h, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(alpha ? new Color(255, 0, 0, 128) : Color.RED);
+        g.fillRect(0, 0, w / 2, h);
+        g.dispose();
+        var out = new ByteArrayOutputStream();
+        ImageIO.write(img, format, out);
+        return out.toByteArray();
+    }
+
+    private static void assertSize(byte[] encoded, int w, int h) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(encoded));
+        assertThat(img.getWidth()).as("width").isEqualTo(w);
+        assertThat(img.getHeight()).as("height").isEqualTo(h);
+    }
+}
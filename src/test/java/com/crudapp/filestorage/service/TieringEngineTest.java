@@ -0,0 +1,143 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.TieringProps;
+import com.crudapp.filestorage.model.StorageTier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.StorageClass;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TieringEngineTest {
+    private final DataSource dataSource = mock(DataSource.class);
+    private final S3ClientPool pool = mock(S3ClientPool.class);
+    private final S3AsyncClient client = mock(S3AsyncClient.class);
+    private final ObjectLocations locations = mock(ObjectLocations.class);
+    private final ObjectCache cache = mock(ObjectCache.class);
+    private final TieringProps props = new TieringProps();
+    // candidate rows {id, bucket, object_key}, and the rows the flip to COLD reports
+    private final List<Object[]> candidates = new ArrayList<>();
+    private int flipped = 1;
+    private PreparedStatement flip;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Connection con = mock(Connection.class);
+        PreparedStatement select = mock(PreparedStatement.class);
+        flip = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(con);
+        when(con.prepareStatement(anyString())).thenAnswer(inv ->
+                inv.<String>getArgument(0).strip().startsWith("select") ? select : flip);
+        when(select.executeQuery()).thenAnswer(inv -> resultSet(List.copyOf(candidates)));
+        when(flip.executeUpdate()).thenAnswer(inv -> flipped);
+
+        when(pool.client(anyString())).thenReturn(client);
+        when(client.copyObject(any(CopyObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CopyObjectResponse.builder().build()));
+        when(client.deleteObject(any(DeleteObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeleteObjectResponse.builder().build()));
+        candidates.add(new Object[]{1, "b", "7/report.pdf"});
+    }
+
+    @Test
+    void copiesToTheColdBucketFlipsTheRowThenDropsTheHotCopy() throws Exception {
+        coldBucket("b-cold");
+
+        engine().run();
+
+        ArgumentCaptor<CopyObjectRequest> copy = ArgumentCaptor.forClass(CopyObjectRequest.class);
+        verify(client).copyObject(copy.capture());
+        assertThat(copy.getValue().sourceBucket()).isEqualTo("b");
+        assertThat(copy.getValue().destinationBucket()).isEqualTo("b-cold");
+        assertThat(copy.getValue().destinationKey()).isEqualTo("7/report.pdf");
+        assertThat(copy.getValue().storageClass()).isEqualTo(StorageClass.GLACIER_IR);
+        verify(flip).executeUpdate();
+        assertThat(deleted()).isEqualTo("b/7/report.pdf");
+        verify(cache).invalidate("b", "7/report.pdf");
+    }
+
+    @Test
+    void lostRaceWithAReplaceDropsTheColdCopy() throws Exception {
+        coldBucket("b-cold");
+        flipped = 0;
+
+        engine().run();
+
+        assertThat(deleted()).isEqualTo("b-cold/7/report.pdf");
+        verify(cache, never()).invalidate(anyString(), anyString());
+    }
+
+    @Test
+    void sameBucketOnlyChangesTheStorageClass() throws Exception {
+        coldBucket("b");
+
+        engine().run();
+
+        ArgumentCaptor<CopyObjectRequest> copy = ArgumentCaptor.forClass(CopyObjectRequest.class);
+        verify(client).copyObject(copy.capture());
+        assertThat(copy.getValue().destinationBucket()).isEqualTo("b");
+        verify(flip).executeUpdate();
+        verify(client, never()).deleteObject(any(DeleteObjectRequest.class));
+    }
+
+    @Test
+    void failedCopyLeavesTheRowHot() throws Exception {
+        coldBucket("b-cold");
+        when(client.copyObject(any(CopyObjectRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().statusCode(503).build()));
+
+        engine().run();
+
+        verify(flip, never()).executeUpdate();
+        verify(client, never()).deleteObject(any(DeleteObjectRequest.class));
+    }
+
+    private TieringEngine engine() {
+        props.setStorageClass("GLACIER_IR");
+        return new TieringEngine(dataSource, pool, props, locations, cache);
+    }
+
+    private void coldBucket(String cold) {
+        when(locations.bucket("b", StorageTier.HOT)).thenReturn("b");
+        when(locations.bucket("b", StorageTier.COLD)).thenReturn(cold);
+    }
+
+    private String deleted() {
+        ArgumentCaptor<DeleteObjectRequest> delete = ArgumentCaptor.forClass(DeleteObjectRequest.class);
+        verify(client).deleteObject(delete.capture());
+        return delete.getValue().bucket() + "/" + delete.getValue().key();
+    }
+
+    private static ResultSet resultSet(List<Object[]> rows) throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        AtomicInteger at = new AtomicInteger(-1);
+        when(rs.next()).thenAnswer(inv -> at.incrementAndGet() < rows.size());
+        when(rs.getInt(anyInt())).thenAnswer(inv -> (Integer) rows.get(at.get())[inv.<Integer>getArgument(0) - 1]);
+        when(rs.getString(anyInt())).thenAnswer(inv -> (String) rows.get(at.get())[inv.<Integer>getArgument(0) - 1]);
+        return rs;
+    }
+}
@@ -0,0 +1,177 @@
+package com.crudapp.filestorage.service;
+
+import com.crudapp.filestorage.config.S3ClientPool;
+import com.crudapp.filestorage.config.S3Props;
+import com.crudapp.filestorage.config.SpoolProps;
+import com.crudapp.filestorage.model.FileStatus;
+import com.crudapp.filestorage.model.StorageFile;
+import com.crudapp.filestorage.repository.StorageFileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UploadSpoolerTest {
+
+    @TempDir
+    Path dir;
+
+    private final S3AsyncClient client = mock(S3AsyncClient.class);
+    private final S3ClientPool pool = mock(S3ClientPool.class);
+    private final StorageFileRepository files = mock(StorageFileRepository.class);
+    private final ThumbnailService thumbnails = mock(ThumbnailService.class);
+    private final SpoolProps props = new SpoolProps();
+    private UploadSpooler spooler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        props.setEnabled(true);
+        props.setDir(dir.toString());
+        props.setBackoff(Duration.ofMillis(1));
+        when(pool.client(anyString())).thenReturn(client);
+        when(client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+        when(client.deleteObject(any(DeleteObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeleteObjectResponse.builder().build()));
+        spooler = new UploadSpooler(pool, new S3Props(), props, files, thumbnails);
+    }
+
+    private static StorageFile pending(int id) {
+        return StorageFile.builder()
+                .id(id)
+                .bucket("b")
+                .objectKey("u1/" + id)
+                .contentType("image/png")
+                .sizeBytes(5)
+                .status(FileStatus.PENDING)
+                .build();
+    }
+
+    private Path spoolFile(String name) throws IOException {
+        return Files.writeString(dir.resolve(name), "bytes");
+    }
+
+    @Test
+    void sweepPushesWhatARestartLeftPending() throws IOException {
+        Path left = spoolFile("7.spool");
+        when(files.findById(7)).thenReturn(Optional.of(pending(7)));
+        when(files.updateStatus(7, FileStatus.PENDING, FileStatus.ACTIVE)).thenReturn(1);
+
+        spooler.sweep();
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> !Files.exists(left));
+        verify(client).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+        verify(files).updateStatus(7, FileStatus.PENDING, FileStatus.ACTIVE);
+        verify(thumbnails).submit(eq(7), eq(1), eq("b"), eq("u1/7"), eq("image/png"), anyLong(), eq(false));
+    }
+
+    @Test
+    void sweepDropsSpoolFilesOfSettledOrMissingRows() throws IOException {
+        Path settled = spoolFile("8.spool");
+        Path missing = spoolFile("9.spool");
+        StorageFile active = pending(8);
+        active.setStatus(FileStatus.ACTIVE);
+        when(files.findById(8)).thenReturn(Optional.of(active));
+        when(files.findById(9)).thenReturn(Optional.empty());
+
+        spooler.sweep();
+
+        assertThat(settled).doesNotExist();
+        assertThat(missing).doesNotExist();
+        verify(client, never()).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+    }
+
+    @Test
+    void sweepSkipsUnexpectedNamesAndCarriesOn() throws IOException {
+        Path odd = spoolFile("backup-copy.spool");
+        Path left = spoolFile("10.spool");
+        when(files.findById(10)).thenReturn(Optional.of(pending(10)));
+        when(files.updateStatus(10, FileStatus.PENDING, FileStatus.ACTIVE)).thenReturn(1);
+
+        spooler.sweep();
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> !Files.exists(left));
+        assertThat(odd).exists();
+        verify(files, times(1)).findById(anyInt());
+    }
+
+    @Test
+    void sweepDeletesOnlyStaleParts() throws IOException {
+        Path stale = spoolFile("a.part");
+        Files.setLastModifiedTime(stale, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+        Path writing = spoolFile("b.part");
+
+        spooler.sweep();
+
+        assertThat(stale).doesNotExist();
+        assertThat(writing).exists();
+    }
+
+    @Test
+    void failedPushLeavesFilePendingForTheNextSweep() throws IOException {
+        props.setMaxAttempts(2);
+        when(client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("S3 down")));
+        Path left = spoolFile("11.spool");
+        when(files.findById(11)).thenReturn(Optional.of(pending(11)));
+
+        spooler.sweep();
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() ->
+                verify(client, times(2)).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)));
+        assertThat(left).exists();
+        verify(files, never()).updateStatus(anyInt(), any(), any());
+    }
+
+    @Test
+    void fileDeletedWhilePendingDropsTheObject() throws IOException {
+        Path left = spoolFile("12.spool");
+        when(files.findById(12)).thenReturn(Optional.of(pending(12)));
+        when(files.updateStatus(12, FileStatus.PENDING, FileStatus.ACTIVE)).thenReturn(0);
+
+        spooler.sweep();
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> !Files.exists(left));
+        verify(client).deleteObject(any(DeleteObjectRequest.class));
+        verify(thumbnails, never()).submit(any(), anyInt(), anyString(), anyString(), anyString(), anyLong(), anyBoolean());
+    }
+
+    @Test
+    void enabledSpoolNeedsADirectory() {
+        SpoolProps noDir = new SpoolProps();
+        noDir.setEnabled(true);
+
+        assertThatThrownBy(() -> new UploadSpooler(pool, new S3Props(), noDir, files, thumbnails))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("storage.spool.dir");
+    }
+}